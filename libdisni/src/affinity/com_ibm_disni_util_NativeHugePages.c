@@ -0,0 +1,86 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+#define _GNU_SOURCE
+#include <jni.h>
+#include <stdint.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include "com_ibm_disni_util_NativeHugePages.h"
+
+//maps length bytes aligned to alignment by trimming a larger mapping
+static void *map_aligned(size_t length, size_t alignment){
+	size_t total = length + alignment;
+	uintptr_t start, aligned;
+	void *addr = mmap(NULL, total, PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_ANONYMOUS, -1, 0);
+	if (addr == MAP_FAILED){
+		return NULL;
+	}
+	start = (uintptr_t) addr;
+	aligned = (start + alignment - 1) & ~((uintptr_t) alignment - 1);
+	if (aligned > start){
+		munmap(addr, aligned - start);
+	}
+	if (aligned + length < start + total){
+		munmap((void *) (aligned + length), start + total - aligned - length);
+	}
+	return (void *) aligned;
+}
+
+JNIEXPORT jobject JNICALL Java_com_ibm_disni_util_NativeHugePages__1allocate(JNIEnv *env, jclass c, jint size, jlong length, jlong alignment, jboolean hugetlb){
+	long pagesize = sysconf(_SC_PAGESIZE);
+	unsigned char *addr;
+	jobject buffer;
+	jlong i;
+
+	if (size <= 0 || length < size || alignment <= 0 || (alignment & (alignment - 1)) != 0){
+		return NULL;
+	}
+	if (hugetlb){
+		//huge pages are reserved at mmap time, the call fails if the pool is too small
+		addr = mmap(NULL, (size_t) length, PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_ANONYMOUS | MAP_HUGETLB, -1, 0);
+		if (addr == MAP_FAILED){
+			return NULL;
+		}
+	} else {
+		addr = map_aligned((size_t) length, (size_t) alignment);
+		if (addr == NULL){
+			return NULL;
+		}
+		madvise(addr, (size_t) length, MADV_HUGEPAGE);
+	}
+	if (mlock(addr, (size_t) length) != 0){
+		//locked memory limit too low, at least fault the pages in before registration
+		for (i = 0; i < length; i += pagesize){
+			addr[i] = 0;
+		}
+	}
+
+	buffer = (*env)->NewDirectByteBuffer(env, addr, (jlong) size);
+	if (buffer == NULL){
+		munmap(addr, (size_t) length);
+	}
+	return buffer;
+}
+
+JNIEXPORT void JNICALL Java_com_ibm_disni_util_NativeHugePages__1free(JNIEnv *env, jclass c, jlong address, jlong length){
+	munmap((void *) address, (size_t) length);
+}
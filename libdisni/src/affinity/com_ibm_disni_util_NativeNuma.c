@@ -0,0 +1,61 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+#define _GNU_SOURCE
+#include <jni.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include <sys/syscall.h>
+#include "com_ibm_disni_util_NativeNuma.h"
+
+//from numaif.h, libnuma is not required
+#define DISNI_MPOL_PREFERRED 1
+#define DISNI_MAX_NODES 1024
+#define DISNI_BITS_PER_LONG (8 * sizeof(unsigned long))
+
+JNIEXPORT jobject JNICALL Java_com_ibm_disni_util_NativeNuma__1allocate(JNIEnv *env, jclass c, jint size, jint node){
+	unsigned long mask[DISNI_MAX_NODES / DISNI_BITS_PER_LONG];
+	void *addr;
+	jobject buffer;
+
+	if (size <= 0 || node < 0 || node >= DISNI_MAX_NODES){
+		return NULL;
+	}
+	addr = mmap(NULL, (size_t) size, PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_ANONYMOUS, -1, 0);
+	if (addr == MAP_FAILED){
+		return NULL;
+	}
+	//pages are placed on the node when first touched, the policy only prefers the node if it runs out of memory
+	memset(mask, 0, sizeof(mask));
+	mask[node / DISNI_BITS_PER_LONG] = 1UL << (node % DISNI_BITS_PER_LONG);
+	syscall(SYS_mbind, addr, (unsigned long) size, DISNI_MPOL_PREFERRED, mask, (unsigned long) DISNI_MAX_NODES + 1, 0);
+
+	buffer = (*env)->NewDirectByteBuffer(env, addr, (jlong) size);
+	if (buffer == NULL){
+		munmap(addr, (size_t) size);
+	}
+	return buffer;
+}
+
+JNIEXPORT void JNICALL Java_com_ibm_disni_util_NativeNuma__1free(JNIEnv *env, jclass c, jlong address, jint size){
+	munmap((void *) address, (size_t) size);
+}
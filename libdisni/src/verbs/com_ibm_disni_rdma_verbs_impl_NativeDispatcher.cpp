@@ -50,7 +50,21 @@
 //#define MAX_WR 200;
 #define MAX_SGE 4;
 //#define N_CQE 200
-#define JVERBS_JNI_VERSION 32;
+#define JVERBS_JNI_VERSION 40;
+
+#define BATCH_POST_SEND 0
+#define BATCH_POST_RECV 1
+
+#define POST_POLL_POST_FAILED -1
+#define POST_POLL_POLL_FAILED -2
+
+//one entry of a _postBatch call, see NatBatchCall.java
+struct batch_entry {
+	uint64_t qp;
+	uint64_t wr_list;
+	uint32_t type;
+	int32_t status;
+};
 
 //global resource id counter
 static unsigned long long counter = 0;
@@ -137,10 +151,10 @@ JNIEXPORT jlong JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1cr
 /*
  * Class:     com_ibm_jverbs_nat_NativeDispatcher
  * Method:    _createQP
- * Signature: (IIJ)I
+ * Signature: (JJJJJIIII)J
  */
 JNIEXPORT jlong JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1createQP
-  (JNIEnv *env, jobject obj, jlong id, jlong pd, jlong sendcq, jlong recvcq, jint qptype, jint maxsendwr, jint maxrecvwr, jint maxinline){
+  (JNIEnv *env, jobject obj, jlong id, jlong pd, jlong sendcq, jlong recvcq, jlong srq, jint qptype, jint maxsendwr, jint maxrecvwr, jint maxinline){
 	struct rdma_cm_id *cm_listen_id = NULL;
 	struct ibv_pd *protection = NULL;
 	struct ibv_cq *send_cq = NULL;
@@ -167,6 +181,7 @@ JNIEXPORT jlong JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1cr
 		//qp_init_attr.qp_type = IBV_QPT_RC;
 		qp_init_attr.send_cq = send_cq;
 		qp_init_attr.recv_cq = recv_cq;
+		qp_init_attr.srq = (struct ibv_srq *)srq;
 
 		int ret = rdma_create_qp(cm_listen_id, protection, &qp_init_attr);
 		if (ret == 0){
@@ -731,6 +746,267 @@ JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1que
        return ret;
 }
 
+/*
+ * Class:     com_ibm_jverbs_nat_NativeDispatcher
+ * Method:    _queryLid
+ * Signature: (JI)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1queryLid
+  (JNIEnv *env, jobject obj, jlong ctx, jint port){
+	struct ibv_context *context = (struct ibv_context *)ctx;
+	struct ibv_port_attr port_attr;
+	jint ret = -1;
+
+	if (context != NULL){
+		if (ibv_query_port(context, (uint8_t) port, &port_attr) == 0){
+			ret = port_attr.lid;
+		} else {
+			log("j2c::queryLid: ibv_query_port failed %s\n", strerror(errno));
+		}
+	} else {
+		log("j2c::queryLid: context null\n");
+	}
+
+	return ret;
+}
+
+/*
+ * Class:     com_ibm_jverbs_nat_NativeDispatcher
+ * Method:    _queryGid
+ * Signature: (JIIJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1queryGid
+  (JNIEnv *env, jobject obj, jlong ctx, jint port, jint index, jlong gid){
+	struct ibv_context *context = (struct ibv_context *)ctx;
+	union ibv_gid *_gid = (union ibv_gid *)gid;
+	jint ret = -1;
+
+	if (context != NULL && _gid != NULL){
+		ret = ibv_query_gid(context, (uint8_t) port, index, _gid);
+		if (ret != 0){
+			log("j2c::queryGid: ibv_query_gid failed %s\n", strerror(errno));
+		}
+	} else {
+		log("j2c::queryGid: context or gid null\n");
+	}
+
+	return ret;
+}
+
+/*
+ * Class:     com_ibm_jverbs_nat_NativeDispatcher
+ * Method:    _createAH
+ * Signature: (JJ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1createAH
+  (JNIEnv *env, jobject obj, jlong pd, jlong attr){
+	struct ibv_pd *protection = (struct ibv_pd *)pd;
+	struct ibv_ah_attr *ah_attr = (struct ibv_ah_attr *)attr;
+	unsigned long long obj_id = -1;
+
+	if (protection != NULL && ah_attr != NULL){
+		struct ibv_ah *ah = ibv_create_ah(protection, ah_attr);
+		if (ah != NULL){
+			obj_id = createObjectId(ah);
+			log("j2c::createAH: obj_id %llu, dlid %u, port %u\n", obj_id, ah_attr->dlid, ah_attr->port_num);
+		} else {
+			log("j2c::createAH: ibv_create_ah failed %s\n", strerror(errno));
+		}
+	} else {
+		log("j2c::createAH: pd or attr null\n");
+	}
+
+	return obj_id;
+}
+
+/*
+ * Class:     com_ibm_jverbs_nat_NativeDispatcher
+ * Method:    _destroyAH
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1destroyAH
+  (JNIEnv *env, jobject obj, jlong ah){
+	struct ibv_ah *_ah = (struct ibv_ah *)ah;
+	jint ret = -1;
+
+	if (_ah != NULL){
+		ret = ibv_destroy_ah(_ah);
+	}
+
+	return ret;
+}
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _createSRQ
+ * Signature: (JIII)J
+ */
+JNIEXPORT jlong JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1createSRQ
+  (JNIEnv *env, jobject obj, jlong pd, jint maxwr, jint maxsge, jint limit){
+	struct ibv_pd *protection = (struct ibv_pd *)pd;
+	struct ibv_srq_init_attr srq_init_attr;
+	unsigned long long obj_id = -1;
+
+	if (protection != NULL){
+		memset(&srq_init_attr, 0, sizeof srq_init_attr);
+		srq_init_attr.attr.max_wr = maxwr;
+		srq_init_attr.attr.max_sge = maxsge;
+		srq_init_attr.attr.srq_limit = limit;
+		struct ibv_srq *srq = ibv_create_srq(protection, &srq_init_attr);
+		if (srq != NULL){
+			obj_id = createObjectId(srq);
+			log("j2c::createSRQ: obj_id %llu, max_wr %u, max_sge %u\n", obj_id, srq_init_attr.attr.max_wr, srq_init_attr.attr.max_sge);
+		} else {
+			log("j2c::createSRQ: ibv_create_srq failed %s\n", strerror(errno));
+		}
+	} else {
+		log("j2c::createSRQ: pd null\n");
+	}
+
+	return obj_id;
+}
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _modifySRQ
+ * Signature: (JI)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1modifySRQ
+  (JNIEnv *env, jobject obj, jlong srq, jint limit){
+	struct ibv_srq *_srq = (struct ibv_srq *)srq;
+	struct ibv_srq_attr srq_attr;
+	jint ret = -1;
+
+	if (_srq != NULL){
+		memset(&srq_attr, 0, sizeof srq_attr);
+		srq_attr.srq_limit = limit;
+		ret = ibv_modify_srq(_srq, &srq_attr, IBV_SRQ_LIMIT);
+		if (ret != 0){
+			log("j2c::modifySRQ: ibv_modify_srq failed %s\n", strerror(ret));
+		}
+	}
+
+	return ret;
+}
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _destroySRQ
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1destroySRQ
+  (JNIEnv *env, jobject obj, jlong srq){
+	struct ibv_srq *_srq = (struct ibv_srq *)srq;
+	jint ret = -1;
+
+	if (_srq != NULL){
+		ret = ibv_destroy_srq(_srq);
+	}
+
+	return ret;
+}
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _allocMw
+ * Signature: (JIJJ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1allocMw
+  (JNIEnv *env, jobject obj, jlong pd, jint type, jlong rkey, jlong handle){
+	struct ibv_pd *protection = (struct ibv_pd *)pd;
+	unsigned long long obj_id = -1;
+
+	if (protection != NULL){
+		struct ibv_mw *mw = ibv_alloc_mw(protection, (enum ibv_mw_type) type);
+		if (mw != NULL){
+			obj_id = createObjectId(mw);
+
+			int *_rkey = (int *) rkey;
+			int *_handle = (int *) handle;
+
+			*_rkey = mw->rkey;
+			*_handle = mw->handle;
+
+			log("j2c::allocMw: obj_id %p, type %i, rkey %u\n", (void *)obj_id, type, mw->rkey);
+		} else {
+			log("j2c::allocMw: ibv_alloc_mw failed %s\n", strerror(errno));
+		}
+	} else {
+		log("j2c::allocMw: pd null\n");
+	}
+
+	return obj_id;
+}
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _deallocMw
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1deallocMw
+  (JNIEnv *env, jobject obj, jlong mw){
+	struct ibv_mw *_mw = (struct ibv_mw *)mw;
+	jint ret = -1;
+
+	if (_mw != NULL){
+		ret = ibv_dealloc_mw(_mw);
+	}
+
+	return ret;
+}
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getAsyncEvent
+ * Signature: (JIJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getAsyncEvent
+  (JNIEnv *env, jobject obj, jlong context, jint timeout, jlong element){
+	struct ibv_context *_context = (struct ibv_context *)context;
+	unsigned long long *_element = (unsigned long long *)element;
+	struct ibv_async_event event;
+	struct pollfd pollfdasync;
+	jint ret = -2;
+
+	if (_context != NULL && _element != NULL){
+		pollfdasync.fd = _context->async_fd;
+		pollfdasync.events = POLLIN;
+		pollfdasync.revents = 0;
+		int res = poll(&pollfdasync, 1, timeout);
+		if (res == 0){
+			return -1;
+		}
+		if (res > 0 && ibv_get_async_event(_context, &event) == 0){
+			switch (event.event_type){
+			case IBV_EVENT_SRQ_ERR:
+			case IBV_EVENT_SRQ_LIMIT_REACHED:
+				*_element = (unsigned long long) event.element.srq;
+				break;
+			case IBV_EVENT_CQ_ERR:
+				*_element = (unsigned long long) event.element.cq;
+				break;
+			case IBV_EVENT_PORT_ACTIVE:
+			case IBV_EVENT_PORT_ERR:
+			case IBV_EVENT_LID_CHANGE:
+			case IBV_EVENT_PKEY_CHANGE:
+			case IBV_EVENT_SM_CHANGE:
+			case IBV_EVENT_CLIENT_REREGISTER:
+			case IBV_EVENT_GID_CHANGE:
+				*_element = (unsigned long long) event.element.port_num;
+				break;
+			default:
+				*_element = (unsigned long long) event.element.qp;
+			}
+			ret = event.event_type;
+			ibv_ack_async_event(&event);
+		} else {
+			log("j2c::getAsyncEvent: failed %s\n", strerror(errno));
+		}
+	}
+
+	return ret;
+}
+
 /*
  * Class:     com_ibm_jverbs_nat_NativeDispatcher
  * Method:    _expPrefetchMr
@@ -885,6 +1161,67 @@ JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1pos
 	return ret;
 }
 
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _postSrqRecv
+ * Signature: (JJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1postSrqRecv
+  (JNIEnv *env, jobject obj, jlong srq, jlong wrList){
+	struct ibv_srq *_srq = (struct ibv_srq *)srq;
+	struct ibv_recv_wr *wr = (struct ibv_recv_wr *) wrList;
+	struct ibv_recv_wr *bad_wr;
+	jint ret = -1;
+
+	if (_srq != NULL){
+		ret = ibv_post_srq_recv(_srq, wr, &bad_wr);
+		if (ret != 0){
+			log("j2c::post_srq_recv: ibv_post_srq_recv failed %s\n", strerror(ret));
+		}
+	} else {
+		log("j2c::post_srq_recv: srq null\n");
+	}
+
+	return ret;
+}
+
+/*
+ * Class:     com_ibm_jverbs_nat_NativeDispatcher
+ * Method:    _postBatch
+ * Signature: (JI)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1postBatch
+  (JNIEnv *env, jobject obj, jlong batch, jint count){
+	struct batch_entry *entries = (struct batch_entry *) batch;
+	jint failed = 0;
+
+	for (int i = 0; i < count; i++){
+		struct batch_entry *entry = &entries[i];
+		struct ibv_qp *queuepair = (struct ibv_qp *) entry->qp;
+		int ret = -1;
+		if (queuepair != NULL){
+			if (entry->type == BATCH_POST_SEND){
+				struct ibv_send_wr *bad_wr;
+				ret = ibv_post_send(queuepair, (struct ibv_send_wr *) entry->wr_list, &bad_wr);
+			} else {
+				struct ibv_recv_wr *bad_wr;
+				ret = ibv_post_recv(queuepair, (struct ibv_recv_wr *) entry->wr_list, &bad_wr);
+			}
+			if (ret != 0){
+				log("j2c::post_batch: entry %i failed %s\n", i, strerror(ret));
+			}
+		} else {
+			log("j2c::post_batch: queuepair null\n");
+		}
+		entry->status = ret;
+		if (ret != 0){
+			failed++;
+		}
+	}
+
+	return failed;
+}
+
 /*
  * Class:     com_ibm_jverbs_nat_NativeDispatcher
  * Method:    _getCqEvent
@@ -940,6 +1277,42 @@ JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1pol
 	return ret;
 }
 
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _postPoll
+ * Signature: (JJJIJI)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1postPoll
+  (JNIEnv *env, jobject obj, jlong qp, jlong wrList, jlong cq, jint ne, jlong wc_list, jint spins){
+	struct ibv_qp *queuepair = (struct ibv_qp *) qp;
+	struct ibv_send_wr *wr = (struct ibv_send_wr *) wrList;
+	struct ibv_send_wr *bad_wr;
+	struct ibv_cq *completionqueue = (struct ibv_cq *) cq;
+	struct ibv_wc *wc = (struct ibv_wc *) wc_list;
+	int polls = 0;
+	int ret;
+
+	if (queuepair == NULL || completionqueue == NULL){
+		log("j2c::post_poll: queuepair or completionqueue null\n");
+		return POST_POLL_POST_FAILED;
+	}
+	ret = ibv_post_send(queuepair, wr, &bad_wr);
+	if (ret != 0){
+		log("j2c::post_poll: ibv_post_send failed %s\n", strerror(ret));
+		return POST_POLL_POST_FAILED;
+	}
+	while (polls < ne && spins-- > 0){
+		ret = ibv_poll_cq(completionqueue, ne - polls, wc + polls);
+		if (ret < 0){
+			log("j2c::post_poll: ibv_poll_cq failed %i\n", ret);
+			return POST_POLL_POLL_FAILED;
+		}
+		polls += ret;
+	}
+
+	return polls;
+}
+
 /*
  * Class:     com_ibm_jverbs_nat_NativeDispatcher
  * Method:    _reqNotifyCQ
@@ -1058,6 +1431,28 @@ JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1get
 	return qpnum;
 }
 
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getQpMaxInline
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getQpMaxInline
+  (JNIEnv *env, jobject obj, jlong obj_id){
+	jint maxinline = -1;
+	struct ibv_qp_attr attr;
+	struct ibv_qp_init_attr init_attr;
+
+	struct ibv_qp * qp = (struct ibv_qp *)obj_id;
+	if (qp != NULL && ibv_query_qp(qp, &attr, IBV_QP_CAP, &init_attr) == 0){
+		maxinline = init_attr.cap.max_inline_data;
+		log("j2c::getQpMaxInline: obj_id %p, maxinline %i\n", (void *)obj_id, maxinline);
+	} else {
+		log("j2c::getQpMaxInline: failed, obj_id %p\n", (void *)obj_id);
+	}
+
+	return maxinline;
+}
+
 /*
  * Class:     com_ibm_zac_jverbs_impl_nat_NativeDispatcher
  * Method:    _getContextFd
@@ -1098,6 +1493,31 @@ JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1get
     return num_comp_vectors;
 }
 
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getContextDeviceName
+ * Signature: (JJI)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getContextDeviceName
+  (JNIEnv *env, jobject obj, jlong obj_id, jlong name, jint len) {
+    jint ret = -1;
+
+    struct ibv_context *context = (struct ibv_context *)obj_id;
+    char *_name = (char *) name;
+    if (context != NULL && _name != NULL) {
+        const char *dev_name = ibv_get_device_name(context->device);
+        if (dev_name != NULL) {
+            ret = strnlen(dev_name, len);
+            memcpy(_name, dev_name, ret);
+            log("j2c::getContextDeviceName: obj_id %llu, name %s\n", obj_id, dev_name);
+        }
+    } else {
+        log("j2c::getContextDeviceName: failed, obj_id %llu\n", obj_id);
+    }
+
+    return ret;
+}
+
 /*
  * Class:     com_ibm_zac_jverbs_impl_nat_NativeDispatcher
  * Method:    _getPdHandle
@@ -1120,6 +1540,25 @@ JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1get
 
 
 
+/*
+ * Class:     com_ibm_zac_jverbs_impl_nat_NativeDispatcher
+ * Method:    _getPortNum
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getPortNum
+  (JNIEnv *env, jobject obj, jlong id){
+	jint port = -1;
+
+	struct rdma_cm_id *cm_id = (struct rdma_cm_id *)id;
+	if (cm_id != NULL){
+		port = cm_id->port_num;
+	} else {
+		log("j2c::getPortNum: failed, obj_id %p\n", (void *)id);
+	}
+
+	return port;
+}
+
 /*
  * Class:     com_ibm_zac_jverbs_impl_nat_NativeDispatcher
  * Method:    _getSockAddrInSize
@@ -1191,6 +1630,56 @@ JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1get
 	return offsetof(struct ibv_send_wr, wr.rdma.rkey);	
 }
 
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getBindMwOffset
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getBindMwOffset
+  (JNIEnv *, jobject){
+	return offsetof(struct ibv_send_wr, bind_mw);
+}
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getContextOpsOffset
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getContextOpsOffset
+  (JNIEnv *, jobject){
+	return offsetof(struct ibv_context, ops);
+}
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getPollCqOffset
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getPollCqOffset
+  (JNIEnv *, jobject){
+	return offsetof(struct ibv_context_ops, poll_cq);
+}
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getPostSendOffset
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getPostSendOffset
+  (JNIEnv *, jobject){
+	return offsetof(struct ibv_context_ops, post_send);
+}
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getPostRecvOffset
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getPostRecvOffset
+  (JNIEnv *, jobject){
+	return offsetof(struct ibv_context_ops, post_recv);
+}
+
 /*
  * Class:     com_ibm_zac_jverbs_impl_nat_NativeDispatcher
  * Method:    _getVersion
@@ -26,10 +26,10 @@ JNIEXPORT jlong JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1cr
 /*
  * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
  * Method:    _createQP
- * Signature: (JJJJIIII)J
+ * Signature: (JJJJJIIII)J
  */
 JNIEXPORT jlong JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1createQP
-  (JNIEnv *, jobject, jlong, jlong, jlong, jlong, jint, jint, jint, jint);
+  (JNIEnv *, jobject, jlong, jlong, jlong, jlong, jlong, jint, jint, jint, jint);
 
 /*
  * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
@@ -191,6 +191,94 @@ JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1mod
 JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1queryOdpSupport
   (JNIEnv *env, jobject, jlong);
 
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _queryLid
+ * Signature: (JI)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1queryLid
+  (JNIEnv *, jobject, jlong, jint);
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _queryGid
+ * Signature: (JIIJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1queryGid
+  (JNIEnv *, jobject, jlong, jint, jint, jlong);
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _createAH
+ * Signature: (JJ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1createAH
+  (JNIEnv *, jobject, jlong, jlong);
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _destroyAH
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1destroyAH
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _createSRQ
+ * Signature: (JIII)J
+ */
+JNIEXPORT jlong JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1createSRQ
+  (JNIEnv *, jobject, jlong, jint, jint, jint);
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _modifySRQ
+ * Signature: (JI)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1modifySRQ
+  (JNIEnv *, jobject, jlong, jint);
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _destroySRQ
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1destroySRQ
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _allocMw
+ * Signature: (JIJJ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1allocMw
+  (JNIEnv *, jobject, jlong, jint, jlong, jlong);
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _deallocMw
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1deallocMw
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _postSrqRecv
+ * Signature: (JJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1postSrqRecv
+  (JNIEnv *, jobject, jlong, jlong);
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getAsyncEvent
+ * Signature: (JIJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getAsyncEvent
+  (JNIEnv *, jobject, jlong, jint, jlong);
+
 /*
  * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
  * Method:    _expPrefetchMr
@@ -231,6 +319,14 @@ JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1pos
 JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1postRecv
   (JNIEnv *, jobject, jlong, jlong);
 
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _postBatch
+ * Signature: (JI)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1postBatch
+  (JNIEnv *, jobject, jlong, jint);
+
 /*
  * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
  * Method:    _getCqEvent
@@ -247,6 +343,14 @@ JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1get
 JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1pollCQ
   (JNIEnv *, jobject, jlong, jint, jlong);
 
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _postPoll
+ * Signature: (JJJIJI)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1postPoll
+  (JNIEnv *, jobject, jlong, jlong, jlong, jint, jlong, jint);
+
 /*
  * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
  * Method:    _reqNotifyCQ
@@ -303,6 +407,14 @@ JNIEXPORT jlong JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1ge
 JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getQpNum
   (JNIEnv *, jobject, jlong);
 
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getQpMaxInline
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getQpMaxInline
+  (JNIEnv *, jobject, jlong);
+
 /*
  * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
  * Method:    _getContextFd
@@ -319,6 +431,14 @@ JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1get
 JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getContextNumCompVectors
   (JNIEnv *, jobject, jlong);
 
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getContextDeviceName
+ * Signature: (JJI)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getContextDeviceName
+  (JNIEnv *, jobject, jlong, jlong, jint);
+
 /*
  * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
  * Method:    _getPdHandle
@@ -327,6 +447,14 @@ JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1get
 JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getPdHandle
   (JNIEnv *, jobject, jlong);
 
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getPortNum
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getPortNum
+  (JNIEnv *, jobject, jlong);
+
 /*
  * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
  * Method:    _getSockAddrInSize
@@ -383,6 +511,46 @@ JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1get
 JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getRKeyOffset
   (JNIEnv *, jobject);
 
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getBindMwOffset
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getBindMwOffset
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getContextOpsOffset
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getContextOpsOffset
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getPollCqOffset
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getPollCqOffset
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getPostSendOffset
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getPostSendOffset
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
+ * Method:    _getPostRecvOffset
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_disni_rdma_verbs_impl_NativeDispatcher__1getPostRecvOffset
+  (JNIEnv *, jobject);
+
 /*
  * Class:     com_ibm_disni_rdma_verbs_impl_NativeDispatcher
  * Method:    _getVersion
@@ -27,13 +27,44 @@ import com.ibm.disni.rdma.verbs.IbvContext;
 import com.ibm.disni.rdma.verbs.IbvWC;
 
 public class RdmaActiveCqProcessor<C extends RdmaActiveEndpoint> extends RdmaCqProcessor<C> {
+	private RdmaCompletionDispatcher dispatcher;
 	
 	public RdmaActiveCqProcessor(IbvContext context, int cqSize, int wrSize, long affinity, int clusterId, int timeout, boolean polling) throws IOException {
 		super(context, cqSize, wrSize, affinity, clusterId, timeout, polling);
 	}
+	
+	public RdmaActiveCqProcessor(IbvContext context, int cqSize, int wrSize, long affinity, int clusterId, int timeout, boolean polling, int compVector) throws IOException {
+		super(context, cqSize, wrSize, affinity, clusterId, timeout, polling, compVector);
+	}
 
 	@Override
 	public void dispatchCqEvent(C endpoint, IbvWC wc) throws IOException {
-		endpoint.dispatchCqEvent(wc);
+		if (endpoint.filterCqEvent(wc)) {
+			endpoint.dispatchCqEvent(wc);
+		}
+	}
+	
+	@Override
+	protected boolean handOff(C endpoint, IbvWC wc, RdmaSharedReceiveQueue srq) throws IOException {
+		if (dispatcher == null) {
+			return false;
+		}
+		if (endpoint.filterCqEvent(wc)) {
+			dispatcher.dispatch(endpoint, wc.clone(), srq);
+		} else if (srq != null) {
+			srq.release(wc);
+		}
+		return true;
+	}
+	
+	/**
+	 * Dispatches completions on the threads of a dispatcher instead of the CQ processing thread, null to dispatch inline.
+	 */
+	public void setCompletionDispatcher(RdmaCompletionDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+	
+	public RdmaCompletionDispatcher getCompletionDispatcher() {
+		return dispatcher;
 	}
 }
@@ -22,6 +22,7 @@
 package com.ibm.disni.rdma;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import com.ibm.disni.rdma.verbs.IbvWC;
 import com.ibm.disni.rdma.verbs.RdmaCmId;
@@ -34,11 +35,29 @@ public abstract class RdmaActiveEndpoint extends RdmaEndpoint {
 		this.agroup = group;
 	}
 
-	/* (non-Javadoc)
-	 * @see com.ibm.jverbs.endpoints.ICqConsumer#dispatchCqEvent(com.ibm.jverbs.verbs.IbvWC)
+	/**
+	 * Called by the CQ processor for every completion of this endpoint. The work completion is only valid for the
+	 * duration of the call and may be a read-only view of the native completion whose setters throw
+	 * UnsupportedOperationException, use clone() to keep or modify it.
 	 */
 	public abstract void dispatchCqEvent(IbvWC wc) throws IOException;
 
+	/**
+	 * The data of a receive completion if the group was created with a shared receive queue. The buffer is
+	 * returned to the pool once dispatchCqEvent() returns.
+	 *
+	 * @param wc the receive completion.
+	 * @return the received data.
+	 * @throws Exception if the group has no shared receive queue.
+	 */
+	public ByteBuffer getReceiveBuffer(IbvWC wc) throws IOException {
+		RdmaSharedReceiveQueue srq = agroup.getSharedReceiveQueue(getIdPriv().getVerbs());
+		if (srq == null) {
+			throw new IOException("Trying to get receive buffer, group has no shared receive queue");
+		}
+		return srq.getBuffer(wc);
+	}
+
 	@Override
 	public void close() throws IOException, InterruptedException {
 		super.close();
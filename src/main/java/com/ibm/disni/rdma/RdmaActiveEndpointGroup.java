@@ -22,7 +22,10 @@
 package com.ibm.disni.rdma;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 
@@ -31,30 +34,64 @@ import com.ibm.disni.rdma.verbs.IbvContext;
 import com.ibm.disni.rdma.verbs.IbvQP;
 import com.ibm.disni.rdma.verbs.IbvQPInitAttr;
 import com.ibm.disni.util.DiSNILogger;
+import com.ibm.disni.util.NativeAffinity;
+import com.ibm.disni.util.NativeNuma;
 
 /**
  * Extends the RdmaEndpointGroup by assigning active CQ processing units to endpoints. 
  * 
  * All endpoints within the same group with share one completion queue. The group takes care of processing the completion queue and delivering CQ events to the appropriate endpoints.
+ * 
+ * With setCqProcessors(), the endpoints of a device are spread over several CQs, each on its own completion vector and processed by its
+ * own thread. Each thread is pinned to its own core of the NUMA node of the device, or to the cores set with setCqCores(). The RdmaCqPolicy set
+ * with setCqPolicy() decides which CQ an endpoint uses.
+ * 
+ * Optionally, all QPs of a device share one receive queue (SRQ) backed by a pool of receive buffers, see RdmaSharedReceiveQueue.
+ * Endpoints then do not post receives, received messages are accessed with RdmaActiveEndpoint.getReceiveBuffer() during dispatchCqEvent().
+ * 
+ * With setCompletionDispatcher(), dispatchCqEvent() runs on a thread pool instead of the CQ processing thread, see RdmaCompletionDispatcher.
  */
 public class RdmaActiveEndpointGroup<C extends RdmaActiveEndpoint> extends RdmaEndpointGroup<C> {
 	private static final Logger logger = DiSNILogger.getLogger();
-	private HashMap<Integer, RdmaActiveCqProcessor<C>> cqMap;
+	private HashMap<Integer, ArrayList<RdmaActiveCqProcessor<C>>> cqMap;
+	private ConcurrentHashMap<Integer, RdmaSharedReceiveQueue> srqMap;
 	private int timeout;
 	private boolean polling;
 	protected int cqSize;
 	protected int maxSge;
 	protected int maxWR;		
+	protected int srqSize;
+	protected int srqBufferSize;
+	protected int cqProcessors;
+	protected int[] cqCores;
+	protected RdmaCqPolicy cqPolicy;
+	protected RdmaCompletionDispatcher dispatcher;
 
 	public RdmaActiveEndpointGroup(int timeout, boolean polling, int maxWR, int maxSge, int cqSize) throws IOException {
+		this(timeout, polling, maxWR, maxSge, cqSize, 0, 0);
+	}
+
+	/**
+	 * Creates a group whose QPs share one receive queue per device.
+	 *
+	 * @param srqSize the number of receive buffers per device, 0 to give every QP its own receive queue.
+	 * @param srqBufferSize the size of each receive buffer.
+	 */
+	public RdmaActiveEndpointGroup(int timeout, boolean polling, int maxWR, int maxSge, int cqSize, int srqSize, int srqBufferSize) throws IOException {
 		super(timeout);
 		this.timeout = timeout;
 		this.polling = polling;
-		cqMap = new HashMap<Integer, RdmaActiveCqProcessor<C>>();
+		cqMap = new HashMap<Integer, ArrayList<RdmaActiveCqProcessor<C>>>();
+		srqMap = new ConcurrentHashMap<Integer, RdmaSharedReceiveQueue>();
 		this.cqSize = cqSize;
 		this.maxSge = maxSge;
 		this.maxWR = maxWR;
-		logger.info("active endpoint group, maxWR " + maxWR + ", maxSge " + maxSge + ", cqSize " + cqSize);
+		this.srqSize = srqSize;
+		this.srqBufferSize = srqBufferSize;
+		this.cqProcessors = 1;
+		this.cqCores = null;
+		this.cqPolicy = new RdmaCqPolicy.RoundRobin();
+		logger.info("active endpoint group, maxWR " + maxWR + ", maxSge " + maxSge + ", cqSize " + cqSize + ", srqSize " + srqSize);
 	}
 	
 	public RdmaCqProvider createCqProvider(C endpoint) throws IOException {
@@ -62,15 +99,41 @@ public class RdmaActiveEndpointGroup<C extends RdmaActiveEndpoint> extends RdmaE
 		IbvContext context = endpoint.getIdPriv().getVerbs();
 		if (context != null) {
 			logger.info("setting up cq processor, context found");
-			RdmaActiveCqProcessor<C> cqProcessor = null;
 			int key = context.getCmd_fd();
-			if (!cqMap.containsKey(key)) {
-				cqProcessor = new RdmaActiveCqProcessor<C>(context, cqSize, maxWR, 0, 1, timeout, polling);
-				cqMap.put(context.getCmd_fd(), cqProcessor);
-				cqProcessor.start();
+			ArrayList<RdmaActiveCqProcessor<C>> processors = cqMap.get(key);
+			if (processors == null) {
+				RdmaSharedReceiveQueue srq = null;
+				if (srqSize > 0) {
+					//refill once three quarters of the buffers are in use
+					srq = new RdmaSharedReceiveQueue(context, endpoint.getPd(), srqSize, srqBufferSize, Math.max(srqSize / 4, 1));
+					srqMap.put(key, srq);
+				}
+				int compVectors = Math.max(context.getNumCompVectors(), 1);
+				int node = NativeNuma.getDeviceNode(context);
+				int[] cores = cqCores != null ? cqCores : NativeNuma.getAffinityCores(node);
+				logger.info("device " + context.getDeviceName() + ", numa node " + node + ", cq cores " + Arrays.toString(cores));
+				processors = new ArrayList<RdmaActiveCqProcessor<C>>(cqProcessors);
+				for (int i = 0; i < cqProcessors; i++) {
+					long affinity = cores.length > 0 ? 1L << cores[i % cores.length] : 0;
+					RdmaActiveCqProcessor<C> cqProcessor = new RdmaActiveCqProcessor<C>(context, cqSize, maxWR, affinity, i, timeout, polling, i % compVectors);
+					cqProcessor.setSharedReceiveQueue(srq);
+					cqProcessor.setCompletionDispatcher(dispatcher);
+					cqProcessor.start();
+					processors.add(cqProcessor);
+				}
+				cqMap.put(key, processors);
 			}
-			cqProcessor = cqMap.get(context.getCmd_fd());
-	
+			int[] load = new int[processors.size()];
+			for (int i = 0; i < load.length; i++) {
+				load[i] = processors.get(i).getNumEndpoints();
+			}
+			int index = cqPolicy.select(endpoint, load);
+			if (index < 0 || index >= load.length) {
+				throw new IOException("Trying to assign endpoint to CQ processor " + index + ", device has " + load.length);
+			}
+			//counted right away, the QP of the endpoint is registered later without the group lock
+			RdmaActiveCqProcessor<C> cqProcessor = processors.get(index);
+			cqProcessor.assign(endpoint);
 			return cqProcessor;
 		} else {
 			throw new IOException("setting up cq processor, no context found");
@@ -79,7 +142,7 @@ public class RdmaActiveEndpointGroup<C extends RdmaActiveEndpoint> extends RdmaE
 	
 	public IbvQP createQpProvider(C endpoint) throws IOException{
 		IbvContext context = endpoint.getIdPriv().getVerbs();
-		RdmaActiveCqProcessor<C> cqProcessor = cqMap.get(context.getCmd_fd());
+		RdmaActiveCqProcessor<C> cqProcessor = getCqProcessor(endpoint);
 		IbvCQ cq = cqProcessor.getCQ();
 		
 		IbvQPInitAttr attr = new IbvQPInitAttr();
@@ -87,9 +150,14 @@ public class RdmaActiveEndpointGroup<C extends RdmaActiveEndpoint> extends RdmaE
 		attr.cap().setMax_recv_wr(maxWR);
 		attr.cap().setMax_send_sge(maxSge);
 		attr.cap().setMax_send_wr(maxWR);
+		attr.cap().setMax_inline_data(maxInline);
 		attr.setQp_type(IbvQP.IBV_QPT_RC);
 		attr.setRecv_cq(cq);
 		attr.setSend_cq(cq);		
+		RdmaSharedReceiveQueue srq = srqMap.get(context.getCmd_fd());
+		if (srq != null) {
+			attr.setSrq(srq.getSrq());
+		}
 		IbvQP qp = endpoint.getIdPriv().createQP(endpoint.getPd(), attr);		
 		
 		logger.info("registering endpoint with cq");
@@ -104,17 +172,105 @@ public class RdmaActiveEndpointGroup<C extends RdmaActiveEndpoint> extends RdmaE
 	
 	public void close() throws IOException, InterruptedException {
 		super.close();
-		for (RdmaActiveCqProcessor<C> cqProcessor : cqMap.values()){
-			cqProcessor.close();
+		for (ArrayList<RdmaActiveCqProcessor<C>> processors : cqMap.values()){
+			for (RdmaActiveCqProcessor<C> cqProcessor : processors){
+				cqProcessor.close();
+			}
+		}
+		if (dispatcher != null) {
+			dispatcher.close();
+		}
+		for (RdmaSharedReceiveQueue srq : srqMap.values()){
+			srq.close();
 		}
 	}
 
 	void close(RdmaEndpoint endpoint) throws IOException {
-		IbvContext context = endpoint.getIdPriv().getVerbs();
-		RdmaActiveCqProcessor<C> cqProcessor = cqMap.get(context.getCmd_fd());
-		cqProcessor.unregister(endpoint);
+		RdmaActiveCqProcessor<C> cqProcessor = getCqProcessor(endpoint);
+		if (cqProcessor != null) {
+			if (endpoint.getQp() != null) {
+				cqProcessor.unregister(endpoint);
+			}
+			cqProcessor.unassign(endpoint);
+		}
+		if (dispatcher != null) {
+			dispatcher.remove((RdmaActiveEndpoint) endpoint);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private RdmaActiveCqProcessor<C> getCqProcessor(RdmaEndpoint endpoint) {
+		return (RdmaActiveCqProcessor<C>) endpoint.getCqProvider();
 	}
 	
+	/**
+	 * Sets the number of CQs per device, has to be called before the first endpoint is created. The CQs use the completion
+	 * vectors of the device in turn.
+	 *
+	 * @param cqProcessors the number of CQs and CQ processing threads per device.
+	 */
+	public void setCqProcessors(int cqProcessors) {
+		if (cqProcessors <= 0) {
+			throw new IllegalArgumentException("Invalid number of CQ processors " + cqProcessors);
+		}
+		this.cqProcessors = cqProcessors;
+	}
+	
+	public int getCqProcessors() {
+		return cqProcessors;
+	}
+	
+	/**
+	 * Pins the CQ processing threads to cores, thread i runs on cores[i % cores.length]. By default thread i runs on the i-th
+	 * core of the NUMA node of the device, or unpinned if the node is not known.
+	 *
+	 * @param cores the core numbers, from 0 to NativeAffinity.MAX_CORES - 1.
+	 */
+	public void setCqCores(int... cores) {
+		for (int core : cores) {
+			if (core < 0 || core >= NativeAffinity.MAX_CORES) {
+				throw new IllegalArgumentException("Invalid CQ core " + core + ", cores have to be between 0 and " + (NativeAffinity.MAX_CORES - 1));
+			}
+		}
+		this.cqCores = cores.length > 0 ? cores.clone() : null;
+	}
+	
+	/**
+	 * Sets the policy assigning endpoints to the CQ processors of their device, RdmaCqPolicy.RoundRobin by default.
+	 */
+	public void setCqPolicy(RdmaCqPolicy cqPolicy) {
+		this.cqPolicy = cqPolicy;
+	}
+	
+	public RdmaCqPolicy getCqPolicy() {
+		return cqPolicy;
+	}
+	
+	/**
+	 * Dispatches completions on the threads of a dispatcher, has to be called before the first endpoint is created. By default
+	 * dispatchCqEvent() runs on the CQ processing thread. The dispatcher is closed with the group.
+	 */
+	public void setCompletionDispatcher(RdmaCompletionDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+	
+	public RdmaCompletionDispatcher getCompletionDispatcher() {
+		return dispatcher;
+	}
+	
+	/**
+	 * The SRQ pool of a device.
+	 *
+	 * @return the pool, null if the group was created without SRQ.
+	 */
+	public RdmaSharedReceiveQueue getSharedReceiveQueue(IbvContext context) throws IOException {
+		return srqMap.get(context.getCmd_fd());
+	}
+
+	public int getSrqSize() {
+		return srqSize;
+	}
+
 	public int getMaxWR() {
 		return maxWR;
 	}
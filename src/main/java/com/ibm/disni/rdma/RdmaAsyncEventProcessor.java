@@ -0,0 +1,144 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvAsyncEvent;
+import com.ibm.disni.rdma.verbs.IbvContext;
+import com.ibm.disni.rdma.verbs.IbvSrq;
+import com.ibm.disni.util.DiSNILogger;
+
+/**
+ * Consumes the asynchronous events of a device.
+ *
+ * There is one processor per device and process, it is started with the first SRQ pool of the device and stopped with
+ * the last one. SRQ events are routed to the pool owning the SRQ, errors of QPs, CQs, ports and the device are logged as
+ * warnings, all other events are logged.
+ */
+public class RdmaAsyncEventProcessor implements Runnable {
+	private static final Logger logger = DiSNILogger.getLogger();
+
+	private static final int EVENT_TIMEOUT = 1000;
+	private static final HashMap<Integer, RdmaAsyncEventProcessor> processors = new HashMap<Integer, RdmaAsyncEventProcessor>();
+
+	private IbvContext context;
+	private int device;
+	private ConcurrentHashMap<IbvSrq, RdmaSharedReceiveQueue> srqs;
+	private volatile boolean running;
+	private Thread thread;
+
+	private RdmaAsyncEventProcessor(IbvContext context) throws IOException {
+		this.context = context;
+		this.device = context.getCmd_fd();
+		this.srqs = new ConcurrentHashMap<IbvSrq, RdmaSharedReceiveQueue>();
+		this.running = true;
+		this.thread = new Thread(this, "async-event-" + device);
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Routes the events of the SRQ of a pool to the pool, starts the processor of the device if needed.
+	 */
+	static void register(IbvContext context, RdmaSharedReceiveQueue srq) throws IOException {
+		synchronized (processors) {
+			int key = context.getCmd_fd();
+			RdmaAsyncEventProcessor processor = processors.get(key);
+			if (processor == null) {
+				processor = new RdmaAsyncEventProcessor(context);
+				processors.put(key, processor);
+				processor.thread.start();
+			}
+			processor.srqs.put(srq.getSrq(), srq);
+		}
+	}
+
+	/**
+	 * Stops routing events to a pool, the processor of the device is stopped together with its last pool.
+	 */
+	static void unregister(IbvContext context, RdmaSharedReceiveQueue srq) throws IOException, InterruptedException {
+		RdmaAsyncEventProcessor processor = null;
+		synchronized (processors) {
+			int key = context.getCmd_fd();
+			processor = processors.get(key);
+			if (processor == null) {
+				return;
+			}
+			processor.srqs.remove(srq.getSrq(), srq);
+			if (!processor.srqs.isEmpty()) {
+				return;
+			}
+			processors.remove(key);
+			processor.running = false;
+		}
+		processor.thread.join();
+	}
+
+	public void run() {
+		logger.info("running async event processor, device " + device);
+		while (running) {
+			try {
+				IbvAsyncEvent event = context.getAsyncEvent(EVENT_TIMEOUT);
+				if (event != null) {
+					dispatch(event);
+				}
+			} catch (Exception e) {
+				if (running) {
+					logger.info("async event processing, caught exception but keep going " + e.getMessage());
+				}
+			}
+		}
+		logger.info("terminating async event processor, device " + device);
+	}
+
+	private void dispatch(IbvAsyncEvent event) throws IOException {
+		int type = event.getEventType();
+		if (type == IbvAsyncEvent.IBV_EVENT_SRQ_LIMIT_REACHED || type == IbvAsyncEvent.IBV_EVENT_SRQ_ERR) {
+			RdmaSharedReceiveQueue srq = event.getSrq() != null ? srqs.get(event.getSrq()) : null;
+			if (srq == null) {
+				logger.warn("async event " + type + " for unknown SRQ, device " + device);
+			} else if (type == IbvAsyncEvent.IBV_EVENT_SRQ_LIMIT_REACHED) {
+				srq.limitReached();
+			} else {
+				logger.warn("async event " + type + ", SRQ error, device " + device);
+			}
+			return;
+		}
+		switch (type) {
+		case IbvAsyncEvent.IBV_EVENT_CQ_ERR:
+		case IbvAsyncEvent.IBV_EVENT_QP_FATAL:
+		case IbvAsyncEvent.IBV_EVENT_QP_REQ_ERR:
+		case IbvAsyncEvent.IBV_EVENT_QP_ACCESS_ERR:
+		case IbvAsyncEvent.IBV_EVENT_PATH_MIG_ERR:
+		case IbvAsyncEvent.IBV_EVENT_DEVICE_FATAL:
+		case IbvAsyncEvent.IBV_EVENT_PORT_ERR:
+			logger.warn("async event " + type + ", device " + device);
+			break;
+		default:
+			logger.info("async event " + type + ", device " + device);
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvPd;
+import com.ibm.disni.util.DiSNILogger;
+import com.ibm.disni.util.MemoryUtils;
+import com.ibm.disni.util.NativeHugePages;
+
+/**
+ * A pool of registered buffers of one protection domain.
+ *
+ * Buffers come in a fixed set of size classes. Each class carves large memory regions (slabs) into buffers of its size, so the
+ * registration cost is paid when the pool is created and not on the data path. A Lease hands out a buffer together with its
+ * address, lkey and rkey. A lease released by the thread that leased it goes to a small cache of that thread first and spills
+ * over to a lock-free queue shared by all threads, leases released by other threads go to the shared queue directly. If a class
+ * runs out of buffers, a new slab is registered.
+ */
+public class RdmaBufferPool {
+	private static final Logger logger = DiSNILogger.getLogger();
+	private static final int THREAD_CACHE_SIZE = 16;
+
+	private IbvPd pd;
+	private int access;
+	private int slabSize;
+	private int[] sizeClasses;
+	private ArrayList<ConcurrentLinkedQueue<Lease>> free;
+	private ArrayList<IbvMr> slabs;
+	private ArrayList<ByteBuffer> slabBuffers;
+	private ThreadLocal<ArrayDeque<Lease>[]> cache;
+	private volatile boolean closed;
+
+	/**
+	 * Creates the pool and registers the initial slabs.
+	 *
+	 * @param pd the protection domain.
+	 * @param sizeClasses the buffer sizes, each at most slabSize.
+	 * @param slabSize the size of a memory region.
+	 * @param initialSlabs the number of slabs registered per size class up front.
+	 * @param access the access rights of the memory regions.
+	 * @throws Exception on failure.
+	 */
+	public RdmaBufferPool(IbvPd pd, int[] sizeClasses, int slabSize, int initialSlabs, int access) throws IOException {
+		if (sizeClasses.length == 0) {
+			throw new IOException("Trying to create buffer pool without size classes");
+		}
+		this.pd = pd;
+		this.access = access;
+		this.slabSize = slabSize;
+		this.sizeClasses = sizeClasses.clone();
+		Arrays.sort(this.sizeClasses);
+		if (this.sizeClasses[0] <= 0 || this.sizeClasses[this.sizeClasses.length - 1] > slabSize) {
+			throw new IOException("Trying to create buffer pool, size classes " + Arrays.toString(sizeClasses) + " do not fit slab size " + slabSize);
+		}
+		this.free = new ArrayList<ConcurrentLinkedQueue<Lease>>(this.sizeClasses.length);
+		for (int i = 0; i < this.sizeClasses.length; i++) {
+			free.add(new ConcurrentLinkedQueue<Lease>());
+		}
+		this.slabs = new ArrayList<IbvMr>();
+		this.slabBuffers = new ArrayList<ByteBuffer>();
+		final int classes = this.sizeClasses.length;
+		this.cache = new ThreadLocal<ArrayDeque<Lease>[]>() {
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			protected ArrayDeque<Lease>[] initialValue() {
+				ArrayDeque<Lease>[] queues = new ArrayDeque[classes];
+				for (int i = 0; i < classes; i++) {
+					queues[i] = new ArrayDeque<Lease>(THREAD_CACHE_SIZE);
+				}
+				return queues;
+			}
+		};
+		this.closed = false;
+		try {
+			for (int i = 0; i < this.sizeClasses.length; i++) {
+				for (int j = 0; j < initialSlabs; j++) {
+					addSlab(i);
+				}
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		logger.info("buffer pool, size classes " + Arrays.toString(this.sizeClasses) + ", slab size " + slabSize + ", slabs " + slabs.size());
+	}
+
+	/**
+	 * Leases a buffer of the smallest size class that holds size bytes.
+	 *
+	 * @param size the minimal size of the buffer.
+	 * @return the lease, its buffer is cleared.
+	 * @throws Exception if size exceeds the largest size class or the pool is closed.
+	 */
+	public Lease lease(int size) throws IOException {
+		if (closed) {
+			throw new IOException("Trying to lease buffer while pool is already closed");
+		}
+		int index = sizeClass(size);
+		if (index < 0) {
+			throw new IOException("Trying to lease buffer of size " + size + ", largest size class is " + sizeClasses[sizeClasses.length - 1]);
+		}
+		Lease lease = cache.get()[index].pollFirst();
+		if (lease == null) {
+			lease = free.get(index).poll();
+		}
+		while (lease == null) {
+			synchronized (this) {
+				if (closed) {
+					throw new IOException("Trying to lease buffer while pool is already closed");
+				}
+				lease = free.get(index).poll();
+				if (lease == null) {
+					addSlab(index);
+					lease = free.get(index).poll();
+				}
+			}
+		}
+		lease.owner = Thread.currentThread();
+		lease.leased.set(true);
+		lease.buffer.clear();
+		return lease;
+	}
+
+	/**
+	 * The size classes of this pool in ascending order.
+	 */
+	public int[] getSizeClasses() {
+		return sizeClasses.clone();
+	}
+
+	/**
+	 * The number of memory regions registered by this pool.
+	 */
+	public synchronized int getNumSlabs() {
+		return slabs.size();
+	}
+
+	public IbvPd getPd() {
+		return pd;
+	}
+
+	/**
+	 * Deregisters and frees all slabs. Outstanding leases must not be used afterwards.
+	 */
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (ConcurrentLinkedQueue<Lease> queue : free) {
+			queue.clear();
+		}
+		for (IbvMr mr : slabs) {
+			mr.deregMr().execute().free();
+		}
+		for (ByteBuffer buffer : slabBuffers) {
+			NativeHugePages.free(buffer);
+		}
+		slabs.clear();
+		slabBuffers.clear();
+	}
+
+	void release(Lease lease) {
+		if (!lease.leased.compareAndSet(true, false)) {
+			throw new IllegalStateException("lease of buffer " + lease.address + " already released");
+		}
+		if (closed) {
+			return;
+		}
+		ConcurrentLinkedQueue<Lease> shared = free.get(lease.sizeClass);
+		if (lease.owner != Thread.currentThread()) {
+			//the leasing thread cannot see this cache, e.g., a completion thread releasing for a producer
+			lease.owner = null;
+			shared.add(lease);
+			return;
+		}
+		lease.owner = null;
+		ArrayDeque<Lease> local = cache.get()[lease.sizeClass];
+		if (local.size() >= THREAD_CACHE_SIZE) {
+			//hand half of the cache to other threads
+			for (int i = 0; i < THREAD_CACHE_SIZE / 2; i++) {
+				shared.add(local.pollLast());
+			}
+		}
+		local.addFirst(lease);
+	}
+
+	private int sizeClass(int size) {
+		for (int i = 0; i < sizeClasses.length; i++) {
+			if (size <= sizeClasses[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private synchronized void addSlab(int index) throws IOException {
+		ByteBuffer slab = NativeHugePages.allocate(slabSize);
+		IbvMr mr = pd.regMr(slab, access).execute().free().getMr();
+		if (mr == null) {
+			NativeHugePages.free(slab);
+			throw new IOException("Trying to register slab of size " + slabSize + ", failed");
+		}
+		slabBuffers.add(slab);
+		slabs.add(mr);
+		int size = sizeClasses[index];
+		ConcurrentLinkedQueue<Lease> queue = free.get(index);
+		for (int offset = 0; offset + size <= slabSize; offset += size) {
+			slab.limit(offset + size);
+			slab.position(offset);
+			ByteBuffer buffer = slab.slice().order(ByteOrder.nativeOrder());
+			queue.add(new Lease(this, index, buffer, mr));
+		}
+		slab.clear();
+		logger.info("buffer pool, new slab for size class " + size + ", lkey " + mr.getLkey());
+	}
+
+	/**
+	 * A registered buffer leased from a pool. The buffer must not be accessed after release().
+	 */
+	public static class Lease {
+		private RdmaBufferPool pool;
+		private int sizeClass;
+		private ByteBuffer buffer;
+		private long address;
+		private IbvMr mr;
+		private AtomicBoolean leased;
+		private Thread owner;
+
+		Lease(RdmaBufferPool pool, int sizeClass, ByteBuffer buffer, IbvMr mr) {
+			this.pool = pool;
+			this.sizeClass = sizeClass;
+			this.buffer = buffer;
+			this.address = MemoryUtils.getAddress(buffer);
+			this.mr = mr;
+			this.leased = new AtomicBoolean(false);
+		}
+
+		public ByteBuffer getBuffer() {
+			return buffer;
+		}
+
+		public long getAddress() {
+			return address;
+		}
+
+		public int getSize() {
+			return buffer.capacity();
+		}
+
+		public int getLkey() {
+			return mr.getLkey();
+		}
+
+		public int getRkey() {
+			return mr.getRkey();
+		}
+
+		/**
+		 * The memory region the buffer is part of.
+		 */
+		public IbvMr getMr() {
+			return mr;
+		}
+
+		/**
+		 * Returns the buffer to the pool.
+		 */
+		public void release() {
+			pool.release(this);
+		}
+	}
+}
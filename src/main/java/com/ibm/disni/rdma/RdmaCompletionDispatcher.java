@@ -0,0 +1,280 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.util.DiSNILogger;
+
+/**
+ * Runs dispatchCqEvent() of active endpoints on an executor instead of the CQ processing thread.
+ *
+ * The CQ thread copies each completion into the queue of its endpoint, the queue is drained by one task at a time, so the
+ * completions of an endpoint are dispatched in order while different endpoints are served in parallel. A task dispatches at most
+ * BATCH completions before it yields the executor thread to other endpoints. Receive buffers of a shared receive queue are released
+ * after the completion has been dispatched. Completions queued when an endpoint is closed are still dispatched, completions
+ * arriving afterwards are dropped. The closed queue of an endpoint stays registered until the dispatcher is closed.
+ */
+public class RdmaCompletionDispatcher {
+	private static final Logger logger = DiSNILogger.getLogger();
+	private static final int BATCH = 64;
+
+	private Executor executor;
+	private ExecutorService ownedExecutor;
+	private ConcurrentHashMap<RdmaActiveEndpoint, Lane> lanes;
+	private LongAdder submitted;
+	private LongAdder dispatched;
+	private AtomicLong maxDepth;
+
+	/**
+	 * Dispatches on the given executor, which is not shut down by close().
+	 */
+	public RdmaCompletionDispatcher(Executor executor) {
+		this(executor, null);
+	}
+
+	private RdmaCompletionDispatcher(Executor executor, ExecutorService ownedExecutor) {
+		this.executor = executor;
+		this.ownedExecutor = ownedExecutor;
+		this.lanes = new ConcurrentHashMap<RdmaActiveEndpoint, Lane>();
+		this.submitted = new LongAdder();
+		this.dispatched = new LongAdder();
+		this.maxDepth = new AtomicLong(0);
+	}
+
+	/**
+	 * Dispatches on a pool of platform threads.
+	 *
+	 * @param threads the number of threads.
+	 */
+	public static RdmaCompletionDispatcher createPlatform(int threads) {
+		final AtomicInteger counter = new AtomicInteger(0);
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "cq-dispatch-" + counter.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		return new RdmaCompletionDispatcher(executor, executor);
+	}
+
+	/**
+	 * Dispatches on virtual threads, one per running endpoint queue. Falls back to a pool of platform threads, one per core but
+	 * at least four as handlers may block, if the JVM does not support virtual threads.
+	 */
+	public static RdmaCompletionDispatcher createVirtual() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			ExecutorService executor = (ExecutorService) factory.invoke(null);
+			return new RdmaCompletionDispatcher(executor, executor);
+		} catch (Exception e) {
+			logger.info("virtual threads not supported, dispatching on platform threads");
+			return createPlatform(Math.max(Runtime.getRuntime().availableProcessors(), 4));
+		}
+	}
+
+	/**
+	 * The number of completions queued or being dispatched, over all endpoints.
+	 */
+	public long getQueueDepth() {
+		return submitted.sum() - dispatched.sum();
+	}
+
+	/**
+	 * The number of completions queued or being dispatched for one endpoint.
+	 */
+	public int getQueueDepth(RdmaActiveEndpoint endpoint) {
+		Lane lane = lanes.get(endpoint);
+		return lane != null ? lane.pending.get() & ~Lane.CLOSED : 0;
+	}
+
+	/**
+	 * The largest number of completions observed queued for a single endpoint.
+	 */
+	public long getMaxQueueDepth() {
+		return maxDepth.get();
+	}
+
+	/**
+	 * The number of completions dispatched so far.
+	 */
+	public long getDispatched() {
+		return dispatched.sum();
+	}
+
+	/**
+	 * Stops an executor created by createPlatform() or createVirtual(), waiting for queued completions to be dispatched, and
+	 * drops the queues of all endpoints.
+	 */
+	public void close() throws InterruptedException {
+		if (ownedExecutor != null) {
+			ownedExecutor.shutdown();
+			ownedExecutor.awaitTermination(1000, TimeUnit.MILLISECONDS);
+		}
+		lanes.clear();
+	}
+
+	/*
+	 * Queues a completion of an endpoint, called on the CQ thread. The completion must not be reused by the caller.
+	 */
+	void dispatch(RdmaActiveEndpoint endpoint, IbvWC wc, RdmaSharedReceiveQueue srq) {
+		Lane lane = lanes.get(endpoint);
+		if (lane == null) {
+			lane = new Lane(endpoint);
+			Lane existing = lanes.putIfAbsent(endpoint, lane);
+			if (existing != null) {
+				lane = existing;
+			}
+		}
+		submitted.increment();
+		Completion completion = new Completion(wc, srq);
+		lane.completions.add(completion);
+		int depth = lane.reserve();
+		if (depth < 0) {
+			//the lane is closed, only completions counted before are still polled
+			lane.completions.remove(completion);
+			submitted.decrement();
+			lane.release(completion);
+			return;
+		}
+		long max = maxDepth.get();
+		while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+			max = maxDepth.get();
+		}
+		if (depth == 1) {
+			executor.execute(lane);
+		}
+	}
+
+	/*
+	 * Closes the lane of an endpoint. The closed lane stays registered until the dispatcher is closed, so completions arriving
+	 * late find it and are dropped instead of opening a second lane for the endpoint.
+	 */
+	void remove(RdmaActiveEndpoint endpoint) {
+		Lane lane = lanes.get(endpoint);
+		if (lane == null) {
+			lane = new Lane(endpoint);
+			Lane existing = lanes.putIfAbsent(endpoint, lane);
+			if (existing != null) {
+				lane = existing;
+			}
+		}
+		lane.close();
+	}
+
+	private static class Completion {
+		private IbvWC wc;
+		private RdmaSharedReceiveQueue srq;
+
+		Completion(IbvWC wc, RdmaSharedReceiveQueue srq) {
+			this.wc = wc;
+			this.srq = srq;
+		}
+	}
+
+	/*
+	 * The completion queue of one endpoint. pending counts queued completions, the lane is scheduled when it becomes non-zero
+	 * and keeps running until it drops back to zero, so at most one task per endpoint runs at any time. The CLOSED bit of pending
+	 * is set by remove(), a closed lane accepts no more completions and stops once it has drained.
+	 */
+	private class Lane implements Runnable {
+		private static final int CLOSED = 1 << 30;
+
+		private RdmaActiveEndpoint endpoint;
+		private ConcurrentLinkedQueue<Completion> completions;
+		private AtomicInteger pending;
+
+		Lane(RdmaActiveEndpoint endpoint) {
+			this.endpoint = endpoint;
+			this.completions = new ConcurrentLinkedQueue<Completion>();
+			this.pending = new AtomicInteger(0);
+		}
+
+		public void run() {
+			for (int i = 0; i < BATCH; i++) {
+				Completion completion = completions.poll();
+				try {
+					endpoint.dispatchCqEvent(completion.wc);
+				} catch (Exception e) {
+					logger.info("dispatching completion failed, endpoint " + endpoint.getEndpointId() + ", " + e.getMessage());
+				} finally {
+					release(completion);
+				}
+				dispatched.increment();
+				int left = pending.decrementAndGet();
+				if ((left & ~CLOSED) == 0) {
+					return;
+				}
+			}
+			executor.execute(this);
+		}
+
+		/*
+		 * Counts a queued completion, returns the new number of queued completions or -1 if the lane is closed.
+		 */
+		int reserve() {
+			int current = pending.get();
+			while ((current & CLOSED) == 0) {
+				if (pending.compareAndSet(current, current + 1)) {
+					return current + 1;
+				}
+				current = pending.get();
+			}
+			return -1;
+		}
+
+		/*
+		 * Sets the CLOSED bit, queued completions are still dispatched.
+		 */
+		void close() {
+			int current = pending.get();
+			while ((current & CLOSED) == 0 && !pending.compareAndSet(current, current | CLOSED)) {
+				current = pending.get();
+			}
+		}
+
+		private void release(Completion completion) {
+			if (completion.srq != null) {
+				try {
+					completion.srq.release(completion.wc);
+				} catch (IOException e) {
+					logger.info("releasing receive buffer failed, " + e.getMessage());
+				}
+			}
+		}
+	}
+}
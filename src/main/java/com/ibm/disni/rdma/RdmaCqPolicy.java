@@ -0,0 +1,66 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+/**
+ * Assigns the endpoints of an RdmaActiveEndpointGroup or RdmaSharedCqEndpointGroup to the CQs of their device.
+ */
+public interface RdmaCqPolicy {
+
+	/**
+	 * Selects the CQ processor for a new endpoint.
+	 *
+	 * @param endpoint the endpoint, its QP does not exist yet.
+	 * @param load the number of endpoints currently assigned to each CQ processor of the device.
+	 * @return the index of the CQ processor, between 0 and load.length - 1.
+	 */
+	public int select(RdmaEndpoint endpoint, int[] load);
+
+	/**
+	 * Assigns endpoints to the CQ processors in turn.
+	 */
+	public static class RoundRobin implements RdmaCqPolicy {
+		private int next;
+
+		public synchronized int select(RdmaEndpoint endpoint, int[] load) {
+			int index = next % load.length;
+			next = index + 1;
+			return index;
+		}
+	}
+
+	/**
+	 * Assigns an endpoint to the CQ processor serving the fewest endpoints.
+	 */
+	public static class LeastLoaded implements RdmaCqPolicy {
+
+		public int select(RdmaEndpoint endpoint, int[] load) {
+			int index = 0;
+			for (int i = 1; i < load.length; i++) {
+				if (load[i] < load[index]) {
+					index = i;
+				}
+			}
+			return index;
+		}
+	}
+}
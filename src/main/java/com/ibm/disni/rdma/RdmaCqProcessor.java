@@ -22,6 +22,8 @@
 package com.ibm.disni.rdma;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
@@ -41,7 +43,6 @@ public abstract class RdmaCqProcessor<C extends RdmaEndpoint> extends RdmaCqProv
 	private static final Logger logger = DiSNILogger.getLogger();
 	
 	private static int MAX_ACK_COUNT = 1;
-	private IbvWC[] wcList;
 	private SVCReqNotify reqNotify;
 	private SVCPollCq poll;
 	private int timeout;
@@ -53,22 +54,24 @@ public abstract class RdmaCqProcessor<C extends RdmaEndpoint> extends RdmaCqProv
 	private Thread thread;
 	private int wrSize;
 	private ConcurrentHashMap<Integer, C> qpMap;
+	private Set<RdmaEndpoint> assigned;
+	private RdmaSharedReceiveQueue srq;
 	
 	public RdmaCqProcessor(IbvContext context, int cqSize, int wrSize, long affinity, int clusterId, int timeout, boolean polling) throws IOException {
-		super(context, cqSize);
+		this(context, cqSize, wrSize, affinity, clusterId, timeout, polling, 0);
+	}
+	
+	public RdmaCqProcessor(IbvContext context, int cqSize, int wrSize, long affinity, int clusterId, int timeout, boolean polling, int compVector) throws IOException {
+		super(context, cqSize, compVector);
 		this.clusterId = clusterId;
 		this.affinity = affinity;
 		this.running = false;
 		this.wrSize = Math.min(cqSize, wrSize);
-		this.wcList = new IbvWC[this.wrSize];
-		for (int i = 0; i < wcList.length; i++){
-			wcList[i] = new IbvWC();
-		}
 		this.blocking = !polling;
 		this.ackCounter = 0;	 			
 		
 		this.reqNotify = cq.reqNotification(false);
-		this.poll = cq.poll(wcList, wcList.length);
+		this.poll = cq.poll(this.wrSize);
 		this.timeout = timeout;
 		
 		if (blocking){
@@ -76,7 +79,8 @@ public abstract class RdmaCqProcessor<C extends RdmaEndpoint> extends RdmaCqProv
 		} 
 		
 		this.qpMap = new ConcurrentHashMap<Integer, C>();
-		this.thread = new Thread(this);
+		this.assigned = Collections.newSetFromMap(new ConcurrentHashMap<RdmaEndpoint, Boolean>());
+		this.thread = new Thread(this, "cq-processor-" + clusterId);
 	}
 	
 	public synchronized void registerQP(int qpnum, C endpoint) throws IOException {
@@ -90,6 +94,31 @@ public abstract class RdmaCqProcessor<C extends RdmaEndpoint> extends RdmaCqProv
 		}
 	}
 	
+	/**
+	 * The number of endpoints assigned to this processor, counted from the moment the processor is chosen for an endpoint.
+	 */
+	public int getNumEndpoints() {
+		return assigned.size();
+	}
+	
+	/*
+	 * Called by the group, under its lock, when the processor is chosen for an endpoint, before the QP of the endpoint exists.
+	 */
+	void assign(RdmaEndpoint endpoint) {
+		assigned.add(endpoint);
+	}
+	
+	void unassign(RdmaEndpoint endpoint) {
+		assigned.remove(endpoint);
+	}
+	
+	/**
+	 * Sets the SRQ pool of the QPs on this CQ. Receive buffers of the pool are released after they have been dispatched.
+	 */
+	public void setSharedReceiveQueue(RdmaSharedReceiveQueue srq) {
+		this.srq = srq;
+	}
+	
 	public synchronized boolean isRunning() {
 		return running;
 	}
@@ -102,13 +131,38 @@ public abstract class RdmaCqProcessor<C extends RdmaEndpoint> extends RdmaCqProv
 	public final void dispatchCqEvent(IbvWC wc) throws IOException {
 		Integer qpNum = wc.getQp_num();
 		C clientEndpoint = qpMap.get(qpNum);
-		if (clientEndpoint != null) {
-			dispatchCqEvent(clientEndpoint, wc);
+		RdmaSharedReceiveQueue owner = srq != null && srq.owns(wc) ? srq : null;
+		boolean handedOff = false;
+		try {
+			if (clientEndpoint != null) {
+				handedOff = handOff(clientEndpoint, wc, owner);
+				if (!handedOff) {
+					dispatchCqEvent(clientEndpoint, wc);
+				}
+			}
+		} finally {
+			if (owner != null && !handedOff) {
+				owner.release(wc);
+			}
 		}
 	}	
 	
+	/**
+	 * Dispatches a completion of an endpoint. Completions are polled without an IbvWC array, the work completion is
+	 * a read-only view with the native provider and reused once this returns.
+	 */
 	public abstract void dispatchCqEvent(C endpoint, IbvWC wc) throws IOException;
 	
+	/**
+	 * Lets a subclass dispatch a completion on another thread. The work completion is reused once this returns.
+	 *
+	 * @param srq the SRQ pool owning the receive buffer of the completion, or null.
+	 * @return true if the completion has been taken over, the receive buffer then has to be released by the subclass.
+	 */
+	protected boolean handOff(C endpoint, IbvWC wc, RdmaSharedReceiveQueue srq) throws IOException {
+		return false;
+	}
+	
 	public void run() {
 		NativeAffinity.setAffinity(affinity);
 		logger.info("running cq processing, index " + clusterId + ", affinity " + affinity + ", blocking " + blocking);
@@ -133,7 +187,7 @@ public abstract class RdmaCqProcessor<C extends RdmaEndpoint> extends RdmaCqProv
 				}
 				while (res > 0) {
 					for (int i = 0; i < res; i++) {
-						this.dispatchCqEvent(wcList[i]);
+						this.dispatchCqEvent(poll.getWC(i));
 					}
 					res = poll.execute().getPolls();
 				}
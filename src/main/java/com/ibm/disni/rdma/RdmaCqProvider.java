@@ -42,11 +42,20 @@ public class RdmaCqProvider {
 	protected int cqSize;
 	
 	public RdmaCqProvider(IbvContext context, int cqSize) throws IOException {
-		logger.info("new endpoint CQ processor");
+		this(context, cqSize, 0);
+	}
+	
+	/**
+	 * Creates a CQ whose completion events are signaled on the given completion vector (interrupt) of the device.
+	 *
+	 * @param compVector the completion vector, between 0 and context.getNumCompVectors() - 1.
+	 */
+	public RdmaCqProvider(IbvContext context, int cqSize, int compVector) throws IOException {
+		logger.info("new endpoint CQ processor, comp vector " + compVector);
 		this.context = context;
 		this.compChannel = context.createCompChannel();
 		this.cqSize = cqSize;
-		this.cq = context.createCQ(compChannel, cqSize, 0);
+		this.cq = context.createCQ(compChannel, cqSize, compVector);
 	}
 	
 	public void close() throws IOException, InterruptedException {
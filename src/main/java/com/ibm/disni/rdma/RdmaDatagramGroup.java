@@ -0,0 +1,405 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvAh;
+import com.ibm.disni.rdma.verbs.IbvAhAttr;
+import com.ibm.disni.rdma.verbs.IbvContext;
+import com.ibm.disni.rdma.verbs.IbvGlobalRoute;
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvPd;
+import com.ibm.disni.rdma.verbs.IbvQP;
+import com.ibm.disni.rdma.verbs.IbvQPInitAttr;
+import com.ibm.disni.rdma.verbs.IbvRecvWR;
+import com.ibm.disni.rdma.verbs.IbvSge;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.RdmaCm;
+import com.ibm.disni.rdma.verbs.RdmaCmId;
+import com.ibm.disni.rdma.verbs.RdmaEventChannel;
+import com.ibm.disni.rdma.verbs.RdmaVerbs;
+import com.ibm.disni.rdma.verbs.SVCPollCq;
+import com.ibm.disni.rdma.verbs.SVCPostRecv;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+import com.ibm.disni.rdma.verbs.SVCRegMr;
+import com.ibm.disni.util.DiSNILogger;
+import com.ibm.disni.util.MemoryUtils;
+
+/**
+ * A single unreliable datagram (UD) QP that exchanges messages with any number of peers.
+ *
+ * Unlike endpoint groups there are no connections, the group binds to a local address and
+ * messages are addressed per work request with RdmaDatagramPeer.address(). The address of the group
+ * (getAddress() and getQpNum()) is exchanged out of band and turned into a peer on the remote side with createPeer().
+ * Every received message is preceded by the IbvWC.GRH_SIZE bytes of the global routing header, receive
+ * buffers have to be sized accordingly. Completions are reaped with poll() and handed to dispatchCqEvent(), inbound
+ * messages together with the peer they came from. Peers are identified by source QP number and either the source GID
+ * taken from the global routing header, for global peers (RoCE and routed InfiniBand), or the source LID.
+ * Datagrams are limited to the path MTU and may be dropped or reordered.
+ */
+public abstract class RdmaDatagramGroup {
+	private static final Logger logger = DiSNILogger.getLogger();
+
+	private int maxWR;
+	private int maxSge;
+	private int cqSize;
+	private int maxInline;
+	private int access;
+	private RdmaEventChannel cmChannel;
+	private RdmaCmId idPriv;
+	private IbvContext context;
+	private IbvPd pd;
+	private RdmaCqProvider cqProvider;
+	private IbvQP qp;
+	private SVCPollCq pollCq;
+	private int gidIndex;
+	private ConcurrentHashMap<PeerKey, RdmaDatagramPeer> peers;
+	private ConcurrentHashMap<Long, Long> recvAddresses;
+	private ConcurrentSkipListMap<Long, ByteBuffer> buffers;
+	private PeerKey probe;
+	private boolean isClosed;
+
+	public RdmaDatagramGroup(int maxWR, int maxSge, int cqSize) {
+		this.maxWR = maxWR;
+		this.maxSge = maxSge;
+		this.cqSize = cqSize;
+		this.access = IbvMr.IBV_ACCESS_LOCAL_WRITE;
+		this.gidIndex = 0;
+		this.peers = new ConcurrentHashMap<PeerKey, RdmaDatagramPeer>();
+		this.recvAddresses = new ConcurrentHashMap<Long, Long>();
+		this.buffers = new ConcurrentSkipListMap<Long, ByteBuffer>();
+		this.probe = new PeerKey(0, 0, 0);
+		this.isClosed = false;
+	}
+
+	/**
+	 * Called for every completion reaped by poll().
+	 *
+	 * @param peer the sender of a received message, null for send completions and messages from unknown peers.
+	 * @param wc the work completion, only valid for the duration of the call.
+	 * @throws IOException on failure.
+	 */
+	public abstract void dispatchCqEvent(RdmaDatagramPeer peer, IbvWC wc) throws IOException;
+
+	/**
+	 * Sets the inline data size requested for the QP, has to be called before bind(). 0 (the default) disables inline sends.
+	 */
+	public void setMaxInline(int maxInline) {
+		this.maxInline = maxInline;
+	}
+
+	public int getMaxInline() {
+		return maxInline;
+	}
+
+	/**
+	 * Sets the index of the local GID used as source address by getAddress() and createPeer(), 0 by default.
+	 * On RoCE the index selects the RoCE version and IP address of the port.
+	 */
+	public void setGidIndex(int gidIndex) {
+		this.gidIndex = gidIndex;
+	}
+
+	public int getGidIndex() {
+		return gidIndex;
+	}
+
+	/**
+	 * Binds the group to a local address and creates its UD QP.
+	 *
+	 * @param src the local address, selects the RDMA device and port.
+	 * @throws Exception on failure.
+	 */
+	public synchronized void bind(SocketAddress src) throws IOException {
+		if (idPriv != null) {
+			throw new IOException("Trying to bind an already bound datagram group");
+		}
+		this.cmChannel = RdmaEventChannel.createEventChannel();
+		if (cmChannel == null){
+			throw new IOException("No RDMA device configured!");
+		}
+		this.idPriv = cmChannel.createId(RdmaCm.RDMA_PS_UDP);
+		if (idPriv.bindAddr(src) != 0){
+			throw new IOException("binding datagram address " + src.toString() + ", failed");
+		}
+		this.context = idPriv.getVerbs();
+		if (context == null) {
+			throw new IOException("Trying to bind datagram group, " + src.toString() + " is not an RDMA device address");
+		}
+		this.pd = context.allocPd();
+		this.cqProvider = new RdmaCqProvider(context, cqSize);
+		IbvQPInitAttr attr = new IbvQPInitAttr();
+		attr.cap().setMax_recv_sge(maxSge);
+		attr.cap().setMax_recv_wr(maxWR);
+		attr.cap().setMax_send_sge(maxSge);
+		attr.cap().setMax_send_wr(maxWR);
+		attr.cap().setMax_inline_data(maxInline);
+		attr.setQp_type(IbvQP.IBV_QPT_UD);
+		attr.setRecv_cq(cqProvider.getCQ());
+		attr.setSend_cq(cqProvider.getCQ());
+		this.qp = idPriv.createQP(pd, attr);
+		if (qp == null) {
+			throw new IOException("Trying to create UD QP, failed");
+		}
+		this.pollCq = cqProvider.getCQ().poll(cqSize);
+		logger.info("datagram group bound to " + src + ", qpnum " + qp.getQp_num());
+	}
+
+	/**
+	 * The address of the local port of this group, as needed by remote groups to create a peer for it.
+	 *
+	 * @return the address handle attributes of the local port.
+	 * @throws Exception on failure.
+	 */
+	public IbvAhAttr getAddress() throws IOException {
+		int port = idPriv.getPort_num();
+		byte[] gid = context.queryGid(port, gidIndex);
+		IbvAhAttr attr = new IbvAhAttr();
+		attr.setDlid((short) context.queryLid(port));
+		attr.setPort_num((byte) port);
+		for (byte b : gid) {
+			if (b != 0) {
+				attr.setIs_global((byte) 1);
+				break;
+			}
+		}
+		attr.getGrh().setDgid(gid);
+		return attr;
+	}
+
+	/**
+	 * The number of the UD QP of this group.
+	 */
+	public int getQpNum() throws IOException {
+		return qp.getQp_num();
+	}
+
+	/**
+	 * Creates an address handle for a remote group and registers it as a peer of this group.
+	 *
+	 * @param address the address of the remote group, see getAddress().
+	 * @param qpNum the QP number of the remote group, see getQpNum().
+	 * @return the peer, used to address sends.
+	 * @throws Exception on failure, or if a peer for the same address and QP number already exists.
+	 */
+	public RdmaDatagramPeer createPeer(IbvAhAttr address, int qpNum) throws IOException {
+		PeerKey key = key(address, qpNum);
+		if (peers.containsKey(key)) {
+			throw new IOException("Trying to create peer for qpnum " + qpNum + ", peer already exists");
+		}
+		IbvGlobalRoute grh = new IbvGlobalRoute();
+		grh.setDgid(address.getGrh().getDgid());
+		grh.setSgid_index((byte) gidIndex);
+		grh.setHop_limit((byte) 64);
+		IbvAhAttr attr = new IbvAhAttr();
+		attr.setGrh(grh);
+		attr.setDlid(address.getDlid());
+		attr.setSl(address.getSl());
+		attr.setIs_global(address.getIs_global());
+		attr.setPort_num(idPriv.getPort_num());
+		IbvAh ah = pd.createAH(attr);
+		if (ah == null) {
+			throw new IOException("Trying to create address handle for dlid " + address.getDlid() + ", failed");
+		}
+		RdmaDatagramPeer peer = new RdmaDatagramPeer(this, ah, qpNum, RdmaCm.RDMA_UDP_QKEY);
+		if (peers.putIfAbsent(key, peer) != null) {
+			ah.destroyAH();
+			throw new IOException("Trying to create peer for qpnum " + qpNum + ", peer already exists");
+		}
+		return peer;
+	}
+
+	/**
+	 * Registers a buffer with the group. Receive buffers have to be registered here, the global routing header of
+	 * received messages is read through them.
+	 */
+	public SVCRegMr registerMemory(ByteBuffer buffer) throws IOException {
+		SVCRegMr regMr = pd.regMr(buffer, access);
+		buffers.put(MemoryUtils.getAddress(buffer), buffer.duplicate().order(ByteOrder.nativeOrder()));
+		return regMr;
+	}
+
+	public void deregisterMemory(IbvMr mr) throws IOException {
+		buffers.remove(mr.getAddr());
+		mr.deregMr().execute().free();
+	}
+
+	/**
+	 * Post a receive operation. The address of the first SGE of every work request is recorded under its wr_id, it is
+	 * where poll() reads the global routing header of the message from. The SGE has to lie in a buffer registered
+	 * through registerMemory(). Changes made through the SVC are not seen.
+	 */
+	public SVCPostRecv postRecv(List<IbvRecvWR> recvList) throws IOException {
+		for (IbvRecvWR recvWR : recvList) {
+			LinkedList<IbvSge> sgList = recvWR.getSg_list();
+			if (!sgList.isEmpty()) {
+				recvAddresses.put(recvWR.getWr_id(), sgList.getFirst().getAddr());
+			}
+		}
+		return qp.postRecv(recvList, null);
+	}
+
+	/**
+	 * Post a send operation, the work requests have to be addressed with RdmaDatagramPeer.address().
+	 */
+	public SVCPostSend postSend(List<IbvSendWR> sendList) throws IOException {
+		return qp.postSend(sendList, null);
+	}
+
+	public SVCPostSend postSend(int maxWr, int maxSge) throws IOException {
+		return qp.postSend(maxWr, maxSge);
+	}
+
+	/**
+	 * Reaps the completions available on the CQ of this group and dispatches them.
+	 *
+	 * @return the number of completions dispatched.
+	 * @throws Exception on failure.
+	 */
+	public synchronized int poll() throws IOException {
+		int polls = pollCq.execute().getPolls();
+		for (int i = 0; i < polls; i++) {
+			IbvWC wc = pollCq.getWC(i);
+			RdmaDatagramPeer peer = null;
+			if (wc.getOpcode() >= IbvWC.IbvWcOpcode.IBV_WC_RECV.getOpcode()) {
+				peer = lookupPeer(wc);
+			}
+			dispatchCqEvent(peer, wc);
+		}
+		return polls;
+	}
+
+	public IbvPd getPd() {
+		return pd;
+	}
+
+	public IbvQP getQp() {
+		return qp;
+	}
+
+	public RdmaCqProvider getCqProvider() {
+		return cqProvider;
+	}
+
+	public RdmaCmId getIdPriv() {
+		return idPriv;
+	}
+
+	public synchronized void close() throws IOException, InterruptedException {
+		if (isClosed) {
+			return;
+		}
+		logger.info("closing datagram group");
+		for (RdmaDatagramPeer peer : peers.values()) {
+			peer.close();
+		}
+		if (idPriv != null) {
+			pollCq.free();
+			idPriv.destroyQP();
+			cqProvider.close();
+			RdmaVerbs.open().deallocPd(pd);
+			idPriv.destroyId();
+			cmChannel.destroyEventChannel();
+		}
+		isClosed = true;
+	}
+
+	void removePeer(RdmaDatagramPeer peer) {
+		peers.remove(key(peer.getAh().getAttr(), peer.getQpNum()), peer);
+	}
+
+	/*
+	 * Called with the group locked. The source GID sits at offset 8 of the global routing header and is read in
+	 * native byte order, like the GID of the peer in key().
+	 */
+	private RdmaDatagramPeer lookupPeer(IbvWC wc) {
+		if ((wc.getWc_flags() & IbvWC.IBV_WC_GRH) != 0) {
+			Long address = recvAddresses.get(wc.getWr_id());
+			if (address == null) {
+				return null;
+			}
+			Map.Entry<Long, ByteBuffer> entry = buffers.floorEntry(address);
+			if (entry == null || address - entry.getKey() + IbvWC.GRH_SIZE > entry.getValue().capacity()) {
+				return null;
+			}
+			int offset = (int) (address - entry.getKey());
+			ByteBuffer buffer = entry.getValue();
+			probe.set(buffer.getLong(offset + 8), buffer.getLong(offset + 16), wc.getSrc_qp());
+		} else {
+			probe.set(0, wc.getSlid() & 0xffff, wc.getSrc_qp());
+		}
+		return peers.get(probe);
+	}
+
+	private static PeerKey key(IbvAhAttr attr, int qpNum) {
+		if (attr.getIs_global() != 0) {
+			ByteBuffer gid = ByteBuffer.wrap(attr.getGrh().getDgid()).order(ByteOrder.nativeOrder());
+			return new PeerKey(gid.getLong(0), gid.getLong(8), qpNum);
+		}
+		return new PeerKey(0, attr.getDlid() & 0xffff, qpNum);
+	}
+
+	/*
+	 * Source GID (or LID) and QP number of a peer.
+	 */
+	private static final class PeerKey {
+		private long high;
+		private long low;
+		private int qpNum;
+
+		PeerKey(long high, long low, int qpNum) {
+			set(high, low, qpNum);
+		}
+
+		void set(long high, long low, int qpNum) {
+			this.high = high;
+			this.low = low;
+			this.qpNum = qpNum;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof PeerKey)) {
+				return false;
+			}
+			PeerKey other = (PeerKey) obj;
+			return high == other.high && low == other.low && qpNum == other.qpNum;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * Long.hashCode(high) + Long.hashCode(low)) + qpNum;
+		}
+	}
+}
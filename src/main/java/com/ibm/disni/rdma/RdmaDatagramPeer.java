@@ -0,0 +1,100 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+
+import com.ibm.disni.rdma.verbs.IbvAh;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.SVCPostSend.SendWRMod;
+import com.ibm.disni.rdma.verbs.SVCPostSend.UdMod;
+
+/**
+ * A remote UD QP known to a RdmaDatagramGroup. Holds the address handle for sends to the peer
+ * and identifies the peer on inbound datagrams.
+ */
+public class RdmaDatagramPeer {
+	private RdmaDatagramGroup group;
+	private IbvAh ah;
+	private int qpNum;
+	private int qkey;
+
+	RdmaDatagramPeer(RdmaDatagramGroup group, IbvAh ah, int qpNum, int qkey) {
+		this.group = group;
+		this.ah = ah;
+		this.qpNum = qpNum;
+		this.qkey = qkey;
+	}
+
+	/**
+	 * Addresses a work request to this peer.
+	 *
+	 * @param sendWR the work request.
+	 */
+	public void address(IbvSendWR sendWR) {
+		IbvSendWR.Ud ud = sendWR.getUd();
+		ud.setAh(ah);
+		ud.setRemote_qpn(qpNum);
+		ud.setRemote_qkey(qkey);
+	}
+
+	/**
+	 * Re-targets a work request of a post send SVC to this peer.
+	 *
+	 * @param sendWR the work request of the SVC.
+	 */
+	public void address(SendWRMod sendWR) {
+		UdMod ud = sendWR.getUdMod();
+		ud.setAh(ah);
+		ud.setRemote_qpn(qpNum);
+		ud.setRemote_qkey(qkey);
+	}
+
+	public IbvAh getAh() {
+		return ah;
+	}
+
+	public int getQpNum() {
+		return qpNum;
+	}
+
+	public int getQkey() {
+		return qkey;
+	}
+
+	/**
+	 * The LID of the port of the peer, 0 on RoCE.
+	 */
+	public short getLid() {
+		return ah.getAttr().getDlid();
+	}
+
+	/**
+	 * Removes the peer from its group and destroys the address handle.
+	 */
+	public void close() throws IOException {
+		group.removePeer(this);
+		if (ah.isOpen()) {
+			ah.destroyAH();
+		}
+	}
+}
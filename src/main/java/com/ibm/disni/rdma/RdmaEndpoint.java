@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 
@@ -34,6 +35,7 @@ import com.ibm.disni.rdma.verbs.IbvPd;
 import com.ibm.disni.rdma.verbs.IbvQP;
 import com.ibm.disni.rdma.verbs.IbvRecvWR;
 import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvWC;
 import com.ibm.disni.rdma.verbs.RdmaCmEvent;
 import com.ibm.disni.rdma.verbs.RdmaCmId;
 import com.ibm.disni.rdma.verbs.RdmaConnParam;
@@ -64,8 +66,13 @@ public class RdmaEndpoint implements DiSNIEndpoint {
 	protected IbvQP qp;
 	protected IbvPd pd;
 	protected RdmaCqProvider cqProcessor;
+	protected volatile RdmaSendWindow sendWindow;
 	protected int access;	
 	private int connState;
+	private CompletableFuture<Void> connectFuture;
+	private int connectTimeout;
+	private boolean connectFailed;
+	private boolean connecting;
 	private boolean isClosed;
 	private boolean isInitialized;
 	private boolean serverSide;
@@ -79,9 +86,14 @@ public class RdmaEndpoint implements DiSNIEndpoint {
 		this.qp = null;
 		this.pd = null;
 		this.cqProcessor = null;
+		this.sendWindow = null;
 		this.isInitialized = false;
 		this.isClosed = false;
 		this.connState = CONN_STATE_INITIALIZED;
+		this.connectFuture = null;
+		this.connectTimeout = 0;
+		this.connectFailed = false;
+		this.connecting = false;
 		this.serverSide = serverSide;
 		logger.info("new client endpoint, id " + endpointId + ", idPriv " + idPriv.getPs());
 	}
@@ -93,8 +105,9 @@ public class RdmaEndpoint implements DiSNIEndpoint {
 	 */	
 	@Override
 	public synchronized void connect(SocketAddress dst, int timeout) throws Exception {
-		if (connState != CONN_STATE_INITIALIZED) {
-			throw new IOException("endpoint already connected");
+		IOException rejected = startConnect();
+		if (rejected != null) {
+			throw rejected;
 		}
 		idPriv.resolveAddr(null, dst, timeout);
 		while(connState < CONN_STATE_ADDR_RESOLVED){
@@ -126,38 +139,134 @@ public class RdmaEndpoint implements DiSNIEndpoint {
 		while(connState < CONN_STATE_CONNECTED){
 			wait();
 		}			
+		if (connectFailed){
+			throw new IOException("connect failed");
+		}
 	}		
+
+	/**
+	 * Connect this endpoint to a remote server endpoint without blocking the caller.
+	 *
+	 * Address resolution, route resolution, resource allocation and the connection request are issued from the CM event
+	 * processing thread as the events of the previous stage arrive. The future is completed on a thread of the group, its
+	 * dependent actions may block.
+	 *
+	 * If a stage fails the endpoint is closed before the future completes, which releases its CM id and QP.
+	 *
+	 * @param dst the address of the server endpoint.
+	 * @param timeout the timeout for address and route resolution in ms.
+	 * @return a future completed once the connection is established, or completed exceptionally if a stage fails.
+	 */
+	public synchronized CompletableFuture<Void> connectAsync(SocketAddress dst, int timeout) {
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		IOException rejected = startConnect();
+		if (rejected != null) {
+			future.completeExceptionally(rejected);
+			return future;
+		}
+		try {
+			this.connectFuture = future;
+			this.connectTimeout = timeout;
+			idPriv.resolveAddr(null, dst, timeout);
+		} catch (Exception e) {
+			this.connectFuture = null;
+			group.complete(future, null, e);
+		}
+		return future;
+	}
+
+	/*
+	 * Called with the lock held before the first stage of connect() or connectAsync(), an endpoint connects at most once.
+	 * A pending asynchronous connect leaves the state at CONN_STATE_INITIALIZED until the address is resolved.
+	 */
+	private IOException startConnect() {
+		if (connectFuture != null || connecting) {
+			return new IOException("Trying to connect endpoint, connect already in progress");
+		}
+		if (connState != CONN_STATE_INITIALIZED) {
+			return new IOException("endpoint already connected");
+		}
+		connecting = true;
+		return null;
+	}
 	
 	/* (non-Javadoc)
 	 * @see com.ibm.jverbs.endpoints.ICmConsumer#dispatchCmEvent(com.ibm.jverbs.cm.RdmaCmEvent)
 	 */
-	public synchronized void dispatchCmEvent(RdmaCmEvent cmEvent)
+	public void dispatchCmEvent(RdmaCmEvent cmEvent)
 			throws IOException {
-		try {
-			int eventType = cmEvent.getEvent();
-			if (eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_ADDR_RESOLVED.ordinal()) {
-				connState = RdmaEndpoint.CONN_STATE_ADDR_RESOLVED;
-				notifyAll();
-			} else if (cmEvent.getEvent() == RdmaCmEvent.EventType.RDMA_CM_EVENT_ROUTE_RESOLVED.ordinal()) {
-				connState = RdmaEndpoint.CONN_STATE_ROUTE_RESOLVED;
-				notifyAll();
-			} else if (eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_ESTABLISHED.ordinal()) {
-				logger.info("got event type + RDMA_CM_EVENT_ESTABLISHED, srcAddress " + this.getSrcAddr() + ", dstAddress " + this.getDstAddr());
-				connState = CONN_STATE_CONNECTED;
-				notifyAll();
-			} else if (eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_DISCONNECTED.ordinal()) {
-				logger.info("got event type + RDMA_CM_EVENT_DISCONNECTED, srcAddress " + this.getSrcAddr() + ", dstAddress " + this.getDstAddr());
+		CompletableFuture<Void> future = null;
+		Exception failure = null;
+		synchronized(this) {
+			try {
+				int eventType = cmEvent.getEvent();
+				if (eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_ADDR_RESOLVED.ordinal()) {
+					connState = RdmaEndpoint.CONN_STATE_ADDR_RESOLVED;
+					notifyAll();
+					if (connectFuture != null) {
+						idPriv.resolveRoute(connectTimeout);
+					}
+				} else if (cmEvent.getEvent() == RdmaCmEvent.EventType.RDMA_CM_EVENT_ROUTE_RESOLVED.ordinal()) {
+					connState = RdmaEndpoint.CONN_STATE_ROUTE_RESOLVED;
+					notifyAll();
+					if (connectFuture != null) {
+						group.allocateResourcesRaw(this);
+						idPriv.connect(getConnParam());
+					}
+				} else if (eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_ESTABLISHED.ordinal()) {
+					logger.info("got event type + RDMA_CM_EVENT_ESTABLISHED, srcAddress " + this.getSrcAddr() + ", dstAddress " + this.getDstAddr());
+					connState = CONN_STATE_CONNECTED;
+					notifyAll();
+					future = connectFuture;
+					connectFuture = null;
+				} else if (eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_DISCONNECTED.ordinal()) {
+					logger.info("got event type + RDMA_CM_EVENT_DISCONNECTED, srcAddress " + this.getSrcAddr() + ", dstAddress " + this.getDstAddr());
+					connState = CONN_STATE_CLOSED;
+					notifyAll();
+				} else if (eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_CONNECT_REQUEST.ordinal()) {
+					logger.info("got event type + RDMA_CM_EVENT_CONNECT_REQUEST, srcAddress " + this.getSrcAddr() + ", dstAddress " + this.getDstAddr());
+				} else if (isConnectError(eventType)) {
+					String name = RdmaCmEvent.EventType.values()[eventType].name();
+					logger.info("got event type + " + name + ", dstAddress " + this.getDstAddr());
+					connState = CONN_STATE_CLOSED;
+					connectFailed = true;
+					notifyAll();
+					future = connectFuture;
+					connectFuture = null;
+					failure = new IOException("connect failed, " + name);
+				} else {
+					logger.info("got event type + UNKNOWN, srcAddress " + this.getSrcAddr() + ", dstAddress " + this.getDstAddr());
+				}
+			} catch (Exception e) {
+				if (connectFuture == null) {
+					throw new IOException(e);
+				}
+				logger.info("asynchronous connect failed, " + e.getMessage());
 				connState = CONN_STATE_CLOSED;
+				connectFailed = true;
 				notifyAll();
-			} else if (eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_CONNECT_REQUEST.ordinal()) {
-				logger.info("got event type + RDMA_CM_EVENT_CONNECT_REQUEST, srcAddress " + this.getSrcAddr() + ", dstAddress " + this.getDstAddr());
-			} else {
-				logger.info("got event type + UNKNOWN, srcAddress " + this.getSrcAddr() + ", dstAddress " + this.getDstAddr());
+				future = connectFuture;
+				connectFuture = null;
+				failure = e;
 			}
-		} catch (Exception e) {
-			throw new IOException(e);
+		}
+		if (future == null) {
+			return;
+		}
+		if (failure == null) {
+			group.complete(future, null, null);
+		} else {
+			group.fail(this, future, failure);
 		}
 	}
+
+	private static boolean isConnectError(int eventType) {
+		return eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_ADDR_ERROR.ordinal()
+				|| eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_ROUTE_ERROR.ordinal()
+				|| eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_CONNECT_ERROR.ordinal()
+				|| eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_UNREACHABLE.ordinal()
+				|| eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_REJECTED.ordinal();
+	}
 	
 	public final synchronized void allocateResources() throws IOException {
 		if (!isInitialized) {
@@ -185,6 +294,25 @@ public class RdmaEndpoint implements DiSNIEndpoint {
 		while(connState < CONN_STATE_CONNECTED){
 			wait();
 		}		
+		if (connectFailed){
+			throw new IOException("accept failed");
+		}
+	}
+
+	/*
+	 * Accepts the connection request of this server side endpoint, the future completes with RDMA_CM_EVENT_ESTABLISHED.
+	 */
+	synchronized CompletableFuture<Void> acceptAsync() {
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		try {
+			this.connectFuture = future;
+			group.allocateResourcesRaw(this);
+			idPriv.accept(getConnParam());
+		} catch (Exception e) {
+			this.connectFuture = null;
+			group.complete(future, null, e);
+		}
+		return future;
 	}
 
 	/**
@@ -195,22 +323,30 @@ public class RdmaEndpoint implements DiSNIEndpoint {
 	 *
 	 * @throws Exception the exception
 	 */
-	public synchronized void close() throws IOException, InterruptedException {
-		if (isClosed){
-			return;
-		}
-		
-		logger.info("closing client endpoint");
-		if (connState == CONN_STATE_CONNECTED) {
-			idPriv.disconnect();
-			this.wait(1000);
+	public void close() throws IOException, InterruptedException {
+		CompletableFuture<Void> future = null;
+		synchronized(this) {
+			if (isClosed){
+				return;
+			}
+			
+			logger.info("closing client endpoint");
+			future = connectFuture;
+			connectFuture = null;
+			if (connState == CONN_STATE_CONNECTED) {
+				idPriv.disconnect();
+				this.wait(1000);
+			}
+			if (isInitialized) {
+				idPriv.destroyQP();
+			}
+			idPriv.destroyId();
+			group.unregisterClientEp(this);
+			isClosed = true;
 		}
-		if (connState >= CONN_STATE_RESOURCES_ALLOCATED) {
-			idPriv.destroyQP();
+		if (future != null) {
+			group.complete(future, null, new IOException("endpoint closed"));
 		}
-		idPriv.destroyId();
-		group.unregisterClientEp(this);
-		isClosed = true;
 		logger.info("closing client done");
 	}
 	
@@ -272,6 +408,41 @@ public class RdmaEndpoint implements DiSNIEndpoint {
 		return pd.regMr(buffer, access);
 	}
 	
+	/**
+	 * Registers a large memory area, e.g., a memory mapped file, for on-demand paging with the access rights of this endpoint.
+	 *
+	 * @param address the start of the area.
+	 * @param length the size of the area in bytes, may exceed the 2GB limit of a memory region.
+	 * @return the registered region, to be closed by the caller.
+	 * @throws Exception on failure
+	 */
+	public RdmaOnDemandRegion registerOnDemand(long address, long length) throws IOException {
+		return new RdmaOnDemandRegion(pd, address, length, access);
+	}
+
+	/**
+	 * Creates a pool of registered buffers in the protection domain of this endpoint, with the access rights of this endpoint.
+	 *
+	 * @param sizeClasses the buffer sizes.
+	 * @param slabSize the size of the memory regions the buffers are carved from.
+	 * @param initialSlabs the number of memory regions registered per size class up front.
+	 * @return the pool, to be closed by the caller.
+	 * @throws Exception on failure
+	 */
+	public RdmaBufferPool createBufferPool(int[] sizeClasses, int slabSize, int initialSlabs) throws IOException {
+		return new RdmaBufferPool(pd, sizeClasses, slabSize, initialSlabs, access);
+	}
+
+	/**
+	 * Creates a registration cache for the protection domain of this endpoint, with the access rights of this endpoint.
+	 *
+	 * @param capacity the number of bytes kept registered by unused registrations.
+	 * @return the cache, to be closed by the caller.
+	 */
+	public RdmaRegistrationCache createRegistrationCache(long capacity) {
+		return new RdmaRegistrationCache(pd, access, capacity);
+	}
+	
 	/**
 	 * Post a receive operation on this endpoint.
 	 *
@@ -295,6 +466,51 @@ public class RdmaEndpoint implements DiSNIEndpoint {
 		return qp.postSend(sendList, null);
 	}	
 
+	/**
+	 * Creates a post send operation with blank work requests which are filled in and re-targeted in place.
+	 *
+	 * @param maxWr the number of work requests.
+	 * @param maxSge the number of SGEs per work request.
+	 * @return a stateful verb call (SVC) ready to be filled in.
+	 * @throws Exception on failure.
+	 */
+	public SVCPostSend postSend(int maxWr, int maxSge) throws IOException {
+		return qp.postSend(maxWr, maxSge);
+	}
+
+	/**
+	 * Enables selective signaling for the sends of this endpoint. Sends are posted with RdmaSendWindow.post() afterwards,
+	 * RdmaActiveEndpoint drops the completions only requested by the window before dispatchCqEvent(), users of passive
+	 * endpoints have to pass each completion to RdmaSendWindow.complete() themselves.
+	 *
+	 * @param size the number of send queue slots, at most the maxWR of the group.
+	 * @param interval every interval-th send is signaled.
+	 * @return the send window of this endpoint.
+	 * @throws Exception on failure.
+	 */
+	public synchronized RdmaSendWindow createSendWindow(int size, int interval) throws IOException {
+		if (sendWindow != null) {
+			throw new IOException("Trying to create send window, endpoint already has one");
+		}
+		this.sendWindow = new RdmaSendWindow(size, interval);
+		return sendWindow;
+	}
+
+	/**
+	 * The send window of this endpoint, null if selective signaling is not enabled.
+	 */
+	public RdmaSendWindow getSendWindow() {
+		return sendWindow;
+	}
+
+	/*
+	 * Passes a completion through the send window, returns whether it is handed to the application.
+	 */
+	boolean filterCqEvent(IbvWC wc) {
+		RdmaSendWindow window = sendWindow;
+		return window == null || window.complete(wc);
+	}
+
 	/**
 	 * Deregister memory.
 	 *
@@ -22,9 +22,15 @@
 package com.ibm.disni.rdma;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 
@@ -36,17 +42,27 @@ import com.ibm.disni.rdma.verbs.RdmaCmId;
 import com.ibm.disni.rdma.verbs.RdmaConnParam;
 import com.ibm.disni.util.DiSNILogger;
 
+/**
+ * Creates endpoints and dispatches their CM events.
+ *
+ * Endpoints are kept in concurrent maps keyed by their CM id, creating, closing and dispatching events to endpoints does not
+ * take the group lock. The group lock only serializes the creation of shared per device resources (PDs and CQs).
+ * The futures of connectAsync() and acceptAsync() are completed on threads of the group and not on the CM event thread, so
+ * their dependent actions may block.
+ */
 public abstract class RdmaEndpointGroup <C extends RdmaEndpoint> {
 	private static final Logger logger = DiSNILogger.getLogger();
-	private static int idCounter = 0;
+	private static AtomicInteger idCounter = new AtomicInteger(0);
 	
 	protected RdmaEndpointProvider endpointProvider;
 	protected RdmaCmProcessor cmProcessor;
-	protected HashMap<RdmaCmId, RdmaServerEndpoint<C>> serverEndpointMap;
-	protected HashMap<RdmaCmId, C> clientEndpointMap;
+	protected ConcurrentHashMap<RdmaCmId, RdmaServerEndpoint<C>> serverEndpointMap;
+	protected ConcurrentHashMap<RdmaCmId, C> clientEndpointMap;
 	protected AtomicBoolean closed;
 	protected RdmaEndpointFactory<C> factory;
 	protected RdmaConnParam connParam;
+	protected int maxInline;
+	private ExecutorService futureExecutor;
 	
 	public abstract RdmaCqProvider createCqProvider(C endpoint) throws IOException;
 	
@@ -56,11 +72,20 @@ public abstract class RdmaEndpointGroup <C extends RdmaEndpoint> {
 	
 	public RdmaEndpointGroup(int timeout) throws IOException{
 		this.endpointProvider = RdmaEndpointProvider.getEndpointProvider();
-		this.serverEndpointMap = new HashMap<RdmaCmId, RdmaServerEndpoint<C>>();
-		this.clientEndpointMap = new HashMap<RdmaCmId, C>();
+		this.serverEndpointMap = new ConcurrentHashMap<RdmaCmId, RdmaServerEndpoint<C>>();
+		this.clientEndpointMap = new ConcurrentHashMap<RdmaCmId, C>();
 		this.cmProcessor = new RdmaCmProcessor(this, timeout);
 		this.closed = new AtomicBoolean(true);
 		this.connParam = new RdmaConnParam();
+		this.futureExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private AtomicInteger threads = new AtomicInteger(0);
+
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "cm-future-" + threads.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 	}
 	
 	public void init(RdmaEndpointFactory<C> factory){
@@ -77,7 +102,7 @@ public abstract class RdmaEndpointGroup <C extends RdmaEndpoint> {
 		return endpointProvider.createProtectionDomain(endpoint);
 	}		
 	
-	public synchronized final RdmaServerEndpoint<C> createServerEndpoint() throws IOException{
+	public final RdmaServerEndpoint<C> createServerEndpoint() throws IOException{
 		RdmaCmId idPriv = cmProcessor.createId(RdmaCm.RDMA_PS_TCP);
 		RdmaServerEndpoint<C> ep = new RdmaServerEndpoint<C>(this, idPriv);
 		serverEndpointMap.put(idPriv, ep);
@@ -85,14 +110,14 @@ public abstract class RdmaEndpointGroup <C extends RdmaEndpoint> {
 		return ep;
 	}
 	
-	public synchronized final C createEndpoint() throws IOException {
+	public final C createEndpoint() throws IOException {
 		RdmaCmId idPriv = cmProcessor.createId(RdmaCm.RDMA_PS_TCP);
 		C ep = factory.createEndpoint(idPriv, false);
 		clientEndpointMap.put(idPriv, ep);		
 		return ep;
 	}
 	
-	protected synchronized final C createEndpoint(RdmaCmId idPriv)	throws IOException {
+	protected final C createEndpoint(RdmaCmId idPriv)	throws IOException {
 		C ep = factory.createEndpoint(idPriv, true);
 		clientEndpointMap.put(idPriv, ep);
 		return ep;
@@ -107,45 +132,27 @@ public abstract class RdmaEndpointGroup <C extends RdmaEndpoint> {
 			RdmaCmId idPriv = cmEvent.getListenIdPriv();
 			RdmaCmId clientID = cmEvent.getConnIdPriv();
 			int event = cmEvent.getEvent();
+			RdmaServerEndpoint<C> serverEndpoint = idPriv != null ? serverEndpointMap.get(idPriv) : null;
+			C clientEndpoint = clientID != null ? clientEndpointMap.get(clientID) : null;
 			
 			if (event == RdmaCmEvent.EventType.RDMA_CM_EVENT_CONNECT_REQUEST.ordinal()) {
-				if (idPriv != null && serverEndpointMap.containsKey(idPriv)) {
-					serverEndpointMap.get(idPriv).dispatchCmEvent(cmEvent);
-				}
-			} else if (event == RdmaCmEvent.EventType.RDMA_CM_EVENT_ESTABLISHED.ordinal()) {
-				if (clientID != null && clientEndpointMap.containsKey(clientID)) {
-					clientEndpointMap.get(clientID).dispatchCmEvent(cmEvent);
-				} else {
-					logger.info("have no client endpoint to this event");
+				if (serverEndpoint != null) {
+					serverEndpoint.dispatchCmEvent(cmEvent);
 				}
-			} else if (event == RdmaCmEvent.EventType.RDMA_CM_EVENT_ADDR_RESOLVED
-					.ordinal()) {
-				if (clientID != null && clientEndpointMap.containsKey(clientID)) {
-					clientEndpointMap.get(clientID).dispatchCmEvent(cmEvent);
+			} else if (event == RdmaCmEvent.EventType.RDMA_CM_EVENT_ESTABLISHED.ordinal()
+					|| event == RdmaCmEvent.EventType.RDMA_CM_EVENT_ADDR_RESOLVED.ordinal()
+					|| event == RdmaCmEvent.EventType.RDMA_CM_EVENT_ROUTE_RESOLVED.ordinal()) {
+				if (clientEndpoint != null) {
+					clientEndpoint.dispatchCmEvent(cmEvent);
 				} else {
 					logger.info("have no client endpoint to this event");
 				}
-			} else if (event == RdmaCmEvent.EventType.RDMA_CM_EVENT_ROUTE_RESOLVED
-					.ordinal()) {
-				if (clientID != null && clientEndpointMap.containsKey(clientID)) {
-					C ep = clientEndpointMap.get(clientID);
-					ep.dispatchCmEvent(cmEvent);
-				} else {
-					logger.info("have no client endpoint to this event");
-				}
-			} else if (event == RdmaCmEvent.EventType.RDMA_CM_EVENT_DISCONNECTED.ordinal()) {
-				if (clientID != null && clientEndpointMap.containsKey(clientID)) {
-					clientEndpointMap.get(clientID).dispatchCmEvent(cmEvent);
-				}
-				if (idPriv != null && serverEndpointMap.containsKey(idPriv)) {
-					serverEndpointMap.get(idPriv).dispatchCmEvent(cmEvent);
-				}			
 			} else {
-				if (clientID != null && clientEndpointMap.containsKey(clientID)) {
-					clientEndpointMap.get(clientID).dispatchCmEvent(cmEvent);
+				if (clientEndpoint != null) {
+					clientEndpoint.dispatchCmEvent(cmEvent);
 				}
-				if (idPriv != null && serverEndpointMap.containsKey(idPriv)) {
-					serverEndpointMap.get(idPriv).dispatchCmEvent(cmEvent);
+				if (serverEndpoint != null) {
+					serverEndpoint.dispatchCmEvent(cmEvent);
 				}
 			}
 		} catch(Exception e){
@@ -157,6 +164,18 @@ public abstract class RdmaEndpointGroup <C extends RdmaEndpoint> {
 		return connParam;
 	}
 
+	/**
+	 * Sets the inline data size requested for the QPs of endpoints created afterwards, 0 (the default) disables
+	 * inline sends. The device may grant more, see IbvQP.getMax_inline_data().
+	 */
+	public void setMaxInline(int maxInline) {
+		this.maxInline = maxInline;
+	}
+
+	public int getMaxInline() {
+		return maxInline;
+	}
+
 	public synchronized void close() throws IOException, InterruptedException {
 		logger.info("shutting down group");
 		if (closed.get()){
@@ -180,6 +199,7 @@ public abstract class RdmaEndpointGroup <C extends RdmaEndpoint> {
 		}
 		
 		cmProcessor.close();
+		futureExecutor.shutdown();
 		closed.set(true);
 		logger.info("shutting down group done");
 	}
@@ -188,17 +208,15 @@ public abstract class RdmaEndpointGroup <C extends RdmaEndpoint> {
 		return closed.get();
 	}
 	
-	public synchronized int getNextId(){
-		int id = idCounter;
-		idCounter++;
-		return id;
+	public int getNextId(){
+		return idCounter.getAndIncrement();
 	}	
 	
-	synchronized IbvPd createProtectionDomainRaw(RdmaEndpoint endpoint) throws IOException{
+	IbvPd createProtectionDomainRaw(RdmaEndpoint endpoint) throws IOException{
 		return createProtectionDomain(clientEndpointMap.get(endpoint.getIdPriv()));
 	}
 	
-	synchronized IbvPd createProtectionDomainRaw(RdmaServerEndpoint<C> endpoint) throws IOException{
+	IbvPd createProtectionDomainRaw(RdmaServerEndpoint<C> endpoint) throws IOException{
 		return createProtectionDomain(serverEndpointMap.get(endpoint.getIdPriv()));
 	}	
 	
@@ -206,23 +224,59 @@ public abstract class RdmaEndpointGroup <C extends RdmaEndpoint> {
 		return createCqProvider(clientEndpointMap.get(endpoint.getIdPriv()));
 	}
 	
-	synchronized IbvQP createQpProviderRaw(RdmaEndpoint endpoint) throws IOException{
+	IbvQP createQpProviderRaw(RdmaEndpoint endpoint) throws IOException{
 		return createQpProvider(clientEndpointMap.get(endpoint.getIdPriv()));
 	}
 	
-	synchronized void allocateResourcesRaw(RdmaEndpoint endpoint) throws Exception {
+	void allocateResourcesRaw(RdmaEndpoint endpoint) throws Exception {
 		allocateResources(clientEndpointMap.get(endpoint.getIdPriv()));
 	}	
 
-	synchronized void unregisterClientEp(RdmaEndpoint endpoint) throws IOException {
-		if (clientEndpointMap.containsKey(endpoint.getIdPriv())) {
-			clientEndpointMap.remove(endpoint.getIdPriv());
+	/*
+	 * Completes a connect or accept future on a thread of the group, or on the calling thread once the group is closed.
+	 */
+	<T> void complete(final CompletableFuture<T> future, final T value, final Throwable failure) {
+		execute(new Runnable() {
+			public void run() {
+				if (failure == null) {
+					future.complete(value);
+				} else {
+					future.completeExceptionally(failure);
+				}
+			}
+		});
+	}
+
+	/*
+	 * Closes an endpoint whose asynchronous connect failed, then fails the future, like a failed accept. The endpoint is not
+	 * closed on the CM event thread, its CM id can only be destroyed once the current event has been acknowledged.
+	 */
+	void fail(final RdmaEndpoint endpoint, final CompletableFuture<Void> future, final Throwable failure) {
+		execute(new Runnable() {
+			public void run() {
+				try {
+					endpoint.close();
+				} catch (Exception e) {
+					logger.info("closing endpoint after failed connect, " + e.getMessage());
+				}
+				future.completeExceptionally(failure);
+			}
+		});
+	}
+
+	private void execute(Runnable task) {
+		try {
+			futureExecutor.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.run();
 		}
+	}
+
+	void unregisterClientEp(RdmaEndpoint endpoint) throws IOException {
+		clientEndpointMap.remove(endpoint.getIdPriv());
 	}	
 	
-	synchronized void unregisterServerEp(RdmaServerEndpoint<C> endpoint) {
-		if (serverEndpointMap.containsKey(endpoint.getIdPriv())) {
-			serverEndpointMap.remove(endpoint.getIdPriv());
-		}
+	void unregisterServerEp(RdmaServerEndpoint<C> endpoint) {
+		serverEndpointMap.remove(endpoint.getIdPriv());
 	}		
 }
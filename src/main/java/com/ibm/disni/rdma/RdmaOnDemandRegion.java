@@ -0,0 +1,303 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvPd;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+import com.ibm.disni.rdma.verbs.SVCPostSend.SendWRMod;
+import com.ibm.disni.rdma.verbs.SVCPostSend.SgeMod;
+import com.ibm.disni.util.DiSNILogger;
+import com.ibm.disni.util.MemoryUtils;
+
+/**
+ * A large memory area, e.g., a memory mapped file, registered for on-demand paging (ODP).
+ *
+ * The pages of an ODP region are not pinned, the device faults them in when they are accessed. As a memory region is limited
+ * to 2GB, the area is registered as overlapping segments starting every STRIDE bytes, so that every access of up to STRIDE bytes
+ * lies within one segment. getLkey() and getRkey() return the key of that segment. Page faults on the device stall the queue
+ * pair, prefetch() asks a background thread to fault in the pages of a range before work requests touch it. If the device does
+ * not support ODP, the segments are registered as regular (pinned) memory regions and prefetching is skipped.
+ */
+public class RdmaOnDemandRegion implements Runnable {
+	private static final Logger logger = DiSNILogger.getLogger();
+
+	/** Distance between the start of two segments, the largest access guaranteed to lie within one segment. */
+	public static final long STRIDE = 1L << 30;
+	private static final int SEGMENT_SIZE = Integer.MAX_VALUE;
+	private static final int QUEUE_SIZE = 1024;
+
+	private long address;
+	private long length;
+	private boolean onDemand;
+	private IbvMr[] segments;
+	private long[] queueAddr;
+	private long[] queueLength;
+	private int queueHead;
+	private int queueTail;
+	private long dropped;
+	private volatile boolean running;
+	private Thread thread;
+
+	/**
+	 * Registers a memory area.
+	 *
+	 * @param pd the protection domain.
+	 * @param address the start of the area.
+	 * @param length the size of the area in bytes.
+	 * @param access the access rights, IbvMr.IBV_ACCESS_ON_DEMAND is added if the device supports ODP.
+	 * @throws Exception on failure.
+	 */
+	public RdmaOnDemandRegion(IbvPd pd, long address, long length, int access) throws IOException {
+		if (length <= 0) {
+			throw new IOException("Trying to register on-demand region, invalid length " + length);
+		}
+		this.address = address;
+		this.length = length;
+		this.onDemand = pd.getContext().queryOdpSupport() >= 0;
+		if (onDemand) {
+			access |= IbvMr.IBV_ACCESS_ON_DEMAND;
+		} else {
+			logger.info("device does not support ODP, on-demand region is pinned");
+		}
+		this.segments = new IbvMr[(int) ((length - 1) / STRIDE) + 1];
+		try {
+			for (int i = 0; i < segments.length; i++) {
+				long offset = i * STRIDE;
+				int size = (int) Math.min(SEGMENT_SIZE, length - offset);
+				IbvMr mr = pd.regMr(address + offset, size, access).execute().free().getMr();
+				if (mr == null) {
+					throw new IOException("Trying to register on-demand region, segment " + i + " failed");
+				}
+				segments[i] = mr;
+			}
+		} catch (IOException e) {
+			deregister();
+			throw e;
+		}
+		this.queueAddr = new long[QUEUE_SIZE];
+		this.queueLength = new long[QUEUE_SIZE];
+		this.running = true;
+		if (onDemand) {
+			this.thread = new Thread(this, "odp-prefetch");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		logger.info("on-demand region, address " + address + ", length " + length + ", segments " + segments.length + ", odp " + onDemand);
+	}
+
+	/**
+	 * Registers a direct buffer, e.g., a MappedByteBuffer.
+	 */
+	public RdmaOnDemandRegion(IbvPd pd, ByteBuffer buffer, int access) throws IOException {
+		this(pd, MemoryUtils.getAddress(buffer), buffer.capacity(), access);
+	}
+
+	public long getAddress() {
+		return address;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Whether the region is registered for on-demand paging.
+	 */
+	public boolean isOnDemand() {
+		return onDemand;
+	}
+
+	/**
+	 * The number of prefetch requests dropped because the prefetch queue was full.
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Returns the segment containing the given range.
+	 *
+	 * @param address the start of the range.
+	 * @param length the length of the range, at most STRIDE.
+	 * @return the memory region, or null if the range is not within this region.
+	 */
+	public IbvMr getMr(long address, long length) {
+		long offset = address - this.address;
+		if (offset < 0 || length < 0 || length > STRIDE || offset + length > this.length) {
+			return null;
+		}
+		IbvMr mr = segments[(int) (offset / STRIDE)];
+		if (mr == null || address + length > mr.getAddr() + mr.getLength()) {
+			return null;
+		}
+		return mr;
+	}
+
+	/**
+	 * The lkey to use for a local access to the given range, see getMr().
+	 */
+	public int getLkey(long address, int length) throws IOException {
+		return lookup(address, length).getLkey();
+	}
+
+	/**
+	 * The rkey a remote peer uses to access the given range, see getMr().
+	 */
+	public int getRkey(long address, int length) throws IOException {
+		return lookup(address, length).getRkey();
+	}
+
+	/**
+	 * Queues a range to be faulted in by the prefetch thread. Requests are dropped if the queue is full.
+	 *
+	 * @param address the start of the range.
+	 * @param length the length of the range.
+	 */
+	public void prefetch(long address, long length) {
+		long start = Math.max(address, this.address);
+		long end = Math.min(address + length, this.address + this.length);
+		if (!onDemand || start >= end) {
+			return;
+		}
+		synchronized (this) {
+			if (queueTail != queueHead) {
+				int last = (queueTail - 1) & (QUEUE_SIZE - 1);
+				if (start >= queueAddr[last] && end <= queueAddr[last] + queueLength[last]) {
+					return;
+				}
+			}
+			if (queueTail - queueHead == QUEUE_SIZE) {
+				dropped++;
+				return;
+			}
+			queueAddr[queueTail & (QUEUE_SIZE - 1)] = start;
+			queueLength[queueTail & (QUEUE_SIZE - 1)] = end - start;
+			queueTail++;
+			notify();
+		}
+	}
+
+	/**
+	 * Queues the local buffers of the posted work requests of a post send SVC which lie within this region. Prefetching is
+	 * most effective if done when the requests are prepared, some time before they are posted.
+	 *
+	 * @param postSend the prepared post send operation.
+	 * @throws Exception on failure.
+	 */
+	public void prefetch(SVCPostSend postSend) throws IOException {
+		for (int i = 0; i < postSend.getNumWr(); i++) {
+			SendWRMod sendWR = postSend.getWrMod(i);
+			for (int j = 0; j < sendWR.getNum_sge(); j++) {
+				SgeMod sge = sendWR.getSgeMod(j);
+				prefetch(sge.getAddr(), sge.getLength());
+			}
+		}
+	}
+
+	/**
+	 * Faults in the pages of a range on the calling thread.
+	 *
+	 * @param address the start of the range.
+	 * @param length the length of the range.
+	 * @throws Exception if the range is not within this region or the prefetch failed.
+	 */
+	public void prefetchNow(long address, long length) throws IOException {
+		if (!onDemand) {
+			return;
+		}
+		while (length > 0) {
+			int size = (int) Math.min(length, STRIDE);
+			int ret = lookup(address, size).expPrefetchMr(address, size);
+			if (ret != 0) {
+				throw new IOException("Trying to prefetch on-demand region, failed " + ret);
+			}
+			address += size;
+			length -= size;
+		}
+	}
+
+	public void run() {
+		logger.info("running odp prefetch");
+		while (running) {
+			long start;
+			long size;
+			synchronized (this) {
+				while (running && queueHead == queueTail) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (!running) {
+					break;
+				}
+				start = queueAddr[queueHead & (QUEUE_SIZE - 1)];
+				size = queueLength[queueHead & (QUEUE_SIZE - 1)];
+				queueHead++;
+			}
+			try {
+				prefetchNow(start, size);
+			} catch (Exception e) {
+				logger.info("odp prefetch, caught exception but keep going " + e.getMessage());
+			}
+		}
+		logger.info("terminating odp prefetch");
+	}
+
+	/**
+	 * Stops the prefetch thread and deregisters all segments.
+	 */
+	public void close() throws IOException, InterruptedException {
+		synchronized (this) {
+			running = false;
+			notify();
+		}
+		if (thread != null) {
+			thread.join();
+		}
+		deregister();
+	}
+
+	private IbvMr lookup(long address, long length) throws IOException {
+		IbvMr mr = getMr(address, length);
+		if (mr == null) {
+			throw new IOException("Trying to access on-demand region, range " + address + "/" + length + " out of bounds");
+		}
+		return mr;
+	}
+
+	private void deregister() throws IOException {
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[i] != null) {
+				segments[i].deregMr().execute().free();
+				segments[i] = null;
+			}
+		}
+	}
+}
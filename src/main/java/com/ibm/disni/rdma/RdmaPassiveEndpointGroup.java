@@ -26,6 +26,7 @@ import java.io.IOException;
 import org.slf4j.Logger;
 
 import com.ibm.disni.rdma.verbs.IbvCQ;
+import com.ibm.disni.rdma.verbs.IbvContext;
 import com.ibm.disni.rdma.verbs.IbvQP;
 import com.ibm.disni.rdma.verbs.IbvQPInitAttr;
 import com.ibm.disni.rdma.verbs.RdmaCmId;
@@ -66,7 +67,9 @@ public class RdmaPassiveEndpointGroup<C extends RdmaEndpoint> extends RdmaEndpoi
 	
 	public RdmaCqProvider createCqProvider(C endpoint) throws IOException {
 		logger.info("setting up cq processor");
-		return new RdmaCqProvider(endpoint.getIdPriv().getVerbs(), cqSize);
+		IbvContext context = endpoint.getIdPriv().getVerbs();
+		int compVectors = Math.max(context.getNumCompVectors(), 1);
+		return new RdmaCqProvider(context, cqSize, endpoint.getEndpointId() % compVectors);
 	}
 	
 	public IbvQP createQpProvider(C endpoint) throws IOException{
@@ -77,6 +80,7 @@ public class RdmaPassiveEndpointGroup<C extends RdmaEndpoint> extends RdmaEndpoi
 		attr.cap().setMax_recv_wr(this.maxWR);
 		attr.cap().setMax_send_sge(this.maxSge);
 		attr.cap().setMax_send_wr(this.maxWR);
+		attr.cap().setMax_inline_data(this.maxInline);
 		attr.setQp_type(IbvQP.IBV_QPT_RC);
 		attr.setRecv_cq(cq);
 		attr.setSend_cq(cq);	
@@ -0,0 +1,294 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvPd;
+import com.ibm.disni.util.DiSNILogger;
+import com.ibm.disni.util.MemoryUtils;
+
+/**
+ * Caches memory registrations of application buffers.
+ *
+ * Registrations are indexed by their [address, address + length) range, a request covered by a cached registration is served
+ * without a call into the kernel. Registrations are page aligned, a request overlapping cached registrations is registered as the
+ * union of the ranges, which replaces them in the index. Registrations in use are kept, unused ones are deregistered in least recently
+ * used order once the registered bytes exceed the capacity. Cached registrations pin the memory of the buffer, if a buffer is freed
+ * while it may still be cached, invalidate() has to be called before its memory is reused.
+ */
+public class RdmaRegistrationCache {
+	private static final Logger logger = DiSNILogger.getLogger();
+	private static final long PAGE_SIZE = 4096;
+
+	private IbvPd pd;
+	private int access;
+	private long capacity;
+	private long registered;
+	private TreeMap<Long, Registration> index;
+	private LinkedHashMap<Long, Registration> lru;
+	private long hits;
+	private long misses;
+	private boolean closed;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param pd the protection domain.
+	 * @param access the access rights of the registrations.
+	 * @param capacity the number of bytes kept registered by unused registrations.
+	 */
+	public RdmaRegistrationCache(IbvPd pd, int access, long capacity) {
+		this.pd = pd;
+		this.access = access;
+		this.capacity = capacity;
+		this.registered = 0;
+		this.index = new TreeMap<Long, Registration>();
+		this.lru = new LinkedHashMap<Long, Registration>(16, 0.75f, true);
+		this.hits = 0;
+		this.misses = 0;
+		this.closed = false;
+	}
+
+	/**
+	 * Returns a registration covering the whole capacity of a direct buffer.
+	 */
+	public Registration register(ByteBuffer buffer) throws IOException {
+		return register(MemoryUtils.getAddress(buffer), buffer.capacity());
+	}
+
+	/**
+	 * Returns a registration covering [address, address + length). The registration stays registered until release() is called.
+	 *
+	 * @param address the start of the range.
+	 * @param length the length of the range in bytes.
+	 * @return the registration.
+	 * @throws Exception on failure.
+	 */
+	public synchronized Registration register(long address, int length) throws IOException {
+		if (closed) {
+			throw new IOException("Trying to register memory while cache is already closed");
+		}
+		if (length <= 0) {
+			throw new IOException("Trying to register memory, invalid length " + length);
+		}
+		long start = address & ~(PAGE_SIZE - 1);
+		long end = (address + length + PAGE_SIZE - 1) & ~(PAGE_SIZE - 1);
+		Map.Entry<Long, Registration> floor = index.floorEntry(address);
+		if (floor != null && floor.getValue().end >= address + length) {
+			hits++;
+			Registration registration = floor.getValue();
+			registration.refs++;
+			lru.get(registration.start);
+			return registration;
+		}
+		misses++;
+
+		//merge with the registrations overlapping the range, if the union can still be registered
+		ArrayList<Registration> overlapping = new ArrayList<Registration>();
+		Map.Entry<Long, Registration> entry = index.lowerEntry(start);
+		if (entry != null && entry.getValue().end > start) {
+			overlapping.add(entry.getValue());
+		}
+		overlapping.addAll(index.subMap(start, end).values());
+		long unionStart = start;
+		long unionEnd = end;
+		for (Registration registration : overlapping) {
+			unionStart = Math.min(unionStart, registration.start);
+			unionEnd = Math.max(unionEnd, registration.end);
+		}
+		if (unionEnd - unionStart <= Integer.MAX_VALUE) {
+			start = unionStart;
+			end = unionEnd;
+		}
+
+		IbvMr mr = pd.regMr(start, (int) (end - start), access).execute().free().getMr();
+		if (mr == null) {
+			throw new IOException("Trying to register memory at " + start + ", length " + (end - start) + ", failed");
+		}
+		for (Registration registration : overlapping) {
+			remove(registration);
+		}
+		Registration registration = new Registration(this, start, end, mr);
+		registration.refs = 1;
+		index.put(start, registration);
+		lru.put(start, registration);
+		registered += end - start;
+		evict();
+		return registration;
+	}
+
+	/**
+	 * Drops all cached registrations overlapping [address, address + length), e.g., before the memory is freed. Registrations
+	 * in use are deregistered when they are released.
+	 */
+	public synchronized void invalidate(long address, long length) throws IOException {
+		ArrayList<Registration> overlapping = new ArrayList<Registration>();
+		Map.Entry<Long, Registration> entry = index.lowerEntry(address);
+		if (entry != null && entry.getValue().end > address) {
+			overlapping.add(entry.getValue());
+		}
+		overlapping.addAll(index.subMap(address, address + length).values());
+		for (Registration registration : overlapping) {
+			remove(registration);
+		}
+	}
+
+	/**
+	 * The number of register() calls served from the cache.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * The number of register() calls that registered memory.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * The number of bytes currently registered through the cache.
+	 */
+	public synchronized long getRegistered() {
+		return registered;
+	}
+
+	/**
+	 * Deregisters all unused registrations, registrations in use are deregistered when they are released.
+	 */
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (Registration registration : new ArrayList<Registration>(index.values())) {
+			remove(registration);
+		}
+		logger.info("registration cache closed, hits " + hits + ", misses " + misses);
+	}
+
+	synchronized void release(Registration registration) throws IOException {
+		if (registration.refs <= 0) {
+			throw new IOException("Trying to release registration at " + registration.start + ", not in use");
+		}
+		registration.refs--;
+		if (registration.refs == 0) {
+			if (registration.cached) {
+				evict();
+			} else {
+				deregister(registration);
+			}
+		}
+	}
+
+	private void remove(Registration registration) throws IOException {
+		index.remove(registration.start);
+		lru.remove(registration.start);
+		registration.cached = false;
+		if (registration.refs == 0) {
+			deregister(registration);
+		}
+	}
+
+	private void evict() throws IOException {
+		Iterator<Registration> iter = lru.values().iterator();
+		while (registered > capacity && iter.hasNext()) {
+			Registration registration = iter.next();
+			if (registration.refs == 0) {
+				iter.remove();
+				index.remove(registration.start);
+				registration.cached = false;
+				deregister(registration);
+			}
+		}
+	}
+
+	private void deregister(Registration registration) throws IOException {
+		registered -= registration.end - registration.start;
+		registration.mr.deregMr().execute().free();
+	}
+
+	/**
+	 * A cached memory registration, covering at least the requested range.
+	 */
+	public static class Registration {
+		private RdmaRegistrationCache cache;
+		private long start;
+		private long end;
+		private IbvMr mr;
+		private int refs;
+		private boolean cached;
+
+		Registration(RdmaRegistrationCache cache, long start, long end, IbvMr mr) {
+			this.cache = cache;
+			this.start = start;
+			this.end = end;
+			this.mr = mr;
+			this.refs = 0;
+			this.cached = true;
+		}
+
+		public IbvMr getMr() {
+			return mr;
+		}
+
+		public int getLkey() {
+			return mr.getLkey();
+		}
+
+		public int getRkey() {
+			return mr.getRkey();
+		}
+
+		/**
+		 * The start of the registered range.
+		 */
+		public long getAddress() {
+			return start;
+		}
+
+		/**
+		 * The length of the registered range.
+		 */
+		public long getLength() {
+			return end - start;
+		}
+
+		/**
+		 * Ends the use of the registration, it may be deregistered afterwards.
+		 */
+		public void release() throws IOException {
+			cache.release(this);
+		}
+	}
+}
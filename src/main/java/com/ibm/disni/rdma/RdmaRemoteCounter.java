@@ -0,0 +1,145 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.SVCPollCq;
+import com.ibm.disni.rdma.verbs.SVCPostPoll;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+import com.ibm.disni.rdma.verbs.SVCPostSend.AtomicMod;
+import com.ibm.disni.rdma.verbs.SVCPostSend.SendWRMod;
+
+/**
+ * A 64 bit counter in the memory of a remote peer, updated with RDMA atomic operations.
+ *
+ * Operations post a single atomic work request and poll the completion queue of the endpoint until it
+ * has completed, the remote CPU is not involved. The endpoint has to be a passive endpoint dedicated to the
+ * counter, as the counter consumes all completions of its CQ. The target word has to be 8 byte aligned and
+ * registered by the peer with IbvMr.IBV_ACCESS_REMOTE_ATOMIC, e.g., pd.regMr(buffer, access | IbvMr.IBV_ACCESS_REMOTE_ATOMIC).
+ */
+public class RdmaRemoteCounter {
+	private static final int SPINS = 1024;
+
+	private RdmaEndpoint endpoint;
+	private ByteBuffer result;
+	private IbvMr mr;
+	private SVCPostSend postSend;
+	private SendWRMod sendWR;
+	private AtomicMod atomic;
+	private IbvWC[] wcList;
+	private SVCPostPoll postPoll;
+	private SVCPollCq pollCq;
+
+	public RdmaRemoteCounter(RdmaEndpoint endpoint, long address, int rkey) throws IOException {
+		this.endpoint = endpoint;
+		this.result = ByteBuffer.allocateDirect(8).order(ByteOrder.nativeOrder());
+		this.mr = endpoint.registerMemory(result).execute().free().getMr();
+		this.postSend = endpoint.postSend(1, 1);
+		this.sendWR = postSend.getWrMod(0);
+		sendWR.setSend_flags(IbvSendWR.IBV_SEND_SIGNALED);
+		sendWR.getSgeMod(0).setAddr(mr.getAddr());
+		sendWR.getSgeMod(0).setLength(8);
+		sendWR.getSgeMod(0).setLkey(mr.getLkey());
+		this.atomic = sendWR.getAtomicMod();
+		atomic.setRemote_addr(address);
+		atomic.setRkey(rkey);
+		this.wcList = new IbvWC[1];
+		wcList[0] = new IbvWC();
+		this.postPoll = endpoint.getCqProvider().getCQ().postPoll(postSend, wcList, 1, SPINS);
+		this.pollCq = endpoint.getCqProvider().getCQ().poll(wcList, 1);
+	}
+
+	/**
+	 * Atomically adds to the remote counter.
+	 *
+	 * @param delta the value to add.
+	 * @return the value of the counter before the addition.
+	 * @throws IOException if the operation failed.
+	 */
+	public synchronized long getAndAdd(long delta) throws IOException {
+		sendWR.setOpcode(IbvSendWR.IBV_WR_ATOMIC_FETCH_AND_ADD);
+		atomic.setCompare_add(delta);
+		return execute();
+	}
+
+	/**
+	 * Atomically increments the remote counter.
+	 *
+	 * @return the value of the counter after the increment.
+	 * @throws IOException if the operation failed.
+	 */
+	public long incrementAndGet() throws IOException {
+		return getAndAdd(1) + 1;
+	}
+
+	/**
+	 * Reads the remote counter atomically with respect to other atomic operations.
+	 *
+	 * @return the current value of the counter.
+	 * @throws IOException if the operation failed.
+	 */
+	public long get() throws IOException {
+		return getAndAdd(0);
+	}
+
+	/**
+	 * Atomically sets the remote counter if it holds the expected value.
+	 *
+	 * @param expect the expected value.
+	 * @param update the new value.
+	 * @return whether the counter was updated.
+	 * @throws IOException if the operation failed.
+	 */
+	public synchronized boolean compareAndSet(long expect, long update) throws IOException {
+		sendWR.setOpcode(IbvSendWR.IBV_WR_ATOMIC_CMP_AND_SWP);
+		atomic.setCompare_add(expect);
+		atomic.setSwap(update);
+		return execute() == expect;
+	}
+
+	/**
+	 * Releases the work requests and the result buffer of this counter, the remote memory is not affected.
+	 */
+	public synchronized void close() throws IOException {
+		postPoll.free();
+		pollCq.free();
+		postSend.free();
+		endpoint.deregisterMemory(mr);
+	}
+
+	private long execute() throws IOException {
+		int polls = postPoll.execute().getPolls();
+		while (polls == 0) {
+			polls = pollCq.execute().getPolls();
+		}
+		if (wcList[0].getStatus() != IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal()) {
+			throw new IOException("Trying to execute remote atomic, failed with status " + wcList[0].getStatus());
+		}
+		return result.getLong(0);
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+
+/**
+ * A spin lock in the memory of a remote peer, acquired and released with RDMA compare and swap.
+ *
+ * The lock word holds 0 when the lock is free and the token of the owner otherwise. Tokens have to be
+ * non-zero and unique among the processes sharing the lock. The same requirements as for RdmaRemoteCounter
+ * apply to the endpoint and the lock word.
+ */
+public class RdmaRemoteSpinLock {
+	private static final long FREE = 0;
+
+	private RdmaRemoteCounter word;
+	private long token;
+
+	public RdmaRemoteSpinLock(RdmaEndpoint endpoint, long address, int rkey, long token) throws IOException {
+		if (token == FREE) {
+			throw new IllegalArgumentException("lock token must not be " + FREE);
+		}
+		this.word = new RdmaRemoteCounter(endpoint, address, rkey);
+		this.token = token;
+	}
+
+	/**
+	 * Spins until the lock is acquired.
+	 */
+	public void lock() throws IOException {
+		while (!word.compareAndSet(FREE, token)) {
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Acquires the lock if it is free.
+	 *
+	 * @return whether the lock was acquired.
+	 */
+	public boolean tryLock() throws IOException {
+		return word.compareAndSet(FREE, token);
+	}
+
+	/**
+	 * Releases the lock.
+	 *
+	 * @throws IOException if the lock is not held with the token of this lock.
+	 */
+	public void unlock() throws IOException {
+		if (!word.compareAndSet(token, FREE)) {
+			throw new IOException("Trying to release remote lock not held by token " + token);
+		}
+	}
+
+	public void close() throws IOException {
+		word.close();
+	}
+}
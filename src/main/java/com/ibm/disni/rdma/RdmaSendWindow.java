@@ -0,0 +1,191 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+import com.ibm.disni.rdma.verbs.SVCPostSend.SendWRMod;
+
+/**
+ * Selective signaling for the send queue of one endpoint.
+ *
+ * Work requests posted through the window are unsignaled except for every interval-th one. Unsignaled requests keep
+ * their send queue slots until the next signaled completion arrives, the window counts these slots and blocks
+ * post() (or fails tryPost()) once all size slots are in use. Completions of the endpoint have to be passed to complete(),
+ * which returns whether the application asked for the completion. RdmaActiveEndpoint does so before dispatchCqEvent().
+ *
+ * All sends of the QP have to go through the window. A single post may carry at most size - interval + 1 work requests,
+ * this guarantees that a blocked post can proceed once all signaled requests have completed.
+ * A failed completion moves the QP into the error state, the window then releases all slots and refuses further posts.
+ * Threads which also process the completions of the endpoint must use tryPost(), a blocked post() would never be woken up.
+ */
+public class RdmaSendWindow {
+	private int size;
+	private int interval;
+	private int used;
+	private int unsignaled;
+	private int[] credits;
+	private boolean[] requested;
+	private long head;
+	private long tail;
+	private boolean failed;
+
+	/**
+	 * @param size number of send queue slots, at most the max_send_wr of the QP (e.g., maxWR of the group).
+	 * @param interval every interval-th work request is signaled.
+	 * @throws Exception if the interval is not between 1 and size.
+	 */
+	public RdmaSendWindow(int size, int interval) throws IOException {
+		if (interval < 1 || interval > size) {
+			throw new IOException("Trying to create send window, invalid interval " + interval + " for size " + size);
+		}
+		this.size = size;
+		this.interval = interval;
+		this.used = 0;
+		this.unsignaled = 0;
+		this.credits = new int[size];
+		this.requested = new boolean[size];
+		this.head = 0;
+		this.tail = 0;
+		this.failed = false;
+	}
+
+	/**
+	 * Posts the work requests of the SVC, blocks while the window is full.
+	 *
+	 * @param postSend the SVC, its IBV_SEND_SIGNALED flags are managed by the window.
+	 * @param signal whether the application wants a completion for the last work request of the SVC.
+	 * @throws Exception on failure.
+	 */
+	public void post(SVCPostSend postSend, boolean signal) throws IOException {
+		post(postSend, signal, true);
+	}
+
+	public void post(SVCPostSend postSend) throws IOException {
+		post(postSend, false, true);
+	}
+
+	/**
+	 * Posts the work requests of the SVC unless the window is full.
+	 *
+	 * @return false if the window had not enough free slots, nothing has been posted in that case.
+	 */
+	public boolean tryPost(SVCPostSend postSend, boolean signal) throws IOException {
+		return post(postSend, signal, false);
+	}
+
+	/*
+	 * Posting happens with the window locked so that the signaled requests complete in the order they are queued.
+	 */
+	private synchronized boolean post(SVCPostSend postSend, boolean signal, boolean block) throws IOException {
+		int numWr = postSend.getNumWr();
+		if (numWr > size - interval + 1) {
+			throw new IOException("Trying to post " + numWr + " work requests, send window allows " + (size - interval + 1));
+		}
+		while (!failed && used + numWr > size) {
+			if (!block) {
+				return false;
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting for send window");
+			}
+		}
+		if (failed) {
+			throw new IOException("Trying to post on failed send window");
+		}
+		for (int i = 0; i < numWr - 1; i++) {
+			SendWRMod wr = postSend.getWrMod(i);
+			wr.setSend_flags(wr.getSend_flags() & ~IbvSendWR.IBV_SEND_SIGNALED);
+		}
+		boolean signaled = signal || unsignaled + numWr >= interval;
+		SendWRMod last = postSend.getWrMod(numWr - 1);
+		if (signaled) {
+			last.setSend_flags(last.getSend_flags() | IbvSendWR.IBV_SEND_SIGNALED);
+		} else {
+			last.setSend_flags(last.getSend_flags() & ~IbvSendWR.IBV_SEND_SIGNALED);
+		}
+		postSend.execute();
+		used += numWr;
+		if (signaled) {
+			int index = (int) (tail % size);
+			credits[index] = unsignaled + numWr;
+			requested[index] = signal;
+			tail++;
+			unsignaled = 0;
+		} else {
+			unsignaled += numWr;
+		}
+		return true;
+	}
+
+	/**
+	 * Reclaims the slots covered by a send completion.
+	 *
+	 * @param wc a completion of the endpoint, receive completions are ignored.
+	 * @return whether the completion should be handed to the application, false for completions only requested by the window.
+	 */
+	public synchronized boolean complete(IbvWC wc) {
+		if (failed) {
+			return true;
+		}
+		if (wc.getStatus() != IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal()) {
+			this.failed = true;
+			this.used = 0;
+			this.head = tail;
+			notifyAll();
+			return true;
+		}
+		if (wc.getOpcode() >= IbvWC.IbvWcOpcode.IBV_WC_RECV.getOpcode() || head == tail) {
+			return true;
+		}
+		int index = (int) (head % size);
+		used -= credits[index];
+		head++;
+		notifyAll();
+		return requested[index];
+	}
+
+	/**
+	 * The number of send queue slots currently free.
+	 */
+	public synchronized int available() {
+		return size - used;
+	}
+
+	public synchronized boolean isFailed() {
+		return failed;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+}
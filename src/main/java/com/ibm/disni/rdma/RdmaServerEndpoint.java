@@ -24,7 +24,10 @@ package com.ibm.disni.rdma;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.function.BiConsumer;
 
 import org.slf4j.Logger;
 
@@ -50,6 +53,7 @@ public class RdmaServerEndpoint<C extends RdmaEndpoint> implements DiSNIServerEn
 	protected IbvPd pd;
 	protected RdmaCmId idPriv;
 	private LinkedBlockingDeque<C> requested;
+	private ArrayDeque<CompletableFuture<C>> acceptors;
 	private RdmaEndpointGroup<C> group;
 	
 	protected int access;	
@@ -62,6 +66,7 @@ public class RdmaServerEndpoint<C extends RdmaEndpoint> implements DiSNIServerEn
 		this.idPriv = idPriv;
 		this.connState = CONN_STATE_INITIALIZED;
 		this.requested = new LinkedBlockingDeque<C>();
+		this.acceptors = new ArrayDeque<CompletableFuture<C>>();
 		this.isClosed = false;
 		this.access = IbvMr.IBV_ACCESS_LOCAL_WRITE | IbvMr.IBV_ACCESS_REMOTE_WRITE | IbvMr.IBV_ACCESS_REMOTE_READ;
 		logger.info("new server endpoint, id " + endpointId);
@@ -146,26 +151,86 @@ public class RdmaServerEndpoint<C extends RdmaEndpoint> implements DiSNIServerEn
 		}
 	}
 	
-	public synchronized void dispatchCmEvent(RdmaCmEvent cmEvent) throws IOException {
-		try {
-			int eventType = cmEvent.getEvent();
-			if (eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_CONNECT_REQUEST.ordinal()) {
-//				logger.info("got event type + RDMA_CM_EVENT_CONNECT_REQUEST, serverAddress " + this.getSrcAddr());
-				RdmaCmId connId = cmEvent.getConnIdPriv();
-				C ep = group.createEndpoint(connId);
-				ep.dispatchCmEvent(cmEvent);
-				requested.add(ep);
-				notifyAll();
-			} else if (eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_DISCONNECTED
-					.ordinal()) {
-//				logger.info("got event type + RDMA_CM_EVENT_CONNECT_REQUEST, serverAddress " + this.getSrcAddr());
-				connState = CONN_STATE_CLOSED;
-				notifyAll();
-			} else {
-				logger.info("got event type + UNKNOWN, serverAddress " + this.getSrcAddr());
+	/**
+	 * Accept the next connection request without blocking the caller.
+	 *
+	 * Resources are allocated and the connection is accepted from the CM event processing thread once a request arrives.
+	 * The future is completed on a thread of the group, its dependent actions may block.
+	 *
+	 * @return a future completed with the endpoint once the connection is established.
+	 */
+	public CompletableFuture<C> acceptAsync() {
+		CompletableFuture<C> acceptor = new CompletableFuture<C>();
+		C endpoint = null;
+		synchronized(this){
+			if (connState != CONN_STATE_READY_FOR_ACCEPT) {
+				group.complete(acceptor, null, new IOException("bind needs to be called before accept (1), current state =" + connState));
+				return acceptor;
+			}
+			endpoint = requested.poll();
+			if (endpoint == null){
+				acceptors.add(acceptor);
+				return acceptor;
 			}
-		} catch(Exception e){
-			throw new IOException(e);
+		}
+		startAccept(endpoint, acceptor);
+		return acceptor;
+	}
+
+	/*
+	 * The future of the endpoint completes on a thread of the group, the acceptor is completed on the same thread. An endpoint
+	 * that fails to accept is closed, which releases its CM id and QP and unregisters it from the group.
+	 */
+	private void startAccept(final C endpoint, final CompletableFuture<C> acceptor) {
+		logger.info("connect request received");
+		endpoint.acceptAsync().whenComplete(new BiConsumer<Void, Throwable>() {
+			public void accept(Void result, Throwable failure) {
+				if (failure == null) {
+					acceptor.complete(endpoint);
+					return;
+				}
+				try {
+					endpoint.close();
+				} catch (Exception e) {
+					logger.info("closing endpoint after failed accept, " + e.getMessage());
+				}
+				acceptor.completeExceptionally(failure);
+			}
+		});
+	}
+	
+	public void dispatchCmEvent(RdmaCmEvent cmEvent) throws IOException {
+		C endpoint = null;
+		CompletableFuture<C> acceptor = null;
+		synchronized(this){
+			try {
+				int eventType = cmEvent.getEvent();
+				if (eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_CONNECT_REQUEST.ordinal()) {
+//					logger.info("got event type + RDMA_CM_EVENT_CONNECT_REQUEST, serverAddress " + this.getSrcAddr());
+					RdmaCmId connId = cmEvent.getConnIdPriv();
+					C ep = group.createEndpoint(connId);
+					ep.dispatchCmEvent(cmEvent);
+					acceptor = acceptors.poll();
+					if (acceptor != null){
+						endpoint = ep;
+					} else {
+						requested.add(ep);
+						notifyAll();
+					}
+				} else if (eventType == RdmaCmEvent.EventType.RDMA_CM_EVENT_DISCONNECTED
+						.ordinal()) {
+//					logger.info("got event type + RDMA_CM_EVENT_CONNECT_REQUEST, serverAddress " + this.getSrcAddr());
+					connState = CONN_STATE_CLOSED;
+					notifyAll();
+				} else {
+					logger.info("got event type + UNKNOWN, serverAddress " + this.getSrcAddr());
+				}
+			} catch(Exception e){
+				throw new IOException(e);
+			}
+		}
+		if (endpoint != null){
+			startAccept(endpoint, acceptor);
 		}
 	}
 	
@@ -175,15 +240,23 @@ public class RdmaServerEndpoint<C extends RdmaEndpoint> implements DiSNIServerEn
 	 *
 	 * @throws Exception the exception
 	 */
-	public synchronized void close() throws IOException, InterruptedException {
-		if (isClosed){
-			return;
-		}
+	public void close() throws IOException, InterruptedException {
+		ArrayDeque<CompletableFuture<C>> pending = null;
+		synchronized(this) {
+			if (isClosed){
+				return;
+			}
 
-		logger.info("closing server endpoint");
-		idPriv.destroyId();
-		group.unregisterServerEp(this);
-		isClosed = true;
+			logger.info("closing server endpoint");
+			pending = acceptors;
+			acceptors = new ArrayDeque<CompletableFuture<C>>();
+			idPriv.destroyId();
+			group.unregisterServerEp(this);
+			isClosed = true;
+		}
+		for (CompletableFuture<C> acceptor : pending){
+			group.complete(acceptor, null, new IOException("server endpoint closed"));
+		}
 	}
 	
 	/**
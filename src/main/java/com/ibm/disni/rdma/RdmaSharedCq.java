@@ -0,0 +1,166 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvContext;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.SVCPollCq;
+import com.ibm.disni.util.DiSNILogger;
+
+/**
+ * A completion queue shared by the endpoints of an RdmaSharedCqEndpointGroup.
+ *
+ * There is no CQ processing thread, callers poll on behalf of an endpoint. Whichever caller polls the CQ keeps the completions
+ * of its own endpoint and routes the completions of other endpoints to their inboxes, lock-free queues drained by the next poll
+ * of that endpoint. Only one caller at a time polls the CQ, concurrent callers return with the contents of their inbox.
+ * Completions are copied into the entries of the caller, only completions routed to an inbox are cloned.
+ */
+public class RdmaSharedCq extends RdmaCqProvider {
+	private static final Logger logger = DiSNILogger.getLogger();
+
+	private ConcurrentHashMap<Integer, ConcurrentLinkedQueue<IbvWC>> inboxes;
+	private AtomicBoolean polling;
+	private AtomicInteger assigned;
+	private IbvWC[] wcList;
+	private SVCPollCq pollCall;
+	private long dropped;
+
+	public RdmaSharedCq(IbvContext context, int cqSize, int compVector, int batchSize) throws IOException {
+		super(context, cqSize, compVector);
+		this.inboxes = new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<IbvWC>>();
+		this.polling = new AtomicBoolean(false);
+		this.assigned = new AtomicInteger(0);
+		this.wcList = new IbvWC[batchSize];
+		for (int i = 0; i < wcList.length; i++) {
+			wcList[i] = new IbvWC();
+		}
+		this.pollCall = cq.poll(wcList, wcList.length);
+		this.dropped = 0;
+	}
+
+	/**
+	 * Polls the completions of an endpoint.
+	 *
+	 * @param endpoint the endpoint, its QP must use this CQ.
+	 * @param results receives the completions, they are copied into the entries, null entries are allocated.
+	 * @return the number of completions stored in results.
+	 * @throws Exception on failure.
+	 */
+	public int poll(RdmaEndpoint endpoint, IbvWC[] results) throws IOException {
+		int qpNum = endpoint.getQp().getQp_num();
+		ConcurrentLinkedQueue<IbvWC> inbox = inboxes.get(qpNum);
+		if (inbox == null) {
+			throw new IOException("Trying to poll shared CQ, endpoint " + endpoint.getEndpointId() + " not registered");
+		}
+		int count = drain(inbox, results, 0);
+		if (count < results.length && polling.compareAndSet(false, true)) {
+			try {
+				int polls = pollCall.execute().getPolls();
+				for (int i = 0; i < polls; i++) {
+					IbvWC wc = wcList[i];
+					if (wc.getQp_num() == qpNum && count < results.length && inbox.isEmpty()) {
+						store(results, count++, wc);
+					} else {
+						route(wc);
+					}
+				}
+			} finally {
+				polling.set(false);
+			}
+			if (count < results.length) {
+				count = drain(inbox, results, count);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * The number of completions without a registered endpoint, e.g., of endpoints closed with outstanding work requests.
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * The number of endpoints assigned to this CQ, counted from the moment the CQ is chosen for an endpoint.
+	 */
+	public int getNumEndpoints() {
+		return assigned.get();
+	}
+
+	/*
+	 * Called by the group, under its lock, when the CQ is chosen for an endpoint, before the QP of the endpoint exists.
+	 */
+	void assign() {
+		assigned.incrementAndGet();
+	}
+
+	void unassign() {
+		assigned.decrementAndGet();
+	}
+
+	void register(int qpNum) {
+		inboxes.put(qpNum, new ConcurrentLinkedQueue<IbvWC>());
+	}
+
+	void unregister(int qpNum) {
+		inboxes.remove(qpNum);
+	}
+
+	private void route(IbvWC wc) {
+		ConcurrentLinkedQueue<IbvWC> inbox = inboxes.get(wc.getQp_num());
+		if (inbox != null) {
+			inbox.add(wc.clone());
+		} else {
+			synchronized (this) {
+				dropped++;
+			}
+			logger.debug("dropping completion of unknown qp " + wc.getQp_num());
+		}
+	}
+
+	private static int drain(ConcurrentLinkedQueue<IbvWC> inbox, IbvWC[] results, int count) {
+		while (count < results.length) {
+			IbvWC wc = inbox.poll();
+			if (wc == null) {
+				break;
+			}
+			store(results, count++, wc);
+		}
+		return count;
+	}
+
+	private static void store(IbvWC[] results, int index, IbvWC wc) {
+		if (results[index] == null) {
+			results[index] = new IbvWC();
+		}
+		wc.copyTo(results[index]);
+	}
+}
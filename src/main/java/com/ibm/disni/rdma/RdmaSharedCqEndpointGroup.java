@@ -0,0 +1,185 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvCQ;
+import com.ibm.disni.rdma.verbs.IbvContext;
+import com.ibm.disni.rdma.verbs.IbvQP;
+import com.ibm.disni.rdma.verbs.IbvQPInitAttr;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.util.DiSNILogger;
+
+/**
+ * A passive endpoint group whose endpoints share a few CQs per device.
+ *
+ * Like RdmaPassiveEndpointGroup there are no CQ processing threads, the application polls with poll(endpoint, wcList). Instead
+ * of one CQ per endpoint, each device has a fixed number of RdmaSharedCq, endpoints are assigned to them by an RdmaCqPolicy.
+ * Completions of other endpoints found while polling are routed to the inboxes of those endpoints. Endpoints must not poll the
+ * CQ returned by getCqProvider().getCQ() directly.
+ */
+public class RdmaSharedCqEndpointGroup<C extends RdmaEndpoint> extends RdmaEndpointGroup<C> {
+	private static final Logger logger = DiSNILogger.getLogger();
+	private static final int POLL_BATCH = 32;
+
+	private int maxWR;
+	private int maxSge;
+	private int cqSize;
+	private int numCqs;
+	private RdmaCqPolicy cqPolicy;
+	private HashMap<Integer, ArrayList<RdmaSharedCq>> cqMap;
+
+	/**
+	 * @param timeout the CM event timeout in ms.
+	 * @param maxWR the maximum number of outstanding work requests per queue of an endpoint.
+	 * @param maxSge the maximum number of scatter/gather elements per work request.
+	 * @param cqSize the size of each shared CQ, it has to hold the completions of all its endpoints.
+	 * @param numCqs the number of shared CQs per device.
+	 */
+	public RdmaSharedCqEndpointGroup(int timeout, int maxWR, int maxSge, int cqSize, int numCqs) throws IOException {
+		super(timeout);
+		this.maxWR = maxWR;
+		this.maxSge = maxSge;
+		this.cqSize = cqSize;
+		this.numCqs = Math.max(numCqs, 1);
+		this.cqPolicy = new RdmaCqPolicy.LeastLoaded();
+		this.cqMap = new HashMap<Integer, ArrayList<RdmaSharedCq>>();
+		logger.info("shared cq endpoint group, maxWR " + maxWR + ", maxSge " + maxSge + ", cqSize " + cqSize + ", numCqs " + this.numCqs);
+	}
+
+	public RdmaCqProvider createCqProvider(C endpoint) throws IOException {
+		IbvContext context = endpoint.getIdPriv().getVerbs();
+		if (context == null) {
+			throw new IOException("setting up shared cq, no context found");
+		}
+		int key = context.getCmd_fd();
+		ArrayList<RdmaSharedCq> cqs = cqMap.get(key);
+		if (cqs == null) {
+			int compVectors = Math.max(context.getNumCompVectors(), 1);
+			cqs = new ArrayList<RdmaSharedCq>(numCqs);
+			for (int i = 0; i < numCqs; i++) {
+				cqs.add(new RdmaSharedCq(context, cqSize, i % compVectors, POLL_BATCH));
+			}
+			cqMap.put(key, cqs);
+		}
+		int[] load = new int[cqs.size()];
+		for (int i = 0; i < load.length; i++) {
+			load[i] = cqs.get(i).getNumEndpoints();
+		}
+		int index = cqPolicy.select(endpoint, load);
+		if (index < 0 || index >= load.length) {
+			throw new IOException("Trying to assign endpoint to shared CQ " + index + ", device has " + load.length);
+		}
+		//counted right away, the QP and inbox of the endpoint are created later without the group lock
+		RdmaSharedCq cq = cqs.get(index);
+		cq.assign();
+		return cq;
+	}
+
+	public IbvQP createQpProvider(C endpoint) throws IOException {
+		RdmaSharedCq sharedCq = (RdmaSharedCq) endpoint.getCqProvider();
+		IbvCQ cq = sharedCq.getCQ();
+		IbvQPInitAttr attr = new IbvQPInitAttr();
+		attr.cap().setMax_recv_sge(this.maxSge);
+		attr.cap().setMax_recv_wr(this.maxWR);
+		attr.cap().setMax_send_sge(this.maxSge);
+		attr.cap().setMax_send_wr(this.maxWR);
+		attr.cap().setMax_inline_data(this.maxInline);
+		attr.setQp_type(IbvQP.IBV_QPT_RC);
+		attr.setRecv_cq(cq);
+		attr.setSend_cq(cq);
+		IbvQP qp = endpoint.getIdPriv().createQP(endpoint.getPd(), attr);
+		sharedCq.register(qp.getQp_num());
+		return qp;
+	}
+
+	public void allocateResources(C endpoint) throws Exception {
+		endpoint.allocateResources();
+	}
+
+	/**
+	 * Polls the completions of an endpoint from its shared CQ.
+	 *
+	 * @param endpoint the endpoint.
+	 * @param wcList receives the completions, they are copied into the entries, null entries are allocated.
+	 * @return the number of completions stored in wcList.
+	 * @throws Exception on failure.
+	 */
+	public int poll(C endpoint, IbvWC[] wcList) throws IOException {
+		return ((RdmaSharedCq) endpoint.getCqProvider()).poll(endpoint, wcList);
+	}
+
+	public void close() throws IOException, InterruptedException {
+		super.close();
+		synchronized (this) {
+			for (ArrayList<RdmaSharedCq> cqs : cqMap.values()) {
+				for (RdmaSharedCq cq : cqs) {
+					cq.close();
+				}
+			}
+			cqMap.clear();
+		}
+	}
+
+	void unregisterClientEp(RdmaEndpoint endpoint) throws IOException {
+		super.unregisterClientEp(endpoint);
+		if (endpoint.getCqProvider() instanceof RdmaSharedCq) {
+			RdmaSharedCq cq = (RdmaSharedCq) endpoint.getCqProvider();
+			if (endpoint.getQp() != null) {
+				cq.unregister(endpoint.getQp().getQp_num());
+			}
+			cq.unassign();
+		}
+	}
+
+	/**
+	 * Sets the policy assigning endpoints to the shared CQs of their device, RdmaCqPolicy.LeastLoaded by default.
+	 */
+	public void setCqPolicy(RdmaCqPolicy cqPolicy) {
+		this.cqPolicy = cqPolicy;
+	}
+
+	public RdmaCqPolicy getCqPolicy() {
+		return cqPolicy;
+	}
+
+	public int getNumCqs() {
+		return numCqs;
+	}
+
+	public int getMaxWR() {
+		return maxWR;
+	}
+
+	public int getMaxSge() {
+		return maxSge;
+	}
+
+	public int getCqSize() {
+		return cqSize;
+	}
+}
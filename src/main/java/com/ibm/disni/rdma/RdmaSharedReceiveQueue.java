@@ -0,0 +1,215 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvContext;
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvPd;
+import com.ibm.disni.rdma.verbs.IbvRecvWR;
+import com.ibm.disni.rdma.verbs.IbvSge;
+import com.ibm.disni.rdma.verbs.IbvSrq;
+import com.ibm.disni.rdma.verbs.IbvSrqInitAttr;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.util.DiSNILogger;
+
+/**
+ * A pool of equally sized receive buffers posted to one shared receive queue (SRQ).
+ *
+ * Buffers are handed to endpoints through their receive completions, getBuffer() returns the data of a completion.
+ * A buffer is returned to the pool with release() once the completion has been processed, and reposted when the SRQ
+ * signals that fewer than the limit of receives are posted. If no buffer is free at that point, buffers are reposted
+ * as soon as they are released. The limit event is received by the RdmaAsyncEventProcessor of the device, which is shared
+ * by all pools of the device. Every posting of a buffer carries a generation in its wr_id, a buffer can only be released
+ * once per posting.
+ */
+public class RdmaSharedReceiveQueue {
+	private static final Logger logger = DiSNILogger.getLogger();
+
+	private static final long WR_ID_TAG = 0x5352510000000000L;
+	private static final long WR_ID_TAG_MASK = 0xffffff0000000000L;
+	private static final long WR_ID_INDEX_MASK = 0xffffffL;
+	private static final int WR_ID_GENERATION_SHIFT = 24;
+	private static final int MAX_SIZE = 1 << WR_ID_GENERATION_SHIFT;
+
+	private IbvContext context;
+	private IbvSrq srq;
+	private IbvMr mr;
+	private int bufferSize;
+	private int limit;
+	private ByteBuffer[] buffers;
+	private IbvRecvWR[] wrList;
+	private int[] free;
+	private int freeCount;
+	private short[] generation;
+	private boolean[] posted;
+	private boolean starving;
+
+	/**
+	 * Creates the SRQ, registers and posts all buffers.
+	 *
+	 * @param context the device.
+	 * @param pd the protection domain of the SRQ and of all QPs using it.
+	 * @param size the number of buffers.
+	 * @param bufferSize the size of each buffer.
+	 * @param limit buffers are reposted once fewer than this are posted.
+	 * @throws Exception on failure.
+	 */
+	public RdmaSharedReceiveQueue(IbvContext context, IbvPd pd, int size, int bufferSize, int limit) throws IOException {
+		if (size <= 0 || size > MAX_SIZE) {
+			throw new IOException("Trying to create SRQ of size " + size + ", size has to be between 1 and " + MAX_SIZE);
+		}
+		this.context = context;
+		this.bufferSize = bufferSize;
+		this.limit = limit;
+		IbvSrqInitAttr attr = new IbvSrqInitAttr();
+		attr.setMax_wr(size);
+		attr.setMax_sge(1);
+		this.srq = pd.createSRQ(attr);
+		if (srq == null) {
+			throw new IOException("Trying to create SRQ of size " + size + ", failed");
+		}
+		ByteBuffer slab = ByteBuffer.allocateDirect(size * bufferSize);
+		this.mr = pd.regMr(slab, IbvMr.IBV_ACCESS_LOCAL_WRITE).execute().free().getMr();
+		this.buffers = new ByteBuffer[size];
+		this.wrList = new IbvRecvWR[size];
+		this.free = new int[size];
+		this.generation = new short[size];
+		this.posted = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			slab.limit((i + 1) * bufferSize);
+			slab.position(i * bufferSize);
+			buffers[i] = slab.slice();
+
+			IbvSge sge = new IbvSge();
+			sge.setAddr(mr.getAddr() + i * bufferSize);
+			sge.setLength(bufferSize);
+			sge.setLkey(mr.getLkey());
+			LinkedList<IbvSge> sgeList = new LinkedList<IbvSge>();
+			sgeList.add(sge);
+			IbvRecvWR wr = new IbvRecvWR();
+			wr.setSg_list(sgeList);
+			wrList[i] = wr;
+			free[i] = i;
+		}
+		this.freeCount = size;
+		this.starving = false;
+		RdmaAsyncEventProcessor.register(context, this);
+		refill();
+		logger.info("shared receive queue, size " + size + ", bufferSize " + bufferSize + ", limit " + limit);
+	}
+
+	public IbvSrq getSrq() {
+		return srq;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Whether a work completion belongs to a receive of this pool.
+	 */
+	public boolean owns(IbvWC wc) {
+		long wrId = wc.getWr_id();
+		if ((wrId & WR_ID_TAG_MASK) != WR_ID_TAG || (wrId & WR_ID_INDEX_MASK) >= buffers.length) {
+			return false;
+		}
+		return wc.getStatus() != IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal() || wc.getOpcode() >= IbvWC.IbvWcOpcode.IBV_WC_RECV.getOpcode();
+	}
+
+	/**
+	 * The data received with a work completion of this pool. Valid until the buffer is released.
+	 *
+	 * @param wc the receive completion.
+	 * @return the buffer, limited to the received length.
+	 */
+	public ByteBuffer getBuffer(IbvWC wc) {
+		ByteBuffer buffer = buffers[index(wc)];
+		buffer.clear();
+		buffer.limit(Math.min(wc.getByte_len(), bufferSize));
+		return buffer;
+	}
+
+	/**
+	 * Returns the buffer of a receive completion to the pool.
+	 *
+	 * @param wc the receive completion.
+	 * @throws Exception on failure, or if the buffer of the completion has already been released.
+	 */
+	public synchronized void release(IbvWC wc) throws IOException {
+		int index = index(wc);
+		short posting = (short) (wc.getWr_id() >>> WR_ID_GENERATION_SHIFT);
+		if (!posted[index] || generation[index] != posting) {
+			throw new IOException("Trying to release SRQ buffer " + index + ", buffer already released");
+		}
+		posted[index] = false;
+		free[freeCount++] = index;
+		if (starving) {
+			refill();
+		}
+	}
+
+	/*
+	 * Called by the async event processor of the device.
+	 */
+	void limitReached() throws IOException {
+		refill();
+	}
+
+	public void close() throws IOException, InterruptedException {
+		RdmaAsyncEventProcessor.unregister(context, this);
+		srq.destroySRQ();
+		mr.deregMr().execute().free();
+	}
+
+	/*
+	 * Posts all free buffers and re-arms the limit event.
+	 */
+	private synchronized void refill() throws IOException {
+		if (freeCount == 0) {
+			starving = true;
+			return;
+		}
+		LinkedList<IbvRecvWR> recvList = new LinkedList<IbvRecvWR>();
+		for (int i = 0; i < freeCount; i++) {
+			int index = free[i];
+			generation[index]++;
+			posted[index] = true;
+			wrList[index].setWr_id(WR_ID_TAG | ((long) (generation[index] & 0xffff) << WR_ID_GENERATION_SHIFT) | index);
+			recvList.add(wrList[index]);
+		}
+		freeCount = 0;
+		srq.postRecv(recvList).execute().free();
+		starving = false;
+		srq.modify(limit);
+	}
+
+	private int index(IbvWC wc) {
+		return (int) (wc.getWr_id() & WR_ID_INDEX_MASK);
+	}
+}
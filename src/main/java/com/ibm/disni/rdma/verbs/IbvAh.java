@@ -0,0 +1,82 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs;
+
+import java.io.IOException;
+
+//struct ibv_ah {
+//struct ibv_context     *context;
+//struct ibv_pd          *pd;
+//uint32_t                handle;
+//};
+
+/**
+ * An address handle, describes the path to a remote port for unreliable datagram (UD) sends.
+ *
+ * Address handles are created from an IbvAhAttr within a protection domain and are referenced by IbvSendWR.Ud.
+ */
+public class IbvAh {
+	private RdmaVerbs verbs;
+
+	protected IbvPd pd;
+	protected IbvAhAttr attr;
+	protected volatile boolean isOpen;
+
+	public IbvAh(IbvPd pd, IbvAhAttr attr) throws IOException {
+		this.verbs = RdmaVerbs.open();
+		this.pd = pd;
+		this.attr = attr;
+		this.isOpen = true;
+	}
+
+	/**
+	 * The protection domain this address handle belongs to.
+	 *
+	 * @return the protection domain.
+	 */
+	public IbvPd getPd() {
+		return pd;
+	}
+
+	/**
+	 * The attributes this address handle was created from.
+	 *
+	 * @return the address handle attributes.
+	 */
+	public IbvAhAttr getAttr() {
+		return attr;
+	}
+
+	public boolean isOpen() {
+		return isOpen;
+	}
+
+	public void close() {
+		isOpen = false;
+	}
+
+	//---------- oo-verbs
+
+	public int destroyAH() throws IOException {
+		return verbs.destroyAH(this);
+	}
+}
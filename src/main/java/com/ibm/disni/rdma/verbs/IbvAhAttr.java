@@ -44,6 +44,10 @@ public class IbvAhAttr {
 	protected byte is_global;
 	protected byte port_num; 
 	
+	public IbvAhAttr(){
+		this(new IbvGlobalRoute());
+	}
+	
 	protected IbvAhAttr(IbvGlobalRoute grh){
 		this.grh = grh;
 	}
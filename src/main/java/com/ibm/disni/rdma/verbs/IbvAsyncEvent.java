@@ -0,0 +1,83 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs;
+
+//struct ibv_async_event {
+//    union {
+//        struct ibv_cq  *cq;
+//        struct ibv_qp  *qp;
+//        struct ibv_srq *srq;
+//        int             port_num;
+//    } element;
+//    enum ibv_event_type     event_type;
+//};
+
+/**
+ * An asynchronous event of a device, see IbvContext.getAsyncEvent().
+ */
+public class IbvAsyncEvent {
+	public static final int IBV_EVENT_CQ_ERR = 0;
+	public static final int IBV_EVENT_QP_FATAL = 1;
+	public static final int IBV_EVENT_QP_REQ_ERR = 2;
+	public static final int IBV_EVENT_QP_ACCESS_ERR = 3;
+	public static final int IBV_EVENT_COMM_EST = 4;
+	public static final int IBV_EVENT_SQ_DRAINED = 5;
+	public static final int IBV_EVENT_PATH_MIG = 6;
+	public static final int IBV_EVENT_PATH_MIG_ERR = 7;
+	public static final int IBV_EVENT_DEVICE_FATAL = 8;
+	public static final int IBV_EVENT_PORT_ACTIVE = 9;
+	public static final int IBV_EVENT_PORT_ERR = 10;
+	public static final int IBV_EVENT_LID_CHANGE = 11;
+	public static final int IBV_EVENT_PKEY_CHANGE = 12;
+	public static final int IBV_EVENT_SM_CHANGE = 13;
+	public static final int IBV_EVENT_SRQ_ERR = 14;
+	public static final int IBV_EVENT_SRQ_LIMIT_REACHED = 15;
+	public static final int IBV_EVENT_QP_LAST_WQE_REACHED = 16;
+	public static final int IBV_EVENT_CLIENT_REREGISTER = 17;
+	public static final int IBV_EVENT_GID_CHANGE = 18;
+
+	private int eventType;
+	private IbvSrq srq;
+
+	public IbvAsyncEvent(int eventType, IbvSrq srq) {
+		this.eventType = eventType;
+		this.srq = srq;
+	}
+
+	/**
+	 * The type of the event.
+	 *
+	 * @return one of the IBV_EVENT constants.
+	 */
+	public int getEventType() {
+		return eventType;
+	}
+
+	/**
+	 * The SRQ affected by an IBV_EVENT_SRQ_ERR or IBV_EVENT_SRQ_LIMIT_REACHED event.
+	 *
+	 * @return the SRQ, null for other events.
+	 */
+	public IbvSrq getSrq() {
+		return srq;
+	}
+}
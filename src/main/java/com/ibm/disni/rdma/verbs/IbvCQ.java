@@ -111,6 +111,14 @@ public class IbvCQ {
 		return verbs.pollCQ(this, wcList, ne);
 	}
 	
+	public SVCPollCq poll(int ne) throws IOException {
+		return verbs.pollCQ(this, ne);
+	}
+	
+	public SVCPostPoll postPoll(SVCPostSend postSend, IbvWC[] wcList, int ne, int spins) throws IOException {
+		return verbs.postPoll(postSend, this, wcList, ne, spins);
+	}
+	
 	public SVCReqNotify reqNotification(boolean solicited_only) throws IOException {
 		return verbs.reqNotifyCQ(this, solicited_only);
 	}
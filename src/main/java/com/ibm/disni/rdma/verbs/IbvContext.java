@@ -78,6 +78,16 @@ public class IbvContext  {
 	public int getNumCompVectors() {
 		return numCompVectors;
 	}
+
+	/**
+	 * The name of the device, e.g., mlx5_0, as found in /sys/class/infiniband.
+	 *
+	 * @return the device name, or null if the device is not known to the kernel.
+	 * @throws IOException
+	 */
+	public String getDeviceName() throws IOException {
+		return null;
+	}
 	
 	public boolean isOpen() {
 		return isOpen;
@@ -101,4 +111,16 @@ public class IbvContext  {
 	}
 
 	public int queryOdpSupport() throws IOException { return verbs.queryOdpSupport(this); }
+
+	public int queryLid(int port) throws IOException {
+		return verbs.queryLid(this, port);
+	}
+
+	public byte[] queryGid(int port, int index) throws IOException {
+		return verbs.queryGid(this, port, index);
+	}
+
+	public IbvAsyncEvent getAsyncEvent(int timeout) throws IOException {
+		return verbs.getAsyncEvent(this, timeout);
+	}
 }
@@ -40,7 +40,7 @@ public class IbvGlobalRoute {
 	protected byte hop_limit;
 	protected byte traffic_class;
 
-	protected IbvGlobalRoute(){
+	public IbvGlobalRoute(){
 		dgid = new byte[16];
 	}
 	
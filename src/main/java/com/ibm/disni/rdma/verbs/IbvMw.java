@@ -0,0 +1,116 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs;
+
+import java.io.IOException;
+
+//struct ibv_mw {
+//struct ibv_context     *context;
+//struct ibv_pd          *pd;
+//uint32_t                rkey;
+//uint32_t                handle;
+//enum ibv_mw_type        type;
+//};
+
+/**
+ * A memory window, grants remote access to a part of a memory region under its own rkey.
+ *
+ * Type 2 windows are bound and invalidated with work requests on a QP of the same protection domain
+ * (IBV_WR_BIND_MW, IBV_WR_LOCAL_INV), which is much cheaper than registering the memory. The region has
+ * to be registered with IBV_ACCESS_MW_BIND. The lower 8 bits of the rkey are chosen by the application
+ * for every bind, see incRkey().
+ */
+public class IbvMw {
+	public static final int IBV_MW_TYPE_1 = 1;
+	public static final int IBV_MW_TYPE_2 = 2;
+
+	private RdmaVerbs verbs;
+
+	protected IbvPd pd;
+	protected int rkey;
+	protected int handle;
+	protected int type;
+	protected volatile boolean isOpen;
+
+	public IbvMw(IbvPd pd, int rkey, int handle, int type) throws IOException {
+		this.verbs = RdmaVerbs.open();
+		this.pd = pd;
+		this.rkey = rkey;
+		this.handle = handle;
+		this.type = type;
+		this.isOpen = true;
+	}
+
+	/**
+	 * The protection domain this window belongs to.
+	 *
+	 * @return the protection domain.
+	 */
+	public IbvPd getPd() {
+		return pd;
+	}
+
+	/**
+	 * The rkey of the most recent bind, or the initial rkey of the window.
+	 *
+	 * @return the rkey.
+	 */
+	public int getRkey() {
+		return rkey;
+	}
+
+	/**
+	 * Advances the 8 bit key in the rkey of this window, the result is used for the next bind so that
+	 * rkeys handed out for earlier binds become invalid.
+	 *
+	 * @return the new rkey.
+	 */
+	public synchronized int incRkey() {
+		this.rkey = (rkey & 0xffffff00) | ((rkey + 1) & 0xff);
+		return rkey;
+	}
+
+	public int getHandle() {
+		return handle;
+	}
+
+	/**
+	 * The window type, IBV_MW_TYPE_1 or IBV_MW_TYPE_2.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	public boolean isOpen() {
+		return isOpen;
+	}
+
+	public void close() {
+		isOpen = false;
+	}
+
+	//---------- oo-verbs
+
+	public int deallocMw() throws IOException {
+		return verbs.deallocMw(this);
+	}
+}
@@ -87,6 +87,18 @@ public class IbvPd  {
 		return verbs.regMr(this, address, length, access);
 	}
 
+	public IbvAh createAH(IbvAhAttr attr) throws IOException {
+		return verbs.createAH(this, attr);
+	}
+
+	public IbvSrq createSRQ(IbvSrqInitAttr attr) throws IOException {
+		return verbs.createSRQ(this, attr);
+	}
+
+	public IbvMw allocMw(int type) throws IOException {
+		return verbs.allocMw(this, type);
+	}
+
 	public int deallocPd() throws Exception {
 		return verbs.deallocPd(this);
 	}
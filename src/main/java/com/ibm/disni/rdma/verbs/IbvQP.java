@@ -74,6 +74,7 @@ public class IbvQP {
 	protected int qp_num;
 	protected int state;
 	protected int qp_type;
+	protected int max_inline_data;
 	protected volatile boolean isOpen;
 
 	public IbvQP(int qpnum) throws IOException {
@@ -154,6 +155,16 @@ public class IbvQP {
 		return qp_type;
 	}
 	
+	/**
+	 * The maximum payload size of inline sends, as granted by the device when the QP was created. Send SVCs of this
+	 * QP post sends and RDMA writes up to this size with IBV_SEND_INLINE.
+	 *
+	 * @return the inline data size in bytes.
+	 */
+	public int getMax_inline_data() throws IOException {
+		return max_inline_data;
+	}
+	
 	public String toString() {
 		return "handle=" + handle + ",qp_num=" + qp_num + ",state=" + state;
 	}	
@@ -172,6 +183,18 @@ public class IbvQP {
 		return verbs.postSend(this, wrList, badwrList);
 	}
 	
+	public SVCPostSend postSend(int maxWr, int maxSge) throws IOException {
+		return verbs.postSend(this, maxWr, maxSge);
+	}
+	
+	public SVCPostSend bindMw(IbvMw mw, IbvMr mr, long addr, long length, int access) throws IOException {
+		return verbs.bindMw(this, mw, mr, addr, length, access);
+	}
+	
+	public SVCPostSend invalidateMw(IbvMw mw) throws IOException {
+		return verbs.invalidateMw(this, mw);
+	}
+	
 	public SVCPostRecv postRecv(List<IbvRecvWR> wrList, List<IbvRecvWR> badwrList) throws IOException {
 		return verbs.postRecv(this, wrList, badwrList);
 	}
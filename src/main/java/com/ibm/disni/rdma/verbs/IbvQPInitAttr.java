@@ -36,7 +36,7 @@ package com.ibm.disni.rdma.verbs;
  */
 public class IbvQPInitAttr {
 	private long qp_context;
-	private long srq;
+	private IbvSrq srq;
 	private IbvQPCap cap;
 	private byte qp_type;
 	private byte sq_sig_all;
@@ -56,11 +56,14 @@ public class IbvQPInitAttr {
 		this.qp_context = qp_context;
 	}
 
-	public long getSrq() {
+	/**
+	 * The shared receive queue of the QP, null if the QP has its own receive queue.
+	 */
+	public IbvSrq getSrq() {
 		return srq;
 	}
 
-	public void setSrq(long srq) {
+	public void setSrq(IbvSrq srq) {
 		this.srq = srq;
 	}
 
@@ -49,6 +49,15 @@ import java.util.LinkedList;
 //                    uint32_t        remote_qkey;
 //            } ud;
 //    } wr;
+//    union { struct { uint32_t remote_srqn; } xrc; } qp_type;
+//    union {
+//            struct {
+//                    struct ibv_mw          *mw;
+//                    uint32_t                rkey;
+//                    struct ibv_mw_bind_info bind_info;
+//            } bind_mw;
+//            struct { void *hdr; uint16_t hdr_sz; uint16_t mss; } tso;
+//    };
 //};
 
 /**
@@ -58,7 +67,7 @@ import java.util.LinkedList;
  */
 public class IbvSendWR {
 	public enum IbvWrOcode {
-		IBV_WR_RDMA_WRITE, IBV_WR_RDMA_WRITE_WITH_IMM, IBV_WR_SEND, IBV_WR_SEND_WITH_IMM, IBV_WR_RDMA_READ, IBV_WR_ATOMIC_CMP_AND_SWP, IBV_WR_ATOMIC_FETCH_AND_ADD
+		IBV_WR_RDMA_WRITE, IBV_WR_RDMA_WRITE_WITH_IMM, IBV_WR_SEND, IBV_WR_SEND_WITH_IMM, IBV_WR_RDMA_READ, IBV_WR_ATOMIC_CMP_AND_SWP, IBV_WR_ATOMIC_FETCH_AND_ADD, IBV_WR_LOCAL_INV, IBV_WR_BIND_MW, IBV_WR_SEND_WITH_INV
 	};
 	
 	public static final int IBV_WR_RDMA_WRITE = 0;
@@ -68,6 +77,9 @@ public class IbvSendWR {
 	public static final int IBV_WR_RDMA_READ = 4;
 	public static final int IBV_WR_ATOMIC_CMP_AND_SWP = 5;
 	public static final int IBV_WR_ATOMIC_FETCH_AND_ADD = 6;
+	public static final int IBV_WR_LOCAL_INV = 7;
+	public static final int IBV_WR_BIND_MW = 8;
+	public static final int IBV_WR_SEND_WITH_INV = 9;
 
 	public static int IBV_SEND_FENCE = 1 << 0;
 	public static int IBV_SEND_SIGNALED = 1 << 1;
@@ -84,11 +96,13 @@ public class IbvSendWR {
 	protected Rdma rdma;
 	protected Atomic atomic;
 	protected Ud ud;
+	protected BindMw bind_mw;
 
 	public IbvSendWR() {
 		rdma = new Rdma();
 		atomic = new Atomic();
 		ud = new Ud();
+		bind_mw = new BindMw();
 		sg_list = new LinkedList<IbvSge>();
 	}
 	
@@ -96,6 +110,7 @@ public class IbvSendWR {
 		this.rdma = rdma;
 		this.atomic = atomic;
 		this.ud = ud;
+		this.bind_mw = new BindMw();
 		this.sg_list = sg_list;
 	}	
 
@@ -222,6 +237,19 @@ public class IbvSendWR {
 		this.imm_data = imm_data;
 	}
 
+	/**
+	 * The rkey invalidated by IBV_WR_LOCAL_INV and IBV_WR_SEND_WITH_INV, shares its place with imm_data.
+	 *
+	 * @return the invalidate_rkey
+	 */
+	public int getInvalidate_rkey() {
+		return getImm_data();
+	}
+
+	public void setInvalidate_rkey(int invalidate_rkey) {
+		setImm_data(invalidate_rkey);
+	}
+
 	/**
 	 * Gets the RDMA section of of this work request.
 	 * 
@@ -243,13 +271,49 @@ public class IbvSendWR {
 	}
 
 	/**
-	 * Unsupported.
+	 * Gets the destination of sends on unreliable datagram (UD) QPs.
 	 *
 	 * @return the ud
 	 */
 	public Ud getUd() {
 		return ud;
 	}
+
+	/**
+	 * Gets the memory window and the memory range bound by IBV_WR_BIND_MW.
+	 *
+	 * @return the bind_mw
+	 */
+	public BindMw getBind_mw() {
+		return bind_mw;
+	}
+	
+	/**
+	 * Applies the inline policy of the post send SVCs to the given flags. Sends and RDMA writes whose payload is at
+	 * most maxInline bytes are posted with IBV_SEND_INLINE, all other requests without.
+	 *
+	 * @param flags the requested send flags.
+	 * @param maxInline the inline data size of the QP.
+	 * @return the send flags with IBV_SEND_INLINE set or cleared.
+	 */
+	protected int inlineFlags(int flags, int maxInline) {
+		flags &= ~IBV_SEND_INLINE;
+		if (maxInline <= 0 || opcode == IBV_WR_RDMA_READ || opcode == IBV_WR_ATOMIC_CMP_AND_SWP || opcode == IBV_WR_ATOMIC_FETCH_AND_ADD) {
+			return flags;
+		}
+		long payload = 0;
+		int i = 0;
+		for (IbvSge sge : sg_list) {
+			if (i++ == num_sge) {
+				break;
+			}
+			payload += sge.getLength() & 0xffffffffL;
+		}
+		if (payload <= maxInline) {
+			flags |= IBV_SEND_INLINE;
+		}
+		return flags;
+	}
 	
 	/**
 	 * Specifies the remote buffer to be used in READ or WRITE operations. 
@@ -380,22 +444,22 @@ public class IbvSendWR {
 	}
 
 	/**
-	 * Unsupported.
+	 * Specifies the destination of a send on an unreliable datagram (UD) QP: the address handle of the remote port, the remote QP number and its queue key.
 	 */
 	public static class Ud  {
-		protected int ah; // 24
-		protected int remote_qpn; // 28
-		protected int remote_qkey; // 32
-		protected int reserved; // 36
+		protected IbvAh ah;
+		protected int remote_qpn;
+		protected int remote_qkey;
+		protected int reserved;
 
 		public Ud() {
 		}
 
-		public int getAh() {
+		public IbvAh getAh() {
 			return ah;
 		}
 
-		public void setAh(int ah) {
+		public void setAh(IbvAh ah) {
 			this.ah = ah;
 		}
 
@@ -427,5 +491,78 @@ public class IbvSendWR {
 			return Ud.class.getCanonicalName();
 		}
 	}
+
+	/**
+	 * Specifies the memory window, its new rkey and the part of a memory region it grants access to for IBV_WR_BIND_MW.
+	 */
+	public static class BindMw {
+		protected IbvMw mw;
+		protected int rkey;
+		protected IbvMr mr;
+		protected long addr;
+		protected long length;
+		protected int mw_access_flags;
+
+		public IbvMw getMw() {
+			return mw;
+		}
+
+		public void setMw(IbvMw mw) {
+			this.mw = mw;
+		}
+
+		/**
+		 * The rkey of the window after the bind, differs from the current one in the lower 8 bits only.
+		 */
+		public int getRkey() {
+			return rkey;
+		}
+
+		public void setRkey(int rkey) {
+			this.rkey = rkey;
+		}
+
+		/**
+		 * The memory region to bind the window to, registered with IBV_ACCESS_MW_BIND.
+		 */
+		public IbvMr getMr() {
+			return mr;
+		}
+
+		public void setMr(IbvMr mr) {
+			this.mr = mr;
+		}
+
+		public long getAddr() {
+			return addr;
+		}
+
+		public void setAddr(long addr) {
+			this.addr = addr;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		public void setLength(long length) {
+			this.length = length;
+		}
+
+		/**
+		 * Remote access rights granted through the window (IBV_ACCESS_REMOTE_*).
+		 */
+		public int getMw_access_flags() {
+			return mw_access_flags;
+		}
+
+		public void setMw_access_flags(int mw_access_flags) {
+			this.mw_access_flags = mw_access_flags;
+		}
+
+		public String getClassName() {
+			return BindMw.class.getCanonicalName();
+		}
+	}
 	
 }
@@ -0,0 +1,116 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs;
+
+import java.io.IOException;
+import java.util.List;
+
+//struct ibv_srq {
+//    struct ibv_context     *context;
+//    void                   *srq_context;
+//    struct ibv_pd          *pd;
+//    uint32_t                handle;
+//    ...
+//};
+
+/**
+ * Represents a shared receive queue (SRQ).
+ *
+ * Receive work requests posted to an SRQ are consumed by messages arriving on any of the QPs created with the SRQ,
+ * so buffers for many connections can be provisioned from one pool. Completions are reported on the receive CQ of the QP
+ * the message arrived on. When armed with a limit, the SRQ raises IbvAsyncEvent.IBV_EVENT_SRQ_LIMIT_REACHED once the number
+ * of posted receives drops below the limit.
+ */
+public class IbvSrq {
+	private RdmaVerbs verbs;
+
+	protected IbvPd pd;
+	protected int maxWr;
+	protected int maxSge;
+	protected volatile boolean isOpen;
+
+	public IbvSrq(IbvPd pd, int maxWr, int maxSge) throws IOException {
+		this.verbs = RdmaVerbs.open();
+		this.pd = pd;
+		this.maxWr = maxWr;
+		this.maxSge = maxSge;
+		this.isOpen = true;
+	}
+
+	/**
+	 * The protection domain of this SRQ.
+	 *
+	 * @return the protection domain.
+	 */
+	public IbvPd getPd() {
+		return pd;
+	}
+
+	/**
+	 * The device context of this SRQ.
+	 *
+	 * @return the device context.
+	 */
+	public IbvContext getContext() {
+		return pd.getContext();
+	}
+
+	/**
+	 * The maximum number of outstanding receive work requests.
+	 *
+	 * @return the size of the SRQ.
+	 */
+	public int getMaxWr() {
+		return maxWr;
+	}
+
+	public int getMaxSge() {
+		return maxSge;
+	}
+
+	public boolean isOpen() {
+		return isOpen;
+	}
+
+	public void close() {
+		isOpen = false;
+	}
+
+	//---------- oo-verbs
+
+	public SVCPostRecv postRecv(List<IbvRecvWR> wrList) throws IOException {
+		return verbs.postSrqRecv(this, wrList, null);
+	}
+
+	/**
+	 * Arms the limit event of this SRQ.
+	 *
+	 * @param srqLimit the event is raised once fewer receives than this are posted, 0 disarms the event.
+	 */
+	public int modify(int srqLimit) throws IOException {
+		return verbs.modifySRQ(this, srqLimit);
+	}
+
+	public int destroySRQ() throws IOException {
+		return verbs.destroySRQ(this);
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs;
+
+//struct ibv_srq_init_attr {
+//    void                   *srq_context;
+//    struct ibv_srq_attr     attr;
+//};
+//
+//struct ibv_srq_attr {
+//    uint32_t                max_wr;
+//    uint32_t                max_sge;
+//    uint32_t                srq_limit;
+//};
+
+/**
+ * Attributes used when creating a shared receive queue.
+ */
+public class IbvSrqInitAttr {
+	private int max_wr;
+	private int max_sge;
+	private int srq_limit;
+
+	public IbvSrqInitAttr() {
+	}
+
+	/**
+	 * The maximum number of outstanding receive work requests.
+	 */
+	public int getMax_wr() {
+		return max_wr;
+	}
+
+	public void setMax_wr(int max_wr) {
+		this.max_wr = max_wr;
+	}
+
+	/**
+	 * The maximum number of scatter/gather elements per receive work request.
+	 */
+	public int getMax_sge() {
+		return max_sge;
+	}
+
+	public void setMax_sge(int max_sge) {
+		this.max_sge = max_sge;
+	}
+
+	/**
+	 * The limit of the SRQ, see IbvSrq.modify().
+	 */
+	public int getSrq_limit() {
+		return srq_limit;
+	}
+
+	public void setSrq_limit(int srq_limit) {
+		this.srq_limit = srq_limit;
+	}
+}
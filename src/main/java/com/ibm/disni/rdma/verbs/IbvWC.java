@@ -65,6 +65,7 @@ public class IbvWC {
 		IBV_WC_COMP_SWAP(3),
 		IBV_WC_FETCH_ADD(4),
 		IBV_WC_BIND_MW(5),
+		IBV_WC_LOCAL_INV(6),
 		IBV_WC_RECV(128),
 		IBV_WC_RECV_RDMA_WITH_IMM(129);
 
@@ -87,6 +88,13 @@ public class IbvWC {
     public static int CQ_EMPTY = -1;
     public static int CQ_POLL_ERR = -2;
 
+    public static int IBV_WC_GRH = 1 << 0;
+    public static int IBV_WC_WITH_IMM = 1 << 1;
+    public static int IBV_WC_WITH_INV = 1 << 3;
+
+    /** Size of the global routing header in front of the data received on a UD QP. */
+    public static final int GRH_SIZE = 40;
+
 	protected long wr_id;
 	protected int status;
 	protected int opcode;
@@ -119,23 +127,33 @@ public class IbvWC {
 
 	public IbvWC clone(){
 		IbvWC wc = new IbvWC();
-		wc.byte_len = this.byte_len;
+		copyTo(wc);
+		return wc;
+	}
+
+	/**
+	 * Copies this work completion into an existing one, e.g., an entry of a caller provided array, without allocating.
+	 *
+	 * @param wc the target, a modifiable work completion.
+	 */
+	public void copyTo(IbvWC wc){
+		wc.byte_len = getByte_len();
 		wc.diff = this.diff;
-		wc.dlid_path_bits = this.dlid_path_bits;
+		wc.dlid_path_bits = getDlid_path_bits();
 		wc.err = this.err;
-		wc.imm_data = this.imm_data;
+		wc.imm_data = getImm_data();
 		wc.isSend = this.isSend;
-		wc.opcode = this.opcode;
-		wc.pkey_index = this.pkey_index;
-		wc.qp_num = this.qp_num;
-		wc.sl = this.sl;
-		wc.slid = this.slid;
-		wc.wc_flags = this.wc_flags;
-		wc.status = this.status;
+		wc.opcode = getOpcode();
+		wc.pkey_index = getPkey_index();
+		wc.qp_num = getQp_num();
+		wc.src_qp = getSrc_qp();
+		wc.vendor_err = getVendor_err();
+		wc.sl = getSl();
+		wc.slid = getSlid();
+		wc.wc_flags = getWc_flags();
+		wc.status = getStatus();
 		wc.wqIndex = this.wqIndex;
-		wc.wr_id = this.wr_id;
-
-		return wc;
+		wc.wr_id = getWr_id();
 	}
 
 	/**
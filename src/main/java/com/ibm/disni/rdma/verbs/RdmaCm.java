@@ -36,9 +36,12 @@ public abstract class RdmaCm {
 	/** Provides reliable, connection-oriented QP communication.  Unlike TCP, the RDMA port space provides message, not stream, based communication. */
 	public static final short RDMA_PS_TCP = 0x0106;
 	
-	/** Unsupported */
+	/** Provides unreliable datagram (UD) QP communication, see RdmaDatagramGroup. */
 	public static final short RDMA_PS_UDP = 0x0111;	
 	
+	/** The Q_Key the connection manager assigns to QPs of ids in the RDMA_PS_UDP port space. */
+	public static final int RDMA_UDP_QKEY = 0x01234567;
+	
 	/**
 	 * Open the connection management (CM) interface.
 	 *
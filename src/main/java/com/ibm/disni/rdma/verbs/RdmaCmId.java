@@ -71,7 +71,7 @@ public class RdmaCmId  {
 	/**
 	 * Gets the port_num of this id.
 	 *
-	 * @return the port number. With RDMA_PS_TCP this is the TCP port number used.
+	 * @return the number of the device port this id is bound to, 0 if the id is not bound yet.
 	 */
 	public byte getPort_num() {
 		return port_num;
@@ -187,21 +187,22 @@ public class RdmaConnParam {
 	}
 
 	/**
-	 * Gets the shared receive queue. Not supported.
+	 * Whether the QP of the connection uses a shared receive queue.
 	 *
-	 * @return the shared receive queue.
+	 * @return 1 if the QP uses a shared receive queue.
 	 */
 	public byte getSrq() {
 		return srq;
 	}
 
 	/**
-	 * Sets the shared receive queue.
+	 * Sets whether the QP of the connection uses a shared receive queue. Only relevant for ids without a QP,
+	 * for QPs created with RdmaCmId.createQP() the flag is taken from the QP, see IbvQPInitAttr.setSrq().
 	 *
-	 * @param srq the new shared receive queue.
+	 * @param srq 1 if the QP uses a shared receive queue.
 	 */
 	public void setSrq(byte srq) throws IOException {
-		throw new IOException("Operation currently not supported");
+		this.srq = srq;
 	}
 
 	/**
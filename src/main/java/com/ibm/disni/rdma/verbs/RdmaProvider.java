@@ -28,6 +28,9 @@ import java.io.IOException;
 
 
 import com.ibm.disni.rdma.verbs.impl.RdmaProviderNat;
+import com.ibm.disni.rdma.verbs.impl.soft.RdmaProviderLoopback;
+import com.ibm.disni.rdma.verbs.impl.soft.RdmaProviderShm;
+import com.ibm.disni.rdma.verbs.impl.soft.RdmaProviderSocket;
 
 
 // TODO: Auto-generated Javadoc
@@ -40,6 +43,8 @@ import com.ibm.disni.rdma.verbs.impl.RdmaProviderNat;
  * 
  */
 public abstract class RdmaProvider {  
+	public static final String PROVIDER_PROPERTY = "com.ibm.disni.rdma.provider";
+	
 	private static RdmaProvider provider = null;
 	
 	protected RdmaProvider(){
@@ -50,16 +55,34 @@ public abstract class RdmaProvider {
 	 *
 	 * Create an instance of a RDMA provider. 
 	 * 
-	 * @return The RDMA provider. Which RDMA provider is instantiated is determined by the 'com.ibm.jverbs.provider' system property.
-	 * @throws IOException TODO
+	 * @return The RDMA provider. Which RDMA provider is instantiated is determined by the 'com.ibm.disni.rdma.provider' system property: 
+	 * 'nat' (default) for the native provider, 'loopback' for the in-process provider, 'shm' for the shared memory provider, 'socket' for software RDMA over TCP, or the class name of an RdmaProvider implementation.
+	 * @throws IOException if the provider cannot be created.
 	 */
 	public static synchronized RdmaProvider provider() throws IOException {
 		if (provider == null){
-			provider = new RdmaProviderNat();
+			provider = createProvider(System.getProperty(PROVIDER_PROPERTY, "nat"));
 		}
 		return provider;
 	}
 	
+	private static RdmaProvider createProvider(String type) throws IOException {
+		if (type.equals("nat")){
+			return new RdmaProviderNat();
+		} else if (type.equals("loopback")){
+			return new RdmaProviderLoopback();
+		} else if (type.equals("shm")){
+			return new RdmaProviderShm();
+		} else if (type.equals("socket")){
+			return new RdmaProviderSocket();
+		}
+		try {
+			return (RdmaProvider) Class.forName(type).getDeclaredConstructor().newInstance();
+		} catch(Exception e){
+			throw new IOException("Unknown RDMA provider " + type, e);
+		}
+	}
+	
 	/**
 	 * Open the connection management interface.
 	 *
@@ -23,6 +23,7 @@ package com.ibm.disni.rdma.verbs;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -161,6 +162,87 @@ public abstract class RdmaVerbs {
 	 */
 	public abstract SVCPostSend postSend(IbvQP qp, List<IbvSendWR> wrList, List<IbvSendWR> badwrList) throws IOException;
 
+	/**
+	 * Creates a post send SVC with a fixed number of blank work requests, to be filled in with SVCPostSend.getWrMod().
+	 * Opcode, flags, SGEs and the number of SGEs and work requests used can be changed before every execution,
+	 * so dynamically built requests can be posted without creating new objects.
+	 *
+	 * @param qp the QP this operation should be executed on.
+	 * @param maxWr the number of work requests.
+	 * @param maxSge the number of SGEs per work request.
+	 * @return a stateful verb call (SVC) ready to be filled in.
+	 * @throws Exception on failure.
+	 */
+	public SVCPostSend postSend(IbvQP qp, int maxWr, int maxSge) throws IOException {
+		if (maxWr <= 0 || maxSge <= 0) {
+			throw new IOException("Creating post send failed, invalid capacity " + maxWr + "/" + maxSge);
+		}
+		LinkedList<IbvSendWR> wrList = new LinkedList<IbvSendWR>();
+		for (int i = 0; i < maxWr; i++) {
+			IbvSendWR sendWR = new IbvSendWR();
+			LinkedList<IbvSge> sgeList = new LinkedList<IbvSge>();
+			for (int j = 0; j < maxSge; j++) {
+				sgeList.add(new IbvSge());
+			}
+			sendWR.setSg_list(sgeList);
+			sendWR.setOpcode(IbvSendWR.IBV_WR_SEND);
+			wrList.add(sendWR);
+		}
+		return postSend(qp, wrList, null);
+	}
+
+	/**
+	 * Creates a post send SVC binding a type 2 memory window to a part of a memory region. The window gets a new
+	 * rkey (see IbvMw.incRkey()) every time the SVC is created, the rkey is valid once the bind has completed.
+	 * The work request is signaled, its completion has opcode IbvWC.IBV_WC_BIND_MW.
+	 *
+	 * @param qp a connected QP in the protection domain of the window.
+	 * @param mw the memory window.
+	 * @param mr the memory region, registered with IbvMr.IBV_ACCESS_MW_BIND.
+	 * @param addr the start of the window, within the memory region.
+	 * @param length the size of the window in bytes.
+	 * @param access remote access rights granted through the window (IbvMr.IBV_ACCESS_REMOTE_*).
+	 * @return a stateful verb call (SVC) ready to execute the bind.
+	 * @throws Exception on failure.
+	 */
+	public SVCPostSend bindMw(IbvQP qp, IbvMw mw, IbvMr mr, long addr, long length, int access) throws IOException {
+		IbvSendWR sendWR = new IbvSendWR();
+		sendWR.setOpcode(IbvSendWR.IBV_WR_BIND_MW);
+		sendWR.setSend_flags(IbvSendWR.IBV_SEND_SIGNALED);
+		sendWR.setSg_list(new LinkedList<IbvSge>());
+		IbvSendWR.BindMw bind = sendWR.getBind_mw();
+		bind.setMw(mw);
+		bind.setRkey(mw.incRkey());
+		bind.setMr(mr);
+		bind.setAddr(addr);
+		bind.setLength(length);
+		bind.setMw_access_flags(access);
+		LinkedList<IbvSendWR> wrList = new LinkedList<IbvSendWR>();
+		wrList.add(sendWR);
+		return postSend(qp, wrList, null);
+	}
+
+	/**
+	 * Creates a post send SVC invalidating the current rkey of a memory window, remote accesses with the rkey
+	 * fail once the invalidation has completed. The work request is signaled, its completion has opcode
+	 * IbvWC.IBV_WC_LOCAL_INV.
+	 *
+	 * @param qp a QP in the protection domain of the window.
+	 * @param mw the memory window.
+	 * @return a stateful verb call (SVC) ready to execute the invalidation.
+	 * @throws Exception on failure.
+	 */
+	public SVCPostSend invalidateMw(IbvQP qp, IbvMw mw) throws IOException {
+		IbvSendWR sendWR = new IbvSendWR();
+		sendWR.setOpcode(IbvSendWR.IBV_WR_LOCAL_INV);
+		sendWR.setSend_flags(IbvSendWR.IBV_SEND_SIGNALED);
+		sendWR.setSg_list(new LinkedList<IbvSge>());
+		sendWR.setInvalidate_rkey(mw.getRkey());
+		LinkedList<IbvSendWR> wrList = new LinkedList<IbvSendWR>();
+		wrList.add(sendWR);
+		return postSend(qp, wrList, null);
+	}
+
 	/**
 	 * Post recv.
 	 *
@@ -172,17 +254,49 @@ public abstract class RdmaVerbs {
 	 */
 	public abstract SVCPostRecv postRecv(IbvQP qp, List<IbvRecvWR> wrList, List<IbvRecvWR> badwrList) throws IOException;
 
+	/**
+	 * Creates an empty batch to execute many post-send and post-recv SVC objects at once.
+	 *
+	 * @return a stateful verb call (SVC) to which SVC objects of this RdmaVerbs instance can be added.
+	 * @throws Exception on failure.
+	 */
+	public abstract SVCBatch batch() throws IOException;
+
 	/**
 	 * Poll on the CQ until a new event is received.
 	 *
 	 * @param cq the completion queue to be polled.
-	 * @param wcList an array of completion events to be used by this method to return completion events.
+	 * @param wcList an array of completion events to be used by this method to return completion events, they stay modifiable.
 	 * @param ne the maximum number of completion events to be polled.
 	 * @return a stateful verb call (SVC) ready to execute a polling call.
 	 * @throws Exception on failure.
 	 */
 	public abstract SVCPollCq pollCQ(IbvCQ cq, IbvWC[] wcList, int ne) throws IOException;
 
+	/**
+	 * Poll on the CQ without decoding the completion events, the events are accessed through SVCPollCq.getWC() and may be
+	 * read-only views of the native completions.
+	 *
+	 * @param cq the completion queue to be polled.
+	 * @param ne the maximum number of completion events to be polled.
+	 * @return a stateful verb call (SVC) ready to execute a polling call.
+	 * @throws Exception on failure.
+	 */
+	public abstract SVCPollCq pollCQ(IbvCQ cq, int ne) throws IOException;
+
+	/**
+	 * Post a send operation and poll the CQ for its completions in one call.
+	 *
+	 * @param postSend the post-send SVC to be executed, it remains owned by the caller.
+	 * @param cq the completion queue to be polled.
+	 * @param wcList an array of completion events to be used by this method to return completion events.
+	 * @param ne the number of completion events to wait for.
+	 * @param spins the number of poll attempts before giving up.
+	 * @return a stateful verb call (SVC) ready to execute the post and poll operations.
+	 * @throws Exception on failure.
+	 */
+	public abstract SVCPostPoll postPoll(SVCPostSend postSend, IbvCQ cq, IbvWC[] wcList, int ne, int spins) throws IOException;
+
 	/**
 	 * Requests a completion notification on the completion queue (CQ).
 	 *
@@ -212,6 +326,116 @@ public abstract class RdmaVerbs {
 	 */
 	public abstract int destroyCompChannel(IbvCompChannel compChannel) throws IOException;
 	
+	/**
+	 * Creates an address handle for unreliable datagram (UD) sends to the port described by the given attributes.
+	 *
+	 * @param pd the protection domain.
+	 * @param attr the path to the remote port.
+	 * @return the address handle.
+	 * @throws Exception on failure.
+	 */
+	public abstract IbvAh createAH(IbvPd pd, IbvAhAttr attr) throws IOException;
+
+	/**
+	 * Destroys an address handle.
+	 *
+	 * @param ah the address handle to be destroyed.
+	 * @return return 0 on success.
+	 * @throws Exception on failure.
+	 */
+	public abstract int destroyAH(IbvAh ah) throws IOException;
+
+	/**
+	 * Queries the local identifier (LID) of a port of the device. Ports of RoCE devices have no LID and return 0.
+	 *
+	 * @param context the device context.
+	 * @param port the port number.
+	 * @return the LID of the port.
+	 * @throws Exception on failure.
+	 */
+	public abstract int queryLid(IbvContext context, int port) throws IOException;
+
+	/**
+	 * Queries an entry of the GID table of a port of the device.
+	 *
+	 * @param context the device context.
+	 * @param port the port number.
+	 * @param index the index in the GID table.
+	 * @return the 16 byte GID.
+	 * @throws Exception on failure.
+	 */
+	public abstract byte[] queryGid(IbvContext context, int port, int index) throws IOException;
+
+	/**
+	 * Creates a shared receive queue (SRQ). QPs are attached to the SRQ with IbvQPInitAttr.setSrq() when they are created.
+	 *
+	 * @param pd the protection domain.
+	 * @param attr the size of the SRQ and its initial limit.
+	 * @return the SRQ.
+	 * @throws Exception on failure.
+	 */
+	public abstract IbvSrq createSRQ(IbvPd pd, IbvSrqInitAttr attr) throws IOException;
+
+	/**
+	 * Arms the limit event of a shared receive queue. IbvAsyncEvent.IBV_EVENT_SRQ_LIMIT_REACHED is raised once the number of
+	 * posted receives drops below the limit, the SRQ has to be re-armed afterwards.
+	 *
+	 * @param srq the SRQ.
+	 * @param srqLimit the limit, 0 disarms the event.
+	 * @return return 0 on success.
+	 * @throws Exception on failure.
+	 */
+	public abstract int modifySRQ(IbvSrq srq, int srqLimit) throws IOException;
+
+	/**
+	 * Post receive operations on a shared receive queue.
+	 *
+	 * @param srq the SRQ.
+	 * @param wrList a list of work requests.
+	 * @param badwrList unused.
+	 * @return a stateful verb call (SVC) ready to execute the post receive operation.
+	 * @throws Exception on failure.
+	 */
+	public abstract SVCPostRecv postSrqRecv(IbvSrq srq, List<IbvRecvWR> wrList, List<IbvRecvWR> badwrList) throws IOException;
+
+	/**
+	 * Allocates a memory window. Windows are bound with bindMw() before they can be accessed remotely.
+	 *
+	 * @param pd the protection domain.
+	 * @param type the window type, only IbvMw.IBV_MW_TYPE_2 windows can be bound with bindMw().
+	 * @return the memory window, or null if the device does not support memory windows.
+	 * @throws Exception on failure.
+	 */
+	public abstract IbvMw allocMw(IbvPd pd, int type) throws IOException;
+
+	/**
+	 * Deallocates a memory window, a bound window is invalidated.
+	 *
+	 * @param mw the memory window to be deallocated.
+	 * @return return 0 on success.
+	 * @throws Exception on failure.
+	 */
+	public abstract int deallocMw(IbvMw mw) throws IOException;
+
+	/**
+	 * Destroys a shared receive queue. QPs attached to the SRQ have to be destroyed first.
+	 *
+	 * @param srq the SRQ to be destroyed.
+	 * @return return 0 on success.
+	 * @throws Exception on failure.
+	 */
+	public abstract int destroySRQ(IbvSrq srq) throws IOException;
+
+	/**
+	 * Waits for the next asynchronous event of a device. The event is acknowledged before it is returned.
+	 *
+	 * @param context the device context.
+	 * @param timeout timeout in milliseconds, -1 waits forever.
+	 * @return the event, or null if the timeout expired.
+	 * @throws Exception on failure.
+	 */
+	public abstract IbvAsyncEvent getAsyncEvent(IbvContext context, int timeout) throws IOException;
+
 	/**
 	 * Deallocates the protection domain.
 	 *
@@ -0,0 +1,76 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs;
+
+import java.io.IOException;
+
+/**
+ * The Class SVCBatch.
+ * 
+ * A stateful verb call that executes a set of prepared post-send and post-recv SVC objects at once. The SVC objects may belong to 
+ * different QPs. Entries are executed in the order in which they were added. A failing entry does not prevent the remaining entries from 
+ * being executed, the outcome of each entry can be queried with getStatus() after execution. The native provider submits the whole batch 
+ * in a single JNI call.
+ * 
+ * The SVC objects added to a batch remain owned by the application, they can be modified between executions and must not be freed while in use by the batch.
+ */
+public abstract class SVCBatch implements StatefulVerbCall<SVCBatch> {
+	
+	/**
+	 * Adds a post-send SVC object to this batch.
+	 *
+	 * @param postSend a post-send SVC object created by the same RdmaVerbs instance.
+	 * @return this batch.
+	 */
+	public abstract SVCBatch add(SVCPostSend postSend) throws IOException;
+	
+	/**
+	 * Adds a post-recv SVC object to this batch.
+	 *
+	 * @param postRecv a post-recv SVC object created by the same RdmaVerbs instance.
+	 * @return this batch.
+	 */
+	public abstract SVCBatch add(SVCPostRecv postRecv) throws IOException;
+	
+	/**
+	 * Removes all entries from this batch.
+	 */
+	public abstract void clear();
+	
+	/**
+	 * The number of entries in this batch.
+	 */
+	public abstract int size();
+	
+	/**
+	 * The outcome of an entry during the last execution.
+	 *
+	 * @param index the entry.
+	 * @return 0 on success, an error code otherwise.
+	 */
+	public abstract int getStatus(int index);
+	
+	/**
+	 * The number of entries that failed during the last execution.
+	 */
+	public abstract int getFailed();
+}
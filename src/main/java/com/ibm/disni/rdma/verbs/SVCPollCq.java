@@ -35,4 +35,14 @@ public abstract class SVCPollCq implements StatefulVerbCall<SVCPollCq> {
 	 */
 	public abstract int getPolls();
 	
+	/**
+	 * Gets a work completion retrieved by the last call.
+	 * 
+	 * Calls created without a work completion array return read-only views which decode fields of the native completion on access.
+	 *
+	 * @param index the index of the work completion, smaller than getPolls().
+	 * @return the work completion.
+	 */
+	public abstract IbvWC getWC(int index);
+	
 }
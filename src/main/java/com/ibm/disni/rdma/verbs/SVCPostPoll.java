@@ -0,0 +1,47 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs;
+
+/**
+ * The Class SVCPostPoll.
+ * 
+ * A stateful verb call that executes a post-send SVC and then busy-polls a completion queue until the requested number of 
+ * completion events has been received or the spin budget is exhausted. The native provider does both in a single JNI call, 
+ * which keeps JNI transitions off the critical path of request/response patterns.
+ */
+public abstract class SVCPostPoll implements StatefulVerbCall<SVCPostPoll> {
+	
+	/**
+	 * Gets the number of work completions which were retrieved by the last call.
+	 *
+	 * @return number of work completions, may be smaller than requested if the spin budget ran out.
+	 */
+	public abstract int getPolls();
+	
+	/**
+	 * Changes the number of poll attempts made before the call returns with fewer completions than requested.
+	 *
+	 * @param spins the spin budget.
+	 * @return this SVC.
+	 */
+	public abstract SVCPostPoll setSpins(int spins);
+}
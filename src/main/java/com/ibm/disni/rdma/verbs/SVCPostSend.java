@@ -39,6 +39,20 @@ public abstract class SVCPostSend implements StatefulVerbCall<SVCPostSend> {
 	 */
 	public abstract SendWRMod getWrMod(int index) throws IOException;
 	
+	/**
+	 * Limits the number of work requests posted by this SVC to the first numWr requests. The remaining requests
+	 * stay prepared and can be enabled again later.
+	 *
+	 * @param numWr number of work requests to post, between 1 and the number of requests the SVC was created with.
+	 * @return this SVC.
+	 */
+	public abstract SVCPostSend setNumWr(int numWr) throws IOException;
+	
+	/**
+	 * The number of work requests posted by this SVC.
+	 */
+	public abstract int getNumWr();
+	
 	/**
 	 * Provides access methods to modify a given work-request belonging to this SVC object.
 	 */
@@ -58,6 +72,24 @@ public abstract class SVCPostSend implements StatefulVerbCall<SVCPostSend> {
 		 */		
 		public void setSend_flags(int send_flags);		
 		
+		public void setOpcode(int opcode);
+		
+		/**
+		 * Changes the number of SGEs used by this work request, at most the number of SGEs the request was created with.
+		 */
+		public void setNum_sge(int num_sge);
+		
+		public void setImm_data(int imm_data);
+		
+		public int getImm_data();
+		
+		/**
+		 * Modify the rkey invalidated by IBV_WR_LOCAL_INV or IBV_WR_SEND_WITH_INV, shares its place with imm_data.
+		 */
+		public void setInvalidate_rkey(int invalidate_rkey);
+		
+		public int getInvalidate_rkey();
+		
 		/**
 		 * Retrieve the current work-request id 
 		 *
@@ -93,6 +125,17 @@ public abstract class SVCPostSend implements StatefulVerbCall<SVCPostSend> {
 		 */
 		public RdmaMod getRdmaMod();
 		
+		public AtomicMod getAtomicMod();
+		
+		public UdMod getUdMod();
+		
+		/**
+		 * Provides access to the memory window bind information in this work request
+		 *
+		 * @return bind information
+		 */
+		public BindMwMod getBindMwMod();
+		
 		/**
 		 * Returns a specific scatter/gather element of this work request.
 		 *
@@ -151,8 +194,75 @@ public abstract class SVCPostSend implements StatefulVerbCall<SVCPostSend> {
 	}
 	
 	/**
-	 * Provides access methods to modify a given scatter/gather element.
+	 * Provides access methods to modify the atomic information of a work request.
 	 */
+	public static interface AtomicMod {
+		
+		public void setRemote_addr(long remote_addr);
+		
+		public long getRemote_addr();
+		
+		public void setCompare_add(long compare_add);
+		
+		public long getCompare_add();
+		
+		public void setSwap(long swap);
+		
+		public long getSwap();
+		
+		public void setRkey(int rkey);
+		
+		public int getRkey();
+	}
+	
+	/**
+	 * Provides access methods to modify the datagram destination of a work request.
+	 */
+	public static interface UdMod {
+		
+		public void setAh(IbvAh ah);
+		
+		public IbvAh getAh();
+		
+		public void setRemote_qpn(int remote_qpn);
+		
+		public int getRemote_qpn();
+		
+		public void setRemote_qkey(int remote_qkey);
+		
+		public int getRemote_qkey();
+	}
+	
+	/**
+	 * Provides access methods to modify the memory window bind of a work request.
+	 */
+	public static interface BindMwMod {
+		
+		public void setMw(IbvMw mw);
+		
+		public IbvMw getMw();
+		
+		public void setRkey(int rkey);
+		
+		public int getRkey();
+		
+		public void setMr(IbvMr mr);
+		
+		public IbvMr getMr();
+		
+		public void setAddr(long addr);
+		
+		public long getAddr();
+		
+		public void setLength(long length);
+		
+		public long getLength();
+		
+		public void setMw_access_flags(int mw_access_flags);
+		
+		public int getMw_access_flags();
+	}
+	
 	public static interface SgeMod {
 		
 		/**
@@ -0,0 +1,184 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import com.ibm.disni.rdma.verbs.SVCBatch;
+import com.ibm.disni.rdma.verbs.SVCPostRecv;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+import com.ibm.disni.util.MemBuf;
+import com.ibm.disni.util.MemoryAllocation;
+
+
+public class NatBatchCall extends SVCBatch {
+	/*
+	 * Layout of struct batch_entry in libdisni: qp (u64), wr_list (u64), type (u32), status (i32).
+	 */
+	public static int CSIZE = 24;
+	private static int QP_OFFSET = 0;
+	private static int WRLIST_OFFSET = 8;
+	private static int TYPE_OFFSET = 16;
+	private static int STATUS_OFFSET = 20;
+	private static int POST_SEND = 0;
+	private static int POST_RECV = 1;
+	
+	private NativeDispatcher nativeDispatcher;
+	private RdmaVerbsNat verbs;
+	private MemoryAllocation memAlloc;
+	
+	private ArrayList<NatPostSendCall> sendList;
+	private ArrayList<NatPostRecvCall> recvList;
+	private int capacity;
+	private int failed;
+	
+	private MemBuf cmd;
+	private boolean valid;
+	
+	public NatBatchCall(RdmaVerbsNat verbs, NativeDispatcher nativeDispatcher, MemoryAllocation memAlloc) {
+		this.verbs = verbs;
+		this.nativeDispatcher = nativeDispatcher;
+		this.memAlloc = memAlloc;
+		
+		this.sendList = new ArrayList<NatPostSendCall>();
+		this.recvList = new ArrayList<NatPostRecvCall>();
+		this.capacity = 0;
+		this.failed = 0;
+		this.valid = false;
+	}
+	
+	public void set() {
+		clear();
+		this.valid = true;
+	}
+
+	@Override
+	public SVCBatch add(SVCPostSend postSend) throws IOException {
+		sendList.add((NatPostSendCall) postSend);
+		recvList.add(null);
+		reserve(sendList.size());
+		return this;
+	}
+
+	@Override
+	public SVCBatch add(SVCPostRecv postRecv) throws IOException {
+		NatPostRecvCall natPostRecv = (NatPostRecvCall) postRecv;
+		if (natPostRecv.isSrq()) {
+			throw new IOException("Trying to batch a post receive on an SRQ, not supported");
+		}
+		sendList.add(null);
+		recvList.add(natPostRecv);
+		reserve(recvList.size());
+		return this;
+	}
+
+	@Override
+	public void clear() {
+		sendList.clear();
+		recvList.clear();
+		this.failed = 0;
+	}
+
+	@Override
+	public int size() {
+		return sendList.size();
+	}
+
+	/*
+	 * The command buffer only grows, it is released when the batch is freed.
+	 */
+	private void reserve(int entries) {
+		if (entries <= capacity) {
+			return;
+		}
+		int newCapacity = Math.max(entries, capacity * 2);
+		if (cmd != null){
+			cmd.free();
+		}
+		this.cmd = memAlloc.allocate(newCapacity*CSIZE, MemoryAllocation.MemType.DIRECT, this.getClass().getCanonicalName());
+		this.capacity = newCapacity;
+	}
+
+	@Override
+	public SVCBatch execute() throws IOException {
+		if (!valid) {
+			throw new IOException("Trying to execute a freed batch");
+		}
+		int count = sendList.size();
+		if (count == 0) {
+			this.failed = 0;
+			return this;
+		}
+		ByteBuffer buffer = cmd.getBuffer();
+		for (int i = 0; i < count; i++){
+			int position = i*CSIZE;
+			NatPostSendCall postSend = sendList.get(i);
+			NatIbvQP qp;
+			long wrList;
+			if (postSend != null){
+				qp = postSend.getQp();
+				wrList = postSend.isValid() ? postSend.getCmdAddress() : 0;
+				buffer.putInt(position + TYPE_OFFSET, POST_SEND);
+			} else {
+				NatPostRecvCall postRecv = recvList.get(i);
+				qp = postRecv.getQp();
+				wrList = postRecv.isValid() ? postRecv.getCmdAddress() : 0;
+				buffer.putInt(position + TYPE_OFFSET, POST_RECV);
+			}
+			buffer.putLong(position + QP_OFFSET, wrList != 0 && qp.isOpen() ? qp.getObjId() : 0);
+			buffer.putLong(position + WRLIST_OFFSET, wrList);
+			buffer.putInt(position + STATUS_OFFSET, -1);
+		}
+		this.failed = nativeDispatcher._postBatch(cmd.address(), count);
+		return this;
+	}
+
+	@Override
+	public int getStatus(int index) {
+		return cmd.getBuffer().getInt(index*CSIZE + STATUS_OFFSET);
+	}
+
+	@Override
+	public int getFailed() {
+		return failed;
+	}
+
+	@Override
+	public boolean isValid() {
+		return valid;
+	}
+
+	@Override
+	public SVCBatch free() {
+		clear();
+		if (cmd != null){
+			cmd.free();
+			cmd = null;
+		}
+		this.capacity = 0;
+		this.valid = false;
+		verbs.free(this);
+		return this;
+	}
+}
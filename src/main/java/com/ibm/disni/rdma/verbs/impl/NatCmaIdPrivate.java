@@ -63,6 +63,17 @@ public class NatCmaIdPrivate extends RdmaCmId implements NatObject {
 		return super.getVerbs();
 	}
 	
+	@Override
+	public byte getPort_num() {
+		if (port_num == 0 && isOpen()) {
+			int port = nativeDispatcher._getPortNum(objId);
+			if (port > 0) {
+				setPort_num((byte) port);
+			}
+		}
+		return super.getPort_num();
+	}
+	
 	public void setVerbs(IbvContext verbs){
 		super.setVerbs(verbs);
 	}
@@ -0,0 +1,65 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.ibm.disni.rdma.verbs.IbvAh;
+import com.ibm.disni.rdma.verbs.IbvAhAttr;
+import com.ibm.disni.rdma.verbs.IbvGlobalRoute;
+import com.ibm.disni.rdma.verbs.IbvPd;
+
+public class NatIbvAh extends IbvAh implements NatObject {
+	public static int CSIZE = 32;
+
+	private long objId;
+
+	NatIbvAh(long objId, IbvPd pd, IbvAhAttr attr) throws IOException {
+		super(pd, attr);
+		this.objId = objId;
+	}
+
+	public long getObjId() {
+		return objId;
+	}
+
+	/*
+	 * Serializes the attributes into a struct ibv_ah_attr, the global route comes first.
+	 */
+	static void writeBack(IbvAhAttr attr, ByteBuffer buffer) {
+		IbvGlobalRoute grh = attr.getGrh();
+		buffer.put(grh.getDgid());
+		buffer.putInt(grh.getFlow_label());
+		buffer.put(grh.getSgid_index());
+		buffer.put(grh.getHop_limit());
+		buffer.put(grh.getTraffic_class());
+		buffer.put((byte) 0);
+		buffer.putShort(attr.getDlid());
+		buffer.put(attr.getSl());
+		buffer.put(attr.getSrc_path_bits());
+		buffer.put(attr.getStatic_rate());
+		buffer.put(attr.getIs_global());
+		buffer.put(attr.getPort_num());
+		buffer.put((byte) 0);
+	}
+}
@@ -22,12 +22,18 @@
 package com.ibm.disni.rdma.verbs.impl;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import com.ibm.disni.rdma.verbs.IbvContext;
+import com.ibm.disni.util.MemBuf;
+import com.ibm.disni.util.MemoryAllocation;
 
 public class NatIbvContext extends IbvContext implements NatObject {
+	private static final int IBV_SYSFS_NAME_MAX = 64;
+
 	private long objId;
 	private NativeDispatcher nativeDispatcher;
+	private String deviceName;
 
 	public NatIbvContext(long objId, NativeDispatcher nativeDispatcher) throws IOException{
 		super(-1, -1);
@@ -57,4 +63,22 @@ public class NatIbvContext extends IbvContext implements NatObject {
 		}
 		return super.getNumCompVectors();
 	}
+
+	@Override
+	public String getDeviceName() throws IOException {
+		if (deviceName == null){
+			if (!isOpen()) {
+				throw new IOException("Trying to get device name while context is already closed.");
+			}
+			MemBuf nameBuf = MemoryAllocation.getInstance().allocate(IBV_SYSFS_NAME_MAX, MemoryAllocation.MemType.DIRECT, NatIbvContext.class.getCanonicalName());
+			int len = nativeDispatcher._getContextDeviceName(objId, nameBuf.address(), IBV_SYSFS_NAME_MAX);
+			if (len > 0){
+				byte[] name = new byte[len];
+				nameBuf.getBuffer().get(name);
+				this.deviceName = new String(name, StandardCharsets.US_ASCII);
+			}
+			nameBuf.free();
+		}
+		return deviceName;
+	}
 }
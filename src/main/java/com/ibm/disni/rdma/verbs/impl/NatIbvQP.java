@@ -31,6 +31,7 @@ public class NatIbvQP extends IbvQP implements NatObject {
 	
 	public NatIbvQP(long objId, NativeDispatcher nativeDispatcher) throws IOException{
 		super(-1);
+		this.max_inline_data = -1;
 		this.objId = objId;
 		this.nativeDispatcher = nativeDispatcher;
 	}
@@ -46,6 +47,21 @@ public class NatIbvQP extends IbvQP implements NatObject {
 		return qp_num;
 	}
 
+	@Override
+	public int getMax_inline_data() throws IOException {
+		if (this.max_inline_data < 0){
+			if (!isOpen()) {
+				throw new IOException("Trying to get inline data size of closed QP.");
+			}
+			int maxInline = this.nativeDispatcher._getQpMaxInline(objId);
+			if (maxInline < 0){
+				throw new IOException("Trying to get inline data size of QP, query failed");
+			}
+			this.max_inline_data = maxInline;
+		}
+		return max_inline_data;
+	}
+
 	public long getObjId() {
 		return objId;
 	}	
@@ -22,13 +22,20 @@
 package com.ibm.disni.rdma.verbs.impl;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.LinkedList;
 
+import com.ibm.disni.rdma.verbs.IbvAh;
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvMw;
 import com.ibm.disni.rdma.verbs.IbvSendWR;
 import com.ibm.disni.rdma.verbs.IbvSge;
+import com.ibm.disni.rdma.verbs.SVCPostSend.AtomicMod;
+import com.ibm.disni.rdma.verbs.SVCPostSend.BindMwMod;
 import com.ibm.disni.rdma.verbs.SVCPostSend.RdmaMod;
 import com.ibm.disni.rdma.verbs.SVCPostSend.SendWRMod;
 import com.ibm.disni.rdma.verbs.SVCPostSend.SgeMod;
+import com.ibm.disni.rdma.verbs.SVCPostSend.UdMod;
 
 
 //struct ibv_send_wr {
@@ -56,40 +63,135 @@ import com.ibm.disni.rdma.verbs.SVCPostSend.SgeMod;
 //              uint32_t        remote_qkey;
 //      } ud;
 //} wr;
+//union { struct { uint32_t remote_srqn; } xrc; } qp_type;
+//union {
+//      struct {
+//              struct ibv_mw  *mw;
+//              uint32_t        rkey;
+//              struct {
+//                      struct ibv_mr  *mr;
+//                      uint64_t        addr;
+//                      uint64_t        length;
+//                      unsigned int    mw_access_flags;
+//              } bind_info;
+//      } bind_mw;
+//      ...
+//};
 //};
 
 public class NatIbvSendWR extends IbvSendWR implements SendWRMod {
 	public static int CSIZE = 72;
 	public static int WRID_OFFSET = 0;
-//	public static int NEXT_OFFSET = 8;
+	public static int NEXT_OFFSET = 8;
 //	public static int SGLIST_OFFSET = 16;
-//	public static int NUMSGE_OFFSET = 24;
-//	public static int OPCODE_OFFSET = 28;
+	public static int NUMSGE_OFFSET = 24;
+	public static int OPCODE_OFFSET = 28;
 	public static int SENDFLAGS_OFFSET = 32;
-//	public static int IMMDATA_OFFSET = 36;
+	public static int IMMDATA_OFFSET = 36;
 	public static int REMOTEADDR_OFFSET = 40;
 	public static int RKEY_OFFSET = 48;
+	public static int COMPAREADD_OFFSET = 8;
+	public static int SWAP_OFFSET = 16;
+	public static int ATOMICRKEY_OFFSET = 24;
+	public static int REMOTEQPN_OFFSET = 8;
+	public static int REMOTEQKEY_OFFSET = 12;
+	public static int BINDMW_OFFSET = 80;
+	public static int BINDRKEY_OFFSET = 8;
+	public static int BINDMR_OFFSET = 16;
+	public static int BINDADDR_OFFSET = 24;
+	public static int BINDLENGTH_OFFSET = 32;
+	public static int BINDACCESS_OFFSET = 40;
+	public static int BINDMW_SIZE = 48;
+	
+	private static final IbvSendWR BLANK = new IbvSendWR();
+	private static final IbvSge BLANK_SGE = new IbvSge();
 	
 	private NatPostSendCall postSendCall;
 	private int bufPosition;
 	private long next;
 	private long ptr_sge_list;
 	private NatRdma natRdma;
+	private NatAtomic natAtomic;
+	private NatUd natUd;
+	private NatBindMw natBindMw;
+	private ArrayList<NatIbvSge> sges;
+
+	public NatIbvSendWR(NatPostSendCall postSendCall) {
+		this(postSendCall, new NatRdma(postSendCall), new NatAtomic(postSendCall), new NatUd(postSendCall), new NatBindMw(postSendCall));
+	}
 
-	public NatIbvSendWR(NatPostSendCall postSendCall, NatRdma natRdma, IbvSendWR sendWR, LinkedList<IbvSge> sg_list) {
-		super(natRdma, null, null, sg_list);
+	private NatIbvSendWR(NatPostSendCall postSendCall, NatRdma natRdma, NatAtomic natAtomic, NatUd natUd, NatBindMw natBindMw) {
+		super(natRdma, natAtomic, natUd, new LinkedList<IbvSge>());
 		this.natRdma = natRdma;
+		this.natAtomic = natAtomic;
+		this.natUd = natUd;
+		this.natBindMw = natBindMw;
+		this.bind_mw = natBindMw;
+		natUd.setSendWR(this);
+		this.postSendCall = postSendCall;
+		this.bufPosition = 0;
+		this.sges = new ArrayList<NatIbvSge>();
+	}
+
+	/*
+	 * Rebinds this pooled work request to the values of sendWR, the native struct is written by writeBack(). SGE objects
+	 * are kept across rebinds, so rebinding to requests of the same shape does not allocate.
+	 */
+	void set(IbvSendWR sendWR) {
+		natRdma.set(sendWR.getRdma());
+		natAtomic.set(sendWR.getAtomic());
+		natUd.set(sendWR.getUd());
+		natBindMw.set(sendWR.getBind_mw());
 		this.next = 0;
 		this.ptr_sge_list = 0;
 		
 		this.wr_id = sendWR.getWr_id();
 		this.num_sge = sendWR.getNum_sge();
 		this.opcode = sendWR.getOpcode();
-		this.send_flags = sendWR.getSend_flags();
 		this.imm_data = sendWR.getImm_data();
 		
-		this.postSendCall = postSendCall;
-		this.bufPosition = 0;
+		resizeSgList(sendWR.getSg_list().size());
+		int index = 0;
+		for (IbvSge sge : sendWR.getSg_list()) {
+			sges.get(index++).set(sge);
+		}
+		this.send_flags = inlineFlags(sendWR.getSend_flags(), postSendCall.getMaxInline());
+	}
+
+	/*
+	 * Rebinds this pooled work request to a blank send with numSge empty SGEs.
+	 */
+	void clear(int numSge) {
+		set(BLANK);
+		resizeSgList(numSge);
+		for (int i = 0; i < numSge; i++) {
+			sges.get(i).set(BLANK_SGE);
+		}
+		this.num_sge = numSge;
+		this.opcode = IBV_WR_SEND;
+		this.send_flags = inlineFlags(0, postSendCall.getMaxInline());
+	}
+
+	private void resizeSgList(int numSge) {
+		while (sges.size() < numSge) {
+			NatIbvSge sge = new NatIbvSge(postSendCall);
+			sge.setSendWR(this);
+			sges.add(sge);
+		}
+		while (sg_list.size() > numSge) {
+			sg_list.removeLast();
+		}
+		while (sg_list.size() < numSge) {
+			sg_list.addLast(sges.get(sg_list.size()));
+		}
+	}
+
+	int getNumSges() {
+		return sg_list.size();
+	}
+
+	NatIbvSge getNatSge(int index) {
+		return sges.get(index);
 	}
 
 	public void writeBack(ByteBuffer buffer) {
@@ -104,11 +206,44 @@ public class NatIbvSendWR extends IbvSendWR implements SendWRMod {
 		buffer.putInt(imm_data);
 		
 		buffer.position(initialPos + NatIbvSendWR.REMOTEADDR_OFFSET);
-		natRdma.writeBack(buffer);
+		writeUnion(buffer);
+		natBindMw.setBufPosition(initialPos + BINDMW_OFFSET);
+		if (hasBindMw()) {
+			buffer.position(initialPos + BINDMW_OFFSET);
+			natBindMw.writeBack(buffer);
+		}
 		int newPos = initialPos + CSIZE;
 		buffer.position(newPos);
 	}
 
+	/*
+	 * The rdma, atomic and ud parts share the union of the work request. The ud part is written if an address
+	 * handle is set, i.e., for sends on UD QPs, otherwise the one matching the opcode.
+	 */
+	void writeUnion(ByteBuffer buffer) {
+		natRdma.setBufPosition(buffer.position());
+		natAtomic.setBufPosition(buffer.position());
+		natUd.setBufPosition(buffer.position());
+		if (natUd.getAh() != null) {
+			natUd.writeBack(buffer);
+		} else if (isAtomic(opcode)) {
+			natAtomic.writeBack(buffer);
+		} else {
+			natRdma.writeBack(buffer);
+		}
+	}
+	
+	static boolean isAtomic(int opcode) {
+		return opcode == IBV_WR_ATOMIC_CMP_AND_SWP || opcode == IBV_WR_ATOMIC_FETCH_AND_ADD;
+	}
+
+	/*
+	 * Older libibverbs versions end the work request after the wr union.
+	 */
+	static boolean hasBindMw() {
+		return CSIZE >= BINDMW_OFFSET + BINDMW_SIZE;
+	}
+
 	public long getNext() {
 		return next;
 	}
@@ -138,6 +273,17 @@ public class NatIbvSendWR extends IbvSendWR implements SendWRMod {
 		return bufPosition;
 	}
 
+	/*
+	 * Re-evaluates the inline flag after the opcode or the payload has changed.
+	 */
+	void updateInline() {
+		int flags = inlineFlags(send_flags, postSendCall.getMaxInline());
+		if (flags != send_flags) {
+			super.setSend_flags(flags);
+			postSendCall.setSend_flags(this, SENDFLAGS_OFFSET);
+		}
+	}
+
 	//--------------------- modifiable sendWR
 	
 	@Override
@@ -148,15 +294,62 @@ public class NatIbvSendWR extends IbvSendWR implements SendWRMod {
 	
 	@Override
 	public void setSend_flags(int send_flags) {
-		super.setSend_flags(send_flags);
+		super.setSend_flags(inlineFlags(send_flags, postSendCall.getMaxInline()));
 		postSendCall.setSend_flags(this, SENDFLAGS_OFFSET);
 	}	
 	
+	@Override
+	public void setOpcode(int opcode) {
+		boolean atomic = isAtomic(this.opcode);
+		super.setOpcode(opcode);
+		postSendCall.setOpcode(this, OPCODE_OFFSET);
+		if (atomic != isAtomic(opcode)) {
+			postSendCall.setUnion(this, REMOTEADDR_OFFSET);
+		}
+		updateInline();
+	}
+	
+	@Override
+	public void setNum_sge(int num_sge) {
+		if (num_sge < 0 || num_sge > sg_list.size()) {
+			throw new IllegalArgumentException("Invalid number of sges " + num_sge + ", capacity " + sg_list.size());
+		}
+		super.setNum_sge(num_sge);
+		postSendCall.setNum_sge(this, NUMSGE_OFFSET);
+		updateInline();
+	}
+	
+	@Override
+	public void setImm_data(int imm_data) {
+		super.setImm_data(imm_data);
+		postSendCall.setImm_data(this, IMMDATA_OFFSET);
+	}
+	
+	@Override
+	public void setInvalidate_rkey(int invalidate_rkey) {
+		setImm_data(invalidate_rkey);
+	}
+
 	@Override
 	public RdmaMod getRdmaMod() {
 		return (RdmaMod) this.rdma;
 	}
 
+	@Override
+	public AtomicMod getAtomicMod() {
+		return (AtomicMod) this.atomic;
+	}
+
+	@Override
+	public UdMod getUdMod() {
+		return (UdMod) this.ud;
+	}
+
+	@Override
+	public BindMwMod getBindMwMod() {
+		return natBindMw;
+	}
+
 	@Override
 	public SgeMod getSgeMod(int index) {
 		return (SgeMod) sg_list.get(index);
@@ -167,13 +360,14 @@ public class NatIbvSendWR extends IbvSendWR implements SendWRMod {
 		private NatPostSendCall postSendCall;
 		private int bufPosition;
 		
-		public NatRdma(Rdma rdma, NatPostSendCall postSendCall){
+		public NatRdma(NatPostSendCall postSendCall){
+			this.postSendCall = postSendCall;
+		}
+		
+		void set(Rdma rdma) {
 			this.remote_addr = rdma.getRemote_addr();
 			this.reserved = rdma.getReserved();
 			this.rkey = rdma.getRkey();
-			
-			this.postSendCall = postSendCall;
-//			this.bufPosition = 0;
 		}
 		
 		@Override
@@ -204,5 +398,201 @@ public class NatIbvSendWR extends IbvSendWR implements SendWRMod {
 		public int getBufPosition() {
 			return bufPosition;
 		}
+
+		void setBufPosition(int bufPosition) {
+			this.bufPosition = bufPosition;
+		}
+	}
+
+	public static class NatAtomic extends IbvSendWR.Atomic implements AtomicMod {
+		private NatPostSendCall postSendCall;
+		private int bufPosition;
+		
+		public NatAtomic(NatPostSendCall postSendCall){
+			this.postSendCall = postSendCall;
+		}
+		
+		void set(Atomic atomic) {
+			this.remote_addr = atomic.getRemote_addr();
+			this.compare_add = atomic.getCompare_add();
+			this.swap = atomic.getSwap();
+			this.rkey = atomic.getRkey();
+			this.reserved = atomic.getReserved();
+		}
+		
+		@Override
+		public void setRemote_addr(long remote_addr) {
+			super.setRemote_addr(remote_addr);
+			postSendCall.setRemote_addr(this, 0);
+		}
+
+		@Override
+		public void setCompare_add(long compare_add) {
+			super.setCompare_add(compare_add);
+			postSendCall.setCompare_add(this, COMPAREADD_OFFSET);
+		}
+
+		@Override
+		public void setSwap(long swap) {
+			super.setSwap(swap);
+			postSendCall.setSwap(this, SWAP_OFFSET);
+		}
+
+		@Override
+		public void setRkey(int rkey) {
+			super.setRkey(rkey);
+			postSendCall.setRkey(this, ATOMICRKEY_OFFSET);
+		}
+		
+		public void writeBack(ByteBuffer buffer) {
+			this.bufPosition = buffer.position();
+			buffer.putLong(getRemote_addr());
+			buffer.putLong(getCompare_add());
+			buffer.putLong(getSwap());
+			buffer.putInt(getRkey());
+		}
+		
+		public int getBufPosition() {
+			return bufPosition;
+		}
+
+		void setBufPosition(int bufPosition) {
+			this.bufPosition = bufPosition;
+		}
+	}
+
+	public static class NatUd extends IbvSendWR.Ud implements UdMod {
+		private NatPostSendCall postSendCall;
+		private NatIbvSendWR sendWR;
+		private int bufPosition;
+		
+		public NatUd(NatPostSendCall postSendCall){
+			this.postSendCall = postSendCall;
+		}
+		
+		void set(Ud ud) {
+			this.ah = ud.getAh();
+			this.remote_qpn = ud.getRemote_qpn();
+			this.remote_qkey = ud.getRemote_qkey();
+			this.reserved = ud.getReserved();
+		}
+		
+		void setSendWR(NatIbvSendWR sendWR) {
+			this.sendWR = sendWR;
+		}
+		
+		@Override
+		public void setAh(IbvAh ah) {
+			super.setAh(ah);
+			postSendCall.setUnion(sendWR, REMOTEADDR_OFFSET);
+		}
+
+		@Override
+		public void setRemote_qpn(int remote_qpn) {
+			super.setRemote_qpn(remote_qpn);
+			postSendCall.setRemote_qpn(this, REMOTEQPN_OFFSET);
+		}
+
+		@Override
+		public void setRemote_qkey(int remote_qkey) {
+			super.setRemote_qkey(remote_qkey);
+			postSendCall.setRemote_qkey(this, REMOTEQKEY_OFFSET);
+		}
+		
+		public void writeBack(ByteBuffer buffer) {
+			this.bufPosition = buffer.position();
+			buffer.putLong(getAh() != null ? ((NatIbvAh) getAh()).getObjId() : 0);
+			buffer.putInt(getRemote_qpn());
+			buffer.putInt(getRemote_qkey());
+		}
+		
+		public int getBufPosition() {
+			return bufPosition;
+		}
+
+		void setBufPosition(int bufPosition) {
+			this.bufPosition = bufPosition;
+		}
+	}
+
+	public static class NatBindMw extends IbvSendWR.BindMw implements BindMwMod {
+		private NatPostSendCall postSendCall;
+		private int bufPosition;
+
+		public NatBindMw(NatPostSendCall postSendCall){
+			this.postSendCall = postSendCall;
+		}
+
+		void set(BindMw bindMw) {
+			this.mw = bindMw.getMw();
+			this.rkey = bindMw.getRkey();
+			this.mr = bindMw.getMr();
+			this.addr = bindMw.getAddr();
+			this.length = bindMw.getLength();
+			this.mw_access_flags = bindMw.getMw_access_flags();
+		}
+
+		@Override
+		public void setMw(IbvMw mw) {
+			super.setMw(mw);
+			postSendCall.setMw(this, 0);
+		}
+
+		@Override
+		public void setRkey(int rkey) {
+			super.setRkey(rkey);
+			postSendCall.setRkey(this, BINDRKEY_OFFSET);
+		}
+
+		@Override
+		public void setMr(IbvMr mr) {
+			super.setMr(mr);
+			postSendCall.setMr(this, BINDMR_OFFSET);
+		}
+
+		@Override
+		public void setAddr(long addr) {
+			super.setAddr(addr);
+			postSendCall.setAddr(this, BINDADDR_OFFSET);
+		}
+
+		@Override
+		public void setLength(long length) {
+			super.setLength(length);
+			postSendCall.setLength(this, BINDLENGTH_OFFSET);
+		}
+
+		@Override
+		public void setMw_access_flags(int mw_access_flags) {
+			super.setMw_access_flags(mw_access_flags);
+			postSendCall.setMw_access_flags(this, BINDACCESS_OFFSET);
+		}
+
+		long getMwObjId() {
+			return getMw() != null ? ((NatIbvMw) getMw()).getObjId() : 0;
+		}
+
+		long getMrObjId() {
+			return getMr() != null ? ((NatIbvMr) getMr()).getObjId() : 0;
+		}
+
+		public void writeBack(ByteBuffer buffer) {
+			this.bufPosition = buffer.position();
+			buffer.putLong(getMwObjId());
+			buffer.putInt(getRkey());
+			buffer.putInt(0);
+			buffer.putLong(getMrObjId());
+			buffer.putLong(getAddr());
+			buffer.putLong(getLength());
+			buffer.putInt(getMw_access_flags());
+		}
+
+		public int getBufPosition() {
+			return bufPosition;
+		}
+
+		void setBufPosition(int bufPosition) {
+			this.bufPosition = bufPosition;
+		}
 	}
 }
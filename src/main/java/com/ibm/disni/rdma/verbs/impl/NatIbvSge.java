@@ -30,15 +30,21 @@ public class NatIbvSge extends IbvSge implements SgeMod {
 	public static int CSIZE = 16;
 	
 	private NatPostSendCall postSendCall;
+	private NatIbvSendWR sendWR;
 	private int bufPosition;
 	
-	public NatIbvSge(NatPostSendCall postSendCall, IbvSge sge){
+	public NatIbvSge(NatPostSendCall postSendCall){
+		this.bufPosition = 0;
+		this.postSendCall = postSendCall;
+	}
+
+	/*
+	 * Rebinds this pooled SGE to the values of sge, the native struct is written by writeBack().
+	 */
+	void set(IbvSge sge) {
 		this.addr = sge.getAddr();
 		this.length = sge.getLength();
 		this.lkey = sge.getLkey();
-		
-		this.bufPosition = 0;
-		this.postSendCall = postSendCall;
 	}
 
 	public int getBufPosition() {
@@ -49,6 +55,10 @@ public class NatIbvSge extends IbvSge implements SgeMod {
 		this.bufPosition = bufPosition;
 	}
 
+	void setSendWR(NatIbvSendWR sendWR) {
+		this.sendWR = sendWR;
+	}
+
 	@Override
 	public void setAddr(long addr) {
 		super.setAddr(addr);
@@ -59,6 +69,7 @@ public class NatIbvSge extends IbvSge implements SgeMod {
 	public void setLength(int length) {
 		super.setLength(length);
 		postSendCall.setLength(this, 8);
+		sendWR.updateInline();
 	}
 
 	@Override
@@ -0,0 +1,211 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl;
+
+import java.nio.ByteBuffer;
+
+import com.ibm.disni.rdma.verbs.IbvWC;
+
+/**
+ * A read-only view of one struct ibv_wc in the native buffer of a poll call. Fields are read on demand, nothing is decoded
+ * at poll time. The view reflects the completion returned by the last execution of the poll call. Setters throw
+ * UnsupportedOperationException, use clone() or copyTo() for a modifiable copy.
+ */
+public class NatIbvWCView extends IbvWC {
+	private ByteBuffer buffer;
+	private int offset;
+
+	public NatIbvWCView(ByteBuffer buffer, int offset) {
+		this.buffer = buffer;
+		this.offset = offset;
+	}
+
+	@Override
+	public long getWr_id() {
+		return buffer.getLong(offset + NatPollCqCall.WRID_OFFSET);
+	}
+
+	@Override
+	public int getStatus() {
+		return buffer.getInt(offset + NatPollCqCall.STATUS_OFFSET);
+	}
+
+	@Override
+	public int getOpcode() {
+		return buffer.getInt(offset + NatPollCqCall.OPCODE_OFFSET);
+	}
+
+	@Override
+	public int getVendor_err() {
+		return buffer.getInt(offset + NatPollCqCall.VENDORERR_OFFSET);
+	}
+
+	@Override
+	public int getByte_len() {
+		return buffer.getInt(offset + NatPollCqCall.BYTELEN_OFFSET);
+	}
+
+	@Override
+	public int getImm_data() {
+		return buffer.getInt(offset + NatPollCqCall.IMMDATA_OFFSET);
+	}
+
+	@Override
+	public int getQp_num() {
+		return buffer.getInt(offset + NatPollCqCall.QPNUM_OFFSET);
+	}
+
+	@Override
+	public int getSrc_qp() {
+		return buffer.getInt(offset + NatPollCqCall.SRCQP_OFFSET);
+	}
+
+	@Override
+	public int getWc_flags() {
+		return buffer.getInt(offset + NatPollCqCall.WCFLAGS_OFFSET);
+	}
+
+	@Override
+	public short getPkey_index() {
+		return buffer.getShort(offset + NatPollCqCall.PKEYINDEX_OFFSET);
+	}
+
+	@Override
+	public short getSlid() {
+		return buffer.getShort(offset + NatPollCqCall.SLID_OFFSET);
+	}
+
+	@Override
+	public short getSl() {
+		return buffer.get(offset + NatPollCqCall.SL_OFFSET);
+	}
+
+	@Override
+	public short getDlid_path_bits() {
+		return buffer.get(offset + NatPollCqCall.DLIDPATHBITS_OFFSET);
+	}
+
+	@Override
+	public void setWr_id(long wr_id) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setStatus(int status) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setOpcode(int opcode) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setVendor_err(int vendor_err) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setByte_len(int byte_len) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setImm_data(int imm_data) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setQp_num(int qp_num) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setSrc_qp(int src_qp) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setWc_flags(int wc_flags) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setPkey_index(short pkey_index) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setSlid(short slid) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setSl(short sl) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setDlid_path_bits(short dlid_path_bits) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setErr(int err) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setSend(boolean isSend) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setWqIndex(short wqIndex) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setTail1(short tail1) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setTail2(short tail2) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setTail3(short tail3) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setDiff(short diff) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+
+	@Override
+	public void setSqcqn(int sqcqn) {
+		throw new UnsupportedOperationException("Trying to modify a work completion view");
+	}
+}
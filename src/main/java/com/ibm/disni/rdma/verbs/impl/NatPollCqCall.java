@@ -48,12 +48,30 @@ import com.ibm.disni.util.MemoryAllocation;
 //};
 
 public class NatPollCqCall extends SVCPollCq {
+	/*
+	 * Offsets of the fields of struct ibv_wc, shared with NatIbvWCView.
+	 */
+	static final int WRID_OFFSET = 0;
+	static final int STATUS_OFFSET = WRID_OFFSET + 8;
+	static final int OPCODE_OFFSET = STATUS_OFFSET + 4;
+	static final int VENDORERR_OFFSET = OPCODE_OFFSET + 4;
+	static final int BYTELEN_OFFSET = VENDORERR_OFFSET + 4;
+	static final int IMMDATA_OFFSET = BYTELEN_OFFSET + 4;
+	static final int QPNUM_OFFSET = IMMDATA_OFFSET + 4;
+	static final int SRCQP_OFFSET = QPNUM_OFFSET + 4;
+	static final int WCFLAGS_OFFSET = SRCQP_OFFSET + 4;
+	static final int PKEYINDEX_OFFSET = WCFLAGS_OFFSET + 4;
+	static final int SLID_OFFSET = PKEYINDEX_OFFSET + 2;
+	static final int SL_OFFSET = SLID_OFFSET + 2;
+	static final int DLIDPATHBITS_OFFSET = SL_OFFSET + 1;
+
 	private NativeDispatcher nativeDispatcher;
 	private RdmaVerbsNat verbs;
 	private MemoryAllocation memAlloc;
 
 	private NatIbvCQ cq;
 	private IbvWC[] wcList;
+	private NatIbvWCView[] views;
 	private int ne;
 	
 	private MemBuf cmd;
@@ -73,34 +91,40 @@ public class NatPollCqCall extends SVCPollCq {
 		this.wcList = wcList;
 		this.ne = ne;
 		
-		this.csize = wcList.length*IbvWC.CSIZE;
+		this.csize = (wcList != null ? wcList.length : ne)*IbvWC.CSIZE;
 		if (cmd != null){
 			cmd.free();
 			cmd = null;
 		}		
 		this.cmd = memAlloc.allocate(csize, MemoryAllocation.MemType.DIRECT, this.getClass().getCanonicalName());
+		this.views = null;
+		if (wcList == null){
+			this.views = new NatIbvWCView[ne];
+			for (int i = 0; i < ne; i++){
+				views[i] = new NatIbvWCView(cmd.getBuffer(), i*IbvWC.CSIZE);
+			}
+		}
 		this.valid = true;
 	}
 	
-	private void update(IbvWC wc, ByteBuffer buffer) {
-		int initialPos = buffer.position();
-		wc.setWr_id(buffer.getLong());
-		wc.setStatus(buffer.getInt());
-		wc.setOpcode(buffer.getInt());
+	static void update(IbvWC wc, ByteBuffer buffer) {
+		int position = buffer.position();
+		wc.setWr_id(buffer.getLong(position + WRID_OFFSET));
+		wc.setStatus(buffer.getInt(position + STATUS_OFFSET));
+		wc.setOpcode(buffer.getInt(position + OPCODE_OFFSET));
 		if (wc.getStatus() == IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal()){
-			wc.setVendor_err(buffer.getInt());
-			wc.setByte_len(buffer.getInt());
-			wc.setImm_data(buffer.getInt());
-			wc.setQp_num(buffer.getInt());
-			wc.setSrc_qp(buffer.getInt());
-			wc.setWc_flags(buffer.getInt());
-			wc.setPkey_index(buffer.getShort());
-			wc.setSlid(buffer.getShort());
-			wc.setSl(buffer.get());
-			wc.setDlid_path_bits(buffer.get());
+			wc.setVendor_err(buffer.getInt(position + VENDORERR_OFFSET));
+			wc.setByte_len(buffer.getInt(position + BYTELEN_OFFSET));
+			wc.setImm_data(buffer.getInt(position + IMMDATA_OFFSET));
+			wc.setQp_num(buffer.getInt(position + QPNUM_OFFSET));
+			wc.setSrc_qp(buffer.getInt(position + SRCQP_OFFSET));
+			wc.setWc_flags(buffer.getInt(position + WCFLAGS_OFFSET));
+			wc.setPkey_index(buffer.getShort(position + PKEYINDEX_OFFSET));
+			wc.setSlid(buffer.getShort(position + SLID_OFFSET));
+			wc.setSl(buffer.get(position + SL_OFFSET));
+			wc.setDlid_path_bits(buffer.get(position + DLIDPATHBITS_OFFSET));
 		}
-		int newPosition = initialPos + IbvWC.CSIZE;
-		buffer.position(newPosition);
+		buffer.position(position + IbvWC.CSIZE);
 	}
 
 	@Override
@@ -109,10 +133,10 @@ public class NatPollCqCall extends SVCPollCq {
 		if (!cq.isOpen()) {
 			throw new IOException("Trying to poll closed CQ.");
 		}
-		this.result = nativeDispatcher._pollCQ(cq.getObjId(),  ne, cmd.address());
+		this.result = nativeDispatcher.pollCQ(cq.getObjId(),  ne, cmd.address());
 		if (result < 0){
 			throw new IOException("Polling CQ failed");
-		} else if (result > 0){
+		} else if (result > 0 && wcList != null){
 			cmd.getBuffer().clear();
 			for (int i = 0; i < result; i++){
 				update(wcList[i], cmd.getBuffer());
@@ -127,6 +151,11 @@ public class NatPollCqCall extends SVCPollCq {
 		return result;
 	}	
 
+	@Override
+	public IbvWC getWC(int index) {
+		return wcList != null ? wcList[index] : views[index];
+	}
+
 	@Override
 	public boolean isValid() {
 		return valid;
@@ -138,6 +167,8 @@ public class NatPollCqCall extends SVCPollCq {
 			cmd.free();
 			cmd = null;
 		}		
+		this.wcList = null;
+		this.views = null;
 		this.valid = false;
 		verbs.free(this);
 		return this;
@@ -0,0 +1,136 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.ibm.disni.rdma.verbs.IbvCQ;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.SVCPostPoll;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+import com.ibm.disni.util.MemBuf;
+import com.ibm.disni.util.MemoryAllocation;
+
+
+public class NatPostPollCall extends SVCPostPoll {
+	/*
+	 * Return codes of _postPoll in libdisni.
+	 */
+	private static final int POST_FAILED = -1;
+	private static final int POLL_FAILED = -2;
+	
+	private NativeDispatcher nativeDispatcher;
+	private RdmaVerbsNat verbs;
+	private MemoryAllocation memAlloc;
+
+	private NatPostSendCall postSend;
+	private NatIbvCQ cq;
+	private IbvWC[] wcList;
+	private int ne;
+	private int spins;
+	
+	private MemBuf cmd;
+	private int result;
+	private boolean valid;
+	
+	public NatPostPollCall(RdmaVerbsNat verbs, NativeDispatcher nativeDispatcher, MemoryAllocation memAlloc) {
+		this.verbs = verbs;
+		this.nativeDispatcher = nativeDispatcher;
+		this.memAlloc = memAlloc;
+		this.valid = false;
+	}
+
+	public void set(SVCPostSend postSend, IbvCQ cq, IbvWC[] wcList, int ne, int spins) {
+		this.postSend = (NatPostSendCall) postSend;
+		this.cq = (NatIbvCQ) cq;
+		this.wcList = wcList;
+		this.ne = Math.min(ne, wcList.length);
+		this.spins = spins;
+		
+		if (cmd != null){
+			cmd.free();
+			cmd = null;
+		}		
+		this.cmd = memAlloc.allocate(wcList.length*IbvWC.CSIZE, MemoryAllocation.MemType.DIRECT, this.getClass().getCanonicalName());
+		this.valid = true;
+	}
+
+	@Override
+	public SVCPostPoll execute() throws IOException {
+		this.result = 0;
+		if (!postSend.isValid()) {
+			throw new IOException("Trying to post-poll with a freed post-send SVC.");
+		}
+		NatIbvQP qp = postSend.getQp();
+		if (!qp.isOpen()) {
+			throw new IOException("Trying to post send on closed QP.");
+		}
+		if (!cq.isOpen()) {
+			throw new IOException("Trying to poll closed CQ.");
+		}
+		int ret = nativeDispatcher._postPoll(qp.getObjId(), postSend.getCmdAddress(), cq.getObjId(), ne, cmd.address(), spins);
+		if (ret == POST_FAILED){
+			throw new IOException("Post send failed");
+		} else if (ret == POLL_FAILED){
+			throw new IOException("Polling CQ failed, the work requests have been posted");
+		} else if (ret < 0){
+			throw new IOException("Post-poll failed, unknown error " + ret);
+		} 
+		this.result = ret;
+		if (result > 0){
+			ByteBuffer buffer = cmd.getBuffer();
+			buffer.clear();
+			for (int i = 0; i < result; i++){
+				NatPollCqCall.update(wcList[i], buffer);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public int getPolls() {
+		return result;
+	}
+
+	@Override
+	public SVCPostPoll setSpins(int spins) {
+		this.spins = spins;
+		return this;
+	}
+
+	@Override
+	public boolean isValid() {
+		return valid;
+	}
+
+	@Override
+	public SVCPostPoll free() {
+		if (cmd != null){
+			cmd.free();
+			cmd = null;
+		}		
+		this.valid = false;
+		verbs.free(this);
+		return this;
+	}
+}
@@ -28,6 +28,7 @@ import java.util.List;
 import com.ibm.disni.rdma.verbs.IbvQP;
 import com.ibm.disni.rdma.verbs.IbvRecvWR;
 import com.ibm.disni.rdma.verbs.IbvSge;
+import com.ibm.disni.rdma.verbs.IbvSrq;
 import com.ibm.disni.rdma.verbs.SVCPostRecv;
 import com.ibm.disni.util.MemBuf;
 import com.ibm.disni.util.MemoryAllocation;
@@ -39,6 +40,7 @@ public class NatPostRecvCall extends SVCPostRecv {
 	private MemoryAllocation memAlloc;
 	
 	private NatIbvQP qp;
+	private NatIbvSrq srq;
 	private ArrayList<NatIbvRecvWR> wrNatList;
 	private ArrayList<IbvSge> sgeNatList;
 	
@@ -57,6 +59,17 @@ public class NatPostRecvCall extends SVCPostRecv {
 	
 	public void set(IbvQP qp, List<IbvRecvWR> wrList) {
 		this.qp = (NatIbvQP) qp;
+		this.srq = null;
+		serialize(wrList);
+	}
+
+	public void set(IbvSrq srq, List<IbvRecvWR> wrList) {
+		this.qp = null;
+		this.srq = (NatIbvSrq) srq;
+		serialize(wrList);
+	}
+
+	private void serialize(List<IbvRecvWR> wrList) {
 		wrNatList.clear();
 		sgeNatList.clear();
 		int size = 0;
@@ -103,16 +116,37 @@ public class NatPostRecvCall extends SVCPostRecv {
 
 	@Override
 	public SVCPostRecv execute() throws IOException {
+		if (srq != null) {
+			if (!srq.isOpen()) {
+				throw new IOException("Trying to post receive on closed SRQ");
+			}
+			if (nativeDispatcher._postSrqRecv(srq.getObjId(), cmd.address()) != 0){
+				throw new IOException("Post SRQ recv failed");
+			}
+			return this;
+		}
 		if (!qp.isOpen()) {
 			throw new IOException("Trying to post receive on closed QP");
 		}
-		int ret = nativeDispatcher._postRecv(qp.getObjId(), cmd.address());
+		int ret = nativeDispatcher.postRecv(qp.getObjId(), cmd.address());
 		if (ret != 0){
 			throw new IOException("Post recv failed");
 		}
 		return this;
 	}
 
+	NatIbvQP getQp() {
+		return qp;
+	}
+
+	boolean isSrq() {
+		return srq != null;
+	}
+
+	long getCmdAddress() {
+		return cmd.address();
+	}
+
 	@Override
 	public boolean isValid() {
 		return valid;
@@ -22,15 +22,18 @@
 package com.ibm.disni.rdma.verbs.impl;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 import com.ibm.disni.rdma.verbs.IbvQP;
 import com.ibm.disni.rdma.verbs.IbvSendWR;
-import com.ibm.disni.rdma.verbs.IbvSge;
 import com.ibm.disni.rdma.verbs.SVCPostSend;
+import com.ibm.disni.rdma.verbs.impl.NatIbvSendWR.NatAtomic;
+import com.ibm.disni.rdma.verbs.impl.NatIbvSendWR.NatBindMw;
 import com.ibm.disni.rdma.verbs.impl.NatIbvSendWR.NatRdma;
+import com.ibm.disni.rdma.verbs.impl.NatIbvSendWR.NatUd;
 import com.ibm.disni.util.MemBuf;
 import com.ibm.disni.util.MemoryAllocation;
 
@@ -41,8 +44,10 @@ public class NatPostSendCall extends SVCPostSend {
 	private MemoryAllocation memAlloc;
 	
 	private ArrayList<NatIbvSendWR> wrNatList;
-	private ArrayList<NatIbvSge> sgeNatList;
+	private int wrCount;
 	private NatIbvQP qp;
+	private int maxInline;
+	private int numWr;
 	
 	private MemBuf cmd;
 	private boolean valid;
@@ -53,56 +58,88 @@ public class NatPostSendCall extends SVCPostSend {
 		this.memAlloc = memAlloc;
 		
 		this.wrNatList = new ArrayList<NatIbvSendWR>();
-		this.sgeNatList = new ArrayList<NatIbvSge>();
+		this.wrCount = 0;
 		this.valid = false;
 	}
 
-	public void set(IbvQP qp, List<IbvSendWR> wrList) {
+	public void set(IbvQP qp, List<IbvSendWR> wrList) throws IOException {
+		for (IbvSendWR sendWR : wrList){
+			if (sendWR.getOpcode() == IbvSendWR.IBV_WR_BIND_MW && !NatIbvSendWR.hasBindMw()){
+				throw new IOException("Trying to bind memory window, libibverbs does not support memory windows");
+			}
+		}
+		bind(qp, wrList.size());
+		int index = 0;
+		for (IbvSendWR sendWR : wrList){
+			wrNatList.get(index++).set(sendWR);
+		}
+		writeBack();
+	}
+
+	/*
+	 * Sets up maxWr blank sends with maxSge SGEs each.
+	 */
+	void set(IbvQP qp, int maxWr, int maxSge) throws IOException {
+		bind(qp, maxWr);
+		for (int i = 0; i < maxWr; i++){
+			wrNatList.get(i).clear(maxSge);
+		}
+		writeBack();
+	}
+
+	/*
+	 * The native work requests and SGEs of this object are kept when it is freed and rebound in place by the next set().
+	 */
+	private void bind(IbvQP qp, int wrCount) throws IOException {
 		this.qp = (NatIbvQP) qp;
-		wrNatList.clear();
-		sgeNatList.clear();
+		this.maxInline = this.qp.getMax_inline_data();
+		while (wrNatList.size() < wrCount){
+			wrNatList.add(new NatIbvSendWR(this));
+		}
+		this.wrCount = wrCount;
+	}
+
+	private void writeBack() {
 		int size = 0;
-		
-		long sgeOffset = wrList.size()*NatIbvSendWR.CSIZE;
+		long sgeOffset = wrCount*NatIbvSendWR.CSIZE;
 		long wrOffset = NatIbvSendWR.CSIZE;
-		for (IbvSendWR sendWR : wrList){
-			LinkedList<IbvSge> sg_list = new LinkedList<IbvSge>();
-			for (IbvSge sge : sendWR.getSg_list()){
-				NatIbvSge natSge = new NatIbvSge(this, sge);
-				sg_list.add(natSge);
-				sgeNatList.add(natSge);
-			}
-			
-			NatRdma natRdma = new NatRdma(sendWR.getRdma(), this);
-			NatIbvSendWR natSendWR = new NatIbvSendWR(this, natRdma, sendWR, sg_list);
-			natSendWR.setPtr_sge_list(sgeOffset);
-			natSendWR.setNext(wrOffset);
-			wrNatList.add(natSendWR);
+		for (int i = 0; i < wrCount; i++){
+			NatIbvSendWR natWR = wrNatList.get(i);
+			natWR.setPtr_sge_list(sgeOffset);
+			natWR.setNext(wrOffset);
 			
 			size += NatIbvSendWR.CSIZE;
-			size += sendWR.getSg_list().size()*NatIbvSge.CSIZE;
+			size += natWR.getNumSges()*NatIbvSge.CSIZE;
 			wrOffset += NatIbvSendWR.CSIZE;
-			sgeOffset += sendWR.getSg_list().size()*NatIbvSge.CSIZE;
+			sgeOffset += natWR.getNumSges()*NatIbvSge.CSIZE;
 		}
 		
-		if (cmd != null){
+		if (cmd != null && cmd.getBuffer().capacity() < size){
 			cmd.free();
 			cmd = null;
 		}		
-		this.cmd = memAlloc.allocate(size, MemoryAllocation.MemType.DIRECT, this.getClass().getCanonicalName());
+		if (cmd == null){
+			this.cmd = memAlloc.allocate(size, MemoryAllocation.MemType.DIRECT, this.getClass().getCanonicalName());
+		}
+		ByteBuffer buffer = cmd.getBuffer();
+		buffer.clear();
 		
-		for (NatIbvSendWR natWR : wrNatList){
-			natWR.shiftAddress(cmd.address());
+		for (int i = 0; i < wrCount; i++){
+			wrNatList.get(i).shiftAddress(cmd.address());
 		}
-		wrNatList.get(wrNatList.size() - 1).setNext(0);
+		wrNatList.get(wrCount - 1).setNext(0);
 		
-		for (NatIbvSendWR natWR : wrNatList){
-			natWR.writeBack(cmd.getBuffer());
+		for (int i = 0; i < wrCount; i++){
+			wrNatList.get(i).writeBack(buffer);
 		}
-		for (NatIbvSge sge : sgeNatList){
-			sge.writeBack(cmd.getBuffer());
+		for (int i = 0; i < wrCount; i++){
+			NatIbvSendWR natWR = wrNatList.get(i);
+			for (int j = 0; j < natWR.getNumSges(); j++){
+				natWR.getNatSge(j).writeBack(buffer);
+			}
 		}
 		
+		this.numWr = wrCount;
 		this.valid = true;
 	}
 
@@ -111,33 +148,73 @@ public class NatPostSendCall extends SVCPostSend {
 		if (!qp.isOpen()) {
 			throw new IOException("Trying to post send on closed QP");
 		}
-		int ret = nativeDispatcher._postSend(qp.getObjId(), cmd.address());
+		int ret = nativeDispatcher.postSend(qp.getObjId(), cmd.address());
 		if (ret != 0){
 			throw new IOException("Post send failed");
 		}
 		return this;
 	}
 
+	NatIbvQP getQp() {
+		return qp;
+	}
+
+	int getMaxInline() {
+		return maxInline;
+	}
+
+	long getCmdAddress() {
+		return cmd.address();
+	}
+
 	@Override
 	public boolean isValid() {
 		return valid;
 	}
 
+	/*
+	 * The command buffer goes back to the memory allocator, which caches it for the next set().
+	 */
 	@Override
 	public SVCPostSend free() {
 		if (cmd != null){
 			cmd.free();
 			cmd = null;
-		}		
+		}
 		this.valid = false;
 		verbs.free(this);
 		return this;
 	}
 	
 	public SendWRMod getWrMod(int index) throws IOException{
+		if (index < 0 || index >= wrCount){
+			throw new IOException("Invalid work request index " + index + ", capacity " + wrCount);
+		}
 		return wrNatList.get(index);
 	}
 	
+	/*
+	 * The request list is terminated by clearing the next pointer of the last request posted, the pointers of
+	 * the requests in between are always valid.
+	 */
+	@Override
+	public SVCPostSend setNumWr(int numWr) throws IOException {
+		if (numWr <= 0 || numWr > wrCount){
+			throw new IOException("Invalid number of work requests " + numWr + ", capacity " + wrCount);
+		}
+		NatIbvSendWR last = wrNatList.get(this.numWr - 1);
+		cmd.getBuffer().putLong(last.getBufPosition() + NatIbvSendWR.NEXT_OFFSET, last.getNext());
+		last = wrNatList.get(numWr - 1);
+		cmd.getBuffer().putLong(last.getBufPosition() + NatIbvSendWR.NEXT_OFFSET, 0);
+		this.numWr = numWr;
+		return this;
+	}
+	
+	@Override
+	public int getNumWr() {
+		return numWr;
+	}
+	
 	//---------------------
 	
 	void setWr_id(NatIbvSendWR sendWR, int offset) {
@@ -160,6 +237,36 @@ public class NatPostSendCall extends SVCPostSend {
 		cmd.getBuffer().putInt(position, rdma.getReserved());
 	}
 
+	public void setRemote_addr(NatAtomic atomic, int offset) {
+		int position = atomic.getBufPosition() + offset;
+		cmd.getBuffer().putLong(position, atomic.getRemote_addr());
+	}
+
+	public void setCompare_add(NatAtomic atomic, int offset) {
+		int position = atomic.getBufPosition() + offset;
+		cmd.getBuffer().putLong(position, atomic.getCompare_add());
+	}
+
+	public void setSwap(NatAtomic atomic, int offset) {
+		int position = atomic.getBufPosition() + offset;
+		cmd.getBuffer().putLong(position, atomic.getSwap());
+	}
+
+	public void setRkey(NatAtomic atomic, int offset) {
+		int position = atomic.getBufPosition() + offset;
+		cmd.getBuffer().putInt(position, atomic.getRkey());
+	}
+
+	public void setRemote_qpn(NatUd ud, int offset) {
+		int position = ud.getBufPosition() + offset;
+		cmd.getBuffer().putInt(position, ud.getRemote_qpn());
+	}
+
+	public void setRemote_qkey(NatUd ud, int offset) {
+		int position = ud.getBufPosition() + offset;
+		cmd.getBuffer().putInt(position, ud.getRemote_qkey());
+	}
+
 	public void setAddr(NatIbvSge sge, int offset) {
 		int position = sge.getBufPosition() + offset;
 		cmd.getBuffer().putLong(position, sge.getAddr());
@@ -179,4 +286,64 @@ public class NatPostSendCall extends SVCPostSend {
 		int position = sendWR.getBufPosition() + offset;
 		cmd.getBuffer().putInt(position, sendWR.getSend_flags());		
 	}	
+	
+	void setOpcode(NatIbvSendWR sendWR, int offset) {
+		int position = sendWR.getBufPosition() + offset;
+		cmd.getBuffer().putInt(position, sendWR.getOpcode());
+	}
+	
+	void setNum_sge(NatIbvSendWR sendWR, int offset) {
+		int position = sendWR.getBufPosition() + offset;
+		cmd.getBuffer().putInt(position, sendWR.getNum_sge());
+	}
+	
+	void setUnion(NatIbvSendWR sendWR, int offset) {
+		ByteBuffer buffer = cmd.getBuffer().duplicate().order(ByteOrder.nativeOrder());
+		buffer.position(sendWR.getBufPosition() + offset);
+		sendWR.writeUnion(buffer);
+	}
+	
+	void setImm_data(NatIbvSendWR sendWR, int offset) {
+		int position = sendWR.getBufPosition() + offset;
+		cmd.getBuffer().putInt(position, sendWR.getImm_data());
+	}
+
+	/*
+	 * The bind part is not written if libibverbs has no memory window support, see NatIbvSendWR.hasBindMw().
+	 */
+	void setMw(NatBindMw bindMw, int offset) {
+		if (NatIbvSendWR.hasBindMw()) {
+			cmd.getBuffer().putLong(bindMw.getBufPosition() + offset, bindMw.getMwObjId());
+		}
+	}
+
+	void setRkey(NatBindMw bindMw, int offset) {
+		if (NatIbvSendWR.hasBindMw()) {
+			cmd.getBuffer().putInt(bindMw.getBufPosition() + offset, bindMw.getRkey());
+		}
+	}
+
+	void setMr(NatBindMw bindMw, int offset) {
+		if (NatIbvSendWR.hasBindMw()) {
+			cmd.getBuffer().putLong(bindMw.getBufPosition() + offset, bindMw.getMrObjId());
+		}
+	}
+
+	void setAddr(NatBindMw bindMw, int offset) {
+		if (NatIbvSendWR.hasBindMw()) {
+			cmd.getBuffer().putLong(bindMw.getBufPosition() + offset, bindMw.getAddr());
+		}
+	}
+
+	void setLength(NatBindMw bindMw, int offset) {
+		if (NatIbvSendWR.hasBindMw()) {
+			cmd.getBuffer().putLong(bindMw.getBufPosition() + offset, bindMw.getLength());
+		}
+	}
+
+	void setMw_access_flags(NatBindMw bindMw, int offset) {
+		if (NatIbvSendWR.hasBindMw()) {
+			cmd.getBuffer().putInt(bindMw.getBufPosition() + offset, bindMw.getMw_access_flags());
+		}
+	}
 }
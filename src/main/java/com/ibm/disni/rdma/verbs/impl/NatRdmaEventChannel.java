@@ -22,19 +22,19 @@
 package com.ibm.disni.rdma.verbs.impl;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.ibm.disni.rdma.verbs.RdmaEventChannel;
 
 
 public class NatRdmaEventChannel extends RdmaEventChannel implements NatObject {
-	private HashMap<Long, NatCmaIdPrivate> idMap;
+	private ConcurrentHashMap<Long, NatCmaIdPrivate> idMap;
 	private long objId;
 	
 	public NatRdmaEventChannel(long objId, int fd) throws IOException {
 		super(fd);
 		this.objId = objId;
-		this.idMap = new HashMap<Long, NatCmaIdPrivate>();
+		this.idMap = new ConcurrentHashMap<Long, NatCmaIdPrivate>();
 	}
 
 	public void addCmId(NatCmaIdPrivate cmId){
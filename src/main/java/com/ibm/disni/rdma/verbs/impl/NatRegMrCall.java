@@ -29,6 +29,7 @@ import com.ibm.disni.rdma.verbs.IbvPd;
 import com.ibm.disni.rdma.verbs.SVCRegMr;
 import com.ibm.disni.util.MemBuf;
 import com.ibm.disni.util.MemoryAllocation;
+import com.ibm.disni.util.MemoryUtils;
 
 public class NatRegMrCall extends SVCRegMr {
 	private NativeDispatcher nativeDispatcher;
@@ -53,7 +54,7 @@ public class NatRegMrCall extends SVCRegMr {
 	}
 
 	public void set(IbvPd pd, ByteBuffer buffer, int access) {
-		set(pd, ((sun.nio.ch.DirectBuffer) buffer).address(), buffer.capacity(), access);
+		set(pd, MemoryUtils.getAddress(buffer), buffer.capacity(), access);
 	}
 
 	public void set(IbvPd pd, long address, int length, int access) {
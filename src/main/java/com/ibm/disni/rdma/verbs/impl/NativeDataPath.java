@@ -0,0 +1,58 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl;
+
+/**
+ * The data path of NativeDispatcher, i.e., posting work requests and polling completions.
+ *
+ * This version calls into libdisni through JNI. The multi-release jar replaces it on Java 22 and later with a version
+ * calling into the verbs provider library through the Foreign Function and Memory API.
+ */
+class NativeDataPath {
+	private NativeDispatcher dispatcher;
+
+	NativeDataPath(NativeDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * Switches to calling the verbs provider library directly, given the offsets of the ibv_context ops table as
+	 * compiled into libdisni. Not available in this version.
+	 *
+	 * @return whether the data path bypasses JNI.
+	 */
+	boolean enable(int contextOpsOffset, int pollCqOffset, int postSendOffset, int postRecvOffset) {
+		return false;
+	}
+
+	int postSend(long qp, long wrList) {
+		return dispatcher._postSend(qp, wrList);
+	}
+
+	int postRecv(long qp, long wrList) {
+		return dispatcher._postRecv(qp, wrList);
+	}
+
+	int pollCQ(long cq, int ne, long wclist) {
+		return dispatcher._pollCQ(cq, ne, wclist);
+	}
+}
@@ -30,12 +30,14 @@ import com.ibm.disni.util.DiSNILogger;
 
 public class NativeDispatcher {
 	private static final Logger logger = DiSNILogger.getLogger();
-	private static int JVERBS_VERSION = 32;
+	private static int JVERBS_VERSION = 40;
 
 	static {
 	    System.loadLibrary("disni");
 	}
 
+	private NativeDataPath dataPath;
+
 	NativeDispatcher() throws IOException{
 		logger.info("jverbs jni version " + _getVersion());
 		if (_getVersion() != JVERBS_VERSION){
@@ -85,12 +87,41 @@ public class NativeDispatcher {
 		} else {
 			logger.info("Rkey offset match, jverbs size " + NatIbvSendWR.RKEY_OFFSET + ", native size " +_getRKeyOffset());
 		}
+		if (_getBindMwOffset() != NatIbvSendWR.BINDMW_OFFSET){
+			logger.info("Bind mw offset mismatch, jverbs size " + NatIbvSendWR.BINDMW_OFFSET + ", native size " +_getBindMwOffset());
+			NatIbvSendWR.BINDMW_OFFSET = _getBindMwOffset();
+		} else {
+			logger.info("Bind mw offset match, jverbs size " + NatIbvSendWR.BINDMW_OFFSET + ", native size " +_getBindMwOffset());
+		}
+
+		this.dataPath = new NativeDataPath(this);
+		if (dataPath.enable(_getContextOpsOffset(), _getPollCqOffset(), _getPostSendOffset(), _getPostRecvOffset())){
+			logger.info("data path through downcalls");
+		} else {
+			logger.info("data path through jni");
+		}
+	}
+
+	/*
+	 * Posting and polling go through NativeDataPath, which calls the verbs provider library directly where it can
+	 * (Java 22 and later, matching ops table) and libdisni otherwise.
+	 */
+	public int postSend(long qp, long wrList) {
+		return dataPath.postSend(qp, wrList);
+	}
+
+	public int postRecv(long qp, long wrList) {
+		return dataPath.postRecv(qp, wrList);
+	}
+
+	public int pollCQ(long cq, int ne, long wclist) {
+		return dataPath.pollCQ(cq, ne, wclist);
 	}
 
 	//rdmacm
 	public native long _createEventChannel();
 	public native long _createId(long channel, short rdma_ps);
-	public native long _createQP(long id, long pd, long sendcq, long recvcq, int qptype, int maxsendwr, int maxrecvwr, int maxinline);
+	public native long _createQP(long id, long pd, long sendcq, long recvcq, long srq, int qptype, int maxsendwr, int maxrecvwr, int maxinline);
 	public native int _bindAddr(long id, long addr);
 	public native int _listen(long id, int backlog);
 	public native int _resolveAddr(long id, long src, long dst, int timeout);
@@ -114,12 +145,25 @@ public class NativeDispatcher {
 	public native int _modifyQP(long qp, long attr);
 	public native long _regMr(long pd, long addr, int len, int access, long lkey, long rkey, long handle);
 	public native int _queryOdpSupport(long context);
+	public native int _queryLid(long context, int port);
+	public native int _queryGid(long context, int port, int index, long gid);
+	public native long _createAH(long pd, long attr);
+	public native int _destroyAH(long ah);
+	public native long _createSRQ(long pd, int maxwr, int maxsge, int limit);
+	public native int _modifySRQ(long srq, int limit);
+	public native int _destroySRQ(long srq);
+	public native long _allocMw(long pd, int type, long rkey, long handle);
+	public native int _deallocMw(long mw);
+	public native int _postSrqRecv(long srq, long wrList);
+	public native int _getAsyncEvent(long context, int timeout, long element);
 	public native int _expPrefetchMr(long handle, long addr, int len);
 	public native int _deregMr(long handle);
 	public native int _postSend(long qp, long wrList);
 	public native int _postRecv(long qp, long wrList);
+	public native int _postBatch(long batch, int count);
 	public native int _getCqEvent(long compChannel, int timeout);
 	public native int _pollCQ(long cq, int ne, long wclist);
+	public native int _postPoll(long qp, long wrList, long cq, int ne, long wclist, int spins);
 	public native int _reqNotifyCQ(long cq, int solicited_only);
 	public native int _ackCqEvent(long cq, int nevents);
 	public native int _destroyCompChannel(long fd);
@@ -129,9 +173,12 @@ public class NativeDispatcher {
 	//field lookup
 	public native long _getContext(long id);
 	public native int _getQpNum(long id);
+	public native int _getQpMaxInline(long id);
 	public native int _getContextFd(long objId);
 	public native int _getContextNumCompVectors(long objId);
+	public native int _getContextDeviceName(long objId, long name, int len);
 	public native int _getPdHandle(long objId);
+	public native int _getPortNum(long id);
 
 	//struct verification
 	public native int _getSockAddrInSize();
@@ -141,6 +188,11 @@ public class NativeDispatcher {
 	public native int _getIbvWCSize();
 	public native int _getRemoteAddressOffset();
 	public native int _getRKeyOffset();
+	public native int _getBindMwOffset();
+	public native int _getContextOpsOffset();
+	public native int _getPollCqOffset();
+	public native int _getPostSendOffset();
+	public native int _getPostRecvOffset();
 
 	//version
 	public native int _getVersion();
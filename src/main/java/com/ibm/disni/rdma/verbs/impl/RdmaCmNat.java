@@ -94,6 +94,7 @@ public class RdmaCmNat extends RdmaCm {
 		NatIbvPd natPd = (NatIbvPd) pd;
 		NatIbvCQ natSendCq = (NatIbvCQ) attr.getSend_cq();
 		NatIbvCQ natRecvCq = (NatIbvCQ) attr.getRecv_cq();
+		NatIbvSrq natSrq = (NatIbvSrq) attr.getSrq();
 		if (!idPriv.isOpen()) {
 			throw new IOException("Trying to create QP with closed ID");
 		}
@@ -106,7 +107,11 @@ public class RdmaCmNat extends RdmaCm {
 		if (!natRecvCq.isOpen()) {
 			throw new IOException("Trying to create a QP with closed receive CQ");
 		}
-		long objId = nativeDispatcher._createQP(idPriv.getObjId(), natPd.getObjId(), natSendCq.getObjId(), natRecvCq.getObjId(), attr.getQp_type(), attr.cap().getMax_send_wr(), attr.cap().getMax_recv_wr(), attr.cap().getMax_inline_data());
+		if (natSrq != null && !natSrq.isOpen()) {
+			throw new IOException("Trying to create a QP with closed SRQ");
+		}
+		long srqObjId = natSrq != null ? natSrq.getObjId() : 0;
+		long objId = nativeDispatcher._createQP(idPriv.getObjId(), natPd.getObjId(), natSendCq.getObjId(), natRecvCq.getObjId(), srqObjId, attr.getQp_type(), attr.cap().getMax_send_wr(), attr.cap().getMax_recv_wr(), attr.cap().getMax_inline_data());
 		logger.info("createQP, objId " + objId + ", send_wr size " + attr.cap().getMax_send_wr() + ", recv_wr_size " + attr.cap().getMax_recv_wr());
 		
 		NatIbvQP qp = null;
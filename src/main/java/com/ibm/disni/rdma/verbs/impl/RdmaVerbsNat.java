@@ -24,34 +24,47 @@ package com.ibm.disni.rdma.verbs.impl;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.slf4j.Logger;
 
+import com.ibm.disni.rdma.verbs.IbvAh;
+import com.ibm.disni.rdma.verbs.IbvAhAttr;
+import com.ibm.disni.rdma.verbs.IbvAsyncEvent;
 import com.ibm.disni.rdma.verbs.IbvCQ;
 import com.ibm.disni.rdma.verbs.IbvCompChannel;
 import com.ibm.disni.rdma.verbs.IbvContext;
+import com.ibm.disni.rdma.verbs.IbvGlobalRoute;
 import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvMw;
 import com.ibm.disni.rdma.verbs.IbvPd;
 import com.ibm.disni.rdma.verbs.IbvQP;
 import com.ibm.disni.rdma.verbs.IbvQpAttr;
 import com.ibm.disni.rdma.verbs.IbvRecvWR;
 import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvSrq;
+import com.ibm.disni.rdma.verbs.IbvSrqInitAttr;
 import com.ibm.disni.rdma.verbs.IbvWC;
 import com.ibm.disni.rdma.verbs.RdmaVerbs;
+import com.ibm.disni.rdma.verbs.SVCBatch;
 import com.ibm.disni.rdma.verbs.SVCDeregMr;
 import com.ibm.disni.rdma.verbs.SVCPollCq;
+import com.ibm.disni.rdma.verbs.SVCPostPoll;
 import com.ibm.disni.rdma.verbs.SVCPostRecv;
 import com.ibm.disni.rdma.verbs.SVCPostSend;
 import com.ibm.disni.rdma.verbs.SVCRegMr;
 import com.ibm.disni.rdma.verbs.SVCReqNotify;
 import com.ibm.disni.util.DiSNILogger;
+import com.ibm.disni.util.MemBuf;
 import com.ibm.disni.util.MemoryAllocation;
 
 
 public class RdmaVerbsNat extends RdmaVerbs {
 	private static final Logger logger = DiSNILogger.getLogger();
 	
+	private static final int MAX_POOLED_CALLS = 1024;
+	
 	private MemoryAllocation memAlloc;
 	private NativeDispatcher nativeDispatcher;
 	
@@ -60,7 +73,10 @@ public class RdmaVerbsNat extends RdmaVerbs {
 	private LinkedBlockingQueue<NatPostSendCall> postSendList;
 	private LinkedBlockingQueue<NatPostRecvCall> postRecvList;
 	private LinkedBlockingQueue<NatPollCqCall> pollCqList;
+	private LinkedBlockingQueue<NatPostPollCall> postPollList;
 	private LinkedBlockingQueue<NatReqNotifyCall> reqNotifyList;
+	private LinkedBlockingQueue<NatBatchCall> batchList;
+	private ConcurrentHashMap<Long, NatIbvSrq> srqMap;
 	
 	public RdmaVerbsNat(NativeDispatcher nativeDispatcher) {
 		this.memAlloc = MemoryAllocation.getInstance();
@@ -68,10 +84,13 @@ public class RdmaVerbsNat extends RdmaVerbs {
 		
 		this.regList = new LinkedBlockingQueue<NatRegMrCall>();
 		this.deregList = new LinkedBlockingQueue<NatDeregMrCall>();
-		this.postSendList = new LinkedBlockingQueue<NatPostSendCall>();
+		this.postSendList = new LinkedBlockingQueue<NatPostSendCall>(MAX_POOLED_CALLS);
 		this.postRecvList = new LinkedBlockingQueue<NatPostRecvCall>();
 		this.pollCqList = new LinkedBlockingQueue<NatPollCqCall>();
+		this.postPollList = new LinkedBlockingQueue<NatPostPollCall>();
 		this.reqNotifyList = new LinkedBlockingQueue<NatReqNotifyCall>();
+		this.batchList = new LinkedBlockingQueue<NatBatchCall>();
+		this.srqMap = new ConcurrentHashMap<Long, NatIbvSrq>();
 	}
 
 	public IbvPd allocPd(IbvContext context) throws IOException {
@@ -191,6 +210,22 @@ public class RdmaVerbsNat extends RdmaVerbs {
 		return postSendCall;
 	}
 
+	/*
+	 * Builds the native work requests directly instead of converting a list of blank IbvSendWRs.
+	 */
+	@Override
+	public SVCPostSend postSend(IbvQP qp, int maxWr, int maxSge) throws IOException {
+		if (maxWr <= 0 || maxSge <= 0) {
+			throw new IOException("Creating post send failed, invalid capacity " + maxWr + "/" + maxSge);
+		}
+		NatPostSendCall postSendCall = postSendList.poll();
+		if (postSendCall == null) {
+			postSendCall = new NatPostSendCall(this, nativeDispatcher, memAlloc);
+		}
+		postSendCall.set(qp, maxWr, maxSge);
+		return postSendCall;
+	}
+
 	public SVCPostRecv postRecv(IbvQP qp, List<IbvRecvWR> wrList, List<IbvRecvWR> badwrList) throws IOException {
 		NatPostRecvCall postRecvCall = postRecvList.poll();
 		if (postRecvCall == null){
@@ -200,6 +235,15 @@ public class RdmaVerbsNat extends RdmaVerbs {
 		return postRecvCall;
 	}
 
+	public SVCBatch batch() throws IOException {
+		NatBatchCall batchCall = batchList.poll();
+		if (batchCall == null){
+			batchCall = new NatBatchCall(this, nativeDispatcher, memAlloc);
+		}
+		batchCall.set();
+		return batchCall;
+	}
+
 	public boolean getCqEvent(IbvCompChannel compChannel, IbvCQ cq, int timeout) throws IOException {
 		NatIbvCompChannel natChannel = (NatIbvCompChannel) compChannel;
 		if (!natChannel.isOpen()) {
@@ -218,6 +262,24 @@ public class RdmaVerbsNat extends RdmaVerbs {
 		return pollCqCall;
 	}
 
+	public SVCPollCq pollCQ(IbvCQ cq, int ne) throws IOException {
+		NatPollCqCall pollCqCall = pollCqList.poll();
+		if (pollCqCall == null){
+			pollCqCall = new NatPollCqCall(this, nativeDispatcher, memAlloc);
+		}
+		pollCqCall.set(cq, null, ne);
+		return pollCqCall;
+	}
+
+	public SVCPostPoll postPoll(SVCPostSend postSend, IbvCQ cq, IbvWC[] wcList, int ne, int spins) throws IOException {
+		NatPostPollCall postPollCall = postPollList.poll();
+		if (postPollCall == null){
+			postPollCall = new NatPostPollCall(this, nativeDispatcher, memAlloc);
+		}
+		postPollCall.set(postSend, cq, wcList, ne, spins);
+		return postPollCall;
+	}
+
 	public SVCReqNotify reqNotifyCQ(IbvCQ cq,
 			boolean solicited_only) throws IOException {
 		NatReqNotifyCall reqNotifyCall = reqNotifyList.poll();
@@ -249,6 +311,157 @@ public class RdmaVerbsNat extends RdmaVerbs {
 	}
 
 	@Override
+	public IbvAh createAH(IbvPd pd, IbvAhAttr attr) throws IOException {
+		NatIbvPd natPd = (NatIbvPd) pd;
+		if (!natPd.isOpen()) {
+			throw new IOException("Trying to create address handle with closed PD.");
+		}
+		MemBuf attrBuf = memAlloc.allocate(NatIbvAh.CSIZE, MemoryAllocation.MemType.DIRECT, NatIbvAh.class.getCanonicalName());
+		NatIbvAh.writeBack(attr, attrBuf.getBuffer());
+		long objId = nativeDispatcher._createAH(natPd.getObjId(), attrBuf.address());
+		attrBuf.free();
+		logger.info("createAH, objId " + objId + ", dlid " + attr.getDlid());
+		
+		NatIbvAh ah = null;
+		if (objId >= 0){
+			ah = new NatIbvAh(objId, pd, attr);
+		}
+		return ah;
+	}
+
+	public int destroyAH(IbvAh ah) throws IOException {
+		NatIbvAh natAh = (NatIbvAh) ah;
+		logger.info("destroyAH, objId " + natAh.getObjId());
+		if (!natAh.isOpen()) {
+			throw new IOException("Trying to destroy an already destroyed address handle.");
+		}
+		natAh.close();
+		return nativeDispatcher._destroyAH(natAh.getObjId());
+	}
+
+	public IbvMw allocMw(IbvPd pd, int type) throws IOException {
+		NatIbvPd natPd = (NatIbvPd) pd;
+		if (!natPd.isOpen()) {
+			throw new IOException("Trying to allocate memory window with closed PD.");
+		}
+		MemBuf keyBuf = memAlloc.allocate(8, MemoryAllocation.MemType.DIRECT, NatIbvMw.class.getCanonicalName());
+		long objId = nativeDispatcher._allocMw(natPd.getObjId(), type, keyBuf.address(), keyBuf.address() + 4);
+		int rkey = keyBuf.getBuffer().getInt(0);
+		int handle = keyBuf.getBuffer().getInt(4);
+		keyBuf.free();
+		logger.info("allocMw, objId " + objId + ", type " + type + ", rkey " + rkey);
+
+		NatIbvMw mw = null;
+		if (objId >= 0){
+			mw = new NatIbvMw(objId, pd, rkey, handle, type);
+		}
+		return mw;
+	}
+
+	public int deallocMw(IbvMw mw) throws IOException {
+		NatIbvMw natMw = (NatIbvMw) mw;
+		logger.info("deallocMw, objId " + natMw.getObjId());
+		if (!natMw.isOpen()) {
+			throw new IOException("Trying to deallocate an already deallocated memory window.");
+		}
+		natMw.close();
+		return nativeDispatcher._deallocMw(natMw.getObjId());
+	}
+
+	public int queryLid(IbvContext context, int port) throws IOException {
+		NatIbvContext natContext = (NatIbvContext) context;
+		if (!natContext.isOpen()) {
+			throw new IOException("Trying to query port on closed context.");
+		}
+		int lid = nativeDispatcher._queryLid(natContext.getObjId(), port);
+		if (lid < 0) {
+			throw new IOException("Query of port " + port + " failed");
+		}
+		return lid;
+	}
+
+	public byte[] queryGid(IbvContext context, int port, int index) throws IOException {
+		NatIbvContext natContext = (NatIbvContext) context;
+		if (!natContext.isOpen()) {
+			throw new IOException("Trying to query GID on closed context.");
+		}
+		MemBuf gidBuf = memAlloc.allocate(16, MemoryAllocation.MemType.DIRECT, IbvGlobalRoute.class.getCanonicalName());
+		int ret = nativeDispatcher._queryGid(natContext.getObjId(), port, index, gidBuf.address());
+		byte[] gid = new byte[16];
+		gidBuf.getBuffer().get(gid);
+		gidBuf.free();
+		if (ret != 0) {
+			throw new IOException("Query of GID " + index + " on port " + port + " failed");
+		}
+		return gid;
+	}
+
+	public IbvSrq createSRQ(IbvPd pd, IbvSrqInitAttr attr) throws IOException {
+		NatIbvPd natPd = (NatIbvPd) pd;
+		if (!natPd.isOpen()) {
+			throw new IOException("Trying to create SRQ with closed PD.");
+		}
+		long objId = nativeDispatcher._createSRQ(natPd.getObjId(), attr.getMax_wr(), attr.getMax_sge(), attr.getSrq_limit());
+		logger.info("createSRQ, objId " + objId + ", max_wr " + attr.getMax_wr() + ", max_sge " + attr.getMax_sge());
+		
+		NatIbvSrq srq = null;
+		if (objId >= 0){
+			srq = new NatIbvSrq(objId, pd, attr.getMax_wr(), attr.getMax_sge());
+			srqMap.put(objId, srq);
+		}
+		return srq;
+	}
+
+	public int modifySRQ(IbvSrq srq, int srqLimit) throws IOException {
+		NatIbvSrq natSrq = (NatIbvSrq) srq;
+		if (!natSrq.isOpen()) {
+			throw new IOException("Trying to modify closed SRQ.");
+		}
+		return nativeDispatcher._modifySRQ(natSrq.getObjId(), srqLimit);
+	}
+
+	public SVCPostRecv postSrqRecv(IbvSrq srq, List<IbvRecvWR> wrList, List<IbvRecvWR> badwrList) throws IOException {
+		NatPostRecvCall postRecvCall = postRecvList.poll();
+		if (postRecvCall == null){
+			postRecvCall = new NatPostRecvCall(this, nativeDispatcher, memAlloc);
+		}
+		postRecvCall.set(srq, wrList);
+		return postRecvCall;
+	}
+
+	public int destroySRQ(IbvSrq srq) throws IOException {
+		NatIbvSrq natSrq = (NatIbvSrq) srq;
+		logger.info("destroySRQ, objId " + natSrq.getObjId());
+		if (!natSrq.isOpen()) {
+			throw new IOException("Trying to destroy an already destroyed SRQ.");
+		}
+		natSrq.close();
+		srqMap.remove(natSrq.getObjId());
+		return nativeDispatcher._destroySRQ(natSrq.getObjId());
+	}
+
+	public IbvAsyncEvent getAsyncEvent(IbvContext context, int timeout) throws IOException {
+		NatIbvContext natContext = (NatIbvContext) context;
+		if (!natContext.isOpen()) {
+			throw new IOException("Trying to get async event on closed context.");
+		}
+		MemBuf elementBuf = memAlloc.allocate(8, MemoryAllocation.MemType.DIRECT, IbvAsyncEvent.class.getCanonicalName());
+		int eventType = nativeDispatcher._getAsyncEvent(natContext.getObjId(), timeout, elementBuf.address());
+		long element = elementBuf.getBuffer().getLong(0);
+		elementBuf.free();
+		if (eventType == -1) {
+			return null;
+		}
+		if (eventType < 0) {
+			throw new IOException("Get async event failed");
+		}
+		IbvSrq srq = null;
+		if (eventType == IbvAsyncEvent.IBV_EVENT_SRQ_ERR || eventType == IbvAsyncEvent.IBV_EVENT_SRQ_LIMIT_REACHED) {
+			srq = srqMap.get(element);
+		}
+		return new IbvAsyncEvent(eventType, srq);
+	}
+
 	public int deallocPd(IbvPd pd) throws IOException {
 		logger.info("deallocPd, pd " + pd.getHandle());
 		NatIbvPd pdImpl = (NatIbvPd) pd;
@@ -282,8 +495,11 @@ public class RdmaVerbsNat extends RdmaVerbs {
 		this.deregList.add(natDeregMrCall);
 	}
 
+	/*
+	 * At most MAX_POOLED_CALLS objects are kept, further ones are left to the garbage collector.
+	 */
 	public void free(NatPostSendCall natPostSendCall) {
-		this.postSendList.add(natPostSendCall);
+		this.postSendList.offer(natPostSendCall);
 	}
 
 	public void free(NatPostRecvCall natPostRecvCall) {
@@ -294,7 +510,15 @@ public class RdmaVerbsNat extends RdmaVerbs {
 		this.pollCqList.add(natPollCqCall);
 	}
 
+	public void free(NatPostPollCall natPostPollCall) {
+		this.postPollList.add(natPostPollCall);
+	}
+
 	public void free(NatReqNotifyCall natReqNotifyCall) {
 		this.reqNotifyList.add(natReqNotifyCall);
 	}
+
+	public void free(NatBatchCall natBatchCall) {
+		this.batchList.add(natBatchCall);
+	}
 }
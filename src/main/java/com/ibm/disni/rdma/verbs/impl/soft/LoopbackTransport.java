@@ -0,0 +1,403 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.RdmaCm;
+import com.ibm.disni.rdma.verbs.RdmaCmEvent;
+import com.ibm.disni.util.DiSNILogger;
+
+/**
+ * Connects queue pairs within the same JVM. Operations are executed with plain memory copies between the registered buffers of the two QPs.
+ *
+ * By default operations execute synchronously on the posting thread. Setting
+ * 'com.ibm.disni.rdma.loopback.latency' (one-way latency in nanoseconds) or
+ * 'com.ibm.disni.rdma.loopback.bandwidth' (link bandwidth in Gbit/s) enables a simple wire model:
+ * operations are serialized on a single link and executed by a wire thread once they have arrived at the peer.
+ */
+public class LoopbackTransport extends SoftTransport {
+	private static final Logger logger = DiSNILogger.getLogger();
+
+	public static final String LATENCY_PROPERTY = "com.ibm.disni.rdma.loopback.latency";
+	public static final String BANDWIDTH_PROPERTY = "com.ibm.disni.rdma.loopback.bandwidth";
+
+	private static final int EPHEMERAL_PORT = 49152;
+	private static final long SPIN_THRESHOLD = 50000;
+
+	private ConcurrentHashMap<Integer, SoftCmId> listeners;
+	private AtomicInteger portCounter;
+	private ThreadLocal<LoopbackMessage> messages;
+	private long latency;
+	private double bandwidth;
+	private Wire wire;
+
+	public LoopbackTransport() {
+		this.listeners = new ConcurrentHashMap<Integer, SoftCmId>();
+		this.portCounter = new AtomicInteger(EPHEMERAL_PORT);
+		this.messages = new ThreadLocal<LoopbackMessage>() {
+			@Override
+			protected LoopbackMessage initialValue() {
+				return new LoopbackMessage();
+			}
+		};
+		this.latency = Long.getLong(LATENCY_PROPERTY, 0);
+		this.bandwidth = Double.parseDouble(System.getProperty(BANDWIDTH_PROPERTY, "0"));
+		this.wire = null;
+		if (latency > 0 || bandwidth > 0) {
+			logger.info("loopback wire model, latency " + latency + "ns, bandwidth " + bandwidth + "Gbit/s");
+			this.wire = new Wire();
+			Thread thread = new Thread(wire, "loopback-wire");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "loopback";
+	}
+
+	@Override
+	public boolean supportsDatagram() {
+		return true;
+	}
+
+	@Override
+	public void bind(SoftCmId id, InetSocketAddress address) throws IOException {
+		int port = address.getPort();
+		if (port == 0) {
+			port = portCounter.getAndIncrement();
+		}
+		id.setSourceAddress(new InetSocketAddress(address.getAddress(), port));
+	}
+
+	@Override
+	public void listen(SoftCmId id, int backlog) throws IOException {
+		InetSocketAddress address = id.getSourceAddress();
+		if (address == null) {
+			throw new IOException("Trying to listen on unbound ID");
+		}
+		if (listeners.putIfAbsent(address.getPort(), id) != null) {
+			throw new IOException("Address already in use, " + address);
+		}
+	}
+
+	@Override
+	public void resolve(SoftCmId id, InetSocketAddress destination) throws IOException {
+		id.setDestinationAddress(destination);
+		if (id.getSourceAddress() == null) {
+			id.setSourceAddress(new InetSocketAddress(destination.getAddress(), portCounter.getAndIncrement()));
+		}
+	}
+
+	@Override
+	public void connect(SoftCmId id) throws IOException {
+		SoftCmId listener = listeners.get(id.getDestinationAddress().getPort());
+		if (listener == null || !listener.isOpen()) {
+			logger.info("no listener at " + id.getDestinationAddress() + ", rejecting connection");
+			id.postEvent(RdmaCmEvent.EventType.RDMA_CM_EVENT_REJECTED, null);
+			return;
+		}
+		SoftCmId connId = new SoftCmId(listener.getCmChannel(), listener.getVerbs(), listener.getPs());
+		connId.setSourceAddress(id.getDestinationAddress());
+		connId.setDestinationAddress(id.getSourceAddress());
+		connId.setLink(id);
+		id.setLink(connId);
+		connId.postEvent(RdmaCmEvent.EventType.RDMA_CM_EVENT_CONNECT_REQUEST, listener);
+	}
+
+	@Override
+	public void accept(SoftCmId connId) throws IOException {
+		SoftCmId id = (SoftCmId) connId.getLink();
+		if (id == null) {
+			throw new IOException("Accept failed, no pending connection request");
+		}
+		SoftIbvQP localQp = connId.getSoftQp();
+		SoftIbvQP remoteQp = id.getSoftQp();
+		if (localQp == null || remoteQp == null) {
+			throw new IOException("Accept failed, QP not created");
+		}
+		localQp.setLink(remoteQp);
+		remoteQp.setLink(localQp);
+		localQp.connected();
+		remoteQp.connected();
+		id.postEvent(RdmaCmEvent.EventType.RDMA_CM_EVENT_ESTABLISHED, null);
+		connId.postEvent(RdmaCmEvent.EventType.RDMA_CM_EVENT_ESTABLISHED, null);
+	}
+
+	@Override
+	public void disconnect(SoftCmId id) throws IOException {
+		SoftCmId peer = null;
+		synchronized (this) {
+			peer = (SoftCmId) id.getLink();
+			if (peer == null) {
+				return;
+			}
+			id.setLink(null);
+			peer.setLink(null);
+		}
+		if (id.getSoftQp() != null) {
+			id.getSoftQp().flush();
+		}
+		if (peer.getSoftQp() != null) {
+			peer.getSoftQp().flush();
+		}
+		id.postEvent(RdmaCmEvent.EventType.RDMA_CM_EVENT_DISCONNECTED, null);
+		peer.postEvent(RdmaCmEvent.EventType.RDMA_CM_EVENT_DISCONNECTED, null);
+	}
+
+	@Override
+	public void destroy(SoftCmId id) throws IOException {
+		InetSocketAddress address = id.getSourceAddress();
+		if (address != null) {
+			listeners.remove(address.getPort(), id);
+		}
+		disconnect(id);
+	}
+
+	@Override
+	public void postSend(SoftIbvQP qp, int slot, SoftSendWR wr) throws IOException {
+		if (wire != null) {
+			wire.submit(qp, slot, wr);
+		} else {
+			execute(qp, slot, wr);
+		}
+	}
+
+	private void execute(SoftIbvQP qp, int slot, SoftSendWR wr) {
+		if (qp.isDatagram()) {
+			executeDatagram(qp, slot, wr);
+			return;
+		}
+		SoftIbvQP peer = (SoftIbvQP) qp.getLink();
+		int opcode = wr.getOpcode();
+		int flags = wr.getSend_flags();
+		if (peer == null || !qp.isReady()) {
+			qp.completeSend(slot, SoftIbvQP.WC_WR_FLUSH_ERR, 0);
+			return;
+		}
+		SoftSgl local = wr.gather();
+		boolean atomic = SoftAtomics.isAtomic(opcode);
+		if (!qp.checkLocal(local, opcode == IbvSendWR.IBV_WR_RDMA_READ || atomic)) {
+			qp.completeSend(slot, SoftIbvQP.WC_LOC_PROT_ERR, 0);
+			return;
+		}
+		int length = local.total();
+		boolean solicited = (flags & IbvSendWR.IBV_SEND_SOLICITED) != 0;
+		long remoteAddr = atomic ? wr.getAtomic().getRemote_addr() : wr.getRdma().getRemote_addr();
+		int rkey = atomic ? wr.getAtomic().getRkey() : wr.getRdma().getRkey();
+		LoopbackMessage msg;
+		SoftIbvMr mr;
+		switch (opcode) {
+		case IbvSendWR.IBV_WR_SEND:
+		case IbvSendWR.IBV_WR_SEND_WITH_IMM:
+			msg = messages.get();
+			msg.set(opcode, wr.getImm_data(), solicited, qp.getQpNum(), length, local);
+			msg.bind(qp, slot);
+			peer.deliver(msg);
+			break;
+		case IbvSendWR.IBV_WR_RDMA_WRITE:
+		case IbvSendWR.IBV_WR_RDMA_WRITE_WITH_IMM:
+			mr = peer.remoteRegion(rkey, remoteAddr, length, IbvMr.IBV_ACCESS_REMOTE_WRITE);
+			if (mr == null) {
+				qp.completeSend(slot, SoftIbvQP.WC_REM_ACCESS_ERR, 0);
+				break;
+			}
+			local.copyTo(mr.getMemory(), remoteAddr);
+			if (opcode == IbvSendWR.IBV_WR_RDMA_WRITE) {
+				qp.completeSend(slot, SoftIbvQP.WC_SUCCESS, length);
+			} else {
+				msg = messages.get();
+				msg.set(opcode, wr.getImm_data(), solicited, qp.getQpNum(), length, null);
+				msg.bind(qp, slot);
+				peer.deliver(msg);
+			}
+			break;
+		case IbvSendWR.IBV_WR_RDMA_READ:
+			mr = peer.remoteRegion(rkey, remoteAddr, length, IbvMr.IBV_ACCESS_REMOTE_READ);
+			if (mr == null) {
+				qp.completeSend(slot, SoftIbvQP.WC_REM_ACCESS_ERR, 0);
+				break;
+			}
+			local.copyFrom(mr.getMemory(), remoteAddr, length);
+			qp.completeSend(slot, SoftIbvQP.WC_SUCCESS, length);
+			break;
+		case IbvSendWR.IBV_WR_ATOMIC_CMP_AND_SWP:
+		case IbvSendWR.IBV_WR_ATOMIC_FETCH_AND_ADD:
+			if (!SoftAtomics.checkLocal(local)) {
+				qp.completeSend(slot, SoftIbvQP.WC_LOC_LEN_ERR, 0);
+				break;
+			}
+			if (!SoftAtomics.isAligned(remoteAddr)) {
+				qp.completeSend(slot, SoftIbvQP.WC_REM_INV_REQ_ERR, 0);
+				break;
+			}
+			mr = peer.remoteRegion(rkey, remoteAddr, SoftAtomics.LENGTH, IbvMr.IBV_ACCESS_REMOTE_ATOMIC);
+			if (mr == null) {
+				qp.completeSend(slot, SoftIbvQP.WC_REM_ACCESS_ERR, 0);
+				break;
+			}
+			long value = SoftAtomics.execute(opcode, mr.getMemory(), remoteAddr, wr.getAtomic().getCompare_add(), wr.getAtomic().getSwap());
+			SoftAtomics.complete(local, value);
+			qp.completeSend(slot, SoftIbvQP.WC_SUCCESS, SoftAtomics.LENGTH);
+			break;
+		default:
+			qp.completeSend(slot, SoftIbvQP.WC_LOC_QP_OP_ERR, 0);
+		}
+	}
+
+	/*
+	 * UD sends are addressed by remote QP number and Q_Key. The datagram is dropped if no such QP exists in
+	 * this JVM, the Q_Key does not match or the peer has no receive posted, the send completes successfully anyway.
+	 */
+	private void executeDatagram(SoftIbvQP qp, int slot, SoftSendWR wr) {
+		int opcode = wr.getOpcode();
+		if (!qp.isReady()) {
+			qp.completeSend(slot, SoftIbvQP.WC_WR_FLUSH_ERR, 0);
+			return;
+		}
+		if (opcode != IbvSendWR.IBV_WR_SEND && opcode != IbvSendWR.IBV_WR_SEND_WITH_IMM) {
+			qp.completeSend(slot, SoftIbvQP.WC_LOC_QP_OP_ERR, 0);
+			return;
+		}
+		IbvSendWR.Ud ud = wr.getUd();
+		if (ud.getAh() == null || !ud.getAh().isOpen()) {
+			qp.completeSend(slot, SoftIbvQP.WC_LOC_QP_OP_ERR, 0);
+			return;
+		}
+		SoftSgl local = wr.gather();
+		if (!qp.checkLocal(local, false)) {
+			qp.completeSend(slot, SoftIbvQP.WC_LOC_PROT_ERR, 0);
+			return;
+		}
+		int length = local.total();
+		SoftIbvQP peer = qp.getSoftContext().getQP(ud.getRemote_qpn());
+		if (peer != null && peer.isDatagram() && ud.getRemote_qkey() == RdmaCm.RDMA_UDP_QKEY) {
+			boolean solicited = (wr.getSend_flags() & IbvSendWR.IBV_SEND_SOLICITED) != 0;
+			LoopbackMessage msg = messages.get();
+			msg.set(opcode, wr.getImm_data(), solicited, qp.getQpNum(), length, local);
+			msg.bind(null, slot);
+			peer.deliver(msg);
+		}
+		qp.completeSend(slot, SoftIbvQP.WC_SUCCESS, length);
+	}
+
+	private static class LoopbackMessage extends SoftMessage {
+		private SoftIbvQP sender;
+		private int slot;
+
+		void bind(SoftIbvQP sender, int slot) {
+			this.sender = sender;
+			this.slot = slot;
+		}
+
+		@Override
+		protected SoftMessage detach() {
+			LoopbackMessage msg = new LoopbackMessage();
+			msg.set(opcode, immData, solicited, srcQp, length, payload != null ? payload.copy() : null);
+			msg.bind(sender, slot);
+			return msg;
+		}
+
+		@Override
+		protected void completed(int status) {
+			if (sender != null) {
+				sender.completeSend(slot, status, length);
+			}
+		}
+	}
+
+	private static class Transfer {
+		private SoftIbvQP qp;
+		private int slot;
+		private SoftSendWR wr;
+		private long due;
+
+		Transfer(SoftIbvQP qp, int slot, SoftSendWR wr, long due) {
+			this.qp = qp;
+			this.slot = slot;
+			this.wr = wr;
+			this.due = due;
+		}
+	}
+
+	/*
+	 * A single link shared by all QPs. Each operation occupies the link for length/bandwidth
+	 * and arrives one latency later, RDMA reads and atomics pay the latency twice. Arrival times never
+	 * decrease, so operations are executed in posting order.
+	 */
+	private class Wire implements Runnable {
+		private LinkedBlockingQueue<Transfer> queue;
+		private long linkFree;
+		private long lastDue;
+
+		Wire() {
+			this.queue = new LinkedBlockingQueue<Transfer>();
+			this.linkFree = 0;
+			this.lastDue = 0;
+		}
+
+		synchronized void submit(SoftIbvQP qp, int slot, SoftSendWR wr) {
+			SoftSendWR copy = new SoftSendWR(wr);
+			int length = copy.gather().total();
+			long now = System.nanoTime();
+			long start = Math.max(now, linkFree);
+			linkFree = start + (bandwidth > 0 ? (long) (length * 8 / bandwidth) : 0);
+			long due = linkFree + latency;
+			if (copy.getOpcode() == IbvSendWR.IBV_WR_RDMA_READ || SoftAtomics.isAtomic(copy.getOpcode())) {
+				due += latency;
+			}
+			due = Math.max(due, lastDue);
+			lastDue = due;
+			queue.add(new Transfer(qp, slot, copy, due));
+		}
+
+		public void run() {
+			while (true) {
+				try {
+					Transfer transfer = queue.take();
+					long remaining;
+					while ((remaining = transfer.due - System.nanoTime()) > 0) {
+						if (remaining > SPIN_THRESHOLD) {
+							LockSupport.parkNanos(remaining - SPIN_THRESHOLD);
+						}
+					}
+					execute(transfer.qp, transfer.slot, transfer.wr);
+				} catch (InterruptedException e) {
+					break;
+				} catch (Exception e) {
+					logger.info("loopback wire, caught exception but keep going " + e.getMessage());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvPd;
+import com.ibm.disni.rdma.verbs.IbvQP;
+import com.ibm.disni.rdma.verbs.IbvQPInitAttr;
+import com.ibm.disni.rdma.verbs.RdmaCm;
+import com.ibm.disni.rdma.verbs.RdmaCmEvent;
+import com.ibm.disni.rdma.verbs.RdmaCmId;
+import com.ibm.disni.rdma.verbs.RdmaConnParam;
+import com.ibm.disni.rdma.verbs.RdmaEventChannel;
+import com.ibm.disni.util.DiSNILogger;
+
+
+public class RdmaCmSoft extends RdmaCm {
+	private static final Logger logger = DiSNILogger.getLogger();
+
+	private SoftTransport transport;
+
+	public RdmaCmSoft(SoftTransport transport) {
+		this.transport = transport;
+	}
+
+	@Override
+	public RdmaEventChannel createEventChannel() throws IOException {
+		SoftRdmaEventChannel channel = new SoftRdmaEventChannel(transport.nextFd());
+		logger.info("createEventChannel, fd " + channel.getFd());
+		return channel;
+	}
+
+	@Override
+	public RdmaCmId createId(RdmaEventChannel cmChannel, short rdma_ps) throws IOException {
+		if (!cmChannel.isOpen()) {
+			throw new IOException("Trying to create ID with closed channel.");
+		}
+		SoftCmId idPriv = new SoftCmId(cmChannel, null, rdma_ps);
+		logger.info("createId, ps " + rdma_ps);
+		return idPriv;
+	}
+
+	@Override
+	public IbvQP createQP(RdmaCmId id, IbvPd pd, IbvQPInitAttr attr) throws IOException {
+		SoftCmId idPriv = (SoftCmId) id;
+		if (!idPriv.isOpen()) {
+			throw new IOException("Trying to create QP with closed ID");
+		}
+		if (!pd.isOpen()) {
+			throw new IOException("Trying to create QP with closed PD");
+		}
+		if (!attr.getSend_cq().isOpen()) {
+			throw new IOException("Trying to create a QP with closed send CQ");
+		}
+		if (!attr.getRecv_cq().isOpen()) {
+			throw new IOException("Trying to create a QP with closed receive CQ");
+		}
+		if (attr.getSrq() != null && !attr.getSrq().isOpen()) {
+			throw new IOException("Trying to create a QP with closed SRQ");
+		}
+		if (attr.getQp_type() == IbvQP.IBV_QPT_UD && !transport.supportsDatagram()) {
+			throw new IOException("Trying to create UD QP, not supported by the " + transport.getName() + " provider");
+		}
+		SoftIbvContext context = transport.getContext();
+		SoftIbvQP qp = new SoftIbvQP(context, (SoftIbvPd) pd, idPriv, attr, context.nextQpNum());
+		context.addQP(qp);
+		if (qp.getSrq() != null) {
+			qp.getSrq().attach(qp);
+		}
+		idPriv.attachQp(qp);
+		if (qp.isDatagram()) {
+			qp.connected();
+		}
+		logger.info("createQP, qpnum " + qp.getQpNum() + ", send_wr size " + attr.cap().getMax_send_wr() + ", recv_wr_size " + attr.cap().getMax_recv_wr());
+		return qp;
+	}
+
+	@Override
+	public int bindAddr(RdmaCmId id, SocketAddress address) throws IOException {
+		SoftCmId idPriv = (SoftCmId) id;
+		if (!idPriv.isOpen()) {
+			throw new IOException("Trying to bind() using a closed ID");
+		}
+		transport.bind(idPriv, (InetSocketAddress) address);
+		idPriv.attachVerbs(transport.getContext());
+		logger.info("bindAddr, address " + address.toString());
+		return 0;
+	}
+
+	@Override
+	public int listen(RdmaCmId id, int backlog) throws IOException {
+		SoftCmId idPriv = (SoftCmId) id;
+		if (!idPriv.isOpen()) {
+			throw new IOException("Trying to listen on closed ID");
+		}
+		transport.listen(idPriv, backlog);
+		logger.info("listen, id " + id.getPs());
+		return 0;
+	}
+
+	@Override
+	public int resolveAddr(RdmaCmId id, SocketAddress source, SocketAddress destination, int timeout) throws IOException {
+		SoftCmId idPriv = (SoftCmId) id;
+		if (!idPriv.isOpen()) {
+			throw new IOException("Trying to resolve address with closed ID");
+		}
+		if (source != null) {
+			transport.bind(idPriv, (InetSocketAddress) source);
+		}
+		transport.resolve(idPriv, (InetSocketAddress) destination);
+		idPriv.attachVerbs(transport.getContext());
+		logger.info("resolveAddr, addres " + destination.toString());
+		idPriv.postEvent(RdmaCmEvent.EventType.RDMA_CM_EVENT_ADDR_RESOLVED, null);
+		return 0;
+	}
+
+	@Override
+	public int resolveRoute(RdmaCmId id, int timeout) throws IOException {
+		SoftCmId idPriv = (SoftCmId) id;
+		if (!idPriv.isOpen()) {
+			throw new IOException("Trying to resolve route with closed ID");
+		}
+		logger.info("resolveRoute, id " + id.getPs());
+		idPriv.postEvent(RdmaCmEvent.EventType.RDMA_CM_EVENT_ROUTE_RESOLVED, null);
+		return 0;
+	}
+
+	@Override
+	public RdmaCmEvent getCmEvent(RdmaEventChannel cmChannel, int timeout) throws IOException {
+		SoftRdmaEventChannel channelImpl = (SoftRdmaEventChannel) cmChannel;
+		if (!channelImpl.isOpen()) {
+			throw new IOException("Trying to get CM event on closed channel.");
+		}
+		return channelImpl.getEvent(timeout);
+	}
+
+	@Override
+	public int connect(RdmaCmId id, RdmaConnParam connParam) throws IOException {
+		SoftCmId idPriv = (SoftCmId) id;
+		if (!idPriv.isOpen()) {
+			throw new IOException("Trying to call connect() with closed ID");
+		}
+		transport.connect(idPriv);
+		logger.info("connect, id " + id.getPs());
+		return 0;
+	}
+
+	@Override
+	public int accept(RdmaCmId id, RdmaConnParam connParam) throws IOException {
+		SoftCmId idPriv = (SoftCmId) id;
+		if (!idPriv.isOpen()) {
+			throw new IOException("Trying to call accept() with closed ID");
+		}
+		transport.accept(idPriv);
+		logger.info("accept, id " + id.getPs());
+		return 0;
+	}
+
+	@Override
+	public int ackCmEvent(RdmaCmEvent cmEvent) {
+		return 0;
+	}
+
+	@Override
+	public int disconnect(RdmaCmId id) throws IOException {
+		SoftCmId idPriv = (SoftCmId) id;
+		if (!idPriv.isOpen()) {
+			throw new IOException("Trying to disconnect closed ID");
+		}
+		transport.disconnect(idPriv);
+		logger.info("disconnect, id " + id.getPs());
+		return 0;
+	}
+
+	@Override
+	public int destroyEventChannel(RdmaEventChannel cmChannel) throws IOException {
+		logger.info("destroyEventChannel, channel " + cmChannel.getFd());
+		if (!cmChannel.isOpen()) {
+			throw new IOException("Trying to destroy an already destroyed channel.");
+		}
+		cmChannel.close();
+		return 0;
+	}
+
+	@Override
+	public int destroyCmId(RdmaCmId id) throws IOException {
+		logger.info("destroyCmId, id " + id.getPs());
+		SoftCmId idPriv = (SoftCmId) id;
+		if (!idPriv.isOpen()) {
+			throw new IOException("Trying to destroy an already destroyed ID");
+		}
+		idPriv.close();
+		transport.destroy(idPriv);
+		return 0;
+	}
+
+	@Override
+	public int destroyQP(RdmaCmId id) throws IOException {
+		logger.info("destroyQP, id " + id.getPs());
+		SoftCmId idPriv = (SoftCmId) id;
+		if (!idPriv.isOpen()) {
+			throw new IOException("Trying to destroy QP with closed ID.");
+		}
+		SoftIbvQP qp = idPriv.getSoftQp();
+		if (!qp.isOpen()) {
+			throw new IOException("Trying to destroy an already destroyed QP.");
+		}
+		qp.close();
+		qp.flush();
+		if (qp.getSrq() != null) {
+			qp.getSrq().detach(qp);
+		}
+		transport.getContext().removeQP(qp);
+		return 0;
+	}
+
+	@Override
+	public SocketAddress getSrcAddr(RdmaCmId id) throws IOException {
+		return ((SoftCmId) id).getSourceAddress();
+	}
+
+	@Override
+	public SocketAddress getDstAddr(RdmaCmId id) throws IOException {
+		return ((SoftCmId) id).getDestinationAddress();
+	}
+
+	@Override
+	public int destroyEp(RdmaCmId id) throws IOException {
+		logger.info("destroyEp, id " + id.getPs());
+		SoftCmId idPriv = (SoftCmId) id;
+		if (!idPriv.isOpen()) {
+			throw new IOException("Trying to destroy an endpoint with closed ID");
+		}
+		if (idPriv.getQp() != null && idPriv.getQp().isOpen()) {
+			destroyQP(idPriv);
+		}
+		return destroyCmId(idPriv);
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+
+/**
+ * In-process provider, connections only work between endpoints of the same JVM.
+ *
+ * Selected with -Dcom.ibm.disni.rdma.provider=loopback. Meant to exercise and profile the endpoint layer
+ * and the SVC classes without RDMA hardware. See LoopbackTransport for the latency and bandwidth model.
+ */
+public class RdmaProviderLoopback extends RdmaProviderSoft {
+
+	public RdmaProviderLoopback() throws IOException {
+		super(new LoopbackTransport());
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Provider for JVMs running on the same host, data moves through shared memory instead of the NIC.
+ *
+ * Selected with -Dcom.ibm.disni.rdma.provider=shm. Buffers allocated with allocate() live in shared memory,
+ * one-sided operations of peers on such buffers run at memory bandwidth without involving this process.
+ * See ShmTransport for details.
+ */
+public class RdmaProviderShm extends RdmaProviderSoft {
+	private ShmTransport transport;
+
+	public RdmaProviderShm() throws IOException {
+		this(new ShmTransport());
+	}
+
+	private RdmaProviderShm(ShmTransport transport) throws IOException {
+		super(transport);
+		this.transport = transport;
+	}
+
+	/**
+	 * Allocates a direct buffer in shared memory, to be registered with registerMemory() like any other buffer.
+	 */
+	public ByteBuffer allocate(int size) throws IOException {
+		return transport.allocate(size);
+	}
+}
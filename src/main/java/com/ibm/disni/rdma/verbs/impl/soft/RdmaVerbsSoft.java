@@ -0,0 +1,399 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvAh;
+import com.ibm.disni.rdma.verbs.IbvAhAttr;
+import com.ibm.disni.rdma.verbs.IbvAsyncEvent;
+import com.ibm.disni.rdma.verbs.IbvCQ;
+import com.ibm.disni.rdma.verbs.IbvCompChannel;
+import com.ibm.disni.rdma.verbs.IbvContext;
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvMw;
+import com.ibm.disni.rdma.verbs.IbvPd;
+import com.ibm.disni.rdma.verbs.IbvQP;
+import com.ibm.disni.rdma.verbs.IbvRecvWR;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvSrq;
+import com.ibm.disni.rdma.verbs.IbvSrqInitAttr;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.RdmaVerbs;
+import com.ibm.disni.rdma.verbs.SVCBatch;
+import com.ibm.disni.rdma.verbs.SVCDeregMr;
+import com.ibm.disni.rdma.verbs.SVCPollCq;
+import com.ibm.disni.rdma.verbs.SVCPostPoll;
+import com.ibm.disni.rdma.verbs.SVCPostRecv;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+import com.ibm.disni.rdma.verbs.SVCRegMr;
+import com.ibm.disni.rdma.verbs.SVCReqNotify;
+import com.ibm.disni.util.DiSNILogger;
+
+
+public class RdmaVerbsSoft extends RdmaVerbs {
+	private static final Logger logger = DiSNILogger.getLogger();
+
+	private SoftTransport transport;
+
+	private LinkedBlockingQueue<SoftRegMrCall> regList;
+	private LinkedBlockingQueue<SoftDeregMrCall> deregList;
+	private LinkedBlockingQueue<SoftPostSendCall> postSendList;
+	private LinkedBlockingQueue<SoftPostRecvCall> postRecvList;
+	private LinkedBlockingQueue<SoftPollCqCall> pollCqList;
+	private LinkedBlockingQueue<SoftPostPollCall> postPollList;
+	private LinkedBlockingQueue<SoftReqNotifyCall> reqNotifyList;
+	private LinkedBlockingQueue<SoftBatchCall> batchList;
+
+	public RdmaVerbsSoft(SoftTransport transport) {
+		this.transport = transport;
+
+		this.regList = new LinkedBlockingQueue<SoftRegMrCall>();
+		this.deregList = new LinkedBlockingQueue<SoftDeregMrCall>();
+		this.postSendList = new LinkedBlockingQueue<SoftPostSendCall>();
+		this.postRecvList = new LinkedBlockingQueue<SoftPostRecvCall>();
+		this.pollCqList = new LinkedBlockingQueue<SoftPollCqCall>();
+		this.postPollList = new LinkedBlockingQueue<SoftPostPollCall>();
+		this.reqNotifyList = new LinkedBlockingQueue<SoftReqNotifyCall>();
+		this.batchList = new LinkedBlockingQueue<SoftBatchCall>();
+	}
+
+	public IbvPd allocPd(IbvContext context) throws IOException {
+		SoftIbvContext softContext = (SoftIbvContext) context;
+		if (!softContext.isOpen()) {
+			throw new IOException("Trying to allocate PD on closed context.");
+		}
+		SoftIbvPd pd = new SoftIbvPd(context, softContext.nextHandle());
+		logger.info("allocPd, handle " + pd.getHandle());
+		return pd;
+	}
+
+	public IbvCompChannel createCompChannel(IbvContext context) throws IOException {
+		if (!context.isOpen()) {
+			throw new IOException("Trying to create completion channel with closed channel.");
+		}
+		SoftIbvCompChannel channel = new SoftIbvCompChannel(transport.nextFd(), context);
+		logger.info("createCompChannel, fd " + channel.getFd());
+		return channel;
+	}
+
+	public IbvCQ createCQ(IbvContext context, IbvCompChannel compChannel, int ncqe, int comp_vector) throws IOException {
+		SoftIbvContext softContext = (SoftIbvContext) context;
+		if (!softContext.isOpen()) {
+			throw new IOException("Trying to create CQ with closed context.");
+		}
+		if (compChannel != null && !compChannel.isOpen()) {
+			throw new IOException("Trying to create CQ with closed completion channel.");
+		}
+		if (ncqe <= 0) {
+			throw new IOException("Creating CQ failed, invalid size " + ncqe);
+		}
+		SoftIbvCQ cq = new SoftIbvCQ(context, compChannel, ncqe, softContext.nextHandle());
+		logger.info("createCQ, handle " + cq.getHandle() + ", ncqe " + ncqe);
+		return cq;
+	}
+
+	public SVCRegMr regMr(IbvPd pd, ByteBuffer buffer, int access) throws IOException {
+		SoftRegMrCall regMrCall = regList.poll();
+		if (regMrCall == null) {
+			regMrCall = new SoftRegMrCall(this);
+		}
+		regMrCall.set(pd, buffer, access);
+		return regMrCall;
+	}
+
+	public SVCRegMr regMr(IbvPd pd, long address, int length, int access) throws IOException {
+		SoftRegMrCall regMrCall = regList.poll();
+		if (regMrCall == null) {
+			regMrCall = new SoftRegMrCall(this);
+		}
+		regMrCall.set(pd, address, length, access);
+		return regMrCall;
+	}
+
+	/*
+	 * Soft providers access registered memory through plain loads and stores,
+	 * so any operation works on pageable memory.
+	 */
+	public int queryOdpSupport(IbvContext context) {
+		return IbvContext.IBV_ODP_SUPPORT_SEND | IbvContext.IBV_ODP_SUPPORT_RECV | IbvContext.IBV_ODP_SUPPORT_WRITE | IbvContext.IBV_ODP_SUPPORT_READ | IbvContext.IBV_ODP_SUPPORT_ATOMIC;
+	}
+
+	public int expPrefetchMr(IbvMr ibvMr, long address, int length) {
+		return 0;
+	}
+
+	public SVCDeregMr deregMr(IbvMr mr) throws IOException {
+		SoftDeregMrCall deregMrCall = deregList.poll();
+		if (deregMrCall == null) {
+			deregMrCall = new SoftDeregMrCall(this);
+		}
+		deregMrCall.set(mr);
+		return deregMrCall;
+	}
+
+	public SVCPostSend postSend(IbvQP qp, List<IbvSendWR> wrList, List<IbvSendWR> badwrList) throws IOException {
+		SoftPostSendCall postSendCall = postSendList.poll();
+		if (postSendCall == null) {
+			postSendCall = new SoftPostSendCall(this);
+		}
+		postSendCall.set(qp, wrList);
+		return postSendCall;
+	}
+
+	public SVCPostRecv postRecv(IbvQP qp, List<IbvRecvWR> wrList, List<IbvRecvWR> badwrList) throws IOException {
+		SoftPostRecvCall postRecvCall = postRecvList.poll();
+		if (postRecvCall == null) {
+			postRecvCall = new SoftPostRecvCall(this);
+		}
+		postRecvCall.set(qp, wrList);
+		return postRecvCall;
+	}
+
+	public SVCBatch batch() throws IOException {
+		SoftBatchCall batchCall = batchList.poll();
+		if (batchCall == null) {
+			batchCall = new SoftBatchCall(this);
+		}
+		batchCall.set();
+		return batchCall;
+	}
+
+	public boolean getCqEvent(IbvCompChannel compChannel, IbvCQ cq, int timeout) throws IOException {
+		SoftIbvCompChannel softChannel = (SoftIbvCompChannel) compChannel;
+		if (!softChannel.isOpen()) {
+			throw new IOException("Trying to get CQ event on closed completion channel.");
+		}
+		return softChannel.getEvent(timeout) != null;
+	}
+
+	public SVCPollCq pollCQ(IbvCQ cq, IbvWC[] wcList, int ne) throws IOException {
+		SoftPollCqCall pollCqCall = pollCqList.poll();
+		if (pollCqCall == null) {
+			pollCqCall = new SoftPollCqCall(this);
+		}
+		pollCqCall.set(cq, wcList, ne);
+		return pollCqCall;
+	}
+
+	public SVCPollCq pollCQ(IbvCQ cq, int ne) throws IOException {
+		SoftPollCqCall pollCqCall = pollCqList.poll();
+		if (pollCqCall == null) {
+			pollCqCall = new SoftPollCqCall(this);
+		}
+		pollCqCall.set(cq, null, ne);
+		return pollCqCall;
+	}
+
+	public SVCPostPoll postPoll(SVCPostSend postSend, IbvCQ cq, IbvWC[] wcList, int ne, int spins) throws IOException {
+		SoftPostPollCall postPollCall = postPollList.poll();
+		if (postPollCall == null) {
+			postPollCall = new SoftPostPollCall(this);
+		}
+		postPollCall.set(postSend, cq, wcList, ne, spins);
+		return postPollCall;
+	}
+
+	public SVCReqNotify reqNotifyCQ(IbvCQ cq, boolean solicited_only) throws IOException {
+		SoftReqNotifyCall reqNotifyCall = reqNotifyList.poll();
+		if (reqNotifyCall == null) {
+			reqNotifyCall = new SoftReqNotifyCall(this);
+		}
+		reqNotifyCall.set(cq, solicited_only);
+		return reqNotifyCall;
+	}
+
+	public int ackCqEvents(IbvCQ cq, int nevents) throws IOException {
+		if (!cq.isOpen()) {
+			throw new IOException("Trying to acknowledge events on closed CQ.");
+		}
+		return 0;
+	}
+
+	public int destroyCompChannel(IbvCompChannel compChannel) throws IOException {
+		logger.info("destroyCompChannel, compChannel " + compChannel.getFd());
+		if (!compChannel.isOpen()) {
+			throw new IOException("Trying to destroy an already destroyed completion channel.");
+		}
+		compChannel.close();
+		return 0;
+	}
+
+	public IbvAh createAH(IbvPd pd, IbvAhAttr attr) throws IOException {
+		if (!pd.isOpen()) {
+			throw new IOException("Trying to create address handle with closed PD.");
+		}
+		logger.info("createAH, pd " + pd.getHandle() + ", dlid " + attr.getDlid());
+		return new IbvAh(pd, attr);
+	}
+
+	public int destroyAH(IbvAh ah) throws IOException {
+		logger.info("destroyAH");
+		if (!ah.isOpen()) {
+			throw new IOException("Trying to destroy an already destroyed address handle.");
+		}
+		ah.close();
+		return 0;
+	}
+
+	public IbvMw allocMw(IbvPd pd, int type) throws IOException {
+		if (!pd.isOpen()) {
+			throw new IOException("Trying to allocate memory window with closed PD.");
+		}
+		SoftIbvContext softContext = (SoftIbvContext) pd.getContext();
+		int handle = softContext.nextHandle();
+		SoftIbvMw mw = new SoftIbvMw(softContext, (SoftIbvPd) pd, softContext.nextKey(handle), handle, type);
+		logger.info("allocMw, handle " + handle + ", type " + type + ", rkey " + mw.getRkey());
+		return mw;
+	}
+
+	public int deallocMw(IbvMw mw) throws IOException {
+		logger.info("deallocMw, handle " + mw.getHandle());
+		if (!mw.isOpen()) {
+			throw new IOException("Trying to deallocate an already deallocated memory window.");
+		}
+		mw.close();
+		return 0;
+	}
+
+	/*
+	 * Soft devices have no subnet, every port reports LID 0 and an all-zero GID.
+	 */
+	public int queryLid(IbvContext context, int port) throws IOException {
+		if (!context.isOpen()) {
+			throw new IOException("Trying to query port on closed context.");
+		}
+		return 0;
+	}
+
+	public byte[] queryGid(IbvContext context, int port, int index) throws IOException {
+		if (!context.isOpen()) {
+			throw new IOException("Trying to query GID on closed context.");
+		}
+		return new byte[16];
+	}
+
+	public IbvSrq createSRQ(IbvPd pd, IbvSrqInitAttr attr) throws IOException {
+		if (!pd.isOpen()) {
+			throw new IOException("Trying to create SRQ with closed PD.");
+		}
+		if (attr.getMax_wr() <= 0) {
+			throw new IOException("Creating SRQ failed, invalid size " + attr.getMax_wr());
+		}
+		SoftIbvSrq srq = new SoftIbvSrq((SoftIbvContext) pd.getContext(), pd, attr);
+		logger.info("createSRQ, max_wr " + attr.getMax_wr() + ", max_sge " + attr.getMax_sge());
+		return srq;
+	}
+
+	public int modifySRQ(IbvSrq srq, int srqLimit) throws IOException {
+		if (!srq.isOpen()) {
+			throw new IOException("Trying to modify closed SRQ.");
+		}
+		if (srqLimit > srq.getMaxWr()) {
+			return -1;
+		}
+		((SoftIbvSrq) srq).arm(srqLimit);
+		return 0;
+	}
+
+	public SVCPostRecv postSrqRecv(IbvSrq srq, List<IbvRecvWR> wrList, List<IbvRecvWR> badwrList) throws IOException {
+		SoftPostRecvCall postRecvCall = postRecvList.poll();
+		if (postRecvCall == null) {
+			postRecvCall = new SoftPostRecvCall(this);
+		}
+		postRecvCall.set(srq, wrList);
+		return postRecvCall;
+	}
+
+	public int destroySRQ(IbvSrq srq) throws IOException {
+		logger.info("destroySRQ");
+		if (!srq.isOpen()) {
+			throw new IOException("Trying to destroy an already destroyed SRQ.");
+		}
+		srq.close();
+		return 0;
+	}
+
+	public IbvAsyncEvent getAsyncEvent(IbvContext context, int timeout) throws IOException {
+		if (!context.isOpen()) {
+			throw new IOException("Trying to get async event on closed context.");
+		}
+		return ((SoftIbvContext) context).pollAsyncEvent(timeout);
+	}
+
+	public int deallocPd(IbvPd pd) throws IOException {
+		logger.info("deallocPd, pd " + pd.getHandle());
+		if (!pd.isOpen()) {
+			throw new IOException("Trying to deallocate a closed protection domain.");
+		}
+		pd.close();
+		return 0;
+	}
+
+	public int destroyCQ(IbvCQ cq) throws IOException {
+		logger.info("destroyCQ, cq " + cq.getHandle());
+		if (!cq.isOpen()) {
+			throw new IOException("Trying to destroy already destroyed CQ.");
+		}
+		cq.close();
+		return 0;
+	}
+
+	//--------------------------------------
+
+	void free(SoftRegMrCall regMrCall) {
+		this.regList.add(regMrCall);
+	}
+
+	void free(SoftDeregMrCall deregMrCall) {
+		this.deregList.add(deregMrCall);
+	}
+
+	void free(SoftPostSendCall postSendCall) {
+		this.postSendList.add(postSendCall);
+	}
+
+	void free(SoftPostRecvCall postRecvCall) {
+		this.postRecvList.add(postRecvCall);
+	}
+
+	void free(SoftPollCqCall pollCqCall) {
+		this.pollCqList.add(pollCqCall);
+	}
+
+	void free(SoftPostPollCall postPollCall) {
+		this.postPollList.add(postPollCall);
+	}
+
+	void free(SoftReqNotifyCall reqNotifyCall) {
+		this.reqNotifyList.add(reqNotifyCall);
+	}
+
+	void free(SoftBatchCall batchCall) {
+		this.batchList.add(batchCall);
+	}
+}
@@ -0,0 +1,531 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+
+/**
+ * Data path of a shared memory connection.
+ *
+ * Records on the rings carry a fixed header followed by an optional payload. Requests (SEND, WRITE, READ, ATOMIC and the
+ * immediate of a WRITE_WITH_IMM already placed by the initiator) are identified by the send queue slot of the
+ * initiator and answered with an ACK carrying the completion status, for READ the data and for ATOMIC the
+ * original value of the target word in the address field.
+ */
+class ShmConnection {
+	private static final int REC_TYPE = 4;
+	private static final int REC_SEQ = 8;
+	private static final int REC_STATUS = 12;
+	private static final int REC_OPCODE = 16;
+	private static final int REC_IMM = 20;
+	private static final int REC_FLAGS = 24;
+	private static final int REC_RKEY = 28;
+	private static final int REC_RADDR = 32;
+	private static final int REC_LENGTH = 40;
+	private static final int REC_HEADER = 48;
+
+	private static final int SEND = 1;
+	private static final int WRITE = 2;
+	private static final int WRITE_IMM = 3;
+	private static final int READ = 4;
+	private static final int ACK = 5;
+	private static final int ATOMIC = 6;
+
+	private static final int ATOMIC_COMPARE_ADD = 0;
+	private static final int ATOMIC_SWAP = 8;
+	private static final int ATOMIC_PAYLOAD = 16;
+
+	private static final int MAX_BATCH = 64;
+
+	private SocketConnection connection;
+	private SoftIbvQP qp;
+	private ShmSegment rings;
+	private SoftMemory ring;
+	private ShmRing in;
+	private ShmRing out;
+	private ReentrantLock outLock;
+	private String peerToken;
+	private int peerPd;
+	private int peerQpNum;
+	private ShmSegment peerTable;
+	private ShmSegment[] peerSegments;
+	private AtomicIntegerArray waiting;
+	private int[] requestType;
+	private SoftSgl[] readSgl;
+	private AtomicInteger pendingRdma;
+	private ConcurrentLinkedQueue<Reply> backlog;
+	private ShmMessage message;
+	private volatile boolean closed;
+
+	ShmConnection(SocketConnection connection, ShmSegment rings, ShmRing in, ShmRing out, String peerToken, int peerPd, ShmSegment peerTable) {
+		this.connection = connection;
+		this.qp = connection.getQp();
+		this.rings = rings;
+		this.ring = rings.getMemory();
+		this.in = in;
+		this.out = out;
+		this.outLock = new ReentrantLock();
+		this.peerToken = peerToken;
+		this.peerPd = peerPd;
+		this.peerQpNum = connection.getPeerQpNum();
+		this.peerTable = peerTable;
+		this.peerSegments = new ShmSegment[0];
+		this.waiting = new AtomicIntegerArray(qp.getMaxSendWr());
+		this.requestType = new int[qp.getMaxSendWr()];
+		this.readSgl = new SoftSgl[qp.getMaxSendWr()];
+		this.pendingRdma = new AtomicInteger(0);
+		this.backlog = new ConcurrentLinkedQueue<Reply>();
+		this.message = new ShmMessage(this);
+		this.closed = false;
+	}
+
+	//------------ initiator
+
+	void postSend(int slot, SoftSendWR wr) throws IOException {
+		int opcode = wr.getOpcode();
+		int flags = wr.getSend_flags();
+		SoftSgl local = wr.gather();
+		boolean atomic = SoftAtomics.isAtomic(opcode);
+		if (!qp.checkLocal(local, opcode == IbvSendWR.IBV_WR_RDMA_READ || atomic)) {
+			qp.completeSend(slot, SoftIbvQP.WC_LOC_PROT_ERR, 0);
+			return;
+		}
+		int length = local.total();
+		long remoteAddr = atomic ? wr.getAtomic().getRemote_addr() : wr.getRdma().getRemote_addr();
+		int rkey = atomic ? wr.getAtomic().getRkey() : wr.getRdma().getRkey();
+		switch (opcode) {
+		case IbvSendWR.IBV_WR_SEND:
+		case IbvSendWR.IBV_WR_SEND_WITH_IMM:
+			request(slot, SEND, opcode, wr.getImm_data(), flags, 0, 0, length, local);
+			break;
+		case IbvSendWR.IBV_WR_RDMA_WRITE:
+		case IbvSendWR.IBV_WR_RDMA_WRITE_WITH_IMM:
+			long target = pendingRdma.get() == 0 ? translate(rkey, remoteAddr, length, IbvMr.IBV_ACCESS_REMOTE_WRITE) : 0;
+			if (target < 0) {
+				qp.completeSend(slot, SoftIbvQP.WC_REM_ACCESS_ERR, 0);
+			} else if (target == 0) {
+				pendingRdma.incrementAndGet();
+				request(slot, WRITE, opcode, wr.getImm_data(), flags, rkey, remoteAddr, length, local);
+			} else {
+				local.copyTo(peerMemory(target), target);
+				if (opcode == IbvSendWR.IBV_WR_RDMA_WRITE) {
+					qp.completeSend(slot, SoftIbvQP.WC_SUCCESS, length);
+				} else {
+					request(slot, WRITE_IMM, opcode, wr.getImm_data(), flags, 0, 0, length, null);
+				}
+			}
+			break;
+		case IbvSendWR.IBV_WR_RDMA_READ:
+			long source = pendingRdma.get() == 0 ? translate(rkey, remoteAddr, length, IbvMr.IBV_ACCESS_REMOTE_READ) : 0;
+			if (source < 0) {
+				qp.completeSend(slot, SoftIbvQP.WC_REM_ACCESS_ERR, 0);
+			} else if (source == 0) {
+				pendingRdma.incrementAndGet();
+				readSgl[slot] = local.copy();
+				request(slot, READ, opcode, 0, flags, rkey, remoteAddr, length, null);
+			} else {
+				local.copyFrom(peerMemory(source), source, length);
+				qp.completeSend(slot, SoftIbvQP.WC_SUCCESS, length);
+			}
+			break;
+		case IbvSendWR.IBV_WR_ATOMIC_CMP_AND_SWP:
+		case IbvSendWR.IBV_WR_ATOMIC_FETCH_AND_ADD:
+			if (!SoftAtomics.checkLocal(local)) {
+				qp.completeSend(slot, SoftIbvQP.WC_LOC_LEN_ERR, 0);
+				break;
+			}
+			if (!SoftAtomics.isAligned(remoteAddr)) {
+				qp.completeSend(slot, SoftIbvQP.WC_REM_INV_REQ_ERR, 0);
+				break;
+			}
+			pendingRdma.incrementAndGet();
+			readSgl[slot] = local.copy();
+			request(slot, ATOMIC, opcode, 0, flags, rkey, remoteAddr, SoftAtomics.LENGTH, null, wr.getAtomic().getCompare_add(), wr.getAtomic().getSwap());
+			break;
+		default:
+			qp.completeSend(slot, SoftIbvQP.WC_LOC_QP_OP_ERR, 0);
+		}
+	}
+
+	/*
+	 * Writes a request to the outbound ring, waits for space if necessary. The peer never waits
+	 * for this process while serving its inbound ring, so the wait always ends.
+	 */
+	private void request(int slot, int type, int opcode, int imm, int flags, int rkey, long remoteAddr, int length, SoftSgl payload) {
+		request(slot, type, opcode, imm, flags, rkey, remoteAddr, length, payload, 0, 0);
+	}
+
+	private void request(int slot, int type, int opcode, int imm, int flags, int rkey, long remoteAddr, int length, SoftSgl payload, long compareAdd, long swap) {
+		int recordLength = ShmRing.align(REC_HEADER + (payload != null ? length : (type == ATOMIC ? ATOMIC_PAYLOAD : 0)));
+		requestType[slot] = type;
+		if (recordLength > out.getCapacity() || (type == READ && ShmRing.align(REC_HEADER + length) > out.getCapacity())) {
+			finishRdma(slot, type);
+			qp.completeSend(slot, SoftIbvQP.WC_LOC_LEN_ERR, 0);
+			return;
+		}
+		waiting.set(slot, 1);
+		outLock.lock();
+		try {
+			long record;
+			while ((record = out.reserve(recordLength)) == 0) {
+				if (closed) {
+					break;
+				}
+				Thread.yield();
+			}
+			if (record != 0) {
+				header(record, type, slot, 0, opcode, imm, flags, rkey, remoteAddr, length);
+				if (payload != null) {
+					payload.copyTo(ring, record + REC_HEADER);
+				} else if (type == ATOMIC) {
+					ring.putLong(record + REC_HEADER + ATOMIC_COMPARE_ADD, compareAdd);
+					ring.putLong(record + REC_HEADER + ATOMIC_SWAP, swap);
+				}
+				out.commit(record);
+			}
+		} finally {
+			outLock.unlock();
+		}
+		if (closed) {
+			abort(slot);
+		}
+	}
+
+	/*
+	 * Translates a remote address into the local mapping of the peer segment. Returns 0 if the
+	 * memory region is not published in the table of the peer, -1 if the access is not permitted.
+	 */
+	private long translate(int rkey, long address, int length, int access) {
+		SoftMemory table = peerTable.getMemory();
+		for (int probe = 0; probe < ShmTransport.TABLE_PROBES; probe++) {
+			long entry = ShmTransport.entry(peerTable.getAddress(), rkey, probe);
+			if (table.getIntVolatile(entry + ShmTransport.ENTRY_RKEY) != rkey) {
+				continue;
+			}
+			int rights = table.getInt(entry + ShmTransport.ENTRY_ACCESS);
+			long base = table.getLong(entry + ShmTransport.ENTRY_ADDR);
+			int size = table.getInt(entry + ShmTransport.ENTRY_LENGTH);
+			int segment = table.getInt(entry + ShmTransport.ENTRY_SEGMENT);
+			long offset = table.getLong(entry + ShmTransport.ENTRY_OFFSET);
+			int pd = table.getInt(entry + ShmTransport.ENTRY_PD);
+			if (table.getIntVolatile(entry + ShmTransport.ENTRY_RKEY) != rkey) {
+				return 0;
+			}
+			if (pd != peerPd || (rights & access) != access || address < base || address + length > base + size) {
+				return -1;
+			}
+			try {
+				return peerSegment(segment).getAddress() + offset + (address - base);
+			} catch (IOException e) {
+				return 0;
+			}
+		}
+		return 0;
+	}
+
+	private synchronized ShmSegment peerSegment(int index) throws IOException {
+		if (index >= peerSegments.length) {
+			ShmSegment[] _peerSegments = new ShmSegment[index + 1];
+			System.arraycopy(peerSegments, 0, _peerSegments, 0, peerSegments.length);
+			peerSegments = _peerSegments;
+		}
+		if (peerSegments[index] == null) {
+			peerSegments[index] = ShmSegment.open(peerToken + "-seg-" + index);
+		}
+		return peerSegments[index];
+	}
+
+	/*
+	 * The memory of the peer segment holding a translated address.
+	 */
+	private synchronized SoftMemory peerMemory(long address) {
+		for (ShmSegment segment : peerSegments) {
+			if (segment != null && segment.contains(address, 1)) {
+				return segment.getMemory();
+			}
+		}
+		return SoftMemory.PROCESS;
+	}
+
+	private void finishRdma(int slot, int type) {
+		if (type == WRITE || type == READ || type == ATOMIC) {
+			pendingRdma.decrementAndGet();
+			readSgl[slot] = null;
+		}
+	}
+
+	private void abort(int slot) {
+		if (waiting.compareAndSet(slot, 1, 0)) {
+			finishRdma(slot, requestType[slot]);
+			qp.completeSend(slot, SoftIbvQP.WC_WR_FLUSH_ERR, 0);
+		}
+	}
+
+	//------------ target
+
+	/**
+	 * Serves the inbound ring and deferred replies, returns whether any work was done.
+	 */
+	boolean progress() {
+		boolean active = false;
+		if (!backlog.isEmpty()) {
+			active = flushBacklog();
+		}
+		for (int i = 0; i < MAX_BATCH; i++) {
+			long record = in.peek();
+			if (record == 0) {
+				break;
+			}
+			dispatch(record);
+			in.release(record);
+			active = true;
+		}
+		return active;
+	}
+
+	private void dispatch(long record) {
+		int type = ring.getInt(record + REC_TYPE);
+		int seq = ring.getInt(record + REC_SEQ);
+		int opcode = ring.getInt(record + REC_OPCODE);
+		int imm = ring.getInt(record + REC_IMM);
+		int flags = ring.getInt(record + REC_FLAGS);
+		int rkey = ring.getInt(record + REC_RKEY);
+		long remoteAddr = ring.getLong(record + REC_RADDR);
+		int length = ring.getInt(record + REC_LENGTH);
+		boolean solicited = (flags & IbvSendWR.IBV_SEND_SOLICITED) != 0;
+		SoftIbvMr mr;
+		switch (type) {
+		case SEND:
+			message.prepare(seq, opcode, imm, solicited, peerQpNum, length, ring, record + REC_HEADER);
+			qp.deliver(message);
+			break;
+		case WRITE_IMM:
+			message.prepare(seq, opcode, imm, solicited, peerQpNum, length, null, 0);
+			qp.deliver(message);
+			break;
+		case WRITE:
+			mr = qp.remoteRegion(rkey, remoteAddr, length, IbvMr.IBV_ACCESS_REMOTE_WRITE);
+			if (mr == null) {
+				reply(seq, SoftIbvQP.WC_REM_ACCESS_ERR, 0, null, 0);
+				break;
+			}
+			SoftMemory.copy(ring, record + REC_HEADER, mr.getMemory(), remoteAddr, length);
+			if (opcode == IbvSendWR.IBV_WR_RDMA_WRITE) {
+				reply(seq, SoftIbvQP.WC_SUCCESS, length, null, 0);
+			} else {
+				message.prepare(seq, opcode, imm, solicited, peerQpNum, length, null, 0);
+				qp.deliver(message);
+			}
+			break;
+		case READ:
+			mr = qp.remoteRegion(rkey, remoteAddr, length, IbvMr.IBV_ACCESS_REMOTE_READ);
+			if (mr == null) {
+				reply(seq, SoftIbvQP.WC_REM_ACCESS_ERR, 0, null, 0);
+			} else {
+				reply(seq, SoftIbvQP.WC_SUCCESS, length, mr.getMemory(), remoteAddr);
+			}
+			break;
+		case ATOMIC:
+			mr = SoftAtomics.isAligned(remoteAddr) ? qp.remoteRegion(rkey, remoteAddr, SoftAtomics.LENGTH, IbvMr.IBV_ACCESS_REMOTE_ATOMIC) : null;
+			if (!SoftAtomics.isAligned(remoteAddr)) {
+				reply(seq, SoftIbvQP.WC_REM_INV_REQ_ERR, 0, null, 0);
+			} else if (mr == null) {
+				reply(seq, SoftIbvQP.WC_REM_ACCESS_ERR, 0, null, 0);
+			} else {
+				long value = SoftAtomics.execute(opcode, mr.getMemory(), remoteAddr, ring.getLong(record + REC_HEADER + ATOMIC_COMPARE_ADD), ring.getLong(record + REC_HEADER + ATOMIC_SWAP));
+				reply(seq, SoftIbvQP.WC_SUCCESS, SoftAtomics.LENGTH, null, 0, value);
+			}
+			break;
+		case ACK:
+			acknowledged(seq, ring.getInt(record + REC_STATUS), length, record + REC_HEADER, remoteAddr);
+			break;
+		}
+	}
+
+	private void acknowledged(int slot, int status, int length, long data, long value) {
+		if (!waiting.compareAndSet(slot, 1, 0)) {
+			return;
+		}
+		SoftSgl sgl = readSgl[slot];
+		if (sgl != null && status == SoftIbvQP.WC_SUCCESS) {
+			if (requestType[slot] == ATOMIC) {
+				SoftAtomics.complete(sgl, value);
+			} else {
+				sgl.copyFrom(ring, data, length);
+			}
+		}
+		finishRdma(slot, requestType[slot]);
+		qp.completeSend(slot, status, length);
+	}
+
+	/**
+	 * Answers a request of the peer. Replies are written if the outbound ring is available right away, and deferred otherwise.
+	 *
+	 * @param memory the memory holding the data returned for READ, null for none.
+	 * @param data address of the data returned for READ.
+	 */
+	void reply(int seq, int status, int length, SoftMemory memory, long data) {
+		reply(seq, status, length, memory, data, 0);
+	}
+
+	/**
+	 * Answers a request of the peer with a value carried in the record header, used for the original value of an atomic.
+	 */
+	void reply(int seq, int status, int length, SoftMemory memory, long data, long value) {
+		if (closed) {
+			return;
+		}
+		if (backlog.isEmpty() && tryReply(seq, status, length, memory, data, value)) {
+			return;
+		}
+		backlog.add(new Reply(seq, status, length, memory, data, value));
+	}
+
+	private boolean tryReply(int seq, int status, int length, SoftMemory memory, long data, long value) {
+		if (!outLock.tryLock()) {
+			return false;
+		}
+		try {
+			long record = out.reserve(ShmRing.align(REC_HEADER + (memory != null ? length : 0)));
+			if (record == 0) {
+				return false;
+			}
+			header(record, ACK, seq, status, 0, 0, 0, 0, value, length);
+			if (memory != null) {
+				SoftMemory.copy(memory, data, ring, record + REC_HEADER, length);
+			}
+			out.commit(record);
+			return true;
+		} finally {
+			outLock.unlock();
+		}
+	}
+
+	private boolean flushBacklog() {
+		boolean active = false;
+		Reply reply;
+		while ((reply = backlog.peek()) != null) {
+			if (!tryReply(reply.seq, reply.status, reply.length, reply.memory, reply.data, reply.value)) {
+				break;
+			}
+			backlog.poll();
+			active = true;
+		}
+		return active;
+	}
+
+	private void header(long record, int type, int seq, int status, int opcode, int imm, int flags, int rkey, long remoteAddr, int length) {
+		ring.putInt(record + REC_TYPE, type);
+		ring.putInt(record + REC_SEQ, seq);
+		ring.putInt(record + REC_STATUS, status);
+		ring.putInt(record + REC_OPCODE, opcode);
+		ring.putInt(record + REC_IMM, imm);
+		ring.putInt(record + REC_FLAGS, flags);
+		ring.putInt(record + REC_RKEY, rkey);
+		ring.putLong(record + REC_RADDR, remoteAddr);
+		ring.putInt(record + REC_LENGTH, length);
+	}
+
+	/**
+	 * Stops the data path, requests still waiting for an answer are flushed.
+	 */
+	void close() {
+		this.closed = true;
+		backlog.clear();
+		for (int slot = 0; slot < waiting.length(); slot++) {
+			abort(slot);
+		}
+		rings.unlink();
+	}
+
+	private static class Reply {
+		private int seq;
+		private int status;
+		private int length;
+		private SoftMemory memory;
+		private long data;
+		private long value;
+
+		Reply(int seq, int status, int length, SoftMemory memory, long data, long value) {
+			this.seq = seq;
+			this.status = status;
+			this.length = length;
+			this.memory = memory;
+			this.data = data;
+			this.value = value;
+		}
+	}
+
+	/*
+	 * Inbound message, the payload points into the inbound ring until the message is detached.
+	 */
+	private static class ShmMessage extends SoftMessage {
+		private ShmConnection connection;
+		private int seq;
+		private SoftSgl sgl;
+		private ByteBuffer buffer;
+
+		ShmMessage(ShmConnection connection) {
+			this.connection = connection;
+			this.sgl = new SoftSgl(1);
+			this.buffer = null;
+		}
+
+		/*
+		 * @param memory the memory holding the payload, null for none.
+		 */
+		void prepare(int seq, int opcode, int imm, boolean solicited, int srcQp, int length, SoftMemory memory, long data) {
+			this.seq = seq;
+			sgl.clear();
+			if (memory != null) {
+				sgl.add(data, length, 0, memory);
+			}
+			set(opcode, imm, solicited, srcQp, length, memory != null ? sgl : null);
+		}
+
+		@Override
+		protected SoftMessage detach() {
+			ShmMessage msg = new ShmMessage(connection);
+			SoftMemory memory = null;
+			if (payload != null) {
+				msg.buffer = ByteBuffer.allocateDirect(Math.max(length, 1));
+				payload.copyTo(msg.buffer);
+				memory = SoftMemory.wrap(msg.buffer);
+			}
+			msg.prepare(seq, opcode, immData, solicited, srcQp, length, memory, memory != null ? memory.getAddress() : 0);
+			return msg;
+		}
+
+		@Override
+		protected void completed(int status) {
+			connection.reply(seq, status, status == SoftIbvQP.WC_SUCCESS ? length : 0, null, 0);
+		}
+	}
+}
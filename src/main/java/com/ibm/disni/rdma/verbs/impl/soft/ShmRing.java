@@ -0,0 +1,142 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+/**
+ * Single producer, single consumer ring of variable sized records in shared memory.
+ *
+ * The consumer position is stored at offset 0, the producer position at offset 64, records start at offset 128.
+ * Each record starts with its length and type. Records are 8 byte aligned and never wrap around the end of the ring,
+ * the remainder of the ring is skipped with a padding record instead. Producers serialize on a lock of their own.
+ */
+public class ShmRing {
+	public static final int HEADER_SIZE = 128;
+	private static final int TAIL_OFFSET = 64;
+	private static final int PAD = 0;
+
+	private SoftMemory memory;
+	private long headAddress;
+	private long tailAddress;
+	private long data;
+	private int capacity;
+	private long mask;
+	private long head;
+	private long tail;
+	private long headCache;
+	private long tailCache;
+
+	/**
+	 * @param memory the shared memory holding the ring.
+	 * @param address start of the ring in shared memory, the ring occupies size(capacity) bytes.
+	 * @param capacity capacity in bytes, must be a power of two.
+	 */
+	ShmRing(SoftMemory memory, long address, int capacity) {
+		this.memory = memory;
+		this.headAddress = address;
+		this.tailAddress = address + TAIL_OFFSET;
+		this.data = address + HEADER_SIZE;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.head = memory.getLongVolatile(headAddress);
+		this.tail = memory.getLongVolatile(tailAddress);
+		this.headCache = head;
+		this.tailCache = tail;
+	}
+
+	public static int size(int capacity) {
+		return HEADER_SIZE + capacity;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public static int align(int length) {
+		return (length + 7) & ~7;
+	}
+
+	//------------ producer
+
+	/**
+	 * Returns the address of a record with the given (aligned) length, or 0 if the ring is full.
+	 * The record has to be published with commit() before the next call.
+	 */
+	public long reserve(int length) {
+		int position = (int) (tail & mask);
+		int contiguous = capacity - position;
+		if (contiguous < length) {
+			if (!available(contiguous)) {
+				return 0;
+			}
+			memory.putInt(data + position, contiguous);
+			memory.putInt(data + position + 4, PAD);
+			tail += contiguous;
+			memory.putLongOrdered(tailAddress, tail);
+			position = 0;
+		}
+		if (!available(length)) {
+			return 0;
+		}
+		memory.putInt(data + position, length);
+		return data + position;
+	}
+
+	public void commit(long record) {
+		tail += memory.getInt(record);
+		memory.putLongOrdered(tailAddress, tail);
+	}
+
+	private boolean available(int length) {
+		if (tail + length - headCache <= capacity) {
+			return true;
+		}
+		headCache = memory.getLongVolatile(headAddress);
+		return tail + length - headCache <= capacity;
+	}
+
+	//------------ consumer
+
+	/**
+	 * Returns the address of the next record, or 0 if the ring is empty. The record stays valid until release() is called.
+	 */
+	public long peek() {
+		while (true) {
+			if (head == tailCache) {
+				tailCache = memory.getLongVolatile(tailAddress);
+				if (head == tailCache) {
+					return 0;
+				}
+			}
+			long record = data + (head & mask);
+			if (memory.getInt(record + 4) != PAD) {
+				return record;
+			}
+			head += memory.getInt(record);
+			memory.putLongOrdered(headAddress, head);
+		}
+	}
+
+	public void release(long record) {
+		head += memory.getInt(record);
+		memory.putLongOrdered(headAddress, head);
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file in the shared memory file system mapped into the address space of the JVM.
+ */
+public class ShmSegment {
+	public static final String DIRECTORY_PROPERTY = "com.ibm.disni.rdma.shm.dir";
+
+	private String name;
+	private File file;
+	private MappedByteBuffer buffer;
+	private SoftMemory memory;
+	private long address;
+	private int size;
+
+	private ShmSegment(String name, File file, MappedByteBuffer buffer) {
+		this.name = name;
+		this.file = file;
+		this.buffer = buffer;
+		this.memory = SoftMemory.wrap(buffer);
+		this.address = memory.getAddress();
+		this.size = buffer.capacity();
+	}
+
+	/**
+	 * Creates and maps a new zero-filled segment.
+	 */
+	public static ShmSegment create(String name, int size) throws IOException {
+		File file = new File(directory(), name);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(size);
+			return new ShmSegment(name, file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Maps an existing segment created by another process.
+	 */
+	public static ShmSegment open(String name) throws IOException {
+		File file = new File(directory(), name);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			return new ShmSegment(name, file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static File directory() {
+		String directory = System.getProperty(DIRECTORY_PROPERTY);
+		if (directory == null) {
+			directory = new File("/dev/shm").isDirectory() ? "/dev/shm" : System.getProperty("java.io.tmpdir");
+		}
+		return new File(directory);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public MappedByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	SoftMemory getMemory() {
+		return memory;
+	}
+
+	public long getAddress() {
+		return address;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public boolean contains(long start, int length) {
+		return start >= address && start + length <= address + size;
+	}
+
+	/**
+	 * Removes the file of this segment, existing mappings stay valid.
+	 */
+	public void unlink() {
+		file.delete();
+	}
+
+	/**
+	 * Removes the file of this segment when the JVM exits.
+	 */
+	public void unlinkOnExit() {
+		file.deleteOnExit();
+	}
+}
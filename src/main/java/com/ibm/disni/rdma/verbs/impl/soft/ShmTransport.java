@@ -0,0 +1,287 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.util.DiSNILogger;
+
+/**
+ * Connects queue pairs of JVMs running on the same host through shared memory.
+ *
+ * Connections are established over TCP, the data path uses a pair of rings in a shared memory file per connection.
+ * Memory allocated with allocate() lives in shared segments of this process. Registered memory regions inside those
+ * segments are published in a table in shared memory, RDMA read and write operations targeting them are executed
+ * by the initiator with a plain memory copy, without involving the target process. Operations on any other memory,
+ * all sends and all atomics travel through the rings and are served by a progress thread at the target.
+ *
+ * 'com.ibm.disni.rdma.shm.ringsize' sets the capacity of a ring in bytes, which is also the upper bound for
+ * messages and for RDMA operations not targeting shared segments. 'com.ibm.disni.rdma.shm.segmentsize' sets the
+ * size of the segments used by allocate().
+ */
+public class ShmTransport extends SocketCmTransport {
+	private static final Logger logger = DiSNILogger.getLogger();
+
+	public static final String RING_SIZE_PROPERTY = "com.ibm.disni.rdma.shm.ringsize";
+	public static final String SEGMENT_SIZE_PROPERTY = "com.ibm.disni.rdma.shm.segmentsize";
+
+	static final int TABLE_ENTRIES = 16384;
+	static final int TABLE_PROBES = 8;
+	static final int ENTRY_SIZE = 40;
+	static final int ENTRY_RKEY = 0;
+	static final int ENTRY_ACCESS = 4;
+	static final int ENTRY_ADDR = 8;
+	static final int ENTRY_LENGTH = 16;
+	static final int ENTRY_SEGMENT = 20;
+	static final int ENTRY_OFFSET = 24;
+	static final int ENTRY_PD = 32;
+
+	private static final int SEGMENT_ALIGNMENT = 64;
+	private static final long SPIN_NANOS = 100000;
+	private static final long PARK_NANOS = 20000;
+
+	private String token;
+	private int ringSize;
+	private int segmentSize;
+	private ShmSegment table;
+	private CopyOnWriteArrayList<ShmSegment> segments;
+	private int segmentOffset;
+	private AtomicInteger ringCounter;
+	private CopyOnWriteArrayList<ShmConnection> connections;
+	private Thread progressThread;
+
+	public ShmTransport() throws IOException {
+		this.token = "disni-" + Long.toHexString(new Random().nextLong() & Long.MAX_VALUE);
+		this.ringSize = Integer.highestOneBit(Math.max(Integer.getInteger(RING_SIZE_PROPERTY, 4 * 1024 * 1024), 4096));
+		this.segmentSize = Integer.getInteger(SEGMENT_SIZE_PROPERTY, 64 * 1024 * 1024);
+		this.table = ShmSegment.create(token + "-mrt", TABLE_ENTRIES * ENTRY_SIZE);
+		this.table.unlinkOnExit();
+		this.segments = new CopyOnWriteArrayList<ShmSegment>();
+		this.segmentOffset = 0;
+		this.ringCounter = new AtomicInteger(0);
+		this.connections = new CopyOnWriteArrayList<ShmConnection>();
+		this.progressThread = null;
+		logger.info("shm transport " + token + ", ring size " + ringSize + ", segment size " + segmentSize);
+	}
+
+	@Override
+	public String getName() {
+		return "shm";
+	}
+
+	/**
+	 * Allocates a buffer in shared memory. RDMA read and write operations of peers on memory regions within such buffers do not involve this process.
+	 */
+	public synchronized ByteBuffer allocate(int size) throws IOException {
+		ShmSegment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if (segment == null || segmentOffset + size > segment.getSize()) {
+			segment = ShmSegment.create(token + "-seg-" + segments.size(), Math.max(segmentSize, size));
+			segment.unlinkOnExit();
+			segments.add(segment);
+			segmentOffset = 0;
+		}
+		ByteBuffer buffer = segment.getBuffer().duplicate();
+		buffer.limit(segmentOffset + size).position(segmentOffset);
+		segmentOffset = (segmentOffset + size + SEGMENT_ALIGNMENT - 1) & ~(SEGMENT_ALIGNMENT - 1);
+		return buffer.slice();
+	}
+
+	String getToken() {
+		return token;
+	}
+
+	/*
+	 * Publishes memory regions inside shared segments in the table of this process.
+	 */
+	@Override
+	protected void registered(SoftIbvMr mr) {
+		for (int i = 0; i < segments.size(); i++) {
+			ShmSegment segment = segments.get(i);
+			if (!segment.contains(mr.getAddr(), mr.getLength())) {
+				continue;
+			}
+			SoftMemory memory = table.getMemory();
+			synchronized (table) {
+				for (int probe = 0; probe < TABLE_PROBES; probe++) {
+					long entry = entry(table.getAddress(), mr.getRkey(), probe);
+					if (memory.getIntVolatile(entry + ENTRY_RKEY) == 0) {
+						memory.putInt(entry + ENTRY_ACCESS, mr.getAccess());
+						memory.putLong(entry + ENTRY_ADDR, mr.getAddr());
+						memory.putInt(entry + ENTRY_LENGTH, mr.getLength());
+						memory.putInt(entry + ENTRY_SEGMENT, i);
+						memory.putLong(entry + ENTRY_OFFSET, mr.getAddr() - segment.getAddress());
+						memory.putInt(entry + ENTRY_PD, mr.getPd().getHandle());
+						memory.putIntOrdered(entry + ENTRY_RKEY, mr.getRkey());
+						return;
+					}
+				}
+			}
+			logger.info("shm memory table full, rkey " + mr.getRkey() + " is served by the progress thread");
+			return;
+		}
+	}
+
+	@Override
+	protected void deregistered(SoftIbvMr mr) {
+		SoftMemory memory = table.getMemory();
+		synchronized (table) {
+			for (int probe = 0; probe < TABLE_PROBES; probe++) {
+				long entry = entry(table.getAddress(), mr.getRkey(), probe);
+				if (memory.getIntVolatile(entry + ENTRY_RKEY) == mr.getRkey()) {
+					memory.putIntOrdered(entry + ENTRY_RKEY, 0);
+					return;
+				}
+			}
+		}
+	}
+
+	static long entry(long table, int rkey, int probe) {
+		int hash = rkey ^ (rkey >>> 16);
+		return table + ((hash + probe) & (TABLE_ENTRIES - 1)) * (long) ENTRY_SIZE;
+	}
+
+	//------------ connection management
+
+	@Override
+	protected ByteBuffer requestData(SoftCmId id) throws IOException {
+		return handshake(id.getSoftQp(), null, 0);
+	}
+
+	@Override
+	protected ByteBuffer acceptData(SocketConnection connection) throws IOException {
+		String name = token + "-conn-" + ringCounter.getAndIncrement();
+		ShmSegment rings = ShmSegment.create(name, 2 * ShmRing.size(ringSize));
+		rings.unlinkOnExit();
+		connection.setAttachment(rings);
+		return handshake(connection.getQp(), name, ringSize);
+	}
+
+	/*
+	 * Handshake data: token of the process, PD handle of the QP and, when accepting, the shared memory file holding the rings.
+	 */
+	private ByteBuffer handshake(SoftIbvQP qp, String rings, int capacity) {
+		byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
+		byte[] ringBytes = rings != null ? rings.getBytes(StandardCharsets.UTF_8) : new byte[0];
+		ByteBuffer data = ByteBuffer.allocate(16 + tokenBytes.length + ringBytes.length);
+		data.putInt(tokenBytes.length).put(tokenBytes);
+		data.putInt(qp.getSoftPd().getHandle());
+		data.putInt(ringBytes.length).put(ringBytes);
+		data.putInt(capacity);
+		data.flip();
+		return data;
+	}
+
+	private static String getString(ByteBuffer data) {
+		byte[] bytes = new byte[data.getInt()];
+		data.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	protected void established(SocketConnection connection) throws IOException {
+		ByteBuffer data = connection.getPeerData();
+		String peerToken = getString(data);
+		int peerPd = data.getInt();
+		ShmSegment rings = (ShmSegment) connection.getAttachment();
+		boolean server = rings != null;
+		int capacity = ringSize;
+		if (!server) {
+			String name = getString(data);
+			capacity = data.getInt();
+			rings = ShmSegment.open(name);
+			rings.unlink();
+		}
+		ShmSegment peerTable = ShmSegment.open(peerToken + "-mrt");
+		ShmRing clientRing = new ShmRing(rings.getMemory(), rings.getAddress(), capacity);
+		ShmRing serverRing = new ShmRing(rings.getMemory(), rings.getAddress() + ShmRing.size(capacity), capacity);
+		ShmConnection shmConnection = new ShmConnection(connection, rings, server ? clientRing : serverRing, server ? serverRing : clientRing, peerToken, peerPd, peerTable);
+		connection.setAttachment(shmConnection);
+		connection.getQp().setLink(shmConnection);
+		connections.add(shmConnection);
+		startProgress();
+	}
+
+	@Override
+	protected void closed(SocketConnection connection) {
+		Object attachment = connection.getAttachment();
+		if (attachment instanceof ShmConnection) {
+			ShmConnection shmConnection = (ShmConnection) attachment;
+			connections.remove(shmConnection);
+			shmConnection.close();
+		} else if (attachment instanceof ShmSegment) {
+			((ShmSegment) attachment).unlink();
+		}
+	}
+
+	@Override
+	public void postSend(SoftIbvQP qp, int slot, SoftSendWR wr) throws IOException {
+		ShmConnection connection = (ShmConnection) qp.getLink();
+		if (connection == null || !qp.isReady()) {
+			qp.completeSend(slot, SoftIbvQP.WC_WR_FLUSH_ERR, 0);
+			return;
+		}
+		connection.postSend(slot, wr);
+	}
+
+	//------------ progress
+
+	private synchronized void startProgress() {
+		if (progressThread == null) {
+			progressThread = new Thread(new Progress(), "disni-shm-progress");
+			progressThread.setDaemon(true);
+			progressThread.start();
+		}
+	}
+
+	/*
+	 * Serves the inbound rings of all connections. Spins while there is traffic and parks briefly once idle.
+	 * Never blocks on an outbound ring, replies that do not fit are deferred.
+	 */
+	private class Progress implements Runnable {
+		public void run() {
+			long lastActive = System.nanoTime();
+			while (true) {
+				boolean active = false;
+				for (ShmConnection connection : connections) {
+					try {
+						active |= connection.progress();
+					} catch (Exception e) {
+						logger.info("shm progress, caught exception but keep going " + e.getMessage());
+					}
+				}
+				if (active) {
+					lastActive = System.nanoTime();
+				} else if (System.nanoTime() - lastActive > SPIN_NANOS) {
+					LockSupport.parkNanos(PARK_NANOS);
+				}
+			}
+		}
+	}
+}
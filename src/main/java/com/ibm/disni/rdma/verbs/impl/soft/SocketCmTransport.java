@@ -0,0 +1,350 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.RdmaCmEvent;
+import com.ibm.disni.util.DiSNILogger;
+
+/**
+ * Base class of the soft transports which establish connections over TCP.
+ *
+ * The listening id owns a ServerSocketChannel, every connection a blocking SocketChannel. During the handshake both
+ * sides exchange their queue pair numbers and transport specific data, afterwards the socket is served by a thread
+ * of the connection until either side closes it. Closing the socket surfaces as RDMA_CM_EVENT_DISCONNECTED on both ends.
+ */
+public abstract class SocketCmTransport extends SoftTransport {
+	private static final Logger logger = DiSNILogger.getLogger();
+
+	private static final int MAGIC = 0x44695331;
+	private static final int REQUEST = 1;
+	private static final int ACCEPT = 2;
+	private static final int HEADER_SIZE = 16;
+	private static final int MAX_DATA = 4096;
+
+	private ConcurrentHashMap<SoftCmId, ServerSocketChannel> listeners;
+
+	protected SocketCmTransport() {
+		this.listeners = new ConcurrentHashMap<SoftCmId, ServerSocketChannel>();
+	}
+
+	/**
+	 * Returns the handshake data sent with a connection request.
+	 */
+	protected ByteBuffer requestData(SoftCmId id) throws IOException {
+		return ByteBuffer.allocate(0);
+	}
+
+	/**
+	 * Returns the handshake data sent when accepting a connection request, the request data is available from the connection.
+	 */
+	protected ByteBuffer acceptData(SocketConnection connection) throws IOException {
+		return ByteBuffer.allocate(0);
+	}
+
+	/**
+	 * Sets up the data path of a connection once the handshake is complete. The QP of the connection is moved to the
+	 * ready-to-send state afterwards.
+	 */
+	protected abstract void established(SocketConnection connection) throws IOException;
+
+	/**
+	 * Serves the socket of an established connection, returns once the socket has been closed by either side.
+	 * The default implementation only watches for the socket to be closed.
+	 */
+	protected void serve(SocketConnection connection) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		while (connection.getChannel().read(buffer) >= 0) {
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Releases the data path of a connection. Called once, after the socket has been closed and before the QP is flushed.
+	 */
+	protected void closed(SocketConnection connection) {
+	}
+
+	@Override
+	public void bind(SoftCmId id, InetSocketAddress address) throws IOException {
+		id.setSourceAddress(address);
+	}
+
+	@Override
+	public void listen(SoftCmId id, int backlog) throws IOException {
+		InetSocketAddress address = id.getSourceAddress();
+		if (address == null) {
+			throw new IOException("Trying to listen on unbound ID");
+		}
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.bind(address, backlog);
+		} catch (IOException e) {
+			serverChannel.close();
+			throw new IOException("Listen failed on " + address + ", " + e.getMessage(), e);
+		}
+		id.setSourceAddress((InetSocketAddress) serverChannel.getLocalAddress());
+		listeners.put(id, serverChannel);
+		start(new Acceptor(id, serverChannel), "cm");
+	}
+
+	@Override
+	public void resolve(SoftCmId id, InetSocketAddress destination) throws IOException {
+		id.setDestinationAddress(destination);
+	}
+
+	@Override
+	public void connect(SoftCmId id) throws IOException {
+		SoftIbvQP qp = id.getSoftQp();
+		if (qp == null) {
+			throw new IOException("Connect failed, QP not created");
+		}
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.socket().setTcpNoDelay(true);
+			InetSocketAddress source = id.getSourceAddress();
+			if (source != null) {
+				channel.bind(source);
+			}
+			channel.connect(id.getDestinationAddress());
+			id.setSourceAddress((InetSocketAddress) channel.getLocalAddress());
+			writeFrame(channel, REQUEST, qp.getQpNum(), requestData(id));
+		} catch (IOException e) {
+			channel.close();
+			throw new IOException("Connect failed to " + id.getDestinationAddress() + ", " + e.getMessage(), e);
+		}
+		SocketConnection connection = new SocketConnection(id, channel);
+		id.setLink(connection);
+		start(new Connector(connection), "conn");
+	}
+
+	@Override
+	public void accept(SoftCmId id) throws IOException {
+		SocketConnection connection = (SocketConnection) id.getLink();
+		if (connection == null || connection.isClosed()) {
+			throw new IOException("Accept failed, no pending connection request");
+		}
+		SoftIbvQP qp = id.getSoftQp();
+		if (qp == null) {
+			throw new IOException("Accept failed, QP not created");
+		}
+		writeFrame(connection.getChannel(), ACCEPT, qp.getQpNum(), acceptData(connection));
+		established(connection);
+		connection.setEstablished();
+		qp.connected();
+		id.postEvent(RdmaCmEvent.EventType.RDMA_CM_EVENT_ESTABLISHED, null);
+		start(new Server(connection), "conn");
+	}
+
+	@Override
+	public void disconnect(SoftCmId id) throws IOException {
+		SocketConnection connection = (SocketConnection) id.getLink();
+		if (connection != null) {
+			teardown(connection);
+		}
+	}
+
+	@Override
+	public void destroy(SoftCmId id) throws IOException {
+		ServerSocketChannel serverChannel = listeners.remove(id);
+		if (serverChannel != null) {
+			serverChannel.close();
+		}
+		disconnect(id);
+	}
+
+	private void teardown(SocketConnection connection) throws IOException {
+		if (!connection.close()) {
+			return;
+		}
+		closed(connection);
+		SoftIbvQP qp = connection.getQp();
+		if (qp != null) {
+			qp.flush();
+		}
+		if (connection.isEstablished()) {
+			connection.getId().postEvent(RdmaCmEvent.EventType.RDMA_CM_EVENT_DISCONNECTED, null);
+		}
+	}
+
+	private void start(Runnable runnable, String role) {
+		Thread thread = new Thread(runnable, "disni-" + getName() + "-" + role);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static void writeFrame(SocketChannel channel, int type, int qpNum, ByteBuffer data) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(type).putInt(qpNum).putInt(data.remaining());
+		header.flip();
+		ByteBuffer[] frame = new ByteBuffer[] { header, data };
+		while (header.hasRemaining() || data.hasRemaining()) {
+			channel.write(frame);
+		}
+	}
+
+	/*
+	 * Reads a handshake frame of the given type, stores the peer qp number and data with the connection.
+	 */
+	private static void readFrame(SocketConnection connection, int type) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(connection.getChannel(), header);
+		header.flip();
+		if (header.getInt() != MAGIC || header.getInt() != type) {
+			throw new IOException("Handshake failed, unexpected message");
+		}
+		int qpNum = header.getInt();
+		int length = header.getInt();
+		if (length < 0 || length > MAX_DATA) {
+			throw new IOException("Handshake failed, invalid length " + length);
+		}
+		ByteBuffer data = ByteBuffer.allocate(length);
+		readFully(connection.getChannel(), data);
+		data.flip();
+		connection.setPeer(qpNum, data);
+	}
+
+	static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Connection closed by peer");
+			}
+		}
+	}
+
+	private class Acceptor implements Runnable {
+		private SoftCmId listenId;
+		private ServerSocketChannel serverChannel;
+
+		Acceptor(SoftCmId listenId, ServerSocketChannel serverChannel) {
+			this.listenId = listenId;
+			this.serverChannel = serverChannel;
+		}
+
+		public void run() {
+			while (serverChannel.isOpen()) {
+				try {
+					SocketChannel channel = serverChannel.accept();
+					channel.socket().setTcpNoDelay(true);
+					SoftCmId connId = new SoftCmId(listenId.getCmChannel(), listenId.getVerbs(), listenId.getPs());
+					connId.setSourceAddress((InetSocketAddress) channel.getLocalAddress());
+					connId.setDestinationAddress((InetSocketAddress) channel.getRemoteAddress());
+					SocketConnection connection = new SocketConnection(connId, channel);
+					connId.setLink(connection);
+					start(new Requester(listenId, connection), "conn");
+				} catch (IOException e) {
+					if (serverChannel.isOpen()) {
+						logger.info("accepting connection failed, " + e.getMessage());
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Server side, reads the connection request and hands it to the listener.
+	 */
+	private class Requester implements Runnable {
+		private SoftCmId listenId;
+		private SocketConnection connection;
+
+		Requester(SoftCmId listenId, SocketConnection connection) {
+			this.listenId = listenId;
+			this.connection = connection;
+		}
+
+		public void run() {
+			try {
+				readFrame(connection, REQUEST);
+				connection.getId().postEvent(RdmaCmEvent.EventType.RDMA_CM_EVENT_CONNECT_REQUEST, listenId);
+			} catch (IOException e) {
+				logger.info("connection request from " + connection.getId().getDestinationAddress() + " failed, " + e.getMessage());
+				connection.close();
+			}
+		}
+	}
+
+	/*
+	 * Client side, waits for the connection to be accepted and serves it afterwards.
+	 */
+	private class Connector implements Runnable {
+		private SocketConnection connection;
+
+		Connector(SocketConnection connection) {
+			this.connection = connection;
+		}
+
+		public void run() {
+			SoftCmId id = connection.getId();
+			try {
+				readFrame(connection, ACCEPT);
+				established(connection);
+				connection.setEstablished();
+				id.getSoftQp().connected();
+				id.postEvent(RdmaCmEvent.EventType.RDMA_CM_EVENT_ESTABLISHED, null);
+			} catch (IOException e) {
+				logger.info("connection to " + id.getDestinationAddress() + " rejected, " + e.getMessage());
+				if (connection.close()) {
+					closed(connection);
+					try {
+						id.postEvent(RdmaCmEvent.EventType.RDMA_CM_EVENT_REJECTED, null);
+					} catch (IOException e1) {
+					}
+				}
+				return;
+			}
+			new Server(connection).run();
+		}
+	}
+
+	private class Server implements Runnable {
+		private SocketConnection connection;
+
+		Server(SocketConnection connection) {
+			this.connection = connection;
+		}
+
+		public void run() {
+			try {
+				serve(connection);
+			} catch (IOException e) {
+				if (!connection.isClosed()) {
+					logger.info("connection to " + connection.getId().getDestinationAddress() + " failed, " + e.getMessage());
+				}
+			}
+			try {
+				teardown(connection);
+			} catch (IOException e) {
+			}
+		}
+	}
+}
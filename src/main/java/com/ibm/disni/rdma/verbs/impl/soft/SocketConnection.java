@@ -0,0 +1,118 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A connection established by a SocketCmTransport.
+ */
+public class SocketConnection {
+	private SoftCmId id;
+	private SocketChannel channel;
+	private int peerQpNum;
+	private ByteBuffer peerData;
+	private volatile boolean established;
+	private AtomicBoolean closed;
+	private volatile Object attachment;
+
+	SocketConnection(SoftCmId id, SocketChannel channel) {
+		this.id = id;
+		this.channel = channel;
+		this.peerQpNum = 0;
+		this.peerData = null;
+		this.established = false;
+		this.closed = new AtomicBoolean(false);
+		this.attachment = null;
+	}
+
+	public SoftCmId getId() {
+		return id;
+	}
+
+	public SoftIbvQP getQp() {
+		return id.getSoftQp();
+	}
+
+	public SocketChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * The queue pair number of the remote QP.
+	 */
+	public int getPeerQpNum() {
+		return peerQpNum;
+	}
+
+	/**
+	 * The transport specific data the peer sent during the handshake.
+	 */
+	public ByteBuffer getPeerData() {
+		return peerData;
+	}
+
+	public boolean isEstablished() {
+		return established;
+	}
+
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	/**
+	 * Transport specific state of the connection.
+	 */
+	public Object getAttachment() {
+		return attachment;
+	}
+
+	public void setAttachment(Object attachment) {
+		this.attachment = attachment;
+	}
+
+	void setPeer(int peerQpNum, ByteBuffer peerData) {
+		this.peerQpNum = peerQpNum;
+		this.peerData = peerData;
+	}
+
+	void setEstablished() {
+		this.established = true;
+	}
+
+	/**
+	 * Marks the connection as closed and closes the socket, returns false if the connection was already closed.
+	 */
+	boolean close() {
+		if (!closed.compareAndSet(false, true)) {
+			return false;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+		}
+		return true;
+	}
+}
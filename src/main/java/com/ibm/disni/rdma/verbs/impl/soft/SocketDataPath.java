@@ -0,0 +1,511 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.util.DiSNILogger;
+
+/**
+ * Data path of a socket connection.
+ *
+ * Every message on the socket starts with a fixed header, optionally followed by payload. Requests (SEND, WRITE, READ, ATOMIC)
+ * are identified by the send queue slot of the initiator and answered with an ACK carrying the completion status,
+ * for READ the data and for ATOMIC the original value of the target word in the address field. Payload is sent with gathering writes directly from the registered buffers and received with
+ * reads directly into the target buffers of RDMA operations. Sends are staged at the receiver until they are matched
+ * with a posted receive.
+ *
+ * Requests are written by the posting thread. Replies are written by a thread of their own, so the thread serving
+ * the socket never blocks on a full socket while the peer does the same.
+ */
+class SocketDataPath {
+	private static final Logger logger = DiSNILogger.getLogger();
+
+	private static final int HEADER_SIZE = 48;
+	private static final int SEND = 1;
+	private static final int WRITE = 2;
+	private static final int READ = 3;
+	private static final int ACK = 4;
+	private static final int ATOMIC = 5;
+	private static final int ATOMIC_PAYLOAD = 16;
+
+	private SocketChannel channel;
+	private SoftIbvQP qp;
+	private int peerQpNum;
+	private ReentrantLock writeLock;
+	private ByteBuffer txHeader;
+	private ByteBuffer[] txGather;
+	private ByteBuffer txStaging;
+	private ByteBuffer rxHeader;
+	private ByteBuffer rxStaging;
+	private SoftMemory rxMemory;
+	private AtomicIntegerArray waiting;
+	private SoftSgl[] readSgl;
+	private boolean[] atomic;
+	private LinkedBlockingQueue<Reply> replies;
+	private SocketMessage message;
+	private volatile boolean closed;
+
+	SocketDataPath(SocketConnection connection) {
+		this.channel = connection.getChannel();
+		this.qp = connection.getQp();
+		this.peerQpNum = connection.getPeerQpNum();
+		this.writeLock = new ReentrantLock();
+		this.txHeader = ByteBuffer.allocateDirect(HEADER_SIZE);
+		this.txGather = new ByteBuffer[4];
+		this.txStaging = ByteBuffer.allocateDirect(4096);
+		this.rxHeader = ByteBuffer.allocateDirect(HEADER_SIZE);
+		this.rxStaging = ByteBuffer.allocateDirect(4096);
+		this.rxMemory = SoftMemory.wrap(rxStaging);
+		this.waiting = new AtomicIntegerArray(qp.getMaxSendWr());
+		this.readSgl = new SoftSgl[qp.getMaxSendWr()];
+		this.atomic = new boolean[qp.getMaxSendWr()];
+		this.replies = new LinkedBlockingQueue<Reply>();
+		this.message = new SocketMessage(this);
+		this.closed = false;
+	}
+
+	void start() {
+		Thread thread = new Thread(new Replier(), "disni-socket-reply");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	//------------ initiator
+
+	void postSend(int slot, SoftSendWR wr) {
+		int opcode = wr.getOpcode();
+		SoftSgl local = wr.gather();
+		boolean isAtomic = SoftAtomics.isAtomic(opcode);
+		if (!qp.checkLocal(local, opcode == IbvSendWR.IBV_WR_RDMA_READ || isAtomic)) {
+			qp.completeSend(slot, SoftIbvQP.WC_LOC_PROT_ERR, 0);
+			return;
+		}
+		int length = local.total();
+		long remoteAddr = isAtomic ? wr.getAtomic().getRemote_addr() : wr.getRdma().getRemote_addr();
+		int rkey = isAtomic ? wr.getAtomic().getRkey() : wr.getRdma().getRkey();
+		atomic[slot] = isAtomic;
+		switch (opcode) {
+		case IbvSendWR.IBV_WR_SEND:
+		case IbvSendWR.IBV_WR_SEND_WITH_IMM:
+			request(slot, SEND, opcode, wr.getImm_data(), wr.getSend_flags(), 0, 0, length, local);
+			break;
+		case IbvSendWR.IBV_WR_RDMA_WRITE:
+		case IbvSendWR.IBV_WR_RDMA_WRITE_WITH_IMM:
+			request(slot, WRITE, opcode, wr.getImm_data(), wr.getSend_flags(), rkey, remoteAddr, length, local);
+			break;
+		case IbvSendWR.IBV_WR_RDMA_READ:
+			readSgl[slot] = local.copy();
+			request(slot, READ, opcode, 0, wr.getSend_flags(), rkey, remoteAddr, length, null);
+			break;
+		case IbvSendWR.IBV_WR_ATOMIC_CMP_AND_SWP:
+		case IbvSendWR.IBV_WR_ATOMIC_FETCH_AND_ADD:
+			if (!SoftAtomics.checkLocal(local)) {
+				qp.completeSend(slot, SoftIbvQP.WC_LOC_LEN_ERR, 0);
+				break;
+			}
+			if (!SoftAtomics.isAligned(remoteAddr)) {
+				qp.completeSend(slot, SoftIbvQP.WC_REM_INV_REQ_ERR, 0);
+				break;
+			}
+			readSgl[slot] = local.copy();
+			request(slot, ATOMIC, opcode, 0, wr.getSend_flags(), rkey, remoteAddr, SoftAtomics.LENGTH, null, wr.getAtomic().getCompare_add(), wr.getAtomic().getSwap());
+			break;
+		default:
+			qp.completeSend(slot, SoftIbvQP.WC_LOC_QP_OP_ERR, 0);
+		}
+	}
+
+	private void request(int slot, int type, int opcode, int imm, int flags, int rkey, long remoteAddr, int length, SoftSgl payload) {
+		request(slot, type, opcode, imm, flags, rkey, remoteAddr, length, payload, 0, 0);
+	}
+
+	private void request(int slot, int type, int opcode, int imm, int flags, int rkey, long remoteAddr, int length, SoftSgl payload, long compareAdd, long swap) {
+		waiting.set(slot, 1);
+		writeLock.lock();
+		try {
+			int size = payload != null ? length : (type == ATOMIC ? ATOMIC_PAYLOAD : 0);
+			header(type, slot, 0, opcode, imm, flags, rkey, remoteAddr, length, size);
+			int count = 1;
+			if (payload != null && length > 0) {
+				count = gather(payload);
+			} else if (type == ATOMIC) {
+				txStaging.clear();
+				txStaging.putLong(compareAdd).putLong(swap).flip();
+				txGather[1] = txStaging;
+				count = 2;
+			}
+			write(count, HEADER_SIZE + size);
+		} catch (IOException e) {
+			abort(slot);
+		} finally {
+			writeLock.unlock();
+		}
+		if (closed) {
+			abort(slot);
+		}
+	}
+
+	/*
+	 * Prepares views on the registered buffers of a gather list, falls back to staging the payload
+	 * if a region was registered by address. Returns the number of buffers to write, header included.
+	 */
+	private int gather(SoftSgl payload) {
+		if (txGather.length < payload.count() + 1) {
+			txGather = new ByteBuffer[payload.count() + 1];
+		}
+		int count = 1;
+		for (int i = 0; i < payload.count(); i++) {
+			if (payload.getLength(i) == 0) {
+				continue;
+			}
+			SoftIbvMr mr = qp.getSoftContext().lookupLocal(qp.getSoftPd(), payload.getLkey(i), payload.getAddr(i), payload.getLength(i), 0);
+			ByteBuffer view = mr != null ? mr.view(payload.getAddr(i), payload.getLength(i)) : null;
+			if (view == null) {
+				txStaging = ensure(txStaging, payload.total());
+				txStaging.clear();
+				payload.copyTo(txStaging);
+				txStaging.flip();
+				txGather[1] = txStaging;
+				return 2;
+			}
+			txGather[count++] = view;
+		}
+		return count;
+	}
+
+	private void write(int count, long total) throws IOException {
+		txGather[0] = txHeader;
+		long written = 0;
+		while (written < total) {
+			written += channel.write(txGather, 0, count);
+		}
+		for (int i = 1; i < count; i++) {
+			txGather[i] = null;
+		}
+	}
+
+	private void header(int type, int seq, int status, int opcode, int imm, int flags, int rkey, long remoteAddr, int length, int payload) {
+		txHeader.clear();
+		txHeader.putInt(type).putInt(seq).putInt(status).putInt(opcode).putInt(imm).putInt(flags);
+		txHeader.putInt(rkey).putInt(length).putInt(payload).putInt(0).putLong(remoteAddr);
+		txHeader.flip();
+	}
+
+	private void abort(int slot) {
+		if (waiting.compareAndSet(slot, 1, 0)) {
+			readSgl[slot] = null;
+			qp.completeSend(slot, SoftIbvQP.WC_WR_FLUSH_ERR, 0);
+		}
+	}
+
+	//------------ target
+
+	/**
+	 * Serves inbound messages until the socket is closed.
+	 */
+	void serve() throws IOException {
+		while (true) {
+			rxHeader.clear();
+			if (channel.read(rxHeader) < 0) {
+				return;
+			}
+			readFully(rxHeader);
+			rxHeader.flip();
+			int type = rxHeader.getInt();
+			int seq = rxHeader.getInt();
+			int status = rxHeader.getInt();
+			int opcode = rxHeader.getInt();
+			int imm = rxHeader.getInt();
+			int flags = rxHeader.getInt();
+			int rkey = rxHeader.getInt();
+			int length = rxHeader.getInt();
+			int payload = rxHeader.getInt();
+			rxHeader.getInt();
+			long remoteAddr = rxHeader.getLong();
+			boolean solicited = (flags & IbvSendWR.IBV_SEND_SOLICITED) != 0;
+			switch (type) {
+			case SEND:
+				stage(payload);
+				message.prepare(seq, opcode, imm, solicited, peerQpNum, length, rxMemory, rxMemory.getAddress());
+				qp.deliver(message);
+				break;
+			case WRITE:
+				SoftIbvMr mr = qp.remoteRegion(rkey, remoteAddr, length, IbvMr.IBV_ACCESS_REMOTE_WRITE);
+				if (mr == null) {
+					stage(payload);
+					reply(seq, SoftIbvQP.WC_REM_ACCESS_ERR, 0, null, 0);
+					break;
+				}
+				receive(mr, remoteAddr, length);
+				if (opcode == IbvSendWR.IBV_WR_RDMA_WRITE) {
+					reply(seq, SoftIbvQP.WC_SUCCESS, length, null, 0);
+				} else {
+					message.prepare(seq, opcode, imm, solicited, peerQpNum, length, null, 0);
+					qp.deliver(message);
+				}
+				break;
+			case READ:
+				mr = qp.remoteRegion(rkey, remoteAddr, length, IbvMr.IBV_ACCESS_REMOTE_READ);
+				if (mr == null) {
+					reply(seq, SoftIbvQP.WC_REM_ACCESS_ERR, 0, null, 0);
+				} else {
+					reply(seq, SoftIbvQP.WC_SUCCESS, length, mr, remoteAddr);
+				}
+				break;
+			case ATOMIC:
+				ByteBuffer operands = stage(payload);
+				long compareAdd = operands.getLong(0);
+				long swap = operands.getLong(8);
+				mr = SoftAtomics.isAligned(remoteAddr) ? qp.remoteRegion(rkey, remoteAddr, SoftAtomics.LENGTH, IbvMr.IBV_ACCESS_REMOTE_ATOMIC) : null;
+				if (!SoftAtomics.isAligned(remoteAddr)) {
+					reply(seq, SoftIbvQP.WC_REM_INV_REQ_ERR, 0, null, 0);
+				} else if (mr == null) {
+					reply(seq, SoftIbvQP.WC_REM_ACCESS_ERR, 0, null, 0);
+				} else {
+					reply(seq, SoftIbvQP.WC_SUCCESS, SoftAtomics.LENGTH, null, SoftAtomics.execute(opcode, mr.getMemory(), remoteAddr, compareAdd, swap));
+				}
+				break;
+			case ACK:
+				acknowledged(seq, status, length, payload, remoteAddr);
+				break;
+			default:
+				throw new IOException("Unknown message type " + type);
+			}
+		}
+	}
+
+	private void acknowledged(int slot, int status, int length, int payload, long value) throws IOException {
+		if (!waiting.compareAndSet(slot, 1, 0)) {
+			stage(payload);
+			return;
+		}
+		SoftSgl sgl = readSgl[slot];
+		readSgl[slot] = null;
+		if (sgl != null && atomic[slot]) {
+			if (status == SoftIbvQP.WC_SUCCESS) {
+				SoftAtomics.complete(sgl, value);
+			}
+		} else if (sgl != null && payload > 0) {
+			scatter(sgl, payload);
+		}
+		qp.completeSend(slot, status, length);
+	}
+
+	/*
+	 * Reads RDMA write data into the target region, through a view on the registered buffer if there is one.
+	 */
+	private void receive(SoftIbvMr mr, long address, int length) throws IOException {
+		ByteBuffer view = mr.view(address, length);
+		if (view != null) {
+			readFully(view);
+		} else {
+			mr.getMemory().write(address, stage(length));
+		}
+	}
+
+	/*
+	 * Reads RDMA read data into the local gather list of the request.
+	 */
+	private void scatter(SoftSgl sgl, int length) throws IOException {
+		int remaining = length;
+		for (int i = 0; i < sgl.count() && remaining > 0; i++) {
+			int len = Math.min(sgl.getLength(i), remaining);
+			SoftIbvMr mr = qp.getSoftContext().lookupLocal(qp.getSoftPd(), sgl.getLkey(i), sgl.getAddr(i), len, IbvMr.IBV_ACCESS_LOCAL_WRITE);
+			ByteBuffer view = mr != null ? mr.view(sgl.getAddr(i), len) : null;
+			if (view != null) {
+				readFully(view);
+			} else {
+				sgl.getMemory(i).write(sgl.getAddr(i), stage(len));
+			}
+			remaining -= len;
+		}
+		stage(remaining);
+	}
+
+	/*
+	 * Reads the given number of bytes into the receive staging buffer, returns the buffer ready for reading them.
+	 */
+	private ByteBuffer stage(int length) throws IOException {
+		if (rxStaging.capacity() < length) {
+			rxStaging = ensure(rxStaging, length);
+			rxMemory = SoftMemory.wrap(rxStaging);
+		}
+		rxStaging.clear().limit(length);
+		readFully(rxStaging);
+		rxStaging.flip();
+		return rxStaging;
+	}
+
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Connection closed by peer");
+			}
+		}
+	}
+
+	private static ByteBuffer ensure(ByteBuffer buffer, int length) {
+		if (buffer.capacity() >= length) {
+			return buffer;
+		}
+		return ByteBuffer.allocateDirect(Math.max(length, buffer.capacity() * 2));
+	}
+
+	/**
+	 * Queues the answer to a request of the peer.
+	 *
+	 * @param mr the region holding the data returned for READ, null for none.
+	 * @param address the address of the data returned for READ, or the original value of the target word of an ATOMIC if mr is null.
+	 */
+	void reply(int seq, int status, int length, SoftIbvMr mr, long address) {
+		if (!closed) {
+			replies.add(new Reply(seq, status, length, mr, address));
+		}
+	}
+
+	private void send(Reply reply) throws IOException {
+		writeLock.lock();
+		try {
+			int payload = reply.mr != null ? reply.length : 0;
+			header(ACK, reply.seq, reply.status, 0, 0, 0, 0, reply.mr == null ? reply.address : 0, reply.length, payload);
+			int count = 1;
+			if (payload > 0) {
+				txGather[1] = reply.mr.view(reply.address, payload);
+				if (txGather[1] == null) {
+					txStaging = ensure(txStaging, payload);
+					txStaging.clear().limit(payload);
+					reply.mr.getMemory().read(reply.address, txStaging);
+					txStaging.flip();
+					txGather[1] = txStaging;
+				}
+				count = 2;
+			}
+			write(count, HEADER_SIZE + payload);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the data path, requests still waiting for an answer are flushed.
+	 */
+	void close() {
+		this.closed = true;
+		replies.clear();
+		replies.add(new Reply(-1, 0, 0, null, 0));
+		for (int slot = 0; slot < waiting.length(); slot++) {
+			abort(slot);
+		}
+	}
+
+	private static class Reply {
+		private int seq;
+		private int status;
+		private int length;
+		private SoftIbvMr mr;
+		private long address;
+
+		Reply(int seq, int status, int length, SoftIbvMr mr, long address) {
+			this.seq = seq;
+			this.status = status;
+			this.length = length;
+			this.mr = mr;
+			this.address = address;
+		}
+	}
+
+	private class Replier implements Runnable {
+		public void run() {
+			while (!closed) {
+				try {
+					Reply reply = replies.take();
+					if (reply.seq >= 0 && !closed) {
+						send(reply);
+					}
+				} catch (InterruptedException e) {
+					break;
+				} catch (IOException e) {
+					if (!closed) {
+						logger.info("sending reply failed, " + e.getMessage());
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Inbound message, the payload points into the receive staging buffer until the message is detached.
+	 */
+	private static class SocketMessage extends SoftMessage {
+		private SocketDataPath path;
+		private int seq;
+		private SoftSgl sgl;
+		private ByteBuffer buffer;
+
+		SocketMessage(SocketDataPath path) {
+			this.path = path;
+			this.sgl = new SoftSgl(1);
+			this.buffer = null;
+		}
+
+		/*
+		 * @param memory the memory holding the payload, null for none.
+		 */
+		void prepare(int seq, int opcode, int imm, boolean solicited, int srcQp, int length, SoftMemory memory, long data) {
+			this.seq = seq;
+			sgl.clear();
+			if (memory != null) {
+				sgl.add(data, length, 0, memory);
+			}
+			set(opcode, imm, solicited, srcQp, length, memory != null ? sgl : null);
+		}
+
+		@Override
+		protected SoftMessage detach() {
+			SocketMessage msg = new SocketMessage(path);
+			SoftMemory memory = null;
+			if (payload != null) {
+				msg.buffer = ByteBuffer.allocateDirect(Math.max(length, 1));
+				payload.copyTo(msg.buffer);
+				memory = SoftMemory.wrap(msg.buffer);
+			}
+			msg.prepare(seq, opcode, immData, solicited, srcQp, length, memory, memory != null ? memory.getAddress() : 0);
+			return msg;
+		}
+
+		@Override
+		protected void completed(int status) {
+			path.reply(seq, status, status == SoftIbvQP.WC_SUCCESS ? length : 0, null, 0);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+
+/**
+ * Carries the verbs semantics over TCP, for hosts without RDMA hardware.
+ *
+ * Each connection uses a single SocketChannel for the handshake and the data. The initiator sends payload with
+ * gathering writes straight from the registered buffers, the target places RDMA write data and answers RDMA reads
+ * after checking the rkey against its own memory regions. See SocketDataPath for the protocol.
+ */
+public class SocketTransport extends SocketCmTransport {
+
+	@Override
+	public String getName() {
+		return "socket";
+	}
+
+	@Override
+	protected void established(SocketConnection connection) throws IOException {
+		SocketDataPath path = new SocketDataPath(connection);
+		connection.setAttachment(path);
+		connection.getQp().setLink(path);
+		path.start();
+	}
+
+	@Override
+	protected void serve(SocketConnection connection) throws IOException {
+		((SocketDataPath) connection.getAttachment()).serve();
+	}
+
+	@Override
+	protected void closed(SocketConnection connection) {
+		Object path = connection.getAttachment();
+		if (path != null) {
+			((SocketDataPath) path).close();
+		}
+	}
+
+	@Override
+	public void postSend(SoftIbvQP qp, int slot, SoftSendWR wr) throws IOException {
+		SocketDataPath path = (SocketDataPath) qp.getLink();
+		if (path == null || !qp.isReady()) {
+			qp.completeSend(slot, SoftIbvQP.WC_WR_FLUSH_ERR, 0);
+			return;
+		}
+		path.postSend(slot, wr);
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+
+/**
+ * Atomic operations of the soft providers. They are executed by the process owning the target memory, under a lock
+ * chosen by the address of the target word. Like the atomics of an HCA (IBV_ATOMIC_HCA) they are atomic with respect
+ * to each other, but not with respect to other accesses to the same memory.
+ */
+class SoftAtomics {
+	static final int LENGTH = 8;
+	private static final int LOCKS = 64;
+
+	private static final Object[] locks = new Object[LOCKS];
+
+	static {
+		for (int i = 0; i < LOCKS; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	static boolean isAtomic(int opcode) {
+		return opcode == IbvSendWR.IBV_WR_ATOMIC_CMP_AND_SWP || opcode == IbvSendWR.IBV_WR_ATOMIC_FETCH_AND_ADD;
+	}
+
+	/**
+	 * Checks the local buffer of an atomic operation, which receives the original value of the target word.
+	 */
+	static boolean checkLocal(SoftSgl local) {
+		return local.total() == LENGTH;
+	}
+
+	static boolean isAligned(long address) {
+		return (address & (LENGTH - 1)) == 0;
+	}
+
+	/**
+	 * Executes an atomic operation on the word at the given address and returns the original value.
+	 */
+	static long execute(int opcode, SoftMemory memory, long address, long compareAdd, long swap) {
+		synchronized (locks[(int) (address >>> 3) & (LOCKS - 1)]) {
+			long value = memory.getLong(address);
+			if (opcode == IbvSendWR.IBV_WR_ATOMIC_FETCH_AND_ADD) {
+				memory.putLong(address, value + compareAdd);
+			} else if (value == compareAdd) {
+				memory.putLong(address, swap);
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Stores the original value of the target word in the local buffer of the operation.
+	 */
+	static void complete(SoftSgl local, long value) {
+		ByteBuffer result = ByteBuffer.allocate(LENGTH).order(ByteOrder.nativeOrder());
+		result.putLong(0, value);
+		local.copyFrom(result);
+	}
+}
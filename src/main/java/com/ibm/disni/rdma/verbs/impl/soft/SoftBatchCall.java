@@ -0,0 +1,126 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import com.ibm.disni.rdma.verbs.SVCBatch;
+import com.ibm.disni.rdma.verbs.SVCPostRecv;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+import com.ibm.disni.rdma.verbs.StatefulVerbCall;
+
+/**
+ * Batch of the soft providers. Posting does not cross into native code, the entries are simply executed one after the other.
+ */
+public class SoftBatchCall extends SVCBatch {
+	private RdmaVerbsSoft verbs;
+	private ArrayList<StatefulVerbCall<?>> entries;
+	private int[] status;
+	private int failed;
+	private boolean valid;
+
+	public SoftBatchCall(RdmaVerbsSoft verbs) {
+		this.verbs = verbs;
+		this.entries = new ArrayList<StatefulVerbCall<?>>();
+		this.status = new int[0];
+		this.failed = 0;
+		this.valid = false;
+	}
+
+	public void set() {
+		clear();
+		this.valid = true;
+	}
+
+	@Override
+	public SVCBatch add(SVCPostSend postSend) throws IOException {
+		entries.add(postSend);
+		return this;
+	}
+
+	@Override
+	public SVCBatch add(SVCPostRecv postRecv) throws IOException {
+		entries.add(postRecv);
+		return this;
+	}
+
+	@Override
+	public void clear() {
+		entries.clear();
+		this.failed = 0;
+	}
+
+	@Override
+	public int size() {
+		return entries.size();
+	}
+
+	@Override
+	public SVCBatch execute() throws IOException {
+		if (!valid) {
+			throw new IOException("Trying to execute a freed batch");
+		}
+		if (status.length < entries.size()) {
+			status = new int[entries.size()];
+		}
+		failed = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			StatefulVerbCall<?> entry = entries.get(i);
+			status[i] = -1;
+			if (entry.isValid()) {
+				try {
+					entry.execute();
+					status[i] = 0;
+				} catch (IOException e) {
+				}
+			}
+			if (status[i] != 0) {
+				failed++;
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public int getStatus(int index) {
+		return status[index];
+	}
+
+	@Override
+	public int getFailed() {
+		return failed;
+	}
+
+	@Override
+	public boolean isValid() {
+		return valid;
+	}
+
+	@Override
+	public SVCBatch free() {
+		clear();
+		this.valid = false;
+		verbs.free(this);
+		return this;
+	}
+}
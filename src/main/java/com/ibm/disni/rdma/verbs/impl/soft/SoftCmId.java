@@ -0,0 +1,94 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import com.ibm.disni.rdma.verbs.IbvContext;
+import com.ibm.disni.rdma.verbs.IbvQP;
+import com.ibm.disni.rdma.verbs.RdmaCmEvent;
+import com.ibm.disni.rdma.verbs.RdmaCmId;
+import com.ibm.disni.rdma.verbs.RdmaEventChannel;
+
+public class SoftCmId extends RdmaCmId {
+	private InetSocketAddress source;
+	private InetSocketAddress destination;
+	private volatile Object link;
+
+	public SoftCmId(RdmaEventChannel cmChannel, IbvContext verbs, int ps) throws IOException {
+		super(cmChannel, verbs);
+		this.ps = ps;
+		this.source = null;
+		this.destination = null;
+		this.link = null;
+	}
+
+	public InetSocketAddress getSourceAddress() {
+		return source;
+	}
+
+	public void setSourceAddress(InetSocketAddress source) {
+		this.source = source;
+	}
+
+	public InetSocketAddress getDestinationAddress() {
+		return destination;
+	}
+
+	public void setDestinationAddress(InetSocketAddress destination) {
+		this.destination = destination;
+	}
+
+	/**
+	 * Transport specific state of the connection, e.g., the peer id for loopback.
+	 */
+	public Object getLink() {
+		return link;
+	}
+
+	public void setLink(Object link) {
+		this.link = link;
+	}
+
+	public SoftIbvQP getSoftQp() {
+		return (SoftIbvQP) getQp();
+	}
+
+	void attachQp(IbvQP qp) {
+		setQp(qp);
+	}
+
+	void attachVerbs(IbvContext verbs) {
+		setVerbs(verbs);
+	}
+
+	/**
+	 * Queues a CM event for this id on its event channel.
+	 *
+	 * @param listenId the listening id, only set for RDMA_CM_EVENT_CONNECT_REQUEST.
+	 */
+	public void postEvent(RdmaCmEvent.EventType event, RdmaCmId listenId) throws IOException {
+		((SoftRdmaEventChannel) cmChannel).post(new RdmaCmEvent(event.ordinal(), listenId, this));
+	}
+}
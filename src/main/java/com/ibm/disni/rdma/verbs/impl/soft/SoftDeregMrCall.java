@@ -0,0 +1,67 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.SVCDeregMr;
+
+
+public class SoftDeregMrCall extends SVCDeregMr {
+	private RdmaVerbsSoft verbs;
+	private SoftIbvMr mr;
+	private boolean valid;
+
+	public SoftDeregMrCall(RdmaVerbsSoft verbs) {
+		this.verbs = verbs;
+		this.valid = false;
+	}
+
+	public void set(IbvMr mr) {
+		this.mr = (SoftIbvMr) mr;
+		this.valid = true;
+	}
+
+	@Override
+	public SVCDeregMr execute() throws IOException {
+		if (!mr.isOpen()) {
+			throw new IOException("Trying to deregister closed memory region.");
+		}
+		mr.close();
+		((SoftIbvContext) mr.getContext()).removeMr(mr);
+		return this;
+	}
+
+	@Override
+	public boolean isValid() {
+		return valid;
+	}
+
+	@Override
+	public SVCDeregMr free() {
+		this.valid = false;
+		verbs.free(this);
+		return this;
+	}
+}
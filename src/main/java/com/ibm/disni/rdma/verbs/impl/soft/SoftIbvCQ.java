@@ -0,0 +1,133 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvCQ;
+import com.ibm.disni.rdma.verbs.IbvCompChannel;
+import com.ibm.disni.rdma.verbs.IbvContext;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.util.DiSNILogger;
+
+/**
+ * Completion queue of the soft providers. Completions are kept in a fixed-size ring of primitive arrays, so adding and polling does not allocate.
+ */
+public class SoftIbvCQ extends IbvCQ {
+	private static final Logger logger = DiSNILogger.getLogger();
+
+	private long[] wrId;
+	private int[] status;
+	private int[] opcode;
+	private int[] byteLen;
+	private int[] immData;
+	private int[] qpNum;
+	private int[] srcQp;
+	private int[] wcFlags;
+	private int head;
+	private int size;
+	private boolean armed;
+	private boolean solicitedOnly;
+	private boolean overflow;
+
+	public SoftIbvCQ(IbvContext context, IbvCompChannel compChannel, int ncqe, int handle) throws IOException {
+		super(context, compChannel, handle);
+		this.cqe = ncqe;
+		this.wrId = new long[ncqe];
+		this.status = new int[ncqe];
+		this.opcode = new int[ncqe];
+		this.byteLen = new int[ncqe];
+		this.immData = new int[ncqe];
+		this.qpNum = new int[ncqe];
+		this.srcQp = new int[ncqe];
+		this.wcFlags = new int[ncqe];
+		this.head = 0;
+		this.size = 0;
+		this.armed = false;
+		this.solicitedOnly = false;
+		this.overflow = false;
+	}
+
+	/**
+	 * Adds a completion to this CQ and raises a completion event if the CQ is armed.
+	 *
+	 * @return false if the CQ overflowed and the completion was dropped.
+	 */
+	public synchronized boolean add(long wr_id, int wcStatus, int wcOpcode, int byte_len, int imm_data, int flags, int qp_num, int src_qp, boolean solicited) {
+		if (size == cqe) {
+			if (!overflow) {
+				logger.info("CQ overrun, cqe " + cqe + ", dropping completions");
+				overflow = true;
+			}
+			return false;
+		}
+		int index = (head + size) % cqe;
+		wrId[index] = wr_id;
+		status[index] = wcStatus;
+		opcode[index] = wcOpcode;
+		byteLen[index] = byte_len;
+		immData[index] = imm_data;
+		wcFlags[index] = flags;
+		qpNum[index] = qp_num;
+		srcQp[index] = src_qp;
+		size++;
+
+		if (armed && (!solicitedOnly || solicited || wcStatus != IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal())) {
+			armed = false;
+			if (channel != null) {
+				((SoftIbvCompChannel) channel).notify(this);
+			}
+		}
+		return true;
+	}
+
+	public int pollCompletions(IbvWC[] wcList, int ne) {
+		return pollCompletions(wcList, 0, ne);
+	}
+
+	public synchronized int pollCompletions(IbvWC[] wcList, int offset, int ne) {
+		int polls = Math.min(ne, size);
+		for (int i = 0; i < polls; i++) {
+			IbvWC wc = wcList[offset + i];
+			wc.setWr_id(wrId[head]);
+			wc.setStatus(status[head]);
+			wc.setOpcode(opcode[head]);
+			wc.setVendor_err(0);
+			wc.setByte_len(byteLen[head]);
+			wc.setImm_data(immData[head]);
+			wc.setQp_num(qpNum[head]);
+			wc.setSrc_qp(srcQp[head]);
+			wc.setWc_flags(wcFlags[head]);
+			head = (head + 1) % cqe;
+		}
+		size -= polls;
+		return polls;
+	}
+
+	public synchronized void arm(boolean solicited_only) {
+		this.solicitedOnly = solicited_only;
+		this.armed = true;
+	}
+}
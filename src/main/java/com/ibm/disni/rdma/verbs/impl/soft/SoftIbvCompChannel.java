@@ -0,0 +1,62 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.disni.rdma.verbs.IbvCompChannel;
+import com.ibm.disni.rdma.verbs.IbvContext;
+
+public class SoftIbvCompChannel extends IbvCompChannel {
+	private LinkedBlockingQueue<SoftIbvCQ> events;
+
+	public SoftIbvCompChannel(int fd, IbvContext context) throws IOException {
+		super(fd, context);
+		this.events = new LinkedBlockingQueue<SoftIbvCQ>();
+	}
+
+	void notify(SoftIbvCQ cq) {
+		events.add(cq);
+	}
+
+	/**
+	 * Waits for the next completion event.
+	 *
+	 * @param timeout in milliseconds, a negative value waits forever.
+	 * @return the CQ that raised the event or null on timeout.
+	 */
+	SoftIbvCQ getEvent(int timeout) throws IOException {
+		try {
+			if (timeout < 0) {
+				return events.take();
+			}
+			return events.poll(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for CQ event");
+		}
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ibm.disni.rdma.verbs.IbvAsyncEvent;
+import com.ibm.disni.rdma.verbs.IbvContext;
+
+/**
+ * The device of a soft provider. Keeps track of memory regions and queue pairs, and validates local and remote memory accesses.
+ */
+public class SoftIbvContext extends IbvContext {
+	private static final int KEY_SCRAMBLE = 0x9E3779B1;
+
+	private SoftTransport transport;
+	private AtomicInteger handleCounter;
+	private AtomicInteger qpCounter;
+	private ConcurrentHashMap<Integer, SoftIbvMr> mrMap;
+	private ConcurrentHashMap<Integer, SoftIbvQP> qpMap;
+	private LinkedBlockingQueue<IbvAsyncEvent> asyncEvents;
+
+	public SoftIbvContext(SoftTransport transport, int cmd_fd, int numCompVectors) throws IOException {
+		super(cmd_fd, numCompVectors);
+		this.transport = transport;
+		this.handleCounter = new AtomicInteger(1);
+		this.qpCounter = new AtomicInteger(1);
+		this.mrMap = new ConcurrentHashMap<Integer, SoftIbvMr>();
+		this.qpMap = new ConcurrentHashMap<Integer, SoftIbvQP>();
+		this.asyncEvents = new LinkedBlockingQueue<IbvAsyncEvent>();
+	}
+
+	public SoftTransport getTransport() {
+		return transport;
+	}
+
+	int nextHandle() {
+		return handleCounter.getAndIncrement();
+	}
+
+	/*
+	 * Keys are derived from the handle with a bijective scramble, so they are unique
+	 * but not trivially guessable by a peer.
+	 */
+	int nextKey(int handle) {
+		return handle * KEY_SCRAMBLE;
+	}
+
+	int nextQpNum() {
+		return qpCounter.getAndIncrement();
+	}
+
+	void addMr(SoftIbvMr mr) {
+		mrMap.put(mr.getLkey(), mr);
+		transport.registered(mr);
+	}
+
+	void removeMr(SoftIbvMr mr) {
+		transport.deregistered(mr);
+		mrMap.remove(mr.getLkey());
+	}
+
+	/*
+	 * Window rkeys are chosen by the application, a bind fails if the rkey is taken.
+	 */
+	boolean addWindow(SoftIbvMr region) {
+		if (mrMap.putIfAbsent(region.getRkey(), region) != null) {
+			return false;
+		}
+		transport.registered(region);
+		return true;
+	}
+
+	void removeWindow(SoftIbvMr region) {
+		transport.deregistered(region);
+		mrMap.remove(region.getRkey(), region);
+	}
+
+	/**
+	 * Returns the region of a bound memory window, or null if the rkey belongs to no window of the given protection domain.
+	 */
+	SoftIbvMr lookupWindow(SoftIbvPd pd, int rkey) {
+		SoftIbvMr region = mrMap.get(rkey);
+		if (region == null || region.getWindow() == null || region.getPd() != pd) {
+			return null;
+		}
+		return region;
+	}
+
+	void addQP(SoftIbvQP qp) {
+		qpMap.put(qp.getQpNum(), qp);
+	}
+
+	void removeQP(SoftIbvQP qp) {
+		qpMap.remove(qp.getQpNum());
+	}
+
+	public SoftIbvQP getQP(int qpNum) {
+		return qpMap.get(qpNum);
+	}
+
+	void postAsyncEvent(IbvAsyncEvent event) {
+		asyncEvents.add(event);
+	}
+
+	/**
+	 * Waits for the next asynchronous event, returns null if none arrived within the timeout (-1 waits forever).
+	 */
+	IbvAsyncEvent pollAsyncEvent(int timeout) throws IOException {
+		try {
+			if (timeout < 0) {
+				return asyncEvents.take();
+			}
+			return asyncEvents.poll(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			throw new IOException("Get async event interrupted");
+		}
+	}
+
+	/**
+	 * Validates a local memory access.
+	 *
+	 * @param pd the protection domain of the accessing queue pair.
+	 * @param lkey the local key.
+	 * @param address start of the access.
+	 * @param length length of the access.
+	 * @param access required access rights, 0 for local read.
+	 * @return the memory region, or null if the access is not permitted.
+	 */
+	public SoftIbvMr lookupLocal(SoftIbvPd pd, int lkey, long address, int length, int access) {
+		SoftIbvMr mr = mrMap.get(lkey);
+		if (mr == null || mr.getWindow() != null || !mr.covers(pd, address, length, access)) {
+			return null;
+		}
+		return mr;
+	}
+
+	/**
+	 * Validates a remote memory access.
+	 *
+	 * @param pd the protection domain of the target queue pair.
+	 * @param rkey the remote key.
+	 * @param address start of the access.
+	 * @param length length of the access.
+	 * @param access required access rights (IBV_ACCESS_REMOTE_*).
+	 * @return the memory region, or null if the access is not permitted.
+	 */
+	public SoftIbvMr lookupRemote(SoftIbvPd pd, int rkey, long address, int length, int access) {
+		SoftIbvMr mr = mrMap.get(rkey);
+		if (mr == null || !mr.covers(pd, address, length, access)) {
+			return null;
+		}
+		return mr;
+	}
+
+	/**
+	 * Validates all entries of a scatter/gather list and attaches the memory of their regions.
+	 *
+	 * @return true if all entries are accessible with the given rights.
+	 */
+	public boolean validate(SoftIbvPd pd, SoftSgl sgl, int access) {
+		for (int i = 0; i < sgl.count(); i++) {
+			if (sgl.getLength(i) == 0) {
+				continue;
+			}
+			SoftIbvMr mr = lookupLocal(pd, sgl.getLkey(i), sgl.getAddr(i), sgl.getLength(i), access);
+			if (mr == null) {
+				return false;
+			}
+			sgl.setMemory(i, mr.getMemory());
+		}
+		return true;
+	}
+}
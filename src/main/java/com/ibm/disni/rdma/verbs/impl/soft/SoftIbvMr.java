@@ -0,0 +1,90 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.ibm.disni.rdma.verbs.IbvContext;
+import com.ibm.disni.rdma.verbs.IbvMr;
+
+public class SoftIbvMr extends IbvMr {
+	private SoftIbvPd pd;
+	private ByteBuffer buffer;
+	private SoftMemory memory;
+	private SoftIbvMw window;
+
+	public SoftIbvMr(IbvContext context, SoftIbvPd pd, long addr, int length, int access, int key, int handle, ByteBuffer buffer) throws IOException {
+		super(context, addr, length, access, key, key, handle);
+		this.pd = pd;
+		this.buffer = buffer;
+		this.memory = buffer != null ? SoftMemory.wrap(buffer) : SoftMemory.PROCESS;
+	}
+
+	/**
+	 * The registered buffer, or null if the region was registered by address.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Returns a new buffer covering the given part of this region, or null if the region was registered by address.
+	 */
+	public ByteBuffer view(long address, int len) {
+		return memory.view(address, len);
+	}
+
+	SoftMemory getMemory() {
+		return memory;
+	}
+
+	/**
+	 * The memory window this region was bound for, or null for a registered region.
+	 */
+	public SoftIbvMw getWindow() {
+		return window;
+	}
+
+	void setWindow(SoftIbvMw window) {
+		this.window = window;
+	}
+
+	public SoftIbvPd getPd() {
+		return pd;
+	}
+
+	public int getAccess() {
+		return access;
+	}
+
+	boolean covers(SoftIbvPd pd, long address, int len, int rights) {
+		if (!isOpen || this.pd != pd) {
+			return false;
+		}
+		if ((access & rights) != rights) {
+			return false;
+		}
+		return address >= addr && len >= 0 && address + len <= addr + length;
+	}
+}
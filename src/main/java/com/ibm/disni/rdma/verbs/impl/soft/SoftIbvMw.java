@@ -0,0 +1,102 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvMw;
+import com.ibm.disni.rdma.verbs.IbvWC;
+
+/**
+ * Memory window of the soft providers. A bound window is a memory region under the rkey of the bind which
+ * serves remote accesses only, binding and invalidating the window replaces or removes that region.
+ */
+public class SoftIbvMw extends IbvMw {
+	static final int WC_MW_BIND_ERR = IbvWC.IbvWcStatus.IBV_WC_MW_BIND_ERR.ordinal();
+	private static final int REMOTE_ACCESS = IbvMr.IBV_ACCESS_REMOTE_READ | IbvMr.IBV_ACCESS_REMOTE_WRITE | IbvMr.IBV_ACCESS_REMOTE_ATOMIC;
+
+	private SoftIbvContext context;
+	private int baseKey;
+	private SoftIbvMr region;
+
+	public SoftIbvMw(SoftIbvContext context, SoftIbvPd pd, int key, int handle, int type) throws IOException {
+		super(pd, key, handle, type);
+		this.context = context;
+		this.baseKey = key & 0xffffff00;
+	}
+
+	/**
+	 * Executes IBV_WR_BIND_MW on a QP of the given protection domain.
+	 *
+	 * @return the IbvWcStatus ordinal.
+	 */
+	synchronized int bind(SoftIbvPd qpPd, IbvMr ibvMr, int rkey, long address, long len, int access) throws IOException {
+		if (!isOpen || type != IBV_MW_TYPE_2 || pd != qpPd || (rkey & 0xffffff00) != baseKey) {
+			return WC_MW_BIND_ERR;
+		}
+		if (!(ibvMr instanceof SoftIbvMr) || (access & ~REMOTE_ACCESS) != 0 || len > Integer.MAX_VALUE) {
+			return WC_MW_BIND_ERR;
+		}
+		SoftIbvMr mr = (SoftIbvMr) ibvMr;
+		if (!mr.covers(qpPd, address, (int) len, IbvMr.IBV_ACCESS_MW_BIND)) {
+			return WC_MW_BIND_ERR;
+		}
+		int writeAccess = IbvMr.IBV_ACCESS_REMOTE_WRITE | IbvMr.IBV_ACCESS_REMOTE_ATOMIC;
+		if ((access & writeAccess) != 0 && (mr.getAccess() & IbvMr.IBV_ACCESS_LOCAL_WRITE) == 0) {
+			return WC_MW_BIND_ERR;
+		}
+		unbind();
+		ByteBuffer view = mr.view(address, (int) len);
+		SoftIbvMr bound = new SoftIbvMr(context, qpPd, address, (int) len, access, rkey, handle, view != null ? view.slice() : null);
+		bound.setWindow(this);
+		if (!context.addWindow(bound)) {
+			return WC_MW_BIND_ERR;
+		}
+		this.region = bound;
+		return IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal();
+	}
+
+	/**
+	 * Removes the region of the current bind if it is still the given one.
+	 */
+	synchronized void invalidate(SoftIbvMr bound) {
+		if (region == bound) {
+			unbind();
+		}
+	}
+
+	private void unbind() {
+		if (region != null) {
+			context.removeWindow(region);
+			region.close();
+			region = null;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		unbind();
+		super.close();
+	}
+}
@@ -0,0 +1,449 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvQP;
+import com.ibm.disni.rdma.verbs.IbvQPInitAttr;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvWC;
+
+/**
+ * Queue pair of the soft providers.
+ *
+ * The receive side (posted receives, inbound messages waiting for a receive, flushing) is implemented here and shared by all transports.
+ * The send side only does the bookkeeping, the actual data movement is done by the SoftTransport the QP belongs to.
+ * Transports may finish send work requests in any order, completions are reported in posting order as on a reliable connection.
+ */
+public class SoftIbvQP extends IbvQP {
+	static final int WC_SUCCESS = IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal();
+	static final int WC_LOC_LEN_ERR = IbvWC.IbvWcStatus.IBV_WC_LOC_LEN_ERR.ordinal();
+	static final int WC_LOC_QP_OP_ERR = IbvWC.IbvWcStatus.IBV_WC_LOC_QP_OP_ERR.ordinal();
+	static final int WC_LOC_PROT_ERR = IbvWC.IbvWcStatus.IBV_WC_LOC_PROT_ERR.ordinal();
+	static final int WC_WR_FLUSH_ERR = IbvWC.IbvWcStatus.IBV_WC_WR_FLUSH_ERR.ordinal();
+	static final int WC_REM_INV_REQ_ERR = IbvWC.IbvWcStatus.IBV_WC_REM_INV_REQ_ERR.ordinal();
+	static final int WC_REM_ACCESS_ERR = IbvWC.IbvWcStatus.IBV_WC_REM_ACCESS_ERR.ordinal();
+	static final int WC_REM_OP_ERR = IbvWC.IbvWcStatus.IBV_WC_REM_OP_ERR.ordinal();
+	static final int WC_RETRY_EXC_ERR = IbvWC.IbvWcStatus.IBV_WC_RETRY_EXC_ERR.ordinal();
+
+	private SoftIbvContext softContext;
+	private SoftIbvPd softPd;
+	private SoftIbvCQ sendCq;
+	private SoftIbvCQ recvCq;
+	private SoftCmId cmId;
+	private int maxSendWr;
+	private int maxRecvWr;
+	private boolean sigAll;
+	private Object sendQueue;
+	private long[] sqWrId;
+	private int[] sqOpcode;
+	private int[] sqFlags;
+	private int[] sqStatus;
+	private int[] sqLength;
+	private boolean[] sqDone;
+	private int sqHead;
+	private int sqTail;
+	private boolean sqFailed;
+	private ArrayDeque<SoftRecvWR> recvQueue;
+	private SoftIbvSrq srq;
+	private ArrayDeque<SoftMessage> pendingQueue;
+	private volatile boolean ready;
+	private volatile boolean error;
+	private boolean flushed;
+	private volatile Object link;
+
+	public SoftIbvQP(SoftIbvContext context, SoftIbvPd pd, SoftCmId cmId, IbvQPInitAttr attr, int qpnum) throws IOException {
+		super(qpnum);
+		this.context = context;
+		this.pd = pd;
+		this.send_cq = attr.getSend_cq();
+		this.recv_cq = attr.getRecv_cq();
+		this.qp_type = attr.getQp_type();
+		this.handle = qpnum;
+		this.state = IBV_QPS_INIT;
+		this.softContext = context;
+		this.softPd = pd;
+		this.sendCq = (SoftIbvCQ) attr.getSend_cq();
+		this.recvCq = (SoftIbvCQ) attr.getRecv_cq();
+		this.cmId = cmId;
+		this.maxSendWr = attr.cap().getMax_send_wr();
+		this.maxRecvWr = attr.cap().getMax_recv_wr();
+		this.max_inline_data = attr.cap().getMax_inline_data();
+		this.sigAll = attr.getSq_sig_all() != 0;
+		this.sendQueue = new Object();
+		int sqSize = Math.max(maxSendWr, 1);
+		this.sqWrId = new long[sqSize];
+		this.sqOpcode = new int[sqSize];
+		this.sqFlags = new int[sqSize];
+		this.sqStatus = new int[sqSize];
+		this.sqLength = new int[sqSize];
+		this.sqDone = new boolean[sqSize];
+		this.sqHead = 0;
+		this.sqTail = 0;
+		this.sqFailed = false;
+		this.recvQueue = new ArrayDeque<SoftRecvWR>();
+		this.srq = (SoftIbvSrq) attr.getSrq();
+		this.pendingQueue = new ArrayDeque<SoftMessage>();
+		this.ready = false;
+		this.error = false;
+		this.flushed = false;
+		this.link = null;
+	}
+
+	public int getQpNum() {
+		return qp_num;
+	}
+
+	public SoftIbvContext getSoftContext() {
+		return softContext;
+	}
+
+	public SoftIbvPd getSoftPd() {
+		return softPd;
+	}
+
+	public SoftCmId getCmId() {
+		return cmId;
+	}
+
+	public int getMaxSendWr() {
+		return sqWrId.length;
+	}
+
+	SoftIbvSrq getSrq() {
+		return srq;
+	}
+
+	/**
+	 * Transport specific state of the connection this QP belongs to, e.g., the peer QP for loopback.
+	 */
+	public Object getLink() {
+		return link;
+	}
+
+	public void setLink(Object link) {
+		this.link = link;
+	}
+
+	public boolean isReady() {
+		return ready && !error;
+	}
+
+	/**
+	 * Whether this is an unreliable datagram (UD) QP. UD QPs are ready to send once created, inbound messages
+	 * are dropped if no receive is posted and receive errors do not move the QP into the error state.
+	 */
+	public boolean isDatagram() {
+		return qp_type == IBV_QPT_UD;
+	}
+
+	/**
+	 * Moves the QP to the ready-to-send state.
+	 */
+	public void connected() {
+		synchronized (recvQueue) {
+			if (!error) {
+				this.state = IBV_QPS_RTS;
+				this.ready = true;
+			}
+		}
+	}
+
+	//------------ send side
+
+	/**
+	 * Queues a new send work request and hands it to the transport.
+	 */
+	public void postSend(SoftSendWR wr) throws IOException {
+		if (!ready && !error) {
+			throw new IOException("Post send failed, QP not connected");
+		}
+		if (wr.getOpcode() == IbvSendWR.IBV_WR_SEND_WITH_INV) {
+			throw new IOException("Post send failed, send with invalidate not supported");
+		}
+		int slot;
+		synchronized (sendQueue) {
+			if (sqTail - sqHead >= sqWrId.length) {
+				throw new IOException("Post send failed, send queue full");
+			}
+			slot = sqTail % sqWrId.length;
+			sqTail++;
+			sqWrId[slot] = wr.getWr_id();
+			sqOpcode[slot] = wr.getOpcode();
+			sqFlags[slot] = wr.getSend_flags();
+			sqDone[slot] = false;
+		}
+		if (error) {
+			completeSend(slot, WC_WR_FLUSH_ERR, 0);
+			return;
+		}
+		if (wr.getOpcode() == IbvSendWR.IBV_WR_BIND_MW || wr.getOpcode() == IbvSendWR.IBV_WR_LOCAL_INV) {
+			completeSend(slot, executeLocal(wr), 0);
+			return;
+		}
+		softContext.getTransport().postSend(this, slot, wr);
+	}
+
+	/*
+	 * Memory window operations only change the memory table of the device, they never reach the transport.
+	 */
+	private int executeLocal(SoftSendWR wr) {
+		if (wr.getOpcode() == IbvSendWR.IBV_WR_BIND_MW) {
+			IbvSendWR.BindMw bind = wr.getBind_mw();
+			if (!(bind.getMw() instanceof SoftIbvMw)) {
+				return SoftIbvMw.WC_MW_BIND_ERR;
+			}
+			try {
+				return ((SoftIbvMw) bind.getMw()).bind(softPd, bind.getMr(), bind.getRkey(), bind.getAddr(), bind.getLength(), bind.getMw_access_flags());
+			} catch (IOException e) {
+				return SoftIbvMw.WC_MW_BIND_ERR;
+			}
+		}
+		SoftIbvMr region = softContext.lookupWindow(softPd, wr.getInvalidate_rkey());
+		if (region == null) {
+			return WC_LOC_QP_OP_ERR;
+		}
+		region.getWindow().invalidate(region);
+		return WC_SUCCESS;
+	}
+
+	/**
+	 * Finishes the send work request in the given send queue slot. Completions are generated in posting order for all
+	 * requests which were signaled or have failed, requests finished after a failure are reported as flushed.
+	 *
+	 * @param slot the slot passed to SoftTransport.postSend().
+	 * @param status the IbvWcStatus ordinal.
+	 */
+	public void completeSend(int slot, int status, int byteLen) {
+		boolean failed;
+		synchronized (sendQueue) {
+			sqStatus[slot] = status;
+			sqLength[slot] = byteLen;
+			sqDone[slot] = true;
+			while (sqHead != sqTail && sqDone[sqHead % sqWrId.length]) {
+				int head = sqHead % sqWrId.length;
+				int wcStatus = sqStatus[head];
+				if (wcStatus == WC_SUCCESS && sqFailed) {
+					wcStatus = WC_WR_FLUSH_ERR;
+				}
+				if (wcStatus != WC_SUCCESS) {
+					sqFailed = true;
+				}
+				if (wcStatus != WC_SUCCESS || sigAll || (sqFlags[head] & IbvSendWR.IBV_SEND_SIGNALED) != 0) {
+					sendCq.add(sqWrId[head], wcStatus, sendOpcode(sqOpcode[head]), wcStatus == WC_SUCCESS ? sqLength[head] : 0, 0, 0, qp_num, 0, false);
+				}
+				sqHead++;
+			}
+			failed = sqFailed;
+		}
+		if (failed) {
+			flush();
+		}
+	}
+
+	//------------ receive side
+
+	public void postRecv(SoftRecvWR wr) throws IOException {
+		if (srq != null) {
+			throw new IOException("Post recv failed, QP is attached to a shared receive queue");
+		}
+		synchronized (recvQueue) {
+			if (error) {
+				recvCq.add(wr.getWr_id(), WC_WR_FLUSH_ERR, IbvWC.IbvWcOpcode.IBV_WC_RECV.getOpcode(), 0, 0, 0, qp_num, 0, false);
+				return;
+			}
+			if (recvQueue.size() >= maxRecvWr) {
+				throw new IOException("Post recv failed, receive queue full");
+			}
+			recvQueue.add(wr);
+		}
+		matchPending();
+	}
+
+	/**
+	 * Matches inbound messages waiting for a receive with newly posted receives.
+	 */
+	void matchPending() {
+		ArrayDeque<SoftMessage> matched = null;
+		synchronized (recvQueue) {
+			while (!error && !pendingQueue.isEmpty()) {
+				SoftRecvWR wr = nextRecv();
+				if (wr == null) {
+					break;
+				}
+				SoftMessage msg = pendingQueue.poll();
+				msg.status = consume(wr, msg);
+				if (matched == null) {
+					matched = new ArrayDeque<SoftMessage>();
+				}
+				matched.add(msg);
+			}
+		}
+		if (matched != null) {
+			for (SoftMessage msg : matched) {
+				msg.completed(msg.status);
+			}
+		}
+		if (error) {
+			flush();
+		}
+	}
+
+	/**
+	 * Matches an inbound message with the next posted receive. If no receive is posted,
+	 * a detached copy of the message is queued until one is (RNR retry with infinite retry count).
+	 *
+	 * The sender is notified through SoftMessage.completed() once no lock of this QP is held.
+	 */
+	public void deliver(SoftMessage msg) {
+		int status;
+		SoftRecvWR wr;
+		synchronized (recvQueue) {
+			if (error) {
+				status = WC_RETRY_EXC_ERR;
+			} else if (pendingQueue.isEmpty() && (wr = nextRecv()) != null) {
+				status = consume(wr, msg);
+			} else if (isDatagram()) {
+				status = WC_SUCCESS;
+			} else {
+				pendingQueue.add(msg.detach());
+				return;
+			}
+		}
+		msg.completed(status);
+		if (status != WC_SUCCESS) {
+			flush();
+		}
+	}
+
+	/**
+	 * Checks whether a remote peer may access the given memory area of this QP.
+	 */
+	public boolean checkRemote(int rkey, long address, int length, int access) {
+		return remoteRegion(rkey, address, length, access) != null;
+	}
+
+	/**
+	 * Returns the memory region a remote peer accesses, or null if the access is not permitted.
+	 */
+	public SoftIbvMr remoteRegion(int rkey, long address, int length, int access) {
+		if (error) {
+			return null;
+		}
+		return softContext.lookupRemote(softPd, rkey, address, length, access);
+	}
+
+	/**
+	 * Checks whether this QP may access the memory described by a local scatter/gather list.
+	 *
+	 * @param write whether the memory is going to be written.
+	 */
+	public boolean checkLocal(SoftSgl sgl, boolean write) {
+		return softContext.validate(softPd, sgl, write ? IbvMr.IBV_ACCESS_LOCAL_WRITE : 0);
+	}
+
+	/**
+	 * Moves the QP into the error state and flushes all posted receives and pending inbound messages.
+	 */
+	public void flush() {
+		ArrayDeque<SoftMessage> pending;
+		synchronized (recvQueue) {
+			if (flushed) {
+				return;
+			}
+			this.flushed = true;
+			this.error = true;
+			this.state = IBV_QPS_ERR;
+			while (!recvQueue.isEmpty()) {
+				SoftRecvWR wr = recvQueue.poll();
+				recvCq.add(wr.getWr_id(), WC_WR_FLUSH_ERR, IbvWC.IbvWcOpcode.IBV_WC_RECV.getOpcode(), 0, 0, 0, qp_num, 0, false);
+			}
+			pending = pendingQueue;
+			pendingQueue = new ArrayDeque<SoftMessage>();
+		}
+		for (SoftMessage msg : pending) {
+			msg.completed(WC_WR_FLUSH_ERR);
+		}
+	}
+
+	/*
+	 * Called with the receive queue locked. Receives posted to a shared receive queue are not flushed with the QP.
+	 */
+	private SoftRecvWR nextRecv() {
+		return srq != null ? srq.take() : recvQueue.poll();
+	}
+
+	/*
+	 * Called with the receive queue locked. Returns the status reported to the sender.
+	 */
+	private int consume(SoftRecvWR wr, SoftMessage msg) {
+		int status = WC_SUCCESS;
+		int flags = 0;
+		int wcOpcode = IbvWC.IbvWcOpcode.IBV_WC_RECV.getOpcode();
+		int grh = isDatagram() ? IbvWC.GRH_SIZE : 0;
+		if (msg.getOpcode() == IbvSendWR.IBV_WR_RDMA_WRITE_WITH_IMM) {
+			wcOpcode = IbvWC.IbvWcOpcode.IBV_WC_RECV_RDMA_WITH_IMM.getOpcode();
+			flags = IbvWC.IBV_WC_WITH_IMM;
+		} else {
+			if (msg.getOpcode() == IbvSendWR.IBV_WR_SEND_WITH_IMM) {
+				flags = IbvWC.IBV_WC_WITH_IMM;
+			}
+			SoftSgl scatter = wr.scatter();
+			if (scatter.total() < grh + msg.getLength()) {
+				status = WC_LOC_LEN_ERR;
+			} else if (!softContext.validate(softPd, scatter, IbvMr.IBV_ACCESS_LOCAL_WRITE)) {
+				status = WC_LOC_PROT_ERR;
+			} else {
+				SoftSgl.copy(msg.getPayload(), scatter, grh);
+			}
+		}
+		recvCq.add(wr.getWr_id(), status, wcOpcode, grh + msg.getLength(), msg.getImmData(), flags, qp_num, msg.getSrcQp(), msg.isSolicited());
+		if (status == WC_SUCCESS || isDatagram()) {
+			return WC_SUCCESS;
+		}
+		this.error = true;
+		return status == WC_LOC_LEN_ERR ? WC_REM_INV_REQ_ERR : WC_REM_OP_ERR;
+	}
+
+	static int sendOpcode(int opcode) {
+		switch (opcode) {
+		case IbvSendWR.IBV_WR_RDMA_WRITE:
+		case IbvSendWR.IBV_WR_RDMA_WRITE_WITH_IMM:
+			return IbvWC.IbvWcOpcode.IBV_WC_RDMA_WRITE.getOpcode();
+		case IbvSendWR.IBV_WR_RDMA_READ:
+			return IbvWC.IbvWcOpcode.IBV_WC_RDMA_READ.getOpcode();
+		case IbvSendWR.IBV_WR_ATOMIC_CMP_AND_SWP:
+			return IbvWC.IbvWcOpcode.IBV_WC_COMP_SWAP.getOpcode();
+		case IbvSendWR.IBV_WR_ATOMIC_FETCH_AND_ADD:
+			return IbvWC.IbvWcOpcode.IBV_WC_FETCH_ADD.getOpcode();
+		case IbvSendWR.IBV_WR_BIND_MW:
+			return IbvWC.IbvWcOpcode.IBV_WC_BIND_MW.getOpcode();
+		case IbvSendWR.IBV_WR_LOCAL_INV:
+			return IbvWC.IbvWcOpcode.IBV_WC_LOCAL_INV.getOpcode();
+		default:
+			return IbvWC.IbvWcOpcode.IBV_WC_SEND.getOpcode();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.ibm.disni.rdma.verbs.IbvAsyncEvent;
+import com.ibm.disni.rdma.verbs.IbvPd;
+import com.ibm.disni.rdma.verbs.IbvSrqInitAttr;
+import com.ibm.disni.rdma.verbs.IbvSrq;
+
+/**
+ * Shared receive queue of the soft providers. QPs created with the SRQ take their receives from here,
+ * inbound messages which found the SRQ empty wait on their QP until a receive is posted.
+ */
+public class SoftIbvSrq extends IbvSrq {
+	private SoftIbvContext softContext;
+	private ArrayDeque<SoftRecvWR> queue;
+	private CopyOnWriteArrayList<SoftIbvQP> qps;
+	private int limit;
+
+	public SoftIbvSrq(SoftIbvContext context, IbvPd pd, IbvSrqInitAttr attr) throws IOException {
+		super(pd, attr.getMax_wr(), attr.getMax_sge());
+		this.softContext = context;
+		this.queue = new ArrayDeque<SoftRecvWR>();
+		this.qps = new CopyOnWriteArrayList<SoftIbvQP>();
+		this.limit = attr.getSrq_limit();
+	}
+
+	void attach(SoftIbvQP qp) {
+		qps.add(qp);
+	}
+
+	void detach(SoftIbvQP qp) {
+		qps.remove(qp);
+	}
+
+	public void postRecv(SoftRecvWR wr) throws IOException {
+		synchronized (queue) {
+			if (queue.size() >= maxWr) {
+				throw new IOException("Post recv failed, shared receive queue full");
+			}
+			queue.add(wr);
+		}
+		for (SoftIbvQP qp : qps) {
+			qp.matchPending();
+		}
+	}
+
+	/**
+	 * Takes the next receive, or returns null if none is posted. Raises the limit event
+	 * once the number of posted receives drops below an armed limit.
+	 */
+	SoftRecvWR take() {
+		SoftRecvWR wr;
+		boolean reached;
+		synchronized (queue) {
+			wr = queue.poll();
+			reached = checkLimit();
+		}
+		if (reached) {
+			softContext.postAsyncEvent(new IbvAsyncEvent(IbvAsyncEvent.IBV_EVENT_SRQ_LIMIT_REACHED, this));
+		}
+		return wr;
+	}
+
+	/**
+	 * Arms the limit event. If fewer receives than the limit are posted already, the event is raised right away.
+	 */
+	void arm(int srqLimit) {
+		boolean reached;
+		synchronized (queue) {
+			this.limit = srqLimit;
+			reached = checkLimit();
+		}
+		if (reached) {
+			softContext.postAsyncEvent(new IbvAsyncEvent(IbvAsyncEvent.IBV_EVENT_SRQ_LIMIT_REACHED, this));
+		}
+	}
+
+	/*
+	 * Called with the queue locked, the event fires once per arming.
+	 */
+	private boolean checkLimit() {
+		if (limit > 0 && queue.size() < limit) {
+			this.limit = 0;
+			return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import com.ibm.disni.util.MemoryUtils;
+
+/**
+ * Memory accessed by the soft providers, a direct buffer together with the address of its first byte. Accesses are
+ * given by address and have to lie within the buffer, values are stored in native byte order.
+ *
+ * PROCESS stands for memory no buffer is known for, i.e., regions registered by address. It is read and written
+ * through /proc/self/mem.
+ */
+final class SoftMemory {
+	static final SoftMemory PROCESS = new SoftMemory(null, 0);
+
+	private static final Object processLock = new Object();
+	private static FileChannel processChannel = null;
+	private static volatile int fence = 0;
+
+	private final ByteBuffer buffer;
+	private final long address;
+
+	private SoftMemory(ByteBuffer buffer, long address) {
+		this.buffer = buffer;
+		this.address = address;
+	}
+
+	/**
+	 * Covers the whole capacity of a direct buffer, independent of its position and limit.
+	 */
+	static SoftMemory wrap(ByteBuffer buffer) {
+		ByteBuffer window = buffer.duplicate().order(ByteOrder.nativeOrder());
+		window.clear();
+		return new SoftMemory(window, MemoryUtils.getAddress(buffer));
+	}
+
+	/**
+	 * The address of the first byte of the buffer, 0 for PROCESS.
+	 */
+	long getAddress() {
+		return address;
+	}
+
+	/**
+	 * Returns a new buffer covering the given memory, or null for PROCESS.
+	 */
+	ByteBuffer view(long address, int length) {
+		if (buffer == null) {
+			return null;
+		}
+		ByteBuffer view = buffer.duplicate();
+		int index = index(address);
+		view.limit(index + length).position(index);
+		return view;
+	}
+
+	/**
+	 * Reads the memory at the given address into the remaining part of a buffer.
+	 */
+	void read(long address, ByteBuffer dst) {
+		if (buffer != null) {
+			dst.put(view(address, dst.remaining()));
+			return;
+		}
+		try {
+			FileChannel channel = process();
+			long position = address;
+			while (dst.hasRemaining()) {
+				int count = channel.read(dst, position);
+				if (count <= 0) {
+					throw new EOFException("Unmapped memory");
+				}
+				position += count;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Trying to read process memory at " + address + ", " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Writes the remaining part of a buffer to the memory at the given address.
+	 */
+	void write(long address, ByteBuffer src) {
+		if (buffer != null) {
+			view(address, src.remaining()).put(src);
+			return;
+		}
+		try {
+			FileChannel channel = process();
+			long position = address;
+			while (src.hasRemaining()) {
+				int count = channel.write(src, position);
+				if (count <= 0) {
+					throw new EOFException("Unmapped memory");
+				}
+				position += count;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Trying to write process memory at " + address + ", " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Copies memory, through the buffers of source and destination where there are any.
+	 */
+	static void copy(SoftMemory src, long srcAddress, SoftMemory dst, long dstAddress, int length) {
+		if (length == 0) {
+			return;
+		}
+		ByteBuffer view = src.view(srcAddress, length);
+		if (view != null) {
+			dst.write(dstAddress, view);
+			return;
+		}
+		view = dst.view(dstAddress, length);
+		if (view != null) {
+			src.read(srcAddress, view);
+			return;
+		}
+		ByteBuffer staging = ByteBuffer.allocate(length);
+		src.read(srcAddress, staging);
+		staging.flip();
+		dst.write(dstAddress, staging);
+	}
+
+	int getInt(long address) {
+		if (buffer != null) {
+			return buffer.getInt(index(address));
+		}
+		return load(address, 4).getInt(0);
+	}
+
+	void putInt(long address, int value) {
+		if (buffer != null) {
+			buffer.putInt(index(address), value);
+			return;
+		}
+		ByteBuffer staging = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder());
+		write(address, staging.putInt(0, value));
+	}
+
+	long getLong(long address) {
+		if (buffer != null) {
+			return buffer.getLong(index(address));
+		}
+		return load(address, 8).getLong(0);
+	}
+
+	void putLong(long address, long value) {
+		if (buffer != null) {
+			buffer.putLong(index(address), value);
+			return;
+		}
+		ByteBuffer staging = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+		write(address, staging.putLong(0, value));
+	}
+
+	/*
+	 * The volatile accesses of the fence field around the plain accesses below keep the compiler from moving other
+	 * memory accesses across them. Shared memory written by another process is read with getIntVolatile() and
+	 * getLongVolatile(), and published with putIntOrdered() and putLongOrdered().
+	 */
+
+	int getIntVolatile(long address) {
+		int value = getInt(address);
+		acquire();
+		return value;
+	}
+
+	void putIntOrdered(long address, int value) {
+		fence = 0;
+		putInt(address, value);
+	}
+
+	long getLongVolatile(long address) {
+		long value = getLong(address);
+		acquire();
+		return value;
+	}
+
+	void putLongOrdered(long address, long value) {
+		fence = 0;
+		putLong(address, value);
+	}
+
+	private static void acquire() {
+		if (fence != 0) {
+			fence = 0;
+		}
+	}
+
+	private int index(long address) {
+		return (int) (address - this.address);
+	}
+
+	private ByteBuffer load(long address, int length) {
+		ByteBuffer staging = ByteBuffer.allocate(length).order(ByteOrder.nativeOrder());
+		read(address, staging);
+		return staging;
+	}
+
+	private static FileChannel process() throws IOException {
+		synchronized (processLock) {
+			if (processChannel == null) {
+				processChannel = FileChannel.open(Paths.get("/proc/self/mem"), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			}
+			return processChannel;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+/**
+ * An inbound message targeting the receive queue of a soft QP, i.e., a SEND, SEND_WITH_IMM or the immediate part of an RDMA_WRITE_WITH_IMM.
+ *
+ * Transports typically reuse message objects. If a message cannot be matched with a posted receive right away, the QP keeps a detached copy instead.
+ */
+public abstract class SoftMessage {
+	protected int opcode;
+	protected int immData;
+	protected boolean solicited;
+	protected int srcQp;
+	protected int length;
+	protected SoftSgl payload;
+	int status;
+
+	protected SoftMessage() {
+	}
+
+	/**
+	 * @param opcode the send opcode (IbvSendWR.IBV_WR_*).
+	 * @param immData immediate data, ignored for plain sends.
+	 * @param solicited whether the sender requested a solicited event.
+	 * @param srcQp the queue pair number of the sender.
+	 * @param length number of bytes transferred.
+	 * @param payload the data to be scattered into the receive buffers, null for RDMA_WRITE_WITH_IMM.
+	 */
+	public void set(int opcode, int immData, boolean solicited, int srcQp, int length, SoftSgl payload) {
+		this.opcode = opcode;
+		this.immData = immData;
+		this.solicited = solicited;
+		this.srcQp = srcQp;
+		this.length = length;
+		this.payload = payload;
+	}
+
+	public int getOpcode() {
+		return opcode;
+	}
+
+	public int getImmData() {
+		return immData;
+	}
+
+	public boolean isSolicited() {
+		return solicited;
+	}
+
+	public int getSrcQp() {
+		return srcQp;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public SoftSgl getPayload() {
+		return payload;
+	}
+
+	/**
+	 * Returns a copy of this message that stays valid after the call that delivered the message has returned.
+	 */
+	protected abstract SoftMessage detach();
+
+	/**
+	 * Called once the message has been consumed by the receiver, or has failed.
+	 *
+	 * @param status the IbvWcStatus ordinal reported to the sender.
+	 */
+	protected abstract void completed(int status);
+}
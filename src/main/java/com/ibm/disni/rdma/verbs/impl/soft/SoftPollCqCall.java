@@ -0,0 +1,93 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+
+import com.ibm.disni.rdma.verbs.IbvCQ;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.SVCPollCq;
+
+
+public class SoftPollCqCall extends SVCPollCq {
+	private RdmaVerbsSoft verbs;
+	private SoftIbvCQ cq;
+	private IbvWC[] wcList;
+	private int ne;
+	private int result;
+	private boolean valid;
+
+	public SoftPollCqCall(RdmaVerbsSoft verbs) {
+		this.verbs = verbs;
+		this.valid = false;
+	}
+
+	/*
+	 * Completions of calls created without an array are decoded into an array owned by this call.
+	 */
+	public void set(IbvCQ cq, IbvWC[] wcList, int ne) {
+		if (wcList == null) {
+			wcList = new IbvWC[ne];
+			for (int i = 0; i < ne; i++) {
+				wcList[i] = new IbvWC();
+			}
+		}
+		this.cq = (SoftIbvCQ) cq;
+		this.wcList = wcList;
+		this.ne = ne;
+		this.result = 0;
+		this.valid = true;
+	}
+
+	@Override
+	public SVCPollCq execute() throws IOException {
+		this.result = 0;
+		if (!cq.isOpen()) {
+			throw new IOException("Trying to poll closed CQ.");
+		}
+		this.result = cq.pollCompletions(wcList, ne);
+		return this;
+	}
+
+	@Override
+	public boolean isValid() {
+		return valid;
+	}
+
+	@Override
+	public SVCPollCq free() {
+		this.valid = false;
+		verbs.free(this);
+		return this;
+	}
+
+	@Override
+	public int getPolls() {
+		return result;
+	}
+
+	@Override
+	public IbvWC getWC(int index) {
+		return wcList[index];
+	}
+}
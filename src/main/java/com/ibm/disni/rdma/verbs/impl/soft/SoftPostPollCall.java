@@ -0,0 +1,96 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+
+import com.ibm.disni.rdma.verbs.IbvCQ;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.SVCPostPoll;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+
+
+public class SoftPostPollCall extends SVCPostPoll {
+	private RdmaVerbsSoft verbs;
+	private SVCPostSend postSend;
+	private SoftIbvCQ cq;
+	private IbvWC[] wcList;
+	private int ne;
+	private int spins;
+	private int result;
+	private boolean valid;
+
+	public SoftPostPollCall(RdmaVerbsSoft verbs) {
+		this.verbs = verbs;
+		this.valid = false;
+	}
+
+	public void set(SVCPostSend postSend, IbvCQ cq, IbvWC[] wcList, int ne, int spins) {
+		this.postSend = postSend;
+		this.cq = (SoftIbvCQ) cq;
+		this.wcList = wcList;
+		this.ne = Math.min(ne, wcList.length);
+		this.spins = spins;
+		this.result = 0;
+		this.valid = true;
+	}
+
+	@Override
+	public SVCPostPoll execute() throws IOException {
+		this.result = 0;
+		if (!postSend.isValid()) {
+			throw new IOException("Trying to post-poll with a freed post-send SVC.");
+		}
+		if (!cq.isOpen()) {
+			throw new IOException("Trying to poll closed CQ.");
+		}
+		postSend.execute();
+		int budget = spins;
+		while (result < ne && budget-- > 0) {
+			result += cq.pollCompletions(wcList, result, ne - result);
+		}
+		return this;
+	}
+
+	@Override
+	public int getPolls() {
+		return result;
+	}
+
+	@Override
+	public SVCPostPoll setSpins(int spins) {
+		this.spins = spins;
+		return this;
+	}
+
+	@Override
+	public boolean isValid() {
+		return valid;
+	}
+
+	@Override
+	public SVCPostPoll free() {
+		this.valid = false;
+		verbs.free(this);
+		return this;
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.disni.rdma.verbs.IbvQP;
+import com.ibm.disni.rdma.verbs.IbvRecvWR;
+import com.ibm.disni.rdma.verbs.IbvSrq;
+import com.ibm.disni.rdma.verbs.SVCPostRecv;
+
+
+public class SoftPostRecvCall extends SVCPostRecv {
+	private RdmaVerbsSoft verbs;
+	private SoftIbvQP qp;
+	private SoftIbvSrq srq;
+	private ArrayList<SoftRecvWR> wrList;
+	private boolean valid;
+
+	public SoftPostRecvCall(RdmaVerbsSoft verbs) {
+		this.verbs = verbs;
+		this.wrList = new ArrayList<SoftRecvWR>();
+		this.valid = false;
+	}
+
+	public void set(IbvQP qp, List<IbvRecvWR> recvList) {
+		this.qp = (SoftIbvQP) qp;
+		this.srq = null;
+		set(recvList);
+	}
+
+	public void set(IbvSrq srq, List<IbvRecvWR> recvList) {
+		this.qp = null;
+		this.srq = (SoftIbvSrq) srq;
+		set(recvList);
+	}
+
+	private void set(List<IbvRecvWR> recvList) {
+		wrList.clear();
+		for (IbvRecvWR recvWR : recvList) {
+			wrList.add(new SoftRecvWR(recvWR));
+		}
+		this.valid = true;
+	}
+
+	@Override
+	public SVCPostRecv execute() throws IOException {
+		if (srq != null) {
+			if (!srq.isOpen()) {
+				throw new IOException("Trying to post receive on closed SRQ");
+			}
+			for (int i = 0; i < wrList.size(); i++) {
+				srq.postRecv(wrList.get(i));
+			}
+			return this;
+		}
+		if (!qp.isOpen()) {
+			throw new IOException("Trying to post receive on closed QP");
+		}
+		for (int i = 0; i < wrList.size(); i++) {
+			qp.postRecv(wrList.get(i));
+		}
+		return this;
+	}
+
+	@Override
+	public boolean isValid() {
+		return valid;
+	}
+
+	@Override
+	public SVCPostRecv free() {
+		this.valid = false;
+		verbs.free(this);
+		return this;
+	}
+
+	@Override
+	public RecvWRMod getWrMod(int index) throws IOException {
+		return wrList.get(index);
+	}
+}
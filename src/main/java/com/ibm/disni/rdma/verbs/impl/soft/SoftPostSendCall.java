@@ -0,0 +1,99 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.disni.rdma.verbs.IbvQP;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+
+
+public class SoftPostSendCall extends SVCPostSend {
+	private RdmaVerbsSoft verbs;
+	private SoftIbvQP qp;
+	private ArrayList<SoftSendWR> wrList;
+	private int numWr;
+	private boolean valid;
+
+	public SoftPostSendCall(RdmaVerbsSoft verbs) {
+		this.verbs = verbs;
+		this.wrList = new ArrayList<SoftSendWR>();
+		this.valid = false;
+	}
+
+	public void set(IbvQP qp, List<IbvSendWR> sendList) throws IOException {
+		this.qp = (SoftIbvQP) qp;
+		int maxInline = qp.getMax_inline_data();
+		wrList.clear();
+		for (IbvSendWR sendWR : sendList) {
+			wrList.add(new SoftSendWR(sendWR, maxInline));
+		}
+		this.numWr = wrList.size();
+		this.valid = true;
+	}
+
+	@Override
+	public SVCPostSend execute() throws IOException {
+		if (!qp.isOpen()) {
+			throw new IOException("Trying to post send on closed QP");
+		}
+		for (int i = 0; i < numWr; i++) {
+			qp.postSend(wrList.get(i));
+		}
+		return this;
+	}
+
+	@Override
+	public boolean isValid() {
+		return valid;
+	}
+
+	@Override
+	public SVCPostSend free() {
+		this.valid = false;
+		verbs.free(this);
+		return this;
+	}
+
+	@Override
+	public SendWRMod getWrMod(int index) throws IOException {
+		return wrList.get(index);
+	}
+
+	@Override
+	public SVCPostSend setNumWr(int numWr) throws IOException {
+		if (numWr <= 0 || numWr > wrList.size()) {
+			throw new IOException("Invalid number of work requests " + numWr + ", capacity " + wrList.size());
+		}
+		this.numWr = numWr;
+		return this;
+	}
+
+	@Override
+	public int getNumWr() {
+		return numWr;
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import com.ibm.disni.rdma.verbs.IbvRecvWR;
+import com.ibm.disni.rdma.verbs.IbvSge;
+import com.ibm.disni.rdma.verbs.SVCPostRecv.RecvWRMod;
+
+public class SoftRecvWR extends IbvRecvWR implements RecvWRMod {
+	private SoftSgl scatter;
+
+	public SoftRecvWR(IbvRecvWR recvWR) {
+		this.wr_id = recvWR.getWr_id();
+		this.scatter = new SoftSgl(recvWR.getSg_list().size());
+		for (IbvSge sge : recvWR.getSg_list()) {
+			scatter.add(sge.getAddr(), sge.getLength(), sge.getLkey());
+		}
+		this.num_sge = scatter.count();
+	}
+
+	public SoftSgl scatter() {
+		return scatter;
+	}
+}
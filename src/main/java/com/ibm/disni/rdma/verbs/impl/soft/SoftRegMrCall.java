@@ -0,0 +1,95 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvPd;
+import com.ibm.disni.rdma.verbs.SVCRegMr;
+import com.ibm.disni.util.MemoryUtils;
+
+
+public class SoftRegMrCall extends SVCRegMr {
+	private RdmaVerbsSoft verbs;
+	private SoftIbvPd pd;
+	private long userAddress;
+	private int length;
+	private int access;
+	private ByteBuffer buffer;
+	private SoftIbvMr mr;
+	private boolean valid;
+
+	public SoftRegMrCall(RdmaVerbsSoft verbs) {
+		this.verbs = verbs;
+		this.valid = false;
+	}
+
+	public void set(IbvPd pd, long address, int length, int access) {
+		this.pd = (SoftIbvPd) pd;
+		this.userAddress = address;
+		this.length = length;
+		this.access = access;
+		this.buffer = null;
+		this.mr = null;
+		this.valid = true;
+	}
+
+	public void set(IbvPd pd, ByteBuffer buffer, int access) {
+		set(pd, MemoryUtils.getAddress(buffer), buffer.capacity(), access);
+		this.buffer = buffer;
+	}
+
+	@Override
+	public SVCRegMr execute() throws IOException {
+		if (!pd.isOpen()) {
+			throw new IOException("Trying to register memory with closed PD.");
+		}
+		if (userAddress == 0 || length < 0) {
+			throw new IOException("Memory registration failed, invalid memory area");
+		}
+		SoftIbvContext context = (SoftIbvContext) pd.getContext();
+		int handle = context.nextHandle();
+		this.mr = new SoftIbvMr(context, pd, userAddress, length, access, context.nextKey(handle), handle, buffer);
+		context.addMr(mr);
+		return this;
+	}
+
+	@Override
+	public boolean isValid() {
+		return valid;
+	}
+
+	@Override
+	public SVCRegMr free() {
+		this.valid = false;
+		verbs.free(this);
+		return this;
+	}
+
+	@Override
+	public IbvMr getMr() {
+		return mr;
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.util.LinkedList;
+
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvSge;
+import com.ibm.disni.rdma.verbs.SVCPostSend.AtomicMod;
+import com.ibm.disni.rdma.verbs.SVCPostSend.BindMwMod;
+import com.ibm.disni.rdma.verbs.SVCPostSend.RdmaMod;
+import com.ibm.disni.rdma.verbs.SVCPostSend.SendWRMod;
+import com.ibm.disni.rdma.verbs.SVCPostSend.SgeMod;
+import com.ibm.disni.rdma.verbs.SVCPostSend.UdMod;
+
+/**
+ * Send work request as seen by the soft providers. Modifications through the SendWRMod interface go straight into the fields of this object.
+ */
+public class SoftSendWR extends IbvSendWR implements SendWRMod {
+	private SoftSge[] sges;
+	private SoftSgl gather;
+	private int maxInline;
+
+	public SoftSendWR(IbvSendWR sendWR, int maxInline) {
+		super(new SoftRdma(sendWR.getRdma()), new SoftAtomic(sendWR.getAtomic()), new SoftUd(sendWR.getUd()), new LinkedList<IbvSge>());
+		this.wr_id = sendWR.getWr_id();
+		this.opcode = sendWR.getOpcode();
+		this.send_flags = sendWR.getSend_flags();
+		this.imm_data = sendWR.getImm_data();
+		this.bind_mw = new SoftBindMw(sendWR.getBind_mw());
+		this.sges = new SoftSge[sendWR.getSg_list().size()];
+		int i = 0;
+		for (IbvSge sge : sendWR.getSg_list()) {
+			sges[i] = new SoftSge(this, sge);
+			sg_list.add(sges[i]);
+			i++;
+		}
+		this.num_sge = sges.length;
+		this.gather = new SoftSgl(sges.length);
+		this.maxInline = maxInline;
+		this.send_flags = inlineFlags(send_flags, maxInline);
+	}
+
+	public SoftSendWR(SoftSendWR sendWR) {
+		this((IbvSendWR) sendWR, sendWR.maxInline);
+		this.num_sge = sendWR.getNum_sge();
+		this.send_flags = sendWR.getSend_flags();
+	}
+
+	/*
+	 * Re-evaluates the inline flag after the opcode or the payload has changed.
+	 */
+	void updateInline() {
+		this.send_flags = inlineFlags(send_flags, maxInline);
+	}
+
+	@Override
+	public void setSend_flags(int send_flags) {
+		super.setSend_flags(inlineFlags(send_flags, maxInline));
+	}
+
+	@Override
+	public void setOpcode(int opcode) {
+		super.setOpcode(opcode);
+		updateInline();
+	}
+
+	@Override
+	public void setNum_sge(int num_sge) {
+		if (num_sge < 0 || num_sge > sges.length) {
+			throw new IllegalArgumentException("Invalid number of sges " + num_sge + ", capacity " + sges.length);
+		}
+		super.setNum_sge(num_sge);
+		updateInline();
+	}
+
+	public RdmaMod getRdmaMod() {
+		return (SoftRdma) rdma;
+	}
+
+	public AtomicMod getAtomicMod() {
+		return (SoftAtomic) atomic;
+	}
+
+	public UdMod getUdMod() {
+		return (SoftUd) ud;
+	}
+
+	public BindMwMod getBindMwMod() {
+		return (SoftBindMw) bind_mw;
+	}
+
+	public SgeMod getSgeMod(int index) {
+		return sges[index];
+	}
+
+	/**
+	 * Returns the gather list of this work request reflecting the current sge values.
+	 */
+	public SoftSgl gather() {
+		gather.clear();
+		for (int i = 0; i < num_sge; i++) {
+			SoftSge sge = sges[i];
+			gather.add(sge.getAddr(), sge.getLength(), sge.getLkey());
+		}
+		return gather;
+	}
+
+	public static class SoftRdma extends Rdma implements RdmaMod {
+
+		public SoftRdma(Rdma rdma) {
+			this.remote_addr = rdma.getRemote_addr();
+			this.rkey = rdma.getRkey();
+			this.reserved = rdma.getReserved();
+		}
+	}
+
+	public static class SoftAtomic extends Atomic implements AtomicMod {
+
+		public SoftAtomic(Atomic atomic) {
+			this.remote_addr = atomic.getRemote_addr();
+			this.compare_add = atomic.getCompare_add();
+			this.swap = atomic.getSwap();
+			this.rkey = atomic.getRkey();
+			this.reserved = atomic.getReserved();
+		}
+	}
+
+	public static class SoftUd extends Ud implements UdMod {
+
+		public SoftUd(Ud ud) {
+			this.ah = ud.getAh();
+			this.remote_qpn = ud.getRemote_qpn();
+			this.remote_qkey = ud.getRemote_qkey();
+			this.reserved = ud.getReserved();
+		}
+	}
+
+	public static class SoftBindMw extends BindMw implements BindMwMod {
+
+		public SoftBindMw(BindMw bindMw) {
+			this.mw = bindMw.getMw();
+			this.rkey = bindMw.getRkey();
+			this.mr = bindMw.getMr();
+			this.addr = bindMw.getAddr();
+			this.length = bindMw.getLength();
+			this.mw_access_flags = bindMw.getMw_access_flags();
+		}
+	}
+}
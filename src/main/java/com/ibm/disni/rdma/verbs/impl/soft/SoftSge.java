@@ -0,0 +1,43 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import com.ibm.disni.rdma.verbs.IbvSge;
+import com.ibm.disni.rdma.verbs.SVCPostSend.SgeMod;
+
+public class SoftSge extends IbvSge implements SgeMod {
+	private SoftSendWR sendWR;
+
+	public SoftSge(SoftSendWR sendWR, IbvSge sge) {
+		this.sendWR = sendWR;
+		this.addr = sge.getAddr();
+		this.length = sge.getLength();
+		this.lkey = sge.getLkey();
+	}
+
+	@Override
+	public void setLength(int length) {
+		super.setLength(length);
+		sendWR.updateInline();
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A scatter/gather list of raw memory segments. Used by the soft providers to move data between work requests without touching IbvSge objects on the data path.
+ */
+public class SoftSgl {
+	private long[] addr;
+	private int[] length;
+	private int[] lkey;
+	private SoftMemory[] memory;
+	private int count;
+	private int total;
+
+	public SoftSgl(int capacity) {
+		capacity = Math.max(capacity, 1);
+		this.addr = new long[capacity];
+		this.length = new int[capacity];
+		this.lkey = new int[capacity];
+		this.memory = new SoftMemory[capacity];
+		this.count = 0;
+		this.total = 0;
+	}
+
+	public void clear() {
+		this.count = 0;
+		this.total = 0;
+	}
+
+	public void add(long address, int len, int key) {
+		add(address, len, key, null);
+	}
+
+	/**
+	 * @param mem the memory holding the segment, null if it is not known yet.
+	 */
+	void add(long address, int len, int key, SoftMemory mem) {
+		if (count == addr.length) {
+			int capacity = addr.length * 2;
+			long[] _addr = new long[capacity];
+			int[] _length = new int[capacity];
+			int[] _lkey = new int[capacity];
+			SoftMemory[] _memory = new SoftMemory[capacity];
+			System.arraycopy(addr, 0, _addr, 0, count);
+			System.arraycopy(length, 0, _length, 0, count);
+			System.arraycopy(lkey, 0, _lkey, 0, count);
+			System.arraycopy(memory, 0, _memory, 0, count);
+			this.addr = _addr;
+			this.length = _length;
+			this.lkey = _lkey;
+			this.memory = _memory;
+		}
+		addr[count] = address;
+		length[count] = len;
+		lkey[count] = key;
+		memory[count] = mem;
+		count++;
+		total += len;
+	}
+
+	public int count() {
+		return count;
+	}
+
+	public int total() {
+		return total;
+	}
+
+	public long getAddr(int index) {
+		return addr[index];
+	}
+
+	public int getLength(int index) {
+		return length[index];
+	}
+
+	public int getLkey(int index) {
+		return lkey[index];
+	}
+
+	/**
+	 * Sets the memory holding a segment, once its key has been validated.
+	 */
+	void setMemory(int index, SoftMemory mem) {
+		memory[index] = mem;
+	}
+
+	SoftMemory getMemory(int index) {
+		return memory[index] != null ? memory[index] : SoftMemory.PROCESS;
+	}
+
+	public SoftSgl copy() {
+		SoftSgl sgl = new SoftSgl(count);
+		for (int i = 0; i < count; i++) {
+			sgl.add(addr[i], length[i], lkey[i], memory[i]);
+		}
+		return sgl;
+	}
+
+	/**
+	 * Copies the content of this list into a contiguous memory area.
+	 *
+	 * @param dst the memory holding the destination.
+	 * @param dstAddress the destination address.
+	 * @return the number of bytes copied.
+	 */
+	int copyTo(SoftMemory dst, long dstAddress) {
+		long position = dstAddress;
+		for (int i = 0; i < count; i++) {
+			SoftMemory.copy(getMemory(i), addr[i], dst, position, length[i]);
+			position += length[i];
+		}
+		return total;
+	}
+
+	/**
+	 * Copies the content of this list into the remaining part of a buffer, which must hold at least total() bytes.
+	 *
+	 * @return the number of bytes copied.
+	 */
+	public int copyTo(ByteBuffer dst) {
+		for (int i = 0; i < count; i++) {
+			int limit = dst.limit();
+			dst.limit(dst.position() + length[i]);
+			getMemory(i).read(addr[i], dst);
+			dst.limit(limit);
+		}
+		return total;
+	}
+
+	/**
+	 * Fills this list from a contiguous memory area.
+	 *
+	 * @param src the memory holding the source.
+	 * @param srcAddress the source address.
+	 * @param len number of bytes to copy, must not exceed total().
+	 * @return the number of bytes copied.
+	 */
+	int copyFrom(SoftMemory src, long srcAddress, int len) {
+		long position = srcAddress;
+		int remaining = len;
+		for (int i = 0; i < count && remaining > 0; i++) {
+			int chunk = Math.min(remaining, length[i]);
+			SoftMemory.copy(src, position, getMemory(i), addr[i], chunk);
+			position += chunk;
+			remaining -= chunk;
+		}
+		return len - remaining;
+	}
+
+	/**
+	 * Fills this list from the remaining part of a buffer, at most total() bytes are copied.
+	 *
+	 * @return the number of bytes copied.
+	 */
+	public int copyFrom(ByteBuffer src) {
+		int copied = 0;
+		for (int i = 0; i < count && src.hasRemaining(); i++) {
+			int chunk = Math.min(src.remaining(), length[i]);
+			int limit = src.limit();
+			src.limit(src.position() + chunk);
+			getMemory(i).write(addr[i], src);
+			src.limit(limit);
+			copied += chunk;
+		}
+		return copied;
+	}
+
+	/**
+	 * Copies the content of one list into another. The destination must be able to hold src.total() bytes.
+	 *
+	 * @return the number of bytes copied.
+	 */
+	public static int copy(SoftSgl src, SoftSgl dst) {
+		return copy(src, dst, 0);
+	}
+
+	/**
+	 * Copies the content of one list into another, skipping the first bytes of the destination.
+	 * The destination must be able to hold dstStart + src.total() bytes.
+	 *
+	 * @param dstStart number of bytes of the destination to leave untouched.
+	 * @return the number of bytes copied.
+	 */
+	public static int copy(SoftSgl src, SoftSgl dst, int dstStart) {
+		int srcIndex = 0;
+		int srcOffset = 0;
+		int dstIndex = 0;
+		int dstOffset = dstStart;
+		int copied = 0;
+		while (dstIndex < dst.count && dstOffset >= dst.length[dstIndex]) {
+			dstOffset -= dst.length[dstIndex];
+			dstIndex++;
+		}
+		while (srcIndex < src.count && dstIndex < dst.count) {
+			int srcRemaining = src.length[srcIndex] - srcOffset;
+			int dstRemaining = dst.length[dstIndex] - dstOffset;
+			int chunk = Math.min(srcRemaining, dstRemaining);
+			if (chunk > 0) {
+				SoftMemory.copy(src.getMemory(srcIndex), src.addr[srcIndex] + srcOffset, dst.getMemory(dstIndex), dst.addr[dstIndex] + dstOffset, chunk);
+				copied += chunk;
+			}
+			srcOffset += chunk;
+			dstOffset += chunk;
+			if (srcOffset == src.length[srcIndex]) {
+				srcIndex++;
+				srcOffset = 0;
+			}
+			if (dstOffset == dst.length[dstIndex]) {
+				dstIndex++;
+				dstOffset = 0;
+			}
+		}
+		return copied;
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves data and connection state between soft queue pairs.
+ *
+ * RdmaCmSoft and RdmaVerbsSoft implement the verbs semantics (queues, completions, memory protection) once,
+ * a transport only decides how connections are established and how the operations of a send queue reach the peer.
+ */
+public abstract class SoftTransport {
+	private AtomicInteger fdCounter;
+	private SoftIbvContext context;
+
+	protected SoftTransport() {
+		this.fdCounter = new AtomicInteger(1);
+		this.context = null;
+	}
+
+	/**
+	 * Returns the device of this transport. Created lazily as IbvContext objects require an initialized RdmaProvider.
+	 */
+	public synchronized SoftIbvContext getContext() throws IOException {
+		if (context == null) {
+			context = new SoftIbvContext(this, nextFd(), 1);
+		}
+		return context;
+	}
+
+	/**
+	 * Returns a new pseudo file descriptor for channels and contexts.
+	 */
+	public int nextFd() {
+		return fdCounter.getAndIncrement();
+	}
+
+	public abstract String getName();
+
+	/**
+	 * Whether this transport carries unreliable datagram (UD) QPs.
+	 */
+	public boolean supportsDatagram() {
+		return false;
+	}
+
+	/**
+	 * Called after a memory region has been registered with the context of this transport.
+	 */
+	protected void registered(SoftIbvMr mr) {
+	}
+
+	/**
+	 * Called before a memory region is removed from the context of this transport.
+	 */
+	protected void deregistered(SoftIbvMr mr) {
+	}
+
+	public abstract void bind(SoftCmId id, InetSocketAddress address) throws IOException;
+
+	public abstract void listen(SoftCmId id, int backlog) throws IOException;
+
+	/**
+	 * Resolves the destination of an active side id and assigns a source address if the id is not bound.
+	 */
+	public abstract void resolve(SoftCmId id, InetSocketAddress destination) throws IOException;
+
+	/**
+	 * Sends a connection request to the listening id at the destination of the given id. The request surfaces as
+	 * RDMA_CM_EVENT_CONNECT_REQUEST on the listener, the outcome as RDMA_CM_EVENT_ESTABLISHED or RDMA_CM_EVENT_REJECTED on the given id.
+	 */
+	public abstract void connect(SoftCmId id) throws IOException;
+
+	/**
+	 * Accepts a connection request previously delivered with RDMA_CM_EVENT_CONNECT_REQUEST.
+	 */
+	public abstract void accept(SoftCmId id) throws IOException;
+
+	/**
+	 * Tears down the connection of the given id. Both sides see RDMA_CM_EVENT_DISCONNECTED and their QPs are flushed.
+	 */
+	public abstract void disconnect(SoftCmId id) throws IOException;
+
+	/**
+	 * Releases all transport state of the given id.
+	 */
+	public abstract void destroy(SoftCmId id) throws IOException;
+
+	/**
+	 * Executes a send queue operation. Called after the QP has queued the work request in the given slot,
+	 * the transport has to finish it with SoftIbvQP.completeSend() eventually. The work request may be reused
+	 * by the application once this method returns.
+	 */
+	public abstract void postSend(SoftIbvQP qp, int slot, SoftSendWR wr) throws IOException;
+}
@@ -31,16 +31,33 @@ public class MemBuf {
 	private MemoryAllocation.MemType type;
 	private long address;
 	private ByteBuffer buffer;
+	private ByteBuffer block;
 	private MemoryAllocation memAlloc;
 	private String classname;
+	private boolean inUse;
 
 	public MemBuf(MemoryAllocation.MemType type, ByteBuffer buffer,
 			long address, MemoryAllocation memAlloc, String classname) {
 		this.type = type;
 		this.buffer = buffer;
+		this.block = buffer;
 		this.address = address;
 		this.memAlloc = memAlloc;
 		this.classname = classname;
+		this.inUse = true;
+	}
+
+	/*
+	 * A cached direct block, handed out with its limit set to the requested size, see allocated().
+	 */
+	MemBuf(ByteBuffer block, MemoryAllocation memAlloc, String classname) {
+		this.type = MemoryAllocation.MemType.DIRECT;
+		this.buffer = block;
+		this.block = block;
+		this.address = MemoryUtils.getAddress(block);
+		this.memAlloc = memAlloc;
+		this.classname = classname;
+		this.inUse = true;
 	}
 	
 	public final long address() {
@@ -83,6 +100,25 @@ public class MemBuf {
 		logger.info(outputbuf);
 	}
 
+	ByteBuffer getBlock() {
+		return block;
+	}
+
+	void allocated(String classname, int size) {
+		this.classname = classname;
+		this.inUse = true;
+		buffer.clear().limit(size);
+	}
+
+	/*
+	 * Marks the buffer as free, returns false if it was free already.
+	 */
+	boolean released() {
+		boolean wasInUse = inUse;
+		inUse = false;
+		return wasInUse;
+	}
+
 	public void free() {
 		if (memAlloc != null){
 			memAlloc.free(this);
@@ -23,15 +23,39 @@ package com.ibm.disni.util;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.slf4j.Logger;
+
+/**
+ * Allocates the small direct buffers used to pass commands to libdisni.
+ *
+ * Direct buffers are cached in power of two size classes. Each thread keeps two magazines (small stacks of buffers) per size class
+ * and allocates from and frees to them without synchronization. A magazine holds up to MAGAZINE_BYTES of buffers, at least one
+ * and at most MAX_MAGAZINE_SIZE. A cached buffer serves any request of its class, its limit is set to the requested size. Full and empty magazines are exchanged with a per class depot of
+ * bounded size, using compare-and-swap only, buffers beyond that bound are left to the garbage collector. Buffers larger than the
+ * largest size class and heap buffers are not cached.
+ */
 public class MemoryAllocation {
+	private static final Logger logger = DiSNILogger.getLogger();
+	private static final int MIN_SHIFT = 4;
+	private static final int MAX_SHIFT = 20;
+	private static final int MAX_MAGAZINE_SIZE = 32;
+	private static final int MAGAZINE_BYTES = 16 * 1024;
+	private static final long DEPOT_BYTES = 4 * 1024 * 1024;
+	private static final int MAX_DEPOT_SIZE = 64;
+
 	public enum MemType {
 		INDIRECT, DIRECT,
 	}
 
 	private static MemoryAllocation instance = null;
-	private ConcurrentHashMap<String, MemBuf> table;
+	private SizeClass[] classes;
+	private ThreadLocal<Magazine[][]> magazines;
+	private LongAdder allocations;
+	private LongAdder frees;
+	private LongAdder created;
 
 	public synchronized static MemoryAllocation getInstance() {
 		if (instance == null) {
@@ -41,36 +65,142 @@ public class MemoryAllocation {
 	}
 	
 	private MemoryAllocation() {
-		table = new ConcurrentHashMap<String, MemBuf>();
+		this.classes = new SizeClass[MAX_SHIFT - MIN_SHIFT + 1];
+		for (int i = 0; i < classes.length; i++) {
+			classes[i] = new SizeClass(1 << (MIN_SHIFT + i));
+		}
+		this.magazines = new ThreadLocal<Magazine[][]>() {
+			protected Magazine[][] initialValue() {
+				Magazine[][] local = new Magazine[classes.length][];
+				for (int i = 0; i < local.length; i++) {
+					int rounds = classes[i].rounds;
+					local[i] = new Magazine[] { new Magazine(rounds), new Magazine(rounds) };
+				}
+				return local;
+			}
+		};
+		this.allocations = new LongAdder();
+		this.frees = new LongAdder();
+		this.created = new LongAdder();
 	}
 	
 	public MemBuf allocate(int size, MemType type, String classname) {
+		allocations.increment();
 		if (type == MemType.DIRECT) {
-			String key = generateKey(size, type, classname);
-			MemBuf buf = table.remove(key);
-			if (buf != null) {
-				buf.getBuffer().clear();
+			int index = sizeClass(size);
+			if (index >= 0) {
+				MemBuf buf = pop(index);
+				if (buf == null) {
+					buf = create(classes[index].size, classname);
+				}
+				buf.allocated(classname, size);
 				return buf;
 			}
 		}
-		return _allocate(size, type, classname);
+		MemBuf buf = _allocate(size, type, classname);
+		buf.allocated(classname, size);
+		return buf;
 	}
-	
 
 	public void free(MemBuf memBuf) {
+		if (!memBuf.released()) {
+			logger.warn("memory buffer of " + memBuf.getClassname() + " freed twice");
+			return;
+		}
+		frees.increment();
 		if (memBuf.getType() == MemType.DIRECT) {
-			String key = generateKey(memBuf.getBuffer().capacity(),
-					memBuf.getType(), memBuf.getClassname());
-			table.put(key, memBuf);
-		} 
+			int index = sizeClass(memBuf.getBlock().capacity());
+			if (index >= 0 && classes[index].size == memBuf.getBlock().capacity()) {
+				push(index, memBuf);
+			}
+		}
+	}
+
+	/**
+	 * The number of buffers handed out and not yet freed, a steadily growing number indicates a leak.
+	 */
+	public long getOutstanding() {
+		return allocations.sum() - frees.sum();
+	}
+
+	/**
+	 * The number of allocate() calls.
+	 */
+	public long getAllocations() {
+		return allocations.sum();
 	}
 
-	private String generateKey(int size, MemType type, String classname) {
-		String key = classname + ":" + size + ":" + type.ordinal();
-		return key;
+	/**
+	 * The number of buffers allocated from the system, i.e., allocate() calls not served from the cache.
+	 */
+	public long getCreated() {
+		return created.sum();
+	}
+
+	private MemBuf pop(int index) {
+		Magazine[] local = magazines.get()[index];
+		if (local[0].count == 0) {
+			if (local[1].count > 0) {
+				swap(local);
+			} else {
+				Magazine full = classes[index].take(classes[index].full);
+				if (full == null) {
+					return null;
+				}
+				classes[index].put(classes[index].empty, local[0]);
+				local[0] = full;
+			}
+		}
+		Magazine loaded = local[0];
+		MemBuf buf = loaded.rounds[--loaded.count];
+		loaded.rounds[loaded.count] = null;
+		return buf;
+	}
+
+	private void push(int index, MemBuf buf) {
+		Magazine[] local = magazines.get()[index];
+		int rounds = classes[index].rounds;
+		if (local[0].count == rounds) {
+			if (local[1].count < rounds) {
+				swap(local);
+			} else {
+				Magazine empty = classes[index].take(classes[index].empty);
+				if (empty == null) {
+					empty = new Magazine(rounds);
+				}
+				//if the depot is full, the buffers of the magazine are left to the garbage collector
+				classes[index].put(classes[index].full, local[1]);
+				local[1] = local[0];
+				local[0] = empty;
+			}
+		}
+		Magazine loaded = local[0];
+		loaded.rounds[loaded.count++] = buf;
+	}
+
+	private static void swap(Magazine[] local) {
+		Magazine tmp = local[0];
+		local[0] = local[1];
+		local[1] = tmp;
+	}
+
+	private static int sizeClass(int size) {
+		if (size <= 0 || size > 1 << MAX_SHIFT) {
+			return -1;
+		}
+		int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+		return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+	}
+
+	private MemBuf create(int blockSize, String classname) {
+		created.increment();
+		ByteBuffer block = ByteBuffer.allocateDirect(blockSize);
+		block.order(ByteOrder.nativeOrder());
+		return new MemBuf(block, this, classname);
 	}
 
 	private MemBuf _allocate(int size, MemType type, String classname) {
+		created.increment();
 		if (type == MemType.INDIRECT) {
 			ByteBuffer buffer = ByteBuffer.allocate(size);
 			buffer.order(ByteOrder.nativeOrder());
@@ -84,4 +214,47 @@ public class MemoryAllocation {
 			return new MemBuf(MemType.DIRECT, buffer, address, this, classname);
 		}
 	}
+
+	private static class Magazine {
+		private MemBuf[] rounds;
+		private int count;
+
+		Magazine(int size) {
+			this.rounds = new MemBuf[size];
+			this.count = 0;
+		}
+	}
+
+	private static class SizeClass {
+		private int size;
+		private int rounds;
+		private AtomicReferenceArray<Magazine> full;
+		private AtomicReferenceArray<Magazine> empty;
+
+		SizeClass(int size) {
+			this.size = size;
+			this.rounds = Math.max(1, Math.min(MAX_MAGAZINE_SIZE, MAGAZINE_BYTES / size));
+			int depotSize = (int) Math.max(1, Math.min(MAX_DEPOT_SIZE, DEPOT_BYTES / ((long) size * rounds)));
+			this.full = new AtomicReferenceArray<Magazine>(depotSize);
+			this.empty = new AtomicReferenceArray<Magazine>(depotSize);
+		}
+
+		Magazine take(AtomicReferenceArray<Magazine> slots) {
+			for (int i = 0; i < slots.length(); i++) {
+				Magazine magazine = slots.get(i);
+				if (magazine != null && slots.compareAndSet(i, magazine, null)) {
+					return magazine;
+				}
+			}
+			return null;
+		}
+
+		void put(AtomicReferenceArray<Magazine> slots, Magazine magazine) {
+			for (int i = 0; i < slots.length(); i++) {
+				if (slots.get(i) == null && slots.compareAndSet(i, null, magazine)) {
+					return;
+				}
+			}
+		}
+	}
 }
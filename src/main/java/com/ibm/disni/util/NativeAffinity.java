@@ -21,19 +21,35 @@
 
 package com.ibm.disni.util;
 
+import org.slf4j.Logger;
+
 public class NativeAffinity {
+	private static final Logger logger = DiSNILogger.getLogger();
+	private static boolean available;
+	
+	/** Affinity masks have one bit per core, cores 0 to MAX_CORES - 1 can be expressed. */
+	public static final int MAX_CORES = 64;
 	
 	static {
-	    System.loadLibrary("disni");
+		try {
+			System.loadLibrary("disni");
+			available = true;
+		} catch(UnsatisfiedLinkError e){
+			logger.info("libdisni not found, thread affinity not supported");
+			available = false;
+		}
 	}	
 	
 	public static void setAffinity(long affinity){
-		if (affinity > 0){
+		if (available && affinity != 0){
 			_setAffinity(affinity);
 		}
 	}
 	
 	public static long getAffinity(){
+		if (!available){
+			return 0;
+		}
 		return _getAffinity();
 	}
 
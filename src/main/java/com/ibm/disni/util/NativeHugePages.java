@@ -0,0 +1,134 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+
+/**
+ * Allocates page aligned, locked direct buffers backed by huge pages for memory registration.
+ *
+ * Huge pages shrink the translation tables of the RNIC and make large registrations faster. libdisni first tries the
+ * hugetlbfs pool (MAP_HUGETLB), then maps memory aligned to the huge page size and asks for transparent huge pages.
+ * Buffers are locked with mlock, if the locked memory limit does not allow it the pages are only faulted in. Without
+ * libdisni buffers are regular direct buffers aligned to the page size.
+ */
+public class NativeHugePages {
+	private static final Logger logger = DiSNILogger.getLogger();
+	private static final long DEFAULT_HUGE_PAGE_SIZE = 2 * 1024 * 1024;
+	private static final int PAGE_SIZE = 4096;
+	private static boolean available;
+	private static long hugePageSize = readHugePageSize();
+	private static ConcurrentHashMap<Long, Long> allocations = new ConcurrentHashMap<Long, Long>();
+
+	static {
+		try {
+			System.loadLibrary("disni");
+			available = true;
+		} catch(UnsatisfiedLinkError e){
+			logger.info("libdisni not found, huge page allocation not supported");
+			available = false;
+		}
+	}
+
+	/**
+	 * The default huge page size of the system.
+	 */
+	public static long getHugePageSize() {
+		return hugePageSize;
+	}
+
+	/**
+	 * Allocates a direct buffer aligned to the huge page size. The buffer has to be released with free().
+	 *
+	 * @param size the size of the buffer, the mapping is rounded up to a multiple of the huge page size.
+	 * @return the buffer, in native byte order.
+	 */
+	public static ByteBuffer allocate(int size) throws IOException {
+		if (size <= 0) {
+			throw new IOException("Trying to allocate huge page buffer, invalid size " + size);
+		}
+		if (!available) {
+			return allocateAligned(size);
+		}
+		long length = (size + hugePageSize - 1) / hugePageSize * hugePageSize;
+		ByteBuffer buffer = _allocate(size, length, hugePageSize, true);
+		if (buffer == null) {
+			logger.debug("hugetlb pool exhausted, using transparent huge pages, size " + size);
+			buffer = _allocate(size, length, hugePageSize, false);
+		}
+		if (buffer == null) {
+			throw new IOException("Trying to allocate " + size + " bytes of huge page memory, failed");
+		}
+		allocations.put(MemoryUtils.getAddress(buffer), length);
+		return buffer.order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Releases a buffer returned by allocate(). The buffer must not be accessed afterwards.
+	 */
+	public static void free(ByteBuffer buffer) {
+		if (!buffer.isDirect()) {
+			return;
+		}
+		long address = MemoryUtils.getAddress(buffer);
+		Long length = allocations.remove(address);
+		if (length != null) {
+			_free(address, length);
+		}
+	}
+
+	private static ByteBuffer allocateAligned(int size) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(size + PAGE_SIZE);
+		long address = MemoryUtils.getAddress(buffer);
+		int offset = (int) ((PAGE_SIZE - (address & (PAGE_SIZE - 1))) & (PAGE_SIZE - 1));
+		buffer.position(offset);
+		buffer.limit(offset + size);
+		return buffer.slice().order(ByteOrder.nativeOrder());
+	}
+
+	private static long readHugePageSize() {
+		try {
+			String meminfo = new String(Files.readAllBytes(Paths.get("/proc/meminfo")), StandardCharsets.US_ASCII);
+			for (String line : meminfo.split("\n")) {
+				if (line.startsWith("Hugepagesize:")) {
+					String[] fields = line.substring("Hugepagesize:".length()).trim().split("\\s+");
+					return Long.parseLong(fields[0]) * 1024;
+				}
+			}
+		} catch (IOException e) {
+		} catch (NumberFormatException e) {
+		}
+		return DEFAULT_HUGE_PAGE_SIZE;
+	}
+
+	private native static ByteBuffer _allocate(int size, long length, long alignment, boolean hugetlb);
+
+	private native static void _free(long address, long length);
+}
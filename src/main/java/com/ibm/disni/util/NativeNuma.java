@@ -0,0 +1,210 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvContext;
+
+/**
+ * Places threads and buffers on the NUMA node of an RDMA device.
+ *
+ * The node of a device and the cores of a node are read from sysfs. Buffers are allocated with mmap and bound to the node with mbind
+ * by libdisni, pages are placed on the node when they are first touched, e.g., when the buffer is registered. Without libdisni or if the
+ * node is not known, buffers are regular direct buffers.
+ */
+public class NativeNuma {
+	private static final Logger logger = DiSNILogger.getLogger();
+	private static final String DEVICE_PATH = "/sys/class/infiniband/";
+	private static final String NODE_PATH = "/sys/devices/system/node/node";
+	private static boolean available;
+	private static ConcurrentHashMap<Long, Integer> allocations = new ConcurrentHashMap<Long, Integer>();
+
+	static {
+		try {
+			System.loadLibrary("disni");
+			available = true;
+		} catch(UnsatisfiedLinkError e){
+			logger.info("libdisni not found, numa allocation not supported");
+			available = false;
+		}
+	}
+
+	/**
+	 * The NUMA node the device is attached to.
+	 *
+	 * @return the node, or -1 if not known.
+	 */
+	public static int getDeviceNode(IbvContext context) throws IOException {
+		String name = context.getDeviceName();
+		if (name == null) {
+			return -1;
+		}
+		return getDeviceNode(name);
+	}
+
+	public static int getDeviceNode(String deviceName) {
+		String node = readLine(Paths.get(DEVICE_PATH + deviceName, "device", "numa_node"));
+		if (node == null) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(node.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * The cores of a NUMA node.
+	 *
+	 * @return the core numbers, empty if the node is not known.
+	 */
+	public static int[] getCores(int node) {
+		String list = node >= 0 ? readLine(Paths.get(NODE_PATH + node, "cpulist")) : null;
+		ArrayList<Integer> cores = new ArrayList<Integer>();
+		if (list != null) {
+			try {
+				for (String range : list.trim().split(",")) {
+					if (range.isEmpty()) {
+						continue;
+					}
+					String[] bounds = range.split("-");
+					int first = Integer.parseInt(bounds[0]);
+					int last = bounds.length > 1 ? Integer.parseInt(bounds[1]) : first;
+					for (int core = first; core <= last; core++) {
+						cores.add(core);
+					}
+				}
+			} catch (NumberFormatException e) {
+				cores.clear();
+			}
+		}
+		int[] result = new int[cores.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = cores.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * The affinity mask (see NativeAffinity) of the cores of a NUMA node, cores from NativeAffinity.MAX_CORES on cannot be
+	 * expressed in the mask and are left out with a warning.
+	 *
+	 * @return the mask, 0 if the node is not known.
+	 */
+	public static long getAffinity(int node) {
+		long affinity = 0;
+		int skipped = 0;
+		for (int core : getCores(node)) {
+			if (core < NativeAffinity.MAX_CORES) {
+				affinity |= 1L << core;
+			} else {
+				skipped++;
+			}
+		}
+		if (skipped > 0) {
+			logger.warn("numa node " + node + ", " + skipped + " cores beyond the affinity mask left out");
+		}
+		return affinity;
+	}
+
+	/**
+	 * The cores of a NUMA node that can be used in an affinity mask, see getAffinity().
+	 *
+	 * @return the core numbers, empty if the node is not known.
+	 */
+	public static int[] getAffinityCores(int node) {
+		int[] cores = getCores(node);
+		int count = 0;
+		for (int core : cores) {
+			if (core < NativeAffinity.MAX_CORES) {
+				cores[count++] = core;
+			}
+		}
+		return Arrays.copyOf(cores, count);
+	}
+
+	/**
+	 * Allocates a direct buffer on the NUMA node of a device.
+	 */
+	public static ByteBuffer allocate(IbvContext context, int size) throws IOException {
+		return allocate(size, getDeviceNode(context));
+	}
+
+	/**
+	 * Allocates a page aligned direct buffer on a NUMA node. The buffer has to be released with free().
+	 *
+	 * @param size the size of the buffer.
+	 * @param node the NUMA node, -1 for no preference.
+	 * @return the buffer, in native byte order.
+	 */
+	public static ByteBuffer allocate(int size, int node) throws IOException {
+		if (!available || node < 0) {
+			return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+		}
+		ByteBuffer buffer = _allocate(size, node);
+		if (buffer == null) {
+			throw new IOException("Trying to allocate " + size + " bytes on numa node " + node + ", failed");
+		}
+		allocations.put(MemoryUtils.getAddress(buffer), size);
+		return buffer.order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Releases a buffer returned by allocate(). The buffer must not be accessed afterwards.
+	 */
+	public static void free(ByteBuffer buffer) {
+		if (!buffer.isDirect()) {
+			return;
+		}
+		long address = MemoryUtils.getAddress(buffer);
+		Integer size = allocations.remove(address);
+		if (size != null) {
+			_free(address, size);
+		}
+	}
+
+	private static String readLine(Path path) {
+		try {
+			byte[] content = Files.readAllBytes(path);
+			return new String(content, StandardCharsets.US_ASCII);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private native static ByteBuffer _allocate(int size, int node);
+
+	private native static void _free(long address, int size);
+}
@@ -0,0 +1,154 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+
+import org.slf4j.Logger;
+
+import com.ibm.disni.util.DiSNILogger;
+
+/**
+ * The data path of NativeDispatcher for Java 22 and later.
+ *
+ * Connection management and resource setup still go through libdisni. Posting and polling call into the verbs provider
+ * library directly using the Foreign Function and Memory API. ibv_post_send(), ibv_post_recv() and ibv_poll_cq() are inline
+ * functions in verbs.h which call through the ops table of struct ibv_context, the downcalls below do the same. The first member
+ * of struct ibv_qp and struct ibv_cq is the context. The offsets of the ops table assumed here are checked against the ones
+ * compiled into libdisni by enable(), on a mismatch posting and polling stay with JNI. Pointers are passed as 64 bit integers,
+ * which is how the calling convention passes them anyway.
+ */
+class NativeDataPath {
+	private static final Logger logger = DiSNILogger.getLogger();
+
+	private static final int CONTEXT_OPS_OFFSET = 8;
+	private static final int POLL_CQ_OFFSET = 11*8;
+	private static final int POST_SEND_OFFSET = 25*8;
+	private static final int POST_RECV_OFFSET = 26*8;
+
+	/*
+	 * Critical downcalls skip the thread state transitions, all three functions only touch the queues in user space and return quickly.
+	 */
+	private static final MethodHandle POST = Linker.nativeLinker().downcallHandle(
+			FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG),
+			Linker.Option.critical(false));
+	private static final MethodHandle POLL = Linker.nativeLinker().downcallHandle(
+			FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG),
+			Linker.Option.critical(false));
+
+	/*
+	 * All of the address space, the context pointer and the ops table are read through it.
+	 */
+	private static final MemorySegment MEMORY = MemorySegment.NULL.reinterpret(Long.MAX_VALUE);
+
+	/*
+	 * Receives the bad work request of failed posts, one per posting thread.
+	 */
+	private static final ThreadLocal<MemorySegment> BAD_WR = new ThreadLocal<MemorySegment>() {
+		protected MemorySegment initialValue() {
+			return Arena.ofAuto().allocate(ValueLayout.ADDRESS);
+		}
+	};
+
+	private NativeDispatcher dispatcher;
+	private boolean direct;
+
+	NativeDataPath(NativeDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+		this.direct = false;
+	}
+
+	/**
+	 * Switches to calling the verbs provider library directly if the offsets of the ibv_context ops table compiled into
+	 * libdisni match the ones assumed here.
+	 *
+	 * @return whether the data path bypasses JNI.
+	 */
+	boolean enable(int contextOpsOffset, int pollCqOffset, int postSendOffset, int postRecvOffset) {
+		if (contextOpsOffset != CONTEXT_OPS_OFFSET || pollCqOffset != POLL_CQ_OFFSET || postSendOffset != POST_SEND_OFFSET || postRecvOffset != POST_RECV_OFFSET){
+			logger.info("ibv_context ops offset mismatch, native ops " + contextOpsOffset + ", poll_cq " + pollCqOffset + ", post_send " + postSendOffset + ", post_recv " + postRecvOffset);
+			return false;
+		}
+		this.direct = true;
+		return true;
+	}
+
+	int postSend(long qp, long wrList) {
+		if (!direct){
+			return dispatcher._postSend(qp, wrList);
+		}
+		if (qp == 0){
+			return -1;
+		}
+		return post(function(qp, POST_SEND_OFFSET), qp, wrList);
+	}
+
+	int postRecv(long qp, long wrList) {
+		if (!direct){
+			return dispatcher._postRecv(qp, wrList);
+		}
+		if (qp == 0){
+			return -1;
+		}
+		return post(function(qp, POST_RECV_OFFSET), qp, wrList);
+	}
+
+	int pollCQ(long cq, int ne, long wclist) {
+		if (!direct){
+			return dispatcher._pollCQ(cq, ne, wclist);
+		}
+		if (cq == 0){
+			return -1;
+		}
+		try {
+			return (int) POLL.invokeExact(MemorySegment.ofAddress(function(cq, POLL_CQ_OFFSET)), cq, ne, wclist);
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/*
+	 * The entry of the ops table of the context of a QP or CQ.
+	 */
+	private static long function(long object, int offset) {
+		long context = MEMORY.get(ValueLayout.JAVA_LONG_UNALIGNED, object);
+		return MEMORY.get(ValueLayout.JAVA_LONG_UNALIGNED, context + CONTEXT_OPS_OFFSET + offset);
+	}
+
+	private static int post(long function, long queue, long wrList) {
+		int ret;
+		try {
+			ret = (int) POST.invokeExact(MemorySegment.ofAddress(function), queue, wrList, BAD_WR.get().address());
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+		if (ret != 0){
+			logger.info("post failed, ret " + ret);
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.util;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+
+/**
+ * MemoryUtils for Java 22 and later, buffer addresses are obtained through the Foreign Function and Memory API instead of
+ * the internal sun.nio.ch.DirectBuffer interface, so no --add-exports is required.
+ */
+public class MemoryUtils {
+	/*
+	 * The segment of a buffer starts at its position, the address returned is the one of the first element of the buffer.
+	 */
+	public static long getAddress(ByteBuffer buffer) {
+		if (!buffer.isDirect()) {
+			throw new IllegalArgumentException("Trying to get the address of a heap buffer");
+		}
+		return MemorySegment.ofBuffer(buffer).address() - buffer.position();
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+
+/**
+ * Remote atomics through RdmaRemoteCounter and RdmaRemoteSpinLock, from two passive endpoints on a word registered by
+ * the server side of their connections.
+ */
+public class RdmaAtomicsTest extends RdmaConnectedTestBase {
+	private static final int ATOMIC_ACCESS = IbvMr.IBV_ACCESS_LOCAL_WRITE | IbvMr.IBV_ACCESS_REMOTE_ATOMIC;
+
+	private RdmaPassiveEndpointGroup<RdmaEndpoint> passiveGroup;
+	private RdmaEndpoint first;
+	private RdmaEndpoint second;
+	private TestEndpoint firstTarget;
+	private TestEndpoint secondTarget;
+	private ByteBuffer words;
+	private IbvMr mr;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		passiveGroup = createPassiveGroup();
+		first = passiveGroup.createEndpoint();
+		firstTarget = connect(first);
+		second = passiveGroup.createEndpoint();
+		secondTarget = connect(second);
+		words = ByteBuffer.allocateDirect(64).order(ByteOrder.nativeOrder());
+		mr = firstTarget.getPd().regMr(words, ATOMIC_ACCESS).execute().free().getMr();
+	}
+
+	protected void tearDown() throws Exception {
+		first.close();
+		second.close();
+		firstTarget.close();
+		secondTarget.close();
+		passiveGroup.close();
+		super.tearDown();
+	}
+
+	public void testFetchAndAdd() throws Exception {
+		RdmaRemoteCounter counter = new RdmaRemoteCounter(first, mr.getAddr(), mr.getRkey());
+		assertEquals(0, counter.getAndAdd(5));
+		assertEquals(5, counter.getAndAdd(-2));
+		assertEquals(4, counter.incrementAndGet());
+		assertEquals(4, counter.get());
+		assertEquals(4, words.getLong(0));
+		counter.close();
+	}
+
+	public void testCompareAndSwap() throws Exception {
+		words.putLong(8, 7);
+		RdmaRemoteCounter counter = new RdmaRemoteCounter(first, mr.getAddr() + 8, mr.getRkey());
+		assertTrue(counter.compareAndSet(7, 9));
+		assertEquals(9, words.getLong(8));
+		assertFalse(counter.compareAndSet(7, 11));
+		assertEquals(9, words.getLong(8));
+		assertEquals(0, words.getLong(0));
+		counter.close();
+	}
+
+	public void testCounterContention() throws Exception {
+		final int count = 500;
+		final Set<Long> values = Collections.synchronizedSet(new HashSet<Long>());
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		Thread[] threads = new Thread[2];
+		RdmaEndpoint[] endpoints = new RdmaEndpoint[] { first, second };
+		for (int i = 0; i < threads.length; i++) {
+			final RdmaRemoteCounter counter = new RdmaRemoteCounter(endpoints[i], mr.getAddr(), mr.getRkey());
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < count; j++) {
+							values.add(counter.getAndAdd(1));
+						}
+						counter.close();
+					} catch (Exception e) {
+						error.set(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(error.get());
+		assertEquals(2 * count, words.getLong(0));
+		//every fetch and add saw a different value
+		assertEquals(2 * count, values.size());
+	}
+
+	public void testSpinLockContention() throws Exception {
+		final int count = 200;
+		final AtomicBoolean inside = new AtomicBoolean(false);
+		final AtomicBoolean overlapped = new AtomicBoolean(false);
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		final long[] shared = new long[1];
+		Thread[] threads = new Thread[2];
+		RdmaEndpoint[] endpoints = new RdmaEndpoint[] { first, second };
+		for (int i = 0; i < threads.length; i++) {
+			final RdmaRemoteSpinLock lock = new RdmaRemoteSpinLock(endpoints[i], mr.getAddr() + 16, mr.getRkey(), i + 1);
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < count; j++) {
+							lock.lock();
+							if (!inside.compareAndSet(false, true)) {
+								overlapped.set(true);
+							}
+							shared[0]++;
+							inside.set(false);
+							lock.unlock();
+						}
+						lock.close();
+					} catch (Exception e) {
+						error.set(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(error.get());
+		assertFalse(overlapped.get());
+		assertEquals(2 * count, shared[0]);
+		assertEquals(0, words.getLong(16));
+	}
+
+	public void testLockHeldByOtherEndpoint() throws Exception {
+		RdmaRemoteSpinLock owner = new RdmaRemoteSpinLock(first, mr.getAddr() + 16, mr.getRkey(), 1);
+		RdmaRemoteSpinLock other = new RdmaRemoteSpinLock(second, mr.getAddr() + 16, mr.getRkey(), 2);
+		owner.lock();
+		assertEquals(1, words.getLong(16));
+		assertFalse(other.tryLock());
+		try {
+			other.unlock();
+			fail("lock released by another token");
+		} catch (IOException e) {
+		}
+		owner.unlock();
+		assertTrue(other.tryLock());
+		assertEquals(2, words.getLong(16));
+		other.unlock();
+		owner.close();
+		other.close();
+	}
+
+	public void testUnalignedAddress() throws Exception {
+		RdmaRemoteCounter counter = new RdmaRemoteCounter(first, mr.getAddr() + 4, mr.getRkey());
+		try {
+			counter.get();
+			fail("atomic on an unaligned address");
+		} catch (IOException e) {
+		}
+		assertEquals(0, words.getLong(0));
+		assertEquals(0, words.getLong(8));
+		counter.close();
+	}
+
+	public void testRkeyViolation() throws Exception {
+		RdmaRemoteCounter counter = new RdmaRemoteCounter(first, mr.getAddr(), mr.getRkey() + 1);
+		try {
+			counter.getAndAdd(1);
+			fail("atomic with an invalid rkey");
+		} catch (IOException e) {
+		}
+		assertEquals(0, words.getLong(0));
+		counter.close();
+	}
+
+	public void testRegionWithoutAtomicAccess() throws Exception {
+		ByteBuffer plain = ByteBuffer.allocateDirect(64).order(ByteOrder.nativeOrder());
+		IbvMr plainMr = firstTarget.getPd().regMr(plain, IbvMr.IBV_ACCESS_LOCAL_WRITE | IbvMr.IBV_ACCESS_REMOTE_WRITE).execute().free().getMr();
+		RdmaRemoteCounter counter = new RdmaRemoteCounter(second, plainMr.getAddr(), plainMr.getRkey());
+		try {
+			counter.getAndAdd(1);
+			fail("atomic on a region without remote atomic access");
+		} catch (IOException e) {
+		}
+		assertEquals(0, plain.getLong(0));
+		counter.close();
+	}
+}
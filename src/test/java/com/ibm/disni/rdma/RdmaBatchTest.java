@@ -0,0 +1,138 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.RdmaVerbs;
+import com.ibm.disni.rdma.verbs.SVCBatch;
+import com.ibm.disni.rdma.verbs.SVCPostRecv;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+
+/**
+ * Execution order, per entry status and reuse of batches, with entries for the QPs of both endpoints.
+ */
+public class RdmaBatchTest extends RdmaConnectedTestBase {
+	private ByteBuffer recvBuffer;
+	private IbvMr recvMr;
+	private ByteBuffer sendBuffer;
+	private IbvMr sendMr;
+	private SVCBatch batch;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		recvBuffer = ByteBuffer.allocateDirect(64);
+		recvMr = register(serverEp, recvBuffer);
+		sendBuffer = ByteBuffer.allocateDirect(64);
+		sendMr = register(clientEp, sendBuffer);
+		batch = RdmaVerbs.open().batch();
+	}
+
+	protected void tearDown() throws Exception {
+		if (batch.isValid()) {
+			batch.free();
+		}
+		super.tearDown();
+	}
+
+	public void testEntriesOfDifferentQps() throws Exception {
+		SVCPostRecv postRecv = prepareRecv(serverEp, recvMr, 0, 64, 1);
+		SVCPostSend postSend = prepareSend(clientEp, IbvSendWR.IBV_WR_SEND, sendMr, 8, 0, 0, 2);
+		sendBuffer.putLong(0, 4242);
+		//the receive is added first, so the send finds it posted
+		batch.add(postRecv).add(postSend);
+		assertEquals(2, batch.size());
+		batch.execute();
+		assertEquals(0, batch.getFailed());
+		assertEquals(0, batch.getStatus(0));
+		assertEquals(0, batch.getStatus(1));
+		assertEquals(2, clientEp.take().getWr_id());
+		IbvWC received = serverEp.take();
+		assertEquals(1, received.getWr_id());
+		assertEquals(8, received.getByte_len());
+		assertEquals(4242, recvBuffer.getLong(0));
+		postRecv.free();
+		postSend.free();
+	}
+
+	public void testFailedEntryDoesNotStopBatch() throws Exception {
+		SVCPostRecv first = prepareRecv(serverEp, recvMr, 0, 8, 1);
+		SVCPostRecv freed = prepareRecv(serverEp, recvMr, 8, 8, 2);
+		SVCPostRecv last = prepareRecv(serverEp, recvMr, 16, 8, 3);
+		batch.add(first).add(freed).add(last);
+		freed.free();
+		batch.execute();
+		assertEquals(1, batch.getFailed());
+		assertEquals(0, batch.getStatus(0));
+		assertTrue(batch.getStatus(1) != 0);
+		assertEquals(0, batch.getStatus(2));
+
+		//both valid receives were posted, in order
+		for (int i = 0; i < 2; i++) {
+			sendBuffer.putLong(0, 10 + i);
+			postSend(clientEp, IbvSendWR.IBV_WR_SEND, sendMr, 8, 0, 0, 100 + i);
+			clientEp.take();
+		}
+		assertEquals(1, serverEp.take().getWr_id());
+		assertEquals(3, serverEp.take().getWr_id());
+		assertEquals(10, recvBuffer.getLong(0));
+		assertEquals(11, recvBuffer.getLong(16));
+		first.free();
+		last.free();
+	}
+
+	public void testReexecute() throws Exception {
+		SVCPostRecv postRecv = prepareRecv(serverEp, recvMr, 0, 8, 1);
+		SVCPostSend postSend = prepareSend(clientEp, IbvSendWR.IBV_WR_SEND, sendMr, 8, 0, 0, 2);
+		batch.add(postRecv).add(postSend);
+		for (int i = 0; i < 3; i++) {
+			//entries stay owned by the application and can be modified between executions
+			sendBuffer.putLong(0, i);
+			postSend.getWrMod(0).setWr_id(200 + i);
+			batch.execute();
+			assertEquals(0, batch.getFailed());
+			assertEquals(200 + i, clientEp.take().getWr_id());
+			serverEp.take();
+			assertEquals(i, recvBuffer.getLong(0));
+		}
+		batch.clear();
+		assertEquals(0, batch.size());
+		batch.execute();
+		assertEquals(0, batch.getFailed());
+		assertTrue(clientEp.completions.isEmpty());
+		postRecv.free();
+		postSend.free();
+	}
+
+	public void testExecuteAfterFree() throws Exception {
+		batch.free();
+		try {
+			batch.execute();
+			fail("freed batch executed");
+		} catch (IOException e) {
+		}
+	}
+}
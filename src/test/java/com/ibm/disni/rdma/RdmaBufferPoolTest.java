@@ -0,0 +1,211 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+
+/**
+ * Buffer pools of the loopback endpoints.
+ */
+public class RdmaBufferPoolTest extends RdmaConnectedTestBase {
+
+	public void testSizeClasses() throws Exception {
+		RdmaBufferPool pool = clientEp.createBufferPool(new int[]{8192, 512, 65536}, 1 << 20, 1);
+		try {
+			assertEquals(512, pool.getSizeClasses()[0]);
+			assertEquals(8192, pool.getSizeClasses()[1]);
+			assertEquals(65536, pool.getSizeClasses()[2]);
+			assertEquals(3, pool.getNumSlabs());
+
+			assertEquals(512, pool.lease(1).getSize());
+			assertEquals(8192, pool.lease(600).getSize());
+			RdmaBufferPool.Lease lease = pool.lease(65536);
+			assertEquals(65536, lease.getSize());
+			assertEquals(65536, lease.getBuffer().remaining());
+			assertEquals(lease.getMr().getLkey(), lease.getLkey());
+			try {
+				pool.lease(65537);
+				fail("lease larger than the largest size class");
+			} catch (IOException e) {
+			}
+		} finally {
+			pool.close();
+		}
+	}
+
+	public void testInvalidSizeClasses() throws Exception {
+		try {
+			clientEp.createBufferPool(new int[0], 4096, 1);
+			fail("pool without size classes");
+		} catch (IOException e) {
+		}
+		try {
+			clientEp.createBufferPool(new int[]{512, 8192}, 4096, 1);
+			fail("size class larger than a slab");
+		} catch (IOException e) {
+		}
+	}
+
+	public void testRemoteWrite() throws Exception {
+		RdmaBufferPool serverPool = serverEp.createBufferPool(new int[]{4096}, 1 << 20, 1);
+		RdmaBufferPool clientPool = clientEp.createBufferPool(new int[]{4096}, 1 << 20, 1);
+		try {
+			RdmaBufferPool.Lease target = serverPool.lease(100);
+			RdmaBufferPool.Lease source = clientPool.lease(8);
+			source.getBuffer().putLong(0, 4242);
+			postSend(clientEp, IbvSendWR.IBV_WR_RDMA_WRITE, source.getMr(), 8, target.getAddress(), target.getRkey(), 1);
+			clientEp.take();
+			assertEquals(4242, target.getBuffer().getLong(0));
+			source.release();
+			target.release();
+		} finally {
+			clientPool.close();
+			serverPool.close();
+		}
+	}
+
+	public void testDoubleRelease() throws Exception {
+		RdmaBufferPool pool = clientEp.createBufferPool(new int[]{512}, 4096, 1);
+		try {
+			RdmaBufferPool.Lease lease = pool.lease(512);
+			lease.release();
+			try {
+				lease.release();
+				fail("lease released twice");
+			} catch (IllegalStateException e) {
+			}
+		} finally {
+			pool.close();
+		}
+	}
+
+	public void testGrowsBySlab() throws Exception {
+		RdmaBufferPool pool = clientEp.createBufferPool(new int[]{1024}, 4096, 1);
+		try {
+			HashSet<Long> addresses = new HashSet<Long>();
+			for (int i = 0; i < 4; i++) {
+				addresses.add(pool.lease(1024).getAddress());
+			}
+			assertEquals(1, pool.getNumSlabs());
+			addresses.add(pool.lease(1024).getAddress());
+			assertEquals(2, pool.getNumSlabs());
+			assertEquals(5, addresses.size());
+		} finally {
+			pool.close();
+		}
+	}
+
+	public void testReuseAcrossThreads() throws Exception {
+		//a single buffer, released by one thread and leased by another
+		final RdmaBufferPool pool = clientEp.createBufferPool(new int[]{4096}, 4096, 1);
+		try {
+			final RdmaBufferPool.Lease lease = pool.lease(4096);
+			final AtomicReference<RdmaBufferPool.Lease> leased = new AtomicReference<RdmaBufferPool.Lease>();
+			Thread releaser = new Thread() {
+				public void run() {
+					lease.release();
+				}
+			};
+			releaser.start();
+			releaser.join();
+			Thread leaser = new Thread() {
+				public void run() {
+					try {
+						leased.set(pool.lease(4096));
+					} catch (IOException e) {
+					}
+				}
+			};
+			leaser.start();
+			leaser.join();
+			assertNotNull(leased.get());
+			assertEquals(lease.getAddress(), leased.get().getAddress());
+			assertEquals(1, pool.getNumSlabs());
+		} finally {
+			pool.close();
+		}
+	}
+
+	public void testConcurrentLeases() throws Exception {
+		final RdmaBufferPool pool = clientEp.createBufferPool(new int[]{512, 8192, 65536}, 1 << 20, 1);
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		List<Thread> threads = new ArrayList<Thread>();
+		try {
+			for (int t = 0; t < 4; t++) {
+				Thread thread = new Thread() {
+					public void run() {
+						Random random = new Random(getId());
+						ArrayList<RdmaBufferPool.Lease> leases = new ArrayList<RdmaBufferPool.Lease>();
+						try {
+							for (int i = 0; i < 2000; i++) {
+								int count = 1 + random.nextInt(32);
+								for (int k = 0; k < count; k++) {
+									RdmaBufferPool.Lease lease = pool.lease(1 + random.nextInt(65536));
+									lease.getBuffer().putLong(0, getId());
+									leases.add(lease);
+								}
+								for (RdmaBufferPool.Lease lease : leases) {
+									if (lease.getBuffer().getLong(0) != getId()) {
+										failure.set("buffer " + lease.getAddress() + " leased twice");
+									}
+									lease.release();
+								}
+								leases.clear();
+							}
+						} catch (Exception e) {
+							failure.set(e.getMessage());
+						}
+					}
+				};
+				thread.start();
+				threads.add(thread);
+			}
+			for (Thread thread : threads) {
+				thread.join(30000);
+			}
+			assertNull(failure.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	public void testLeaseAfterClose() throws Exception {
+		RdmaBufferPool pool = clientEp.createBufferPool(new int[]{512}, 4096, 1);
+		RdmaBufferPool.Lease lease = pool.lease(512);
+		pool.close();
+		pool.close();
+		//releasing an outstanding lease after close is harmless
+		lease.release();
+		try {
+			pool.lease(512);
+			fail("lease from a closed pool");
+		} catch (IOException e) {
+		}
+	}
+}
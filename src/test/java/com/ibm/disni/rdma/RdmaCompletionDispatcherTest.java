@@ -0,0 +1,205 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.RdmaCmId;
+
+/**
+ * Ordering and lane life cycle of the completion dispatcher, with unconnected endpoints of the loopback provider.
+ */
+public class RdmaCompletionDispatcherTest extends RdmaLoopbackTestBase {
+	private RdmaActiveEndpointGroup<TestEndpoint> group;
+	private RdmaCompletionDispatcher dispatcher;
+
+	static class TestEndpoint extends RdmaActiveEndpoint {
+		List<Long> received = Collections.synchronizedList(new ArrayList<Long>());
+		AtomicBoolean inside = new AtomicBoolean(false);
+		volatile boolean overlapped = false;
+		volatile CountDownLatch gate = null;
+
+		TestEndpoint(RdmaActiveEndpointGroup<TestEndpoint> group, RdmaCmId idPriv, boolean serverSide) throws IOException {
+			super(group, idPriv, serverSide);
+		}
+
+		public void dispatchCqEvent(IbvWC wc) throws IOException {
+			if (!inside.compareAndSet(false, true)) {
+				overlapped = true;
+			}
+			try {
+				CountDownLatch latch = gate;
+				if (latch != null) {
+					latch.await(5, TimeUnit.SECONDS);
+				}
+				if (wc.getWr_id() % 7 == 0) {
+					Thread.yield();
+				}
+				received.add(wc.getWr_id());
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			} finally {
+				inside.set(false);
+			}
+		}
+	}
+
+	protected void setUp() throws Exception {
+		group = new RdmaActiveEndpointGroup<TestEndpoint>(1000, false, 16, 1, 64);
+		group.init(new RdmaEndpointFactory<TestEndpoint>() {
+			public TestEndpoint createEndpoint(RdmaCmId idPriv, boolean serverSide) throws IOException {
+				return new TestEndpoint(group, idPriv, serverSide);
+			}
+		});
+		dispatcher = RdmaCompletionDispatcher.createPlatform(4);
+	}
+
+	protected void tearDown() throws Exception {
+		dispatcher.close();
+		group.close();
+	}
+
+	public void testOrderPerEndpoint() throws Exception {
+		int endpoints = 4;
+		int count = 2000;
+		TestEndpoint[] eps = new TestEndpoint[endpoints];
+		for (int i = 0; i < endpoints; i++) {
+			eps[i] = group.createEndpoint();
+		}
+		for (int i = 0; i < count; i++) {
+			for (TestEndpoint ep : eps) {
+				dispatcher.dispatch(ep, completion(i), null);
+			}
+		}
+		awaitDispatched(endpoints * count);
+		for (TestEndpoint ep : eps) {
+			assertFalse("completions of one endpoint dispatched concurrently", ep.overlapped);
+			assertEquals(count, ep.received.size());
+			for (int i = 0; i < count; i++) {
+				assertEquals(i, ep.received.get(i).longValue());
+			}
+			assertEquals(0, dispatcher.getQueueDepth(ep));
+		}
+		assertEquals(0, dispatcher.getQueueDepth());
+		assertTrue(dispatcher.getMaxQueueDepth() >= 1);
+	}
+
+	public void testRemoveDrainsQueuedAndDropsLater() throws Exception {
+		TestEndpoint ep = group.createEndpoint();
+		CountDownLatch gate = new CountDownLatch(1);
+		ep.gate = gate;
+		for (int i = 0; i < 3; i++) {
+			dispatcher.dispatch(ep, completion(i), null);
+		}
+		dispatcher.remove(ep);
+		dispatcher.dispatch(ep, completion(3), null);
+		dispatcher.dispatch(ep, completion(4), null);
+		assertEquals(3, dispatcher.getQueueDepth(ep));
+		gate.countDown();
+		awaitDispatched(3);
+		assertEquals(3, ep.received.size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i, ep.received.get(i).longValue());
+		}
+		assertEquals(0, dispatcher.getQueueDepth());
+		assertEquals(0, dispatcher.getQueueDepth(ep));
+	}
+
+	public void testRemoveIdleLane() throws Exception {
+		TestEndpoint ep = group.createEndpoint();
+		dispatcher.dispatch(ep, completion(0), null);
+		awaitDispatched(1);
+		dispatcher.remove(ep);
+		assertEquals(0, dispatcher.getQueueDepth(ep));
+		assertEquals(1, ep.received.size());
+	}
+
+	public void testDispatchAfterIdleRemove() throws Exception {
+		TestEndpoint ep = group.createEndpoint();
+		dispatcher.dispatch(ep, completion(0), null);
+		awaitDispatched(1);
+		dispatcher.remove(ep);
+		//the closed lane stays registered, late completions do not open a new one
+		dispatcher.dispatch(ep, completion(1), null);
+		dispatcher.dispatch(ep, completion(2), null);
+		Thread.sleep(100);
+		assertEquals(1, dispatcher.getDispatched());
+		assertEquals(0, dispatcher.getQueueDepth());
+		assertEquals(0, dispatcher.getQueueDepth(ep));
+		assertEquals(1, ep.received.size());
+	}
+
+	public void testDispatchAfterRemoveOfUnusedEndpoint() throws Exception {
+		TestEndpoint ep = group.createEndpoint();
+		dispatcher.remove(ep);
+		dispatcher.dispatch(ep, completion(0), null);
+		Thread.sleep(100);
+		assertEquals(0, dispatcher.getDispatched());
+		assertEquals(0, dispatcher.getQueueDepth());
+		assertEquals(0, ep.received.size());
+	}
+
+	public void testCloseClearsClosedLanes() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			RdmaCompletionDispatcher shared = new RdmaCompletionDispatcher(executor);
+			TestEndpoint ep = group.createEndpoint();
+			shared.remove(ep);
+			shared.dispatch(ep, completion(0), null);
+			assertEquals(0, shared.getDispatched());
+			//an executor passed in keeps running after close, the dispatcher starts over without lanes
+			shared.close();
+			shared.dispatch(ep, completion(1), null);
+			long deadline = System.currentTimeMillis() + 10000;
+			while (shared.getDispatched() < 1 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			assertEquals(1, shared.getDispatched());
+			assertEquals(1, ep.received.get(0).longValue());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void awaitDispatched(long expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (dispatcher.getDispatched() < expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(expected, dispatcher.getDispatched());
+	}
+
+	private static IbvWC completion(long wrId) {
+		IbvWC wc = new IbvWC();
+		wc.setWr_id(wrId);
+		return wc;
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvRecvWR;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvSge;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.RdmaCmId;
+import com.ibm.disni.rdma.verbs.SVCPostRecv;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+
+/**
+ * Base of the tests running on a pair of connected loopback endpoints, clientEp connected to serverEp. Completions
+ * are queued by the endpoints and taken by the test.
+ */
+public abstract class RdmaConnectedTestBase extends RdmaLoopbackTestBase {
+	protected RdmaActiveEndpointGroup<TestEndpoint> serverGroup;
+	protected RdmaActiveEndpointGroup<TestEndpoint> clientGroup;
+	protected RdmaServerEndpoint<TestEndpoint> server;
+	protected InetSocketAddress address;
+	protected TestEndpoint serverEp;
+	protected TestEndpoint clientEp;
+
+	public static class TestEndpoint extends RdmaActiveEndpoint {
+		LinkedBlockingQueue<IbvWC> completions = new LinkedBlockingQueue<IbvWC>();
+
+		TestEndpoint(RdmaActiveEndpointGroup<TestEndpoint> group, RdmaCmId idPriv, boolean serverSide) throws IOException {
+			super(group, idPriv, serverSide);
+		}
+
+		public void dispatchCqEvent(IbvWC wc) throws IOException {
+			completions.add(wc.clone());
+		}
+
+		/**
+		 * The next completion, which has to be successful.
+		 */
+		IbvWC take() throws InterruptedException {
+			IbvWC wc = takeAny();
+			assertEquals(IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal(), wc.getStatus());
+			return wc;
+		}
+
+		IbvWC takeAny() throws InterruptedException {
+			IbvWC wc = completions.poll(5, TimeUnit.SECONDS);
+			assertNotNull("completion timed out", wc);
+			return wc;
+		}
+	}
+
+	protected void setUp() throws Exception {
+		serverGroup = createGroup();
+		clientGroup = createGroup();
+		server = serverGroup.createServerEndpoint();
+		address = nextAddress();
+		server.bind(address, 10);
+		CompletableFuture<TestEndpoint> accepted = server.acceptAsync();
+		clientEp = clientGroup.createEndpoint();
+		clientEp.connect(address, 1000);
+		serverEp = accepted.get(5, TimeUnit.SECONDS);
+	}
+
+	protected void tearDown() throws Exception {
+		clientEp.close();
+		serverEp.close();
+		server.close();
+		clientGroup.close();
+		serverGroup.close();
+	}
+
+	/*
+	 * The groups poll CM events with a short timeout, closing a group waits for the poll to return.
+	 */
+	protected RdmaActiveEndpointGroup<TestEndpoint> createGroup() throws IOException {
+		final RdmaActiveEndpointGroup<TestEndpoint> group = new RdmaActiveEndpointGroup<TestEndpoint>(100, false, 64, 1, 128);
+		group.init(new RdmaEndpointFactory<TestEndpoint>() {
+			public TestEndpoint createEndpoint(RdmaCmId idPriv, boolean serverSide) throws IOException {
+				return new TestEndpoint(group, idPriv, serverSide);
+			}
+		});
+		return group;
+	}
+
+	/**
+	 * A group of passive endpoints, whose completion queues are polled by the test.
+	 */
+	protected RdmaPassiveEndpointGroup<RdmaEndpoint> createPassiveGroup() throws IOException {
+		final RdmaPassiveEndpointGroup<RdmaEndpoint> group = new RdmaPassiveEndpointGroup<RdmaEndpoint>(100, 64, 1, 128);
+		group.init(new RdmaEndpointFactory<RdmaEndpoint>() {
+			public RdmaEndpoint createEndpoint(RdmaCmId idPriv, boolean serverSide) throws IOException {
+				return new RdmaEndpoint(group, idPriv, serverSide);
+			}
+		});
+		return group;
+	}
+
+	/**
+	 * Connects a further endpoint to the server and returns the server side of the connection.
+	 */
+	protected TestEndpoint connect(RdmaEndpoint endpoint) throws Exception {
+		CompletableFuture<TestEndpoint> accepted = server.acceptAsync();
+		endpoint.connect(address, 1000);
+		return accepted.get(5, TimeUnit.SECONDS);
+	}
+
+	protected static IbvMr register(RdmaEndpoint endpoint, ByteBuffer buffer) throws IOException {
+		return endpoint.registerMemory(buffer).execute().free().getMr();
+	}
+
+	protected static SVCPostRecv prepareRecv(RdmaEndpoint endpoint, IbvMr mr, int offset, int length, long wrId) throws IOException {
+		IbvSge sge = new IbvSge();
+		sge.setAddr(mr.getAddr() + offset);
+		sge.setLength(length);
+		sge.setLkey(mr.getLkey());
+		LinkedList<IbvSge> sgeList = new LinkedList<IbvSge>();
+		sgeList.add(sge);
+		IbvRecvWR wr = new IbvRecvWR();
+		wr.setWr_id(wrId);
+		wr.setSg_list(sgeList);
+		LinkedList<IbvRecvWR> wrList = new LinkedList<IbvRecvWR>();
+		wrList.add(wr);
+		return endpoint.postRecv(wrList);
+	}
+
+	protected static void postRecv(RdmaEndpoint endpoint, IbvMr mr, int offset, int length, long wrId) throws IOException {
+		prepareRecv(endpoint, mr, offset, length, wrId).execute().free();
+	}
+
+	protected static SVCPostSend prepareSend(RdmaEndpoint endpoint, int opcode, IbvMr mr, int length, long remoteAddr, int rkey, long wrId) throws IOException {
+		SVCPostSend postSend = endpoint.postSend(1, 1);
+		SVCPostSend.SendWRMod wr = postSend.getWrMod(0);
+		wr.setWr_id(wrId);
+		wr.setOpcode(opcode);
+		wr.setSend_flags(IbvSendWR.IBV_SEND_SIGNALED);
+		wr.getRdmaMod().setRemote_addr(remoteAddr);
+		wr.getRdmaMod().setRkey(rkey);
+		wr.getSgeMod(0).setAddr(mr.getAddr());
+		wr.getSgeMod(0).setLength(length);
+		wr.getSgeMod(0).setLkey(mr.getLkey());
+		return postSend;
+	}
+
+	protected static void postSend(RdmaEndpoint endpoint, int opcode, IbvMr mr, int length, long remoteAddr, int rkey, long wrId) throws IOException {
+		prepareSend(endpoint, opcode, mr, length, remoteAddr, rkey, wrId).execute().free();
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Assignment of the endpoints of an active group with several CQ processors, on the loopback provider.
+ */
+public class RdmaCqPolicyTest extends RdmaConnectedTestBase {
+	private static final int PROCESSORS = 4;
+
+	private RdmaActiveEndpointGroup<TestEndpoint> group;
+	private List<TestEndpoint> endpoints;
+	private List<TestEndpoint> accepted;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		group = createGroup();
+		group.setCqProcessors(PROCESSORS);
+		endpoints = new ArrayList<TestEndpoint>();
+		accepted = new ArrayList<TestEndpoint>();
+	}
+
+	protected void tearDown() throws Exception {
+		for (TestEndpoint endpoint : endpoints) {
+			endpoint.close();
+		}
+		for (TestEndpoint endpoint : accepted) {
+			endpoint.close();
+		}
+		group.close();
+		super.tearDown();
+	}
+
+	/*
+	 * Connects count endpoints of the group, all at the same time.
+	 */
+	private void connectConcurrently(int count) throws Exception {
+		List<CompletableFuture<TestEndpoint>> acceptors = new ArrayList<CompletableFuture<TestEndpoint>>();
+		List<Thread> threads = new ArrayList<Thread>();
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		for (int i = 0; i < count; i++) {
+			acceptors.add(server.acceptAsync());
+			final TestEndpoint endpoint = group.createEndpoint();
+			endpoints.add(endpoint);
+			Thread thread = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						endpoint.connect(address, 1000);
+					} catch (Exception e) {
+						failure.set(e);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join(10000);
+		}
+		assertNull(failure.get());
+		for (CompletableFuture<TestEndpoint> acceptor : acceptors) {
+			accepted.add(acceptor.get(5, TimeUnit.SECONDS));
+		}
+	}
+
+	private HashMap<RdmaCqProvider, Integer> spread() {
+		HashMap<RdmaCqProvider, Integer> spread = new HashMap<RdmaCqProvider, Integer>();
+		for (TestEndpoint endpoint : endpoints) {
+			if (!endpoint.isClosed()) {
+				Integer count = spread.get(endpoint.getCqProvider());
+				spread.put(endpoint.getCqProvider(), count == null ? 1 : count + 1);
+			}
+		}
+		return spread;
+	}
+
+	public void testLeastLoadedConcurrentConnects() throws Exception {
+		group.setCqPolicy(new RdmaCqPolicy.LeastLoaded());
+		connectConcurrently(3 * PROCESSORS);
+
+		HashMap<RdmaCqProvider, Integer> spread = spread();
+		assertEquals(PROCESSORS, spread.size());
+		for (RdmaCqProvider provider : spread.keySet()) {
+			assertEquals(3, spread.get(provider).intValue());
+			assertEquals(3, ((RdmaCqProcessor<?>) provider).getNumEndpoints());
+		}
+
+		//closed endpoints are no longer counted, the emptied processor gets the next endpoints
+		RdmaCqProvider emptied = endpoints.get(0).getCqProvider();
+		for (TestEndpoint endpoint : endpoints) {
+			if (endpoint.getCqProvider() == emptied) {
+				endpoint.close();
+			}
+		}
+		assertEquals(0, ((RdmaCqProcessor<?>) emptied).getNumEndpoints());
+		connectConcurrently(3);
+		spread = spread();
+		assertEquals(PROCESSORS, spread.size());
+		assertEquals(3, spread.get(emptied).intValue());
+	}
+
+	public void testRoundRobin() throws Exception {
+		for (int i = 0; i < 2 * PROCESSORS; i++) {
+			TestEndpoint endpoint = group.createEndpoint();
+			endpoints.add(endpoint);
+			accepted.add(connect(endpoint));
+		}
+		for (int i = 0; i < PROCESSORS; i++) {
+			assertSame(endpoints.get(i).getCqProvider(), endpoints.get(i + PROCESSORS).getCqProvider());
+			assertEquals(2, ((RdmaCqProcessor<?>) endpoints.get(i).getCqProvider()).getNumEndpoints());
+		}
+		assertEquals(PROCESSORS, spread().size());
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvRecvWR;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvSge;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+
+/**
+ * Datagrams between groups of the loopback provider, and the identification of their senders.
+ */
+public class RdmaDatagramGroupTest extends RdmaLoopbackTestBase {
+	private TestGroup sender;
+	private TestGroup receiver;
+	private RdmaDatagramPeer toReceiver;
+	private RdmaDatagramPeer fromSender;
+	private ByteBuffer recvBuffer;
+	private IbvMr recvMr;
+
+	static class TestGroup extends RdmaDatagramGroup {
+		List<RdmaDatagramPeer> peers = new ArrayList<RdmaDatagramPeer>();
+		List<IbvWC> completions = new ArrayList<IbvWC>();
+
+		TestGroup() {
+			super(16, 1, 64);
+		}
+
+		public void dispatchCqEvent(RdmaDatagramPeer peer, IbvWC wc) throws IOException {
+			peers.add(peer);
+			completions.add(wc.clone());
+		}
+
+		/*
+		 * Polls until the given number of completions has been dispatched in total.
+		 */
+		void pollUntil(int count) throws Exception {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (completions.size() < count && System.currentTimeMillis() < deadline) {
+				poll();
+			}
+			assertEquals(count, completions.size());
+		}
+	}
+
+	protected void setUp() throws Exception {
+		sender = createGroup();
+		receiver = createGroup();
+		toReceiver = sender.createPeer(receiver.getAddress(), receiver.getQpNum());
+		fromSender = receiver.createPeer(sender.getAddress(), sender.getQpNum());
+		recvBuffer = ByteBuffer.allocateDirect(4 * 128);
+		recvMr = receiver.registerMemory(recvBuffer).execute().free().getMr();
+	}
+
+	protected void tearDown() throws Exception {
+		sender.close();
+		receiver.close();
+	}
+
+	public void testSendToPeer() throws Exception {
+		postRecv(0, 1);
+		send(sender, toReceiver, "hello", 2);
+		sender.pollUntil(1);
+		assertNull(sender.peers.get(0));
+		assertEquals(2, sender.completions.get(0).getWr_id());
+		assertEquals(IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal(), sender.completions.get(0).getStatus());
+
+		receiver.pollUntil(1);
+		IbvWC wc = receiver.completions.get(0);
+		assertEquals(1, wc.getWr_id());
+		assertEquals(IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal(), wc.getStatus());
+		assertEquals(IbvWC.GRH_SIZE + 5, wc.getByte_len());
+		assertEquals(sender.getQpNum(), wc.getSrc_qp());
+		assertSame(fromSender, receiver.peers.get(0));
+		assertEquals("hello", payload(0, 5));
+	}
+
+	public void testUnknownSender() throws Exception {
+		TestGroup stranger = createGroup();
+		try {
+			RdmaDatagramPeer peer = stranger.createPeer(receiver.getAddress(), receiver.getQpNum());
+			postRecv(0, 1);
+			send(stranger, peer, "who", 3);
+			receiver.pollUntil(1);
+			assertEquals(stranger.getQpNum(), receiver.completions.get(0).getSrc_qp());
+			assertNull(receiver.peers.get(0));
+			assertEquals("who", payload(0, 3));
+		} finally {
+			stranger.close();
+		}
+	}
+
+	public void testClosedPeerIsUnknown() throws Exception {
+		fromSender.close();
+		postRecv(0, 1);
+		send(sender, toReceiver, "gone", 2);
+		receiver.pollUntil(1);
+		assertNull(receiver.peers.get(0));
+	}
+
+	public void testDropWithoutReceive() throws Exception {
+		//the first datagram finds no receive and is dropped, the sender still completes it
+		send(sender, toReceiver, "lost", 1);
+		sender.pollUntil(1);
+		assertEquals(IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal(), sender.completions.get(0).getStatus());
+		postRecv(128, 7);
+		send(sender, toReceiver, "kept", 2);
+		receiver.pollUntil(1);
+		assertEquals(7, receiver.completions.get(0).getWr_id());
+		assertEquals("kept", payload(128, 4));
+		assertSame(fromSender, receiver.peers.get(0));
+	}
+
+	public void testDuplicatePeer() throws Exception {
+		try {
+			sender.createPeer(receiver.getAddress(), receiver.getQpNum());
+			fail("peer created twice");
+		} catch (IOException e) {
+		}
+	}
+
+	private TestGroup createGroup() throws IOException {
+		TestGroup group = new TestGroup();
+		group.bind(nextAddress());
+		return group;
+	}
+
+	private void postRecv(int offset, long wrId) throws IOException {
+		IbvSge sge = new IbvSge();
+		sge.setAddr(recvMr.getAddr() + offset);
+		sge.setLength(128);
+		sge.setLkey(recvMr.getLkey());
+		LinkedList<IbvSge> sgeList = new LinkedList<IbvSge>();
+		sgeList.add(sge);
+		IbvRecvWR wr = new IbvRecvWR();
+		wr.setWr_id(wrId);
+		wr.setSg_list(sgeList);
+		LinkedList<IbvRecvWR> wrList = new LinkedList<IbvRecvWR>();
+		wrList.add(wr);
+		receiver.postRecv(wrList).execute().free();
+	}
+
+	private static void send(RdmaDatagramGroup group, RdmaDatagramPeer peer, String message, long wrId) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+		buffer.put(message.getBytes());
+		IbvMr mr = group.registerMemory(buffer).execute().free().getMr();
+		SVCPostSend postSend = group.postSend(1, 1);
+		SVCPostSend.SendWRMod wr = postSend.getWrMod(0);
+		wr.setWr_id(wrId);
+		wr.setOpcode(IbvSendWR.IBV_WR_SEND);
+		wr.setSend_flags(IbvSendWR.IBV_SEND_SIGNALED);
+		wr.getSgeMod(0).setAddr(mr.getAddr());
+		wr.getSgeMod(0).setLength(message.length());
+		wr.getSgeMod(0).setLkey(mr.getLkey());
+		peer.address(wr);
+		postSend.execute().free();
+	}
+
+	private String payload(int offset, int length) {
+		byte[] data = new byte[length];
+		ByteBuffer view = recvBuffer.duplicate();
+		view.position(offset + IbvWC.GRH_SIZE);
+		view.get(data);
+		return new String(data);
+	}
+}
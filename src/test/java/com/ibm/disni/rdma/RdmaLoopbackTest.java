@@ -0,0 +1,189 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.RdmaCmId;
+
+/**
+ * Runs the endpoint layer over the in-process loopback provider, no RDMA device is required.
+ */
+public class RdmaLoopbackTest extends RdmaConnectedTestBase {
+	public void testSendRecv() throws Exception {
+		ByteBuffer recvBuffer = ByteBuffer.allocateDirect(64);
+		IbvMr recvMr = serverEp.registerMemory(recvBuffer).execute().free().getMr();
+		postRecv(serverEp, recvMr, 0, 64, 7);
+
+		ByteBuffer sendBuffer = ByteBuffer.allocateDirect(64);
+		sendBuffer.putLong(0, 0x1122334455667788L);
+		IbvMr sendMr = clientEp.registerMemory(sendBuffer).execute().free().getMr();
+		postSend(clientEp, IbvSendWR.IBV_WR_SEND, sendMr, 8, 0, 0, 3);
+
+		IbvWC sent = clientEp.take();
+		assertEquals(3, sent.getWr_id());
+		assertEquals(IbvWC.IbvWcOpcode.IBV_WC_SEND.getOpcode(), sent.getOpcode());
+		IbvWC received = serverEp.take();
+		assertEquals(7, received.getWr_id());
+		assertEquals(IbvWC.IbvWcOpcode.IBV_WC_RECV.getOpcode(), received.getOpcode());
+		assertEquals(8, received.getByte_len());
+		assertEquals(0x1122334455667788L, recvBuffer.getLong(0));
+	}
+
+	public void testWriteRead() throws Exception {
+		ByteBuffer remoteBuffer = ByteBuffer.allocateDirect(64);
+		IbvMr remoteMr = serverEp.registerMemory(remoteBuffer).execute().free().getMr();
+		ByteBuffer localBuffer = ByteBuffer.allocateDirect(64);
+		IbvMr localMr = clientEp.registerMemory(localBuffer).execute().free().getMr();
+
+		localBuffer.putLong(0, 42);
+		localBuffer.putLong(8, 43);
+		postSend(clientEp, IbvSendWR.IBV_WR_RDMA_WRITE, localMr, 16, remoteMr.getAddr() + 16, remoteMr.getRkey(), 1);
+		assertEquals(IbvWC.IbvWcOpcode.IBV_WC_RDMA_WRITE.getOpcode(), clientEp.take().getOpcode());
+		assertEquals(42, remoteBuffer.getLong(16));
+		assertEquals(43, remoteBuffer.getLong(24));
+
+		remoteBuffer.putLong(32, 99);
+		postSend(clientEp, IbvSendWR.IBV_WR_RDMA_READ, localMr, 8, remoteMr.getAddr() + 32, remoteMr.getRkey(), 2);
+		IbvWC read = clientEp.take();
+		assertEquals(IbvWC.IbvWcOpcode.IBV_WC_RDMA_READ.getOpcode(), read.getOpcode());
+		assertEquals(2, read.getWr_id());
+		assertEquals(99, localBuffer.getLong(0));
+		assertTrue(serverEp.completions.isEmpty());
+	}
+
+	public void testCompletionOrder() throws Exception {
+		int count = 32;
+		ByteBuffer recvBuffer = ByteBuffer.allocateDirect(8 * count);
+		IbvMr recvMr = serverEp.registerMemory(recvBuffer).execute().free().getMr();
+		for (int i = 0; i < count; i++) {
+			postRecv(serverEp, recvMr, 8 * i, 8, i);
+		}
+		ByteBuffer sendBuffer = ByteBuffer.allocateDirect(8);
+		IbvMr sendMr = clientEp.registerMemory(sendBuffer).execute().free().getMr();
+		for (int i = 0; i < count; i++) {
+			sendBuffer.putLong(0, i);
+			postSend(clientEp, IbvSendWR.IBV_WR_SEND, sendMr, 8, 0, 0, 100 + i);
+			assertEquals(100 + i, clientEp.take().getWr_id());
+		}
+		for (int i = 0; i < count; i++) {
+			IbvWC wc = serverEp.take();
+			assertEquals(i, wc.getWr_id());
+			assertEquals(i, recvBuffer.getLong(8 * i));
+		}
+	}
+
+	public void testBlockingContinuation() throws Exception {
+		CompletableFuture<TestEndpoint> firstAccepted = server.acceptAsync();
+		CompletableFuture<TestEndpoint> secondAccepted = server.acceptAsync();
+		TestEndpoint first = clientGroup.createEndpoint();
+		final TestEndpoint second = clientGroup.createEndpoint();
+		//connect() blocks until the CM events of the second endpoint have been processed
+		CompletableFuture<Void> connected = first.connectAsync(address, 1000).thenApply(new Function<Void, Void>() {
+			public Void apply(Void result) {
+				try {
+					second.connect(address, 1000);
+				} catch (Exception e) {
+					throw new CompletionException(e);
+				}
+				return null;
+			}
+		});
+		connected.get(5, TimeUnit.SECONDS);
+		assertTrue(first.isConnected());
+		assertTrue(second.isConnected());
+		firstAccepted.get(5, TimeUnit.SECONDS);
+		secondAccepted.get(5, TimeUnit.SECONDS);
+	}
+
+	public void testConnectWhileConnectAsyncPending() throws Exception {
+		CompletableFuture<TestEndpoint> accepted = server.acceptAsync();
+		TestEndpoint endpoint = clientGroup.createEndpoint();
+		try {
+			CompletableFuture<Void> connected = endpoint.connectAsync(address, 1000);
+			try {
+				endpoint.connectAsync(address, 1000).get(5, TimeUnit.SECONDS);
+				fail("second asynchronous connect accepted");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IOException);
+			}
+			try {
+				endpoint.connect(address, 1000);
+				fail("blocking connect accepted while an asynchronous connect is pending");
+			} catch (IOException e) {
+			}
+			connected.get(5, TimeUnit.SECONDS);
+			assertTrue(endpoint.isConnected());
+			accepted.get(5, TimeUnit.SECONDS).close();
+		} finally {
+			endpoint.close();
+		}
+	}
+
+	public void testFailedConnectAsyncReleasesEndpoint() throws Exception {
+		final RdmaActiveEndpointGroup<TestEndpoint> group = new RdmaActiveEndpointGroup<TestEndpoint>(100, false, 64, 1, 128);
+		group.init(new RdmaEndpointFactory<TestEndpoint>() {
+			public TestEndpoint createEndpoint(RdmaCmId idPriv, boolean serverSide) throws IOException {
+				return new TestEndpoint(group, idPriv, serverSide) {
+					protected synchronized void init() throws IOException {
+						throw new IOException("Trying to initialize endpoint, failing on purpose");
+					}
+				};
+			}
+		});
+		try {
+			TestEndpoint endpoint = group.createEndpoint();
+			try {
+				endpoint.connectAsync(address, 1000).get(5, TimeUnit.SECONDS);
+				fail("connect completed although resource allocation failed");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IOException);
+			}
+			//the endpoint is closed before the future fails
+			assertTrue(endpoint.isClosed());
+			assertFalse(endpoint.isConnected());
+			assertEquals(0, ((RdmaCqProcessor<?>) endpoint.getCqProvider()).getNumEndpoints());
+		} finally {
+			group.close();
+		}
+	}
+
+	public void testCloseFailsPendingAccept() throws Exception {
+		CompletableFuture<TestEndpoint> accepted = server.acceptAsync();
+		server.close();
+		try {
+			accepted.get(5, TimeUnit.SECONDS);
+			fail("accept completed after close");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.ibm.disni.rdma.verbs.RdmaProvider;
+
+/**
+ * Common base of the tests running over the in-process loopback provider, no RDMA device is required. Every test
+ * binds to an address of its own, handed out by nextAddress().
+ */
+public abstract class RdmaLoopbackTestBase extends TestCase {
+	private static final AtomicInteger port = new AtomicInteger(19400);
+
+	static {
+		System.setProperty(RdmaProvider.PROVIDER_PROPERTY, "loopback");
+	}
+
+	protected static InetSocketAddress nextAddress() {
+		return new InetSocketAddress("127.0.0.1", port.getAndIncrement());
+	}
+}
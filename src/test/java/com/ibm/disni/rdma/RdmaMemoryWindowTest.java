@@ -0,0 +1,130 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvMw;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvWC;
+
+/**
+ * Remote accesses through type 2 memory windows bound by the server endpoint, on the loopback provider. A failed
+ * remote access moves the QP to the error state, so it is the last operation of a test.
+ */
+public class RdmaMemoryWindowTest extends RdmaConnectedTestBase {
+	private static final int REMOTE_ACCESS_ERR = IbvWC.IbvWcStatus.IBV_WC_REM_ACCESS_ERR.ordinal();
+
+	private ByteBuffer target;
+	private IbvMr targetMr;
+	private IbvMw mw;
+	private ByteBuffer source;
+	private IbvMr sourceMr;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		target = ByteBuffer.allocateDirect(4096).order(ByteOrder.nativeOrder());
+		int access = IbvMr.IBV_ACCESS_LOCAL_WRITE | IbvMr.IBV_ACCESS_REMOTE_WRITE | IbvMr.IBV_ACCESS_REMOTE_READ | IbvMr.IBV_ACCESS_MW_BIND;
+		targetMr = serverEp.getPd().regMr(target, access).execute().free().getMr();
+		mw = serverEp.getPd().allocMw(IbvMw.IBV_MW_TYPE_2);
+		source = ByteBuffer.allocateDirect(64).order(ByteOrder.nativeOrder());
+		sourceMr = register(clientEp, source);
+	}
+
+	protected void tearDown() throws Exception {
+		mw.deallocMw();
+		super.tearDown();
+	}
+
+	private IbvWC bind(IbvMr mr, long addr, long length, int access) throws Exception {
+		serverEp.getQp().bindMw(mw, mr, addr, length, access).execute().free();
+		IbvWC wc = serverEp.takeAny();
+		assertEquals(IbvWC.IbvWcOpcode.IBV_WC_BIND_MW.getOpcode(), wc.getOpcode());
+		return wc;
+	}
+
+	private IbvWC access(int opcode, long remoteAddr, int rkey) throws Exception {
+		postSend(clientEp, opcode, sourceMr, 8, remoteAddr, rkey, 1);
+		return clientEp.takeAny();
+	}
+
+	public void testWriteInsideWindow() throws Exception {
+		int rkey = mw.getRkey();
+		assertEquals(0, bind(targetMr, targetMr.getAddr() + 1024, 512, IbvMr.IBV_ACCESS_REMOTE_WRITE).getStatus());
+		assertTrue(rkey != mw.getRkey());
+
+		source.putLong(0, 4242);
+		assertEquals(0, access(IbvSendWR.IBV_WR_RDMA_WRITE, targetMr.getAddr() + 1032, mw.getRkey()).getStatus());
+		assertEquals(4242, target.getLong(1032));
+	}
+
+	public void testWriteOutsideWindow() throws Exception {
+		assertEquals(0, bind(targetMr, targetMr.getAddr() + 1024, 512, IbvMr.IBV_ACCESS_REMOTE_WRITE).getStatus());
+
+		source.putLong(0, 1);
+		assertEquals(REMOTE_ACCESS_ERR, access(IbvSendWR.IBV_WR_RDMA_WRITE, targetMr.getAddr() + 1532, mw.getRkey()).getStatus());
+		assertEquals(0, target.getLong(1528));
+	}
+
+	public void testRebindRetiresOldRkey() throws Exception {
+		assertEquals(0, bind(targetMr, targetMr.getAddr() + 1024, 512, IbvMr.IBV_ACCESS_REMOTE_WRITE).getStatus());
+		int oldRkey = mw.getRkey();
+		assertEquals(0, bind(targetMr, targetMr.getAddr(), 64, IbvMr.IBV_ACCESS_REMOTE_WRITE).getStatus());
+		assertTrue(oldRkey != mw.getRkey());
+
+		source.putLong(0, 7);
+		assertEquals(0, access(IbvSendWR.IBV_WR_RDMA_WRITE, targetMr.getAddr() + 8, mw.getRkey()).getStatus());
+		assertEquals(7, target.getLong(8));
+		assertEquals(REMOTE_ACCESS_ERR, access(IbvSendWR.IBV_WR_RDMA_WRITE, targetMr.getAddr() + 1032, oldRkey).getStatus());
+	}
+
+	public void testInvalidate() throws Exception {
+		assertEquals(0, bind(targetMr, targetMr.getAddr(), 64, IbvMr.IBV_ACCESS_REMOTE_WRITE).getStatus());
+		serverEp.getQp().invalidateMw(mw).execute().free();
+		IbvWC wc = serverEp.take();
+		assertEquals(IbvWC.IbvWcOpcode.IBV_WC_LOCAL_INV.getOpcode(), wc.getOpcode());
+
+		source.putLong(0, 1);
+		assertEquals(REMOTE_ACCESS_ERR, access(IbvSendWR.IBV_WR_RDMA_WRITE, targetMr.getAddr() + 8, mw.getRkey()).getStatus());
+		assertEquals(0, target.getLong(8));
+	}
+
+	public void testReadOnlyWindow() throws Exception {
+		assertEquals(0, bind(targetMr, targetMr.getAddr(), 64, IbvMr.IBV_ACCESS_REMOTE_READ).getStatus());
+		target.putLong(16, 99);
+
+		assertEquals(0, access(IbvSendWR.IBV_WR_RDMA_READ, targetMr.getAddr() + 16, mw.getRkey()).getStatus());
+		assertEquals(99, source.getLong(0));
+		source.putLong(0, 1);
+		assertEquals(REMOTE_ACCESS_ERR, access(IbvSendWR.IBV_WR_RDMA_WRITE, targetMr.getAddr() + 16, mw.getRkey()).getStatus());
+		assertEquals(99, target.getLong(16));
+	}
+
+	public void testBindRequiresMwBindAccess() throws Exception {
+		ByteBuffer plain = ByteBuffer.allocateDirect(64);
+		IbvMr plainMr = serverEp.getPd().regMr(plain, IbvMr.IBV_ACCESS_LOCAL_WRITE | IbvMr.IBV_ACCESS_REMOTE_WRITE).execute().free().getMr();
+		IbvWC wc = bind(plainMr, plainMr.getAddr(), 64, IbvMr.IBV_ACCESS_REMOTE_WRITE);
+		assertEquals(IbvWC.IbvWcStatus.IBV_WC_MW_BIND_ERR.ordinal(), wc.getStatus());
+	}
+}
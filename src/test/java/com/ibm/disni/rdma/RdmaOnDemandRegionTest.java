@@ -0,0 +1,153 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+
+/**
+ * On-demand regions on the loopback provider, which reports ODP support and needs no backing memory for regions
+ * registered by address.
+ */
+public class RdmaOnDemandRegionTest extends RdmaConnectedTestBase {
+	private static final long BASE = 1L << 40;
+	private static final int REMOTE_ACCESS = IbvMr.IBV_ACCESS_LOCAL_WRITE | IbvMr.IBV_ACCESS_REMOTE_WRITE | IbvMr.IBV_ACCESS_REMOTE_READ;
+
+	public void testSegmentLookup() throws Exception {
+		RdmaOnDemandRegion region = serverEp.registerOnDemand(BASE, 5L << 30);
+		try {
+			assertTrue(region.isOnDemand());
+			assertEquals(BASE, region.getAddress());
+			assertEquals(5L << 30, region.getLength());
+
+			//a range crossing the end of one segment lies within the next one
+			IbvMr crossing = region.getMr(BASE + (3L << 30) - 100, 4096);
+			assertNotNull(crossing);
+			assertSame(crossing, region.getMr(BASE + (2L << 30) + 5, RdmaOnDemandRegion.STRIDE));
+			assertEquals(crossing.getLkey(), region.getLkey(BASE + (3L << 30) - 100, 4096));
+			assertEquals(crossing.getRkey(), region.getRkey(BASE + (3L << 30) - 100, 4096));
+			assertTrue(crossing != region.getMr(BASE, 8));
+
+			assertNotNull(region.getMr(BASE + (5L << 30) - 10, 10));
+			assertNull(region.getMr(BASE + (5L << 30) - 10, 11));
+			assertNull(region.getMr(BASE - 1, 8));
+			assertNull(region.getMr(BASE, RdmaOnDemandRegion.STRIDE + 1));
+			try {
+				region.getLkey(BASE + (5L << 30), 1);
+				fail("range out of bounds");
+			} catch (IOException e) {
+			}
+		} finally {
+			region.close();
+		}
+	}
+
+	public void testRemoteAccess() throws Exception {
+		ByteBuffer target = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.nativeOrder());
+		RdmaOnDemandRegion region = new RdmaOnDemandRegion(serverEp.getPd(), target, REMOTE_ACCESS);
+		ByteBuffer source = ByteBuffer.allocateDirect(64).order(ByteOrder.nativeOrder());
+		IbvMr sourceMr = register(clientEp, source);
+		try {
+			long remote = region.getAddress() + (512 << 10);
+			region.prefetch(remote, 4096);
+			region.prefetchNow(region.getAddress(), region.getLength());
+
+			source.putLong(0, 777);
+			postSend(clientEp, IbvSendWR.IBV_WR_RDMA_WRITE, sourceMr, 8, remote, region.getRkey(remote, 8), 1);
+			clientEp.take();
+			assertEquals(777, target.getLong(512 << 10));
+
+			target.putLong(64, 888);
+			postSend(clientEp, IbvSendWR.IBV_WR_RDMA_READ, sourceMr, 8, region.getAddress() + 64, region.getRkey(region.getAddress() + 64, 8), 2);
+			clientEp.take();
+			assertEquals(888, source.getLong(0));
+			assertEquals(0, region.getDropped());
+		} finally {
+			region.close();
+		}
+	}
+
+	public void testLocalSource() throws Exception {
+		ByteBuffer target = ByteBuffer.allocateDirect(64).order(ByteOrder.nativeOrder());
+		IbvMr targetMr = serverEp.getPd().regMr(target, REMOTE_ACCESS).execute().free().getMr();
+		ByteBuffer source = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.nativeOrder());
+		RdmaOnDemandRegion region = new RdmaOnDemandRegion(clientEp.getPd(), source, IbvMr.IBV_ACCESS_LOCAL_WRITE);
+		try {
+			source.putLong(0, 4242);
+			SVCPostSend postSend = prepareSend(clientEp, IbvSendWR.IBV_WR_RDMA_WRITE, region.getMr(region.getAddress(), 8), 8, targetMr.getAddr(), targetMr.getRkey(), 1);
+			region.prefetch(postSend);
+			postSend.execute().free();
+			clientEp.take();
+			assertEquals(4242, target.getLong(0));
+		} finally {
+			region.close();
+		}
+	}
+
+	public void testPrefetchOutOfBounds() throws Exception {
+		RdmaOnDemandRegion region = serverEp.registerOnDemand(BASE, 1 << 20);
+		try {
+			//queued requests are clipped to the region, requests outside of it are ignored
+			region.prefetch(BASE - 4096, 4096);
+			region.prefetch(BASE + (1 << 20), 4096);
+			region.prefetch(BASE - 4096, 1 << 21);
+			assertEquals(0, region.getDropped());
+			try {
+				region.prefetchNow(BASE + (1 << 20) - 8, 16);
+				fail("range out of bounds");
+			} catch (IOException e) {
+			}
+		} finally {
+			region.close();
+		}
+	}
+
+	public void testInvalidLength() throws Exception {
+		try {
+			serverEp.registerOnDemand(BASE, 0);
+			fail("empty region registered");
+		} catch (IOException e) {
+		}
+	}
+
+	public void testAccessAfterClose() throws Exception {
+		ByteBuffer target = ByteBuffer.allocateDirect(4096).order(ByteOrder.nativeOrder());
+		RdmaOnDemandRegion region = new RdmaOnDemandRegion(serverEp.getPd(), target, REMOTE_ACCESS);
+		long remote = region.getAddress();
+		int rkey = region.getRkey(remote, 8);
+		region.close();
+		assertNull(region.getMr(remote, 8));
+
+		ByteBuffer source = ByteBuffer.allocateDirect(8).order(ByteOrder.nativeOrder());
+		IbvMr sourceMr = register(clientEp, source);
+		source.putLong(0, 1);
+		postSend(clientEp, IbvSendWR.IBV_WR_RDMA_WRITE, sourceMr, 8, remote, rkey, 1);
+		assertEquals(IbvWC.IbvWcStatus.IBV_WC_REM_ACCESS_ERR.ordinal(), clientEp.takeAny().getStatus());
+		assertEquals(0, target.getLong(0));
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.nio.ByteBuffer;
+
+import com.ibm.disni.rdma.verbs.IbvCQ;
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.SVCPollCq;
+
+/**
+ * Both poll variants, into a caller provided IbvWC array and without one, on the CQ of a passive endpoint.
+ */
+public class RdmaPollCqTest extends RdmaConnectedTestBase {
+	private RdmaPassiveEndpointGroup<RdmaEndpoint> passiveGroup;
+	private RdmaEndpoint endpoint;
+	private TestEndpoint target;
+	private IbvMr remoteMr;
+	private IbvMr localMr;
+	private IbvCQ cq;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		passiveGroup = createPassiveGroup();
+		endpoint = passiveGroup.createEndpoint();
+		target = connect(endpoint);
+		remoteMr = register(target, ByteBuffer.allocateDirect(64));
+		localMr = register(endpoint, ByteBuffer.allocateDirect(64));
+		cq = endpoint.getCqProvider().getCQ();
+	}
+
+	protected void tearDown() throws Exception {
+		endpoint.close();
+		target.close();
+		passiveGroup.close();
+		super.tearDown();
+	}
+
+	public void testPollIntoArray() throws Exception {
+		IbvWC[] wcList = new IbvWC[4];
+		for (int i = 0; i < wcList.length; i++) {
+			wcList[i] = new IbvWC();
+		}
+		SVCPollCq poll = cq.poll(wcList, wcList.length);
+		write(3);
+		assertEquals(1, pollUntil(poll));
+		assertSame(wcList[0], poll.getWC(0));
+		assertEquals(3, wcList[0].getWr_id());
+		//completions polled into an array stay modifiable
+		wcList[0].setWr_id(4);
+		assertEquals(4, poll.getWC(0).getWr_id());
+		poll.free();
+	}
+
+	public void testPollWithoutArray() throws Exception {
+		SVCPollCq poll = cq.poll(4);
+		write(5);
+		write(6);
+		int polls = pollUntil(poll);
+		if (polls == 1) {
+			assertEquals(5, poll.getWC(0).getWr_id());
+			polls = pollUntil(poll);
+			assertEquals(1, polls);
+			assertEquals(6, poll.getWC(0).getWr_id());
+		} else {
+			assertEquals(2, polls);
+			assertEquals(5, poll.getWC(0).getWr_id());
+			assertEquals(6, poll.getWC(1).getWr_id());
+		}
+		assertEquals(IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal(), poll.getWC(0).getStatus());
+		poll.free();
+	}
+
+	private void write(long wrId) throws Exception {
+		postSend(endpoint, IbvSendWR.IBV_WR_RDMA_WRITE, localMr, 8, remoteMr.getAddr(), remoteMr.getRkey(), wrId);
+	}
+
+	private static int pollUntil(SVCPollCq poll) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		int polls = 0;
+		while (polls == 0 && System.currentTimeMillis() < deadline) {
+			polls = poll.execute().getPolls();
+		}
+		return polls;
+	}
+}
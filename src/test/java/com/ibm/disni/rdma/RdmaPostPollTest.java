@@ -0,0 +1,143 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.ibm.disni.rdma.verbs.IbvCQ;
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.SVCPostPoll;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+
+/**
+ * Posting and polling in one call, from a passive endpoint whose CQ is only polled by the test.
+ */
+public class RdmaPostPollTest extends RdmaConnectedTestBase {
+	private RdmaPassiveEndpointGroup<RdmaEndpoint> passiveGroup;
+	private RdmaEndpoint endpoint;
+	private TestEndpoint target;
+	private ByteBuffer remoteBuffer;
+	private IbvMr remoteMr;
+	private ByteBuffer localBuffer;
+	private IbvMr localMr;
+	private IbvCQ cq;
+	private IbvWC[] wcList;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		passiveGroup = createPassiveGroup();
+		endpoint = passiveGroup.createEndpoint();
+		target = connect(endpoint);
+		remoteBuffer = ByteBuffer.allocateDirect(64);
+		remoteMr = target.registerMemory(remoteBuffer).execute().free().getMr();
+		localBuffer = ByteBuffer.allocateDirect(64);
+		localMr = register(endpoint, localBuffer);
+		cq = endpoint.getCqProvider().getCQ();
+		wcList = new IbvWC[4];
+		for (int i = 0; i < wcList.length; i++) {
+			wcList[i] = new IbvWC();
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		endpoint.close();
+		target.close();
+		passiveGroup.close();
+		super.tearDown();
+	}
+
+	public void testWrite() throws Exception {
+		localBuffer.putLong(0, 4242);
+		SVCPostSend postSend = prepareSend(endpoint, IbvSendWR.IBV_WR_RDMA_WRITE, localMr, 8, remoteMr.getAddr(), remoteMr.getRkey(), 5);
+		SVCPostPoll postPoll = cq.postPoll(postSend, wcList, 1, 1000000);
+		postPoll.execute();
+		assertEquals(1, postPoll.getPolls());
+		assertEquals(IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal(), wcList[0].getStatus());
+		assertEquals(5, wcList[0].getWr_id());
+		assertEquals(4242, remoteBuffer.getLong(0));
+
+		//the SVC is reusable, with the post-send modified in between
+		localBuffer.putLong(0, 4343);
+		postSend.getWrMod(0).setWr_id(6);
+		postPoll.execute();
+		assertEquals(1, postPoll.getPolls());
+		assertEquals(6, wcList[0].getWr_id());
+		assertEquals(4343, remoteBuffer.getLong(0));
+		postPoll.free();
+		postSend.free();
+	}
+
+	public void testWaitsForAllCompletions() throws Exception {
+		SVCPostSend postSend = endpoint.postSend(3, 1);
+		for (int i = 0; i < 3; i++) {
+			localBuffer.putLong(8 * i, 100 + i);
+			SVCPostSend.SendWRMod wr = postSend.getWrMod(i);
+			wr.setWr_id(i);
+			wr.setOpcode(IbvSendWR.IBV_WR_RDMA_WRITE);
+			wr.setSend_flags(IbvSendWR.IBV_SEND_SIGNALED);
+			wr.getRdmaMod().setRemote_addr(remoteMr.getAddr() + 8 * i);
+			wr.getRdmaMod().setRkey(remoteMr.getRkey());
+			wr.getSgeMod(0).setAddr(localMr.getAddr() + 8 * i);
+			wr.getSgeMod(0).setLength(8);
+			wr.getSgeMod(0).setLkey(localMr.getLkey());
+		}
+		SVCPostPoll postPoll = cq.postPoll(postSend, wcList, 3, 1000000).execute();
+		assertEquals(3, postPoll.getPolls());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i, wcList[i].getWr_id());
+			assertEquals(100 + i, remoteBuffer.getLong(8 * i));
+		}
+		postPoll.free();
+		postSend.free();
+	}
+
+	public void testSpinBudget() throws Exception {
+		//an unsignaled write completes without a completion, polling gives up after the spin budget
+		SVCPostSend postSend = prepareSend(endpoint, IbvSendWR.IBV_WR_RDMA_WRITE, localMr, 8, remoteMr.getAddr(), remoteMr.getRkey(), 7);
+		postSend.getWrMod(0).setSend_flags(0);
+		SVCPostPoll postPoll = cq.postPoll(postSend, wcList, 1, 10);
+		postPoll.execute();
+		assertEquals(0, postPoll.getPolls());
+
+		postSend.getWrMod(0).setSend_flags(IbvSendWR.IBV_SEND_SIGNALED);
+		postPoll.setSpins(1000000).execute();
+		assertEquals(1, postPoll.getPolls());
+		assertEquals(7, wcList[0].getWr_id());
+		postPoll.free();
+		postSend.free();
+	}
+
+	public void testFreedPostSend() throws Exception {
+		SVCPostSend postSend = prepareSend(endpoint, IbvSendWR.IBV_WR_RDMA_WRITE, localMr, 8, remoteMr.getAddr(), remoteMr.getRkey(), 8);
+		SVCPostPoll postPoll = cq.postPoll(postSend, wcList, 1, 10);
+		postSend.free();
+		try {
+			postPoll.execute();
+			fail("post-poll executed a freed post-send");
+		} catch (IOException e) {
+		}
+		postPoll.free();
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvPd;
+import com.ibm.disni.rdma.verbs.RdmaCm;
+import com.ibm.disni.rdma.verbs.RdmaCmId;
+import com.ibm.disni.rdma.verbs.RdmaEventChannel;
+import com.ibm.disni.rdma.verbs.RdmaVerbs;
+import com.ibm.disni.util.MemoryUtils;
+
+/**
+ * Merging, eviction and invalidation of cached registrations, on a protection domain of the loopback provider.
+ */
+public class RdmaRegistrationCacheTest extends RdmaLoopbackTestBase {
+	private static final int PAGE = 4096;
+
+	private RdmaEventChannel channel;
+	private RdmaCmId id;
+	private IbvPd pd;
+	private ByteBuffer buffer;
+	private long base;
+
+	protected void setUp() throws Exception {
+		channel = RdmaEventChannel.createEventChannel();
+		id = channel.createId(RdmaCm.RDMA_PS_TCP);
+		id.bindAddr(nextAddress());
+		pd = id.getVerbs().allocPd();
+		buffer = ByteBuffer.allocateDirect(64 * PAGE);
+		long address = MemoryUtils.getAddress(buffer);
+		base = (address + PAGE - 1) & ~(long) (PAGE - 1);
+	}
+
+	protected void tearDown() throws Exception {
+		RdmaVerbs.open().deallocPd(pd);
+		id.destroyId();
+		channel.destroyEventChannel();
+	}
+
+	public void testCoveredRangeHits() throws Exception {
+		RdmaRegistrationCache cache = createCache(16 * PAGE);
+		RdmaRegistrationCache.Registration first = cache.register(base + 100, 1000);
+		assertEquals(base, first.getAddress());
+		assertEquals(PAGE, first.getLength());
+		RdmaRegistrationCache.Registration second = cache.register(base + 200, 500);
+		assertSame(first, second);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		first.release();
+		second.release();
+		assertEquals(PAGE, cache.getRegistered());
+		cache.close();
+		assertEquals(0, cache.getRegistered());
+	}
+
+	public void testOverlappingRangesMerge() throws Exception {
+		RdmaRegistrationCache cache = createCache(16 * PAGE);
+		RdmaRegistrationCache.Registration left = cache.register(base, 2 * PAGE);
+		RdmaRegistrationCache.Registration right = cache.register(base + 3 * PAGE, PAGE);
+		RdmaRegistrationCache.Registration merged = cache.register(base + PAGE, 3 * PAGE);
+		assertEquals(base, merged.getAddress());
+		assertEquals(4 * PAGE, merged.getLength());
+		assertEquals(3, cache.getMisses());
+
+		//the replaced registrations stay registered until released
+		assertEquals(7 * PAGE, cache.getRegistered());
+		left.release();
+		right.release();
+		assertEquals(4 * PAGE, cache.getRegistered());
+
+		RdmaRegistrationCache.Registration covered = cache.register(base + 3 * PAGE, 10);
+		assertSame(merged, covered);
+		covered.release();
+		merged.release();
+		cache.close();
+	}
+
+	public void testEvictionLeastRecentlyUsed() throws Exception {
+		RdmaRegistrationCache cache = createCache(3 * PAGE);
+		RdmaRegistrationCache.Registration[] registrations = new RdmaRegistrationCache.Registration[4];
+		for (int i = 0; i < 3; i++) {
+			registrations[i] = cache.register(base + 2 * i * PAGE, PAGE);
+		}
+		for (int i = 0; i < 3; i++) {
+			registrations[i].release();
+		}
+		assertEquals(3 * PAGE, cache.getRegistered());
+
+		//a hit makes the first registration the most recently used one, the second is evicted
+		cache.register(base, PAGE).release();
+		registrations[3] = cache.register(base + 6 * PAGE, PAGE);
+		assertEquals(3 * PAGE, cache.getRegistered());
+		long misses = cache.getMisses();
+		cache.register(base, PAGE).release();
+		cache.register(base + 4 * PAGE, PAGE).release();
+		assertEquals(misses, cache.getMisses());
+		cache.register(base + 2 * PAGE, PAGE).release();
+		assertEquals(misses + 1, cache.getMisses());
+		assertEquals(3 * PAGE, cache.getRegistered());
+		registrations[3].release();
+		cache.close();
+	}
+
+	public void testInUseKeptBeyondCapacity() throws Exception {
+		RdmaRegistrationCache cache = createCache(0);
+		RdmaRegistrationCache.Registration first = cache.register(base, PAGE);
+		RdmaRegistrationCache.Registration second = cache.register(base + 2 * PAGE, PAGE);
+		assertEquals(2 * PAGE, cache.getRegistered());
+		first.release();
+		assertEquals(PAGE, cache.getRegistered());
+		second.release();
+		assertEquals(0, cache.getRegistered());
+		cache.close();
+	}
+
+	public void testInvalidate() throws Exception {
+		RdmaRegistrationCache cache = createCache(16 * PAGE);
+		RdmaRegistrationCache.Registration used = cache.register(base, PAGE);
+		cache.register(base + 2 * PAGE, PAGE).release();
+		cache.invalidate(base, 4 * PAGE);
+		assertEquals(PAGE, cache.getRegistered());
+		used.release();
+		assertEquals(0, cache.getRegistered());
+
+		long misses = cache.getMisses();
+		cache.register(base, PAGE).release();
+		assertEquals(misses + 1, cache.getMisses());
+		cache.close();
+	}
+
+	public void testDoubleRelease() throws Exception {
+		RdmaRegistrationCache cache = createCache(16 * PAGE);
+		RdmaRegistrationCache.Registration registration = cache.register(base, PAGE);
+		registration.release();
+		try {
+			registration.release();
+			fail("second release accepted");
+		} catch (IOException e) {
+		}
+		cache.close();
+	}
+
+	private RdmaRegistrationCache createCache(long capacity) {
+		return new RdmaRegistrationCache(pd, IbvMr.IBV_ACCESS_LOCAL_WRITE, capacity);
+	}
+}
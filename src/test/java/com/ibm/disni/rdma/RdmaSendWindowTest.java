@@ -0,0 +1,185 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+
+public class RdmaSendWindowTest extends TestCase {
+
+	/*
+	 * Records which posts had their last work request signaled, only the send flags of the work requests are modeled.
+	 */
+	static class TestPostSend extends SVCPostSend {
+		private int[] flags;
+		private ArrayList<Boolean> posts;
+
+		TestPostSend(int numWr) {
+			this.flags = new int[numWr];
+			this.posts = new ArrayList<Boolean>();
+		}
+
+		public SendWRMod getWrMod(final int index) {
+			return (SendWRMod) Proxy.newProxyInstance(SendWRMod.class.getClassLoader(), new Class<?>[] { SendWRMod.class }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if (method.getName().equals("setSend_flags")) {
+						flags[index] = (Integer) args[0];
+						return null;
+					} else if (method.getName().equals("getSend_flags")) {
+						return flags[index];
+					}
+					throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+
+		public SVCPostSend setNumWr(int numWr) {
+			return this;
+		}
+
+		public int getNumWr() {
+			return flags.length;
+		}
+
+		public SVCPostSend execute() {
+			for (int i = 0; i < flags.length - 1; i++) {
+				assertEquals(0, flags[i] & IbvSendWR.IBV_SEND_SIGNALED);
+			}
+			posts.add((flags[flags.length - 1] & IbvSendWR.IBV_SEND_SIGNALED) != 0);
+			return this;
+		}
+
+		public boolean isValid() {
+			return true;
+		}
+
+		public SVCPostSend free() {
+			return this;
+		}
+	}
+
+	public void testInvalidInterval() {
+		try {
+			new RdmaSendWindow(4, 0);
+			fail();
+		} catch (IOException e) {
+		}
+		try {
+			new RdmaSendWindow(4, 5);
+			fail();
+		} catch (IOException e) {
+		}
+	}
+
+	public void testSignalInterval() throws Exception {
+		RdmaSendWindow window = new RdmaSendWindow(8, 4);
+		TestPostSend postSend = new TestPostSend(1);
+		for (int i = 0; i < 8; i++) {
+			assertTrue(window.tryPost(postSend, false));
+		}
+		assertEquals(0, window.available());
+		assertFalse(window.tryPost(postSend, false));
+		for (int i = 0; i < 8; i++) {
+			assertEquals(i % 4 == 3, postSend.posts.get(i).booleanValue());
+		}
+		assertFalse(window.complete(completion(IbvWC.IbvWcOpcode.IBV_WC_SEND, IbvWC.IbvWcStatus.IBV_WC_SUCCESS)));
+		assertEquals(4, window.available());
+		assertFalse(window.complete(completion(IbvWC.IbvWcOpcode.IBV_WC_SEND, IbvWC.IbvWcStatus.IBV_WC_SUCCESS)));
+		assertEquals(8, window.available());
+	}
+
+	public void testRequestedCompletion() throws Exception {
+		RdmaSendWindow window = new RdmaSendWindow(8, 4);
+		TestPostSend postSend = new TestPostSend(2);
+		window.post(postSend, true);
+		assertTrue(postSend.posts.get(0));
+		assertEquals(6, window.available());
+		assertTrue(window.complete(completion(IbvWC.IbvWcOpcode.IBV_WC_SEND, IbvWC.IbvWcStatus.IBV_WC_SUCCESS)));
+		assertEquals(8, window.available());
+	}
+
+	public void testReceiveIgnored() throws Exception {
+		RdmaSendWindow window = new RdmaSendWindow(8, 1);
+		window.post(new TestPostSend(1));
+		assertTrue(window.complete(completion(IbvWC.IbvWcOpcode.IBV_WC_RECV, IbvWC.IbvWcStatus.IBV_WC_SUCCESS)));
+		assertEquals(7, window.available());
+	}
+
+	public void testTooManyWorkRequests() throws Exception {
+		RdmaSendWindow window = new RdmaSendWindow(8, 4);
+		try {
+			window.post(new TestPostSend(6));
+			fail();
+		} catch (IOException e) {
+		}
+		window.post(new TestPostSend(5));
+	}
+
+	public void testFailure() throws Exception {
+		RdmaSendWindow window = new RdmaSendWindow(4, 2);
+		window.post(new TestPostSend(2));
+		assertTrue(window.complete(completion(IbvWC.IbvWcOpcode.IBV_WC_SEND, IbvWC.IbvWcStatus.IBV_WC_RETRY_EXC_ERR)));
+		assertTrue(window.isFailed());
+		assertEquals(4, window.available());
+		try {
+			window.post(new TestPostSend(1));
+			fail();
+		} catch (IOException e) {
+		}
+	}
+
+	public void testBlockingPost() throws Exception {
+		final RdmaSendWindow window = new RdmaSendWindow(4, 2);
+		window.post(new TestPostSend(3));
+		final TestPostSend blocked = new TestPostSend(2);
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					window.post(blocked);
+				} catch (IOException e) {
+				}
+			}
+		};
+		thread.start();
+		thread.join(100);
+		assertTrue(blocked.posts.isEmpty());
+		window.complete(completion(IbvWC.IbvWcOpcode.IBV_WC_SEND, IbvWC.IbvWcStatus.IBV_WC_SUCCESS));
+		thread.join(5000);
+		assertEquals(1, blocked.posts.size());
+	}
+
+	private static IbvWC completion(IbvWC.IbvWcOpcode opcode, IbvWC.IbvWcStatus status) {
+		IbvWC wc = new IbvWC();
+		wc.setOpcode(opcode.getOpcode());
+		wc.setStatus(status.ordinal());
+		return wc;
+	}
+}
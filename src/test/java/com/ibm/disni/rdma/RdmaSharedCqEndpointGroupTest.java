@@ -0,0 +1,194 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.RdmaCmId;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+
+/**
+ * Endpoints of a shared CQ group connected to the loopback server, writing into a region of the server endpoint.
+ */
+public class RdmaSharedCqEndpointGroupTest extends RdmaConnectedTestBase {
+	private RdmaSharedCqEndpointGroup<RdmaEndpoint> group;
+	private List<RdmaEndpoint> endpoints;
+	private List<TestEndpoint> accepted;
+	private ByteBuffer target;
+	private IbvMr targetMr;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		endpoints = new ArrayList<RdmaEndpoint>();
+		accepted = new ArrayList<TestEndpoint>();
+		target = ByteBuffer.allocateDirect(4096).order(ByteOrder.nativeOrder());
+		targetMr = register(serverEp, target);
+	}
+
+	protected void tearDown() throws Exception {
+		for (RdmaEndpoint endpoint : endpoints) {
+			endpoint.close();
+		}
+		for (TestEndpoint endpoint : accepted) {
+			endpoint.close();
+		}
+		if (group != null) {
+			group.close();
+		}
+		super.tearDown();
+	}
+
+	private void connectEndpoints(int numCqs, int count) throws Exception {
+		final RdmaSharedCqEndpointGroup<RdmaEndpoint> group = new RdmaSharedCqEndpointGroup<RdmaEndpoint>(100, 64, 1, 1024, numCqs);
+		group.init(new RdmaEndpointFactory<RdmaEndpoint>() {
+			public RdmaEndpoint createEndpoint(RdmaCmId idPriv, boolean serverSide) throws IOException {
+				return new RdmaEndpoint(group, idPriv, serverSide);
+			}
+		});
+		this.group = group;
+		for (int i = 0; i < count; i++) {
+			RdmaEndpoint endpoint = group.createEndpoint();
+			endpoints.add(endpoint);
+			accepted.add(connect(endpoint));
+		}
+	}
+
+	/*
+	 * Writes the index of the endpoint into its slot of the target region.
+	 */
+	private SVCPostSend prepareWrite(int index) throws IOException {
+		RdmaEndpoint endpoint = endpoints.get(index);
+		ByteBuffer source = ByteBuffer.allocateDirect(8).order(ByteOrder.nativeOrder());
+		source.putLong(0, index);
+		IbvMr mr = register(endpoint, source);
+		return prepareSend(endpoint, IbvSendWR.IBV_WR_RDMA_WRITE, mr, 8, targetMr.getAddr() + 8 * index, targetMr.getRkey(), index);
+	}
+
+	/*
+	 * Polls the given number of completions of an endpoint, which all have to be successful and carry wrId.
+	 */
+	private void pollCompletions(RdmaEndpoint endpoint, int count, long wrId) throws IOException {
+		IbvWC[] wcList = new IbvWC[4];
+		long deadline = System.currentTimeMillis() + 5000;
+		while (count > 0) {
+			assertTrue("completion timed out", System.currentTimeMillis() < deadline);
+			int polls = group.poll(endpoint, wcList);
+			for (int i = 0; i < polls; i++) {
+				assertEquals(IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal(), wcList[i].getStatus());
+				assertEquals(wrId, wcList[i].getWr_id());
+			}
+			count -= polls;
+		}
+	}
+
+	public void testEndpointsSpreadOverCqs() throws Exception {
+		connectEndpoints(2, 4);
+		HashMap<RdmaCqProvider, Integer> spread = new HashMap<RdmaCqProvider, Integer>();
+		for (RdmaEndpoint endpoint : endpoints) {
+			Integer count = spread.get(endpoint.getCqProvider());
+			spread.put(endpoint.getCqProvider(), count == null ? 1 : count + 1);
+		}
+		assertEquals(2, spread.size());
+		for (RdmaCqProvider cq : spread.keySet()) {
+			assertEquals(2, spread.get(cq).intValue());
+			assertEquals(2, ((RdmaSharedCq) cq).getNumEndpoints());
+		}
+
+		RdmaSharedCq cq = (RdmaSharedCq) endpoints.get(0).getCqProvider();
+		endpoints.get(0).close();
+		assertEquals(1, cq.getNumEndpoints());
+	}
+
+	public void testCompletionsRoutedToOwner() throws Exception {
+		connectEndpoints(1, 2);
+		RdmaEndpoint first = endpoints.get(0);
+		RdmaEndpoint second = endpoints.get(1);
+		assertSame(first.getCqProvider(), second.getCqProvider());
+
+		SVCPostSend firstWrite = prepareWrite(0);
+		SVCPostSend secondWrite = prepareWrite(1);
+		for (int i = 0; i < 3; i++) {
+			secondWrite.execute();
+			firstWrite.execute();
+		}
+		//polling for the first endpoint routes the completions of the second one to its inbox
+		pollCompletions(first, 3, 0);
+		pollCompletions(second, 3, 1);
+		assertEquals(0, target.getLong(0));
+		assertEquals(1, target.getLong(8));
+		assertEquals(0, ((RdmaSharedCq) first.getCqProvider()).getDropped());
+		firstWrite.free();
+		secondWrite.free();
+	}
+
+	public void testConcurrentPollers() throws Exception {
+		final int count = 6;
+		connectEndpoints(2, count);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < count; t++) {
+			final int index = t;
+			final SVCPostSend write = prepareWrite(index);
+			Thread thread = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < 500; i++) {
+							write.execute();
+							pollCompletions(endpoints.get(index), 1, index);
+						}
+					} catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join(30000);
+		}
+		assertNull(failure.get());
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, target.getLong(8 * i));
+		}
+	}
+
+	public void testPollClosedEndpoint() throws Exception {
+		connectEndpoints(1, 1);
+		RdmaEndpoint endpoint = endpoints.get(0);
+		endpoint.close();
+		try {
+			group.poll(endpoint, new IbvWC[1]);
+			fail("closed endpoint polled");
+		} catch (IOException e) {
+		}
+	}
+}
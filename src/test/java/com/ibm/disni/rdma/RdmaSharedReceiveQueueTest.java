@@ -0,0 +1,173 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.disni.rdma.verbs.IbvMr;
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.RdmaCmId;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+
+/**
+ * Receives through the shared receive queue of a group on the loopback provider.
+ */
+public class RdmaSharedReceiveQueueTest extends RdmaConnectedTestBase {
+	private static final int SRQ_SIZE = 16;
+	private static final int BUFFER_SIZE = 64;
+
+	/**
+	 * Records the first long of every received message, the receive buffer is released once dispatchCqEvent() returns.
+	 */
+	static class SrqEndpoint extends TestEndpoint {
+		LinkedBlockingQueue<Long> payloads = new LinkedBlockingQueue<Long>();
+
+		SrqEndpoint(RdmaActiveEndpointGroup<TestEndpoint> group, RdmaCmId idPriv, boolean serverSide) throws IOException {
+			super(group, idPriv, serverSide);
+		}
+
+		public void dispatchCqEvent(IbvWC wc) throws IOException {
+			if (wc.getStatus() == IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal() && wc.getOpcode() == IbvWC.IbvWcOpcode.IBV_WC_RECV.getOpcode()) {
+				ByteBuffer buffer = getReceiveBuffer(wc);
+				assertEquals(8, buffer.remaining());
+				payloads.add(buffer.getLong(0));
+			}
+			super.dispatchCqEvent(wc);
+		}
+
+		long takePayload() throws InterruptedException {
+			Long payload = payloads.poll(5, TimeUnit.SECONDS);
+			assertNotNull("receive timed out", payload);
+			return payload;
+		}
+	}
+
+	protected RdmaActiveEndpointGroup<TestEndpoint> createGroup() throws IOException {
+		final RdmaActiveEndpointGroup<TestEndpoint> group = new RdmaActiveEndpointGroup<TestEndpoint>(100, false, 64, 1, 128, SRQ_SIZE, BUFFER_SIZE);
+		group.init(new RdmaEndpointFactory<TestEndpoint>() {
+			public TestEndpoint createEndpoint(RdmaCmId idPriv, boolean serverSide) throws IOException {
+				return new SrqEndpoint(group, idPriv, serverSide);
+			}
+		});
+		return group;
+	}
+
+	public void testReceivesMoreMessagesThanBuffers() throws Exception {
+		SrqEndpoint receiver = (SrqEndpoint) serverEp;
+		ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+		IbvMr mr = register(clientEp, buffer);
+		SVCPostSend send = prepareSend(clientEp, IbvSendWR.IBV_WR_SEND, mr, 8, 0, 0, 1);
+		for (long i = 0; i < 4 * SRQ_SIZE; i++) {
+			buffer.putLong(0, i);
+			send.execute();
+			clientEp.take();
+			assertEquals(i, receiver.takePayload());
+			IbvWC wc = receiver.take();
+			assertEquals(8, wc.getByte_len());
+		}
+		send.free();
+	}
+
+	public void testEndpointsShareOneQueue() throws Exception {
+		TestEndpoint secondClient = clientGroup.createEndpoint();
+		SrqEndpoint secondServer = (SrqEndpoint) connect(secondClient);
+		try {
+			RdmaSharedReceiveQueue srq = serverGroup.getSharedReceiveQueue(serverEp.getIdPriv().getVerbs());
+			assertNotNull(srq);
+			assertSame(srq, serverGroup.getSharedReceiveQueue(secondServer.getIdPriv().getVerbs()));
+
+			ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+			IbvMr mr = register(clientEp, buffer);
+			IbvMr secondMr = register(secondClient, buffer);
+			for (long i = 0; i < SRQ_SIZE; i++) {
+				buffer.putLong(0, i);
+				postSend(clientEp, IbvSendWR.IBV_WR_SEND, mr, 8, 0, 0, i);
+				clientEp.take();
+				buffer.putLong(0, -i - 1);
+				postSend(secondClient, IbvSendWR.IBV_WR_SEND, secondMr, 8, 0, 0, i);
+				secondClient.take();
+			}
+			for (long i = 0; i < SRQ_SIZE; i++) {
+				assertEquals(i, ((SrqEndpoint) serverEp).takePayload());
+				assertEquals(-i - 1, secondServer.takePayload());
+			}
+		} finally {
+			secondClient.close();
+			secondServer.close();
+		}
+	}
+
+	public void testOwnsOnlyReceives() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+		IbvMr mr = register(clientEp, buffer);
+		postSend(clientEp, IbvSendWR.IBV_WR_SEND, mr, 8, 0, 0, 7);
+		IbvWC sent = clientEp.take();
+		IbvWC received = serverEp.take();
+
+		RdmaSharedReceiveQueue srq = serverGroup.getSharedReceiveQueue(serverEp.getIdPriv().getVerbs());
+		assertTrue(srq.owns(received));
+		assertFalse(srq.owns(sent));
+	}
+
+	public void testReleaseTwiceFails() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+		IbvMr mr = register(clientEp, buffer);
+		postSend(clientEp, IbvSendWR.IBV_WR_SEND, mr, 8, 0, 0, 1);
+		clientEp.take();
+		IbvWC received = serverEp.take();
+
+		//the buffer has been released once dispatchCqEvent() returned
+		RdmaSharedReceiveQueue srq = serverGroup.getSharedReceiveQueue(serverEp.getIdPriv().getVerbs());
+		try {
+			srq.release(received);
+			fail("buffer released twice");
+		} catch (IOException e) {
+		}
+	}
+
+	public void testReceiveBufferWithoutQueue() throws Exception {
+		RdmaActiveEndpointGroup<TestEndpoint> plainGroup = super.createGroup();
+		TestEndpoint client = plainGroup.createEndpoint();
+		TestEndpoint accepted = connect(client);
+		try {
+			client.getReceiveBuffer(new IbvWC());
+			fail("group has no shared receive queue");
+		} catch (IOException e) {
+		} finally {
+			client.close();
+			accepted.close();
+			plainGroup.close();
+		}
+	}
+
+	public void testInvalidSize() throws Exception {
+		try {
+			new RdmaSharedReceiveQueue(serverEp.getIdPriv().getVerbs(), serverEp.getPd(), 0, BUFFER_SIZE, 1);
+			fail("size 0 accepted");
+		} catch (IOException e) {
+		}
+	}
+}
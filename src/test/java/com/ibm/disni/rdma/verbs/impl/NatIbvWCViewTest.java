@@ -0,0 +1,114 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+import com.ibm.disni.rdma.verbs.IbvWC;
+
+/**
+ * Decoding of struct ibv_wc by the read-only work completion views, on a buffer laid out like the one of a poll call.
+ */
+public class NatIbvWCViewTest extends TestCase {
+	private ByteBuffer buffer;
+	private NatIbvWCView view;
+
+	protected void setUp() {
+		buffer = ByteBuffer.allocateDirect(2 * IbvWC.CSIZE).order(ByteOrder.nativeOrder());
+		view = new NatIbvWCView(buffer, IbvWC.CSIZE);
+		write(IbvWC.CSIZE, 77);
+	}
+
+	public void testFields() {
+		assertEquals(77, view.getWr_id());
+		assertEquals(IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal(), view.getStatus());
+		assertEquals(IbvWC.IbvWcOpcode.IBV_WC_RECV.getOpcode(), view.getOpcode());
+		assertEquals(3, view.getVendor_err());
+		assertEquals(4096, view.getByte_len());
+		assertEquals(5, view.getImm_data());
+		assertEquals(6, view.getQp_num());
+		assertEquals(7, view.getSrc_qp());
+		assertEquals(IbvWC.IBV_WC_WITH_IMM, view.getWc_flags());
+		assertEquals(9, view.getPkey_index());
+		assertEquals(10, view.getSlid());
+		assertEquals(11, view.getSl());
+		assertEquals(12, view.getDlid_path_bits());
+	}
+
+	public void testReflectsBuffer() {
+		write(IbvWC.CSIZE, 78);
+		assertEquals(78, view.getWr_id());
+		//the first entry belongs to another view
+		write(0, 79);
+		assertEquals(78, view.getWr_id());
+	}
+
+	public void testReadOnly() {
+		try {
+			view.setWr_id(1);
+			fail("view modified");
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			view.setStatus(1);
+			fail("view modified");
+		} catch (UnsupportedOperationException e) {
+		}
+		assertEquals(77, view.getWr_id());
+	}
+
+	public void testClone() {
+		IbvWC copy = view.clone();
+		assertFalse(copy instanceof NatIbvWCView);
+		assertEquals(77, copy.getWr_id());
+		assertEquals(4096, copy.getByte_len());
+		assertEquals(12, copy.getDlid_path_bits());
+		copy.setWr_id(1);
+		write(IbvWC.CSIZE, 80);
+		assertEquals(1, copy.getWr_id());
+		assertEquals(80, view.getWr_id());
+
+		IbvWC target = new IbvWC();
+		view.copyTo(target);
+		assertEquals(80, target.getWr_id());
+		assertEquals(7, target.getSrc_qp());
+	}
+
+	private void write(int offset, long wrId) {
+		buffer.putLong(offset + NatPollCqCall.WRID_OFFSET, wrId);
+		buffer.putInt(offset + NatPollCqCall.STATUS_OFFSET, IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal());
+		buffer.putInt(offset + NatPollCqCall.OPCODE_OFFSET, IbvWC.IbvWcOpcode.IBV_WC_RECV.getOpcode());
+		buffer.putInt(offset + NatPollCqCall.VENDORERR_OFFSET, 3);
+		buffer.putInt(offset + NatPollCqCall.BYTELEN_OFFSET, 4096);
+		buffer.putInt(offset + NatPollCqCall.IMMDATA_OFFSET, 5);
+		buffer.putInt(offset + NatPollCqCall.QPNUM_OFFSET, 6);
+		buffer.putInt(offset + NatPollCqCall.SRCQP_OFFSET, 7);
+		buffer.putInt(offset + NatPollCqCall.WCFLAGS_OFFSET, IbvWC.IBV_WC_WITH_IMM);
+		buffer.putShort(offset + NatPollCqCall.PKEYINDEX_OFFSET, (short) 9);
+		buffer.putShort(offset + NatPollCqCall.SLID_OFFSET, (short) 10);
+		buffer.put(offset + NatPollCqCall.SL_OFFSET, (byte) 11);
+		buffer.put(offset + NatPollCqCall.DLIDPATHBITS_OFFSET, (byte) 12);
+	}
+}
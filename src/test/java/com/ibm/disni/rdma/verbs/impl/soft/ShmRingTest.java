@@ -0,0 +1,119 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.rdma.verbs.impl.soft;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+public class ShmRingTest extends TestCase {
+	private static final int TYPE = 1;
+
+	private SoftMemory memory;
+	private ShmRing producer;
+	private ShmRing consumer;
+
+	protected void setUp() {
+		memory = SoftMemory.wrap(ByteBuffer.allocateDirect(ShmRing.size(256)));
+		long address = memory.getAddress();
+		producer = new ShmRing(memory, address, 256);
+		consumer = new ShmRing(memory, address, 256);
+	}
+
+	public void testEmpty() {
+		assertEquals(0, consumer.peek());
+	}
+
+	public void testRoundTrip() {
+		assertTrue(write(12, 7));
+		long record = consumer.peek();
+		assertTrue(record != 0);
+		assertEquals(ShmRing.align(12), memory.getInt(record));
+		assertEquals(TYPE, memory.getInt(record + 4));
+		assertEquals(7, memory.getInt(record + 8));
+		consumer.release(record);
+		assertEquals(0, consumer.peek());
+	}
+
+	public void testFull() {
+		int records = 0;
+		while (write(32, records)) {
+			records++;
+		}
+		assertEquals(256 / 32, records);
+		long record = consumer.peek();
+		assertEquals(0, memory.getInt(record + 8));
+		consumer.release(record);
+		assertTrue(write(32, records));
+	}
+
+	public void testWrapAround() {
+		//48 byte records do not divide the ring, every few records the end of the ring is skipped with padding
+		for (int i = 0; i < 100; i++) {
+			assertTrue(write(48, i));
+			assertTrue(write(48, -i));
+			assertEquals(i, read());
+			assertEquals(-i, read());
+			assertEquals(0, consumer.peek());
+		}
+	}
+
+	public void testConcurrent() throws Exception {
+		final int count = 100000;
+		Thread thread = new Thread() {
+			public void run() {
+				for (int i = 0; i < count; i++) {
+					while (!write(16 + 8 * (i % 5), i)) {
+						Thread.yield();
+					}
+				}
+			}
+		};
+		thread.start();
+		for (int i = 0; i < count; i++) {
+			while (consumer.peek() == 0) {
+				Thread.yield();
+			}
+			assertEquals(i, read());
+		}
+		thread.join();
+	}
+
+	private boolean write(int length, int value) {
+		long record = producer.reserve(ShmRing.align(length));
+		if (record == 0) {
+			return false;
+		}
+		memory.putInt(record + 4, TYPE);
+		memory.putInt(record + 8, value);
+		producer.commit(record);
+		return true;
+	}
+
+	private int read() {
+		long record = consumer.peek();
+		assertTrue(record != 0);
+		int value = memory.getInt(record + 8);
+		consumer.release(record);
+		return value;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * DiSNI: Direct Storage and Networking Interface
+ *
+ * Author: Patrick Stuedi <stu@zurich.ibm.com>
+ *
+ * Copyright (C) 2016, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.disni.util;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Reuse of cached command buffers through the per thread magazines and the shared depots.
+ */
+public class MemoryAllocationTest extends TestCase {
+	private static final String CLASSNAME = MemoryAllocationTest.class.getName();
+
+	private MemoryAllocation memAlloc = MemoryAllocation.getInstance();
+
+	public void testReuseResizesInPlace() throws Exception {
+		MemBuf first = memAlloc.allocate(100, MemoryAllocation.MemType.DIRECT, CLASSNAME);
+		assertEquals(100, first.getBuffer().limit());
+		long address = first.address();
+		first.free();
+
+		long created = memAlloc.getCreated();
+		MemBuf second = memAlloc.allocate(80, MemoryAllocation.MemType.DIRECT, CLASSNAME);
+		assertSame(first, second);
+		assertEquals(address, second.address());
+		assertEquals(0, second.getBuffer().position());
+		assertEquals(80, second.getBuffer().limit());
+		assertEquals(created, memAlloc.getCreated());
+		second.free();
+	}
+
+	public void testFreedBuffersMoveBetweenThreads() throws Exception {
+		final int size = 1 << 20;
+		final int count = 6;
+		final ArrayList<MemBuf> freed = new ArrayList<MemBuf>();
+		Thread producer = new Thread() {
+			public void run() {
+				for (int i = 0; i < count; i++) {
+					freed.add(memAlloc.allocate(size, MemoryAllocation.MemType.DIRECT, CLASSNAME));
+				}
+				for (MemBuf buf : freed) {
+					buf.free();
+				}
+			}
+		};
+		producer.start();
+		producer.join();
+
+		//the two magazines of the producer keep one buffer each, full magazines beyond that go to the depot
+		long created = memAlloc.getCreated();
+		ArrayList<MemBuf> reused = new ArrayList<MemBuf>();
+		for (int i = 0; i < count - 2; i++) {
+			MemBuf buf = memAlloc.allocate(size, MemoryAllocation.MemType.DIRECT, CLASSNAME);
+			assertTrue(freed.contains(buf));
+			reused.add(buf);
+		}
+		assertEquals(created, memAlloc.getCreated());
+		for (MemBuf buf : reused) {
+			buf.free();
+		}
+	}
+
+	public void testDoubleFreeIsIgnored() throws Exception {
+		MemBuf buf = memAlloc.allocate(40, MemoryAllocation.MemType.DIRECT, CLASSNAME);
+		buf.free();
+		buf.free();
+		MemBuf first = memAlloc.allocate(40, MemoryAllocation.MemType.DIRECT, CLASSNAME);
+		MemBuf second = memAlloc.allocate(40, MemoryAllocation.MemType.DIRECT, CLASSNAME);
+		assertNotSame(first, second);
+		first.free();
+		second.free();
+	}
+
+	public void testUncachedAllocations() throws Exception {
+		long created = memAlloc.getCreated();
+		MemBuf large = memAlloc.allocate((1 << 20) + 1, MemoryAllocation.MemType.DIRECT, CLASSNAME);
+		large.free();
+		MemBuf heap = memAlloc.allocate(64, MemoryAllocation.MemType.INDIRECT, CLASSNAME);
+		heap.free();
+		assertEquals(created + 2, memAlloc.getCreated());
+		large = memAlloc.allocate((1 << 20) + 1, MemoryAllocation.MemType.DIRECT, CLASSNAME);
+		assertEquals((1 << 20) + 1, large.getBuffer().capacity());
+		assertEquals(created + 3, memAlloc.getCreated());
+		large.free();
+	}
+
+	public void testOutstanding() throws Exception {
+		long outstanding = memAlloc.getOutstanding();
+		MemBuf buf = memAlloc.allocate(16, MemoryAllocation.MemType.DIRECT, CLASSNAME);
+		assertEquals(outstanding + 1, memAlloc.getOutstanding());
+		buf.free();
+		assertEquals(outstanding, memAlloc.getOutstanding());
+	}
+}